@@ -33,10 +33,34 @@ dependencies {
 
     // Test
     testImplementation("org.junit.jupiter:junit-jupiter:5.10.0")
+
+    // Generate the codecs of the test schemas
+    testAnnotationProcessor(sourceSets["main"].output)
+}
+
+// The codec processor is not registered as a service, so it is named explicitly
+tasks.named<JavaCompile>("compileTestJava") {
+    options.compilerArgs.addAll(listOf("-processor", "com.sammwy.milkshake.codec.processor.SchemaCodecProcessor"))
 }
 
 tasks.test {
-    useJUnitPlatform()
+    useJUnitPlatform {
+        excludeTags("benchmark")
+    }
+}
+
+tasks.register<Test>("benchmark") {
+    description = "Runs the benchmarks tagged with @Tag(\"benchmark\")."
+    group = "verification"
+    testClassesDirs = sourceSets["test"].output.classesDirs
+    classpath = sourceSets["test"].runtimeClasspath
+    useJUnitPlatform {
+        includeTags("benchmark")
+    }
+    maxHeapSize = "2g"
+    testLogging {
+        showStandardStreams = true
+    }
 }
 
 publishing {
@@ -0,0 +1,235 @@
+package com.sammwy.milkshake;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.sammwy.milkshake.query.BulkWriteResult;
+import com.sammwy.milkshake.query.Filter;
+import com.sammwy.milkshake.query.WriteOperation;
+import com.sammwy.milkshake.schema.Schema;
+
+/**
+ * Collects mixed inserts, upserts, updates and deletes on one repository and
+ * applies them together in a single bulk write: one transaction with grouped
+ * statements on SQL databases, one {@code bulkWrite} call on MongoDB.
+ *
+ * <p>
+ * Example usage:
+ *
+ * <pre>
+ * {@code
+ * BulkWriteResult result = repository.bulkWrite()
+ *         .ordered(false)
+ *         .insert(created)
+ *         .updateByID(id, new Filter.Update().inc("coins", 10))
+ *         .deleteByID(removedId)
+ *         .execute();
+ * }
+ * </pre>
+ *
+ * <p>
+ * The state of inserted and upserted entities is captured when they are
+ * added. A bulk write can only be executed once.
+ *
+ * @param <T> The Schema type
+ * @see Provider#bulkWrite(List, boolean)
+ */
+public class BulkWrite<T extends Schema> {
+    private final Repository<T> repository;
+    private final List<WriteOperation> operations = new ArrayList<>();
+    private final Map<Integer, T> entities = new HashMap<>();
+    private final Set<String> ids = new LinkedHashSet<>();
+    private final Set<String> deletedIds = new LinkedHashSet<>();
+    private boolean filtered;
+    private boolean filteredDelete;
+    private boolean ordered = true;
+    private boolean executed;
+
+    BulkWrite(Repository<T> repository) {
+        this.repository = repository;
+    }
+
+    /**
+     * Sets whether the operations are applied in order, stopping at the first
+     * failure (default), or all attempted in any order.
+     *
+     * @param ordered true for an ordered bulk write
+     * @return This bulk write, for chaining
+     */
+    public BulkWrite<T> ordered(boolean ordered) {
+        this.ordered = ordered;
+        return this;
+    }
+
+    /**
+     * Adds the insertion of an entity.
+     *
+     * @param entity The entity to insert
+     * @return This bulk write, for chaining
+     */
+    public BulkWrite<T> insert(T entity) {
+        return addEntity(entity, WriteOperation.insert(repository.getCollectionName(), toMap(entity)));
+    }
+
+    /**
+     * Adds the insertion or replacement of an entity.
+     *
+     * @param entity The entity to insert or update
+     * @return This bulk write, for chaining
+     */
+    public BulkWrite<T> upsert(T entity) {
+        return addEntity(entity, WriteOperation.upsert(repository.getCollectionName(), toMap(entity),
+                repository.getPrimaryKey()));
+    }
+
+    /**
+     * Adds an update of every entity matching a filter.
+     *
+     * @param filter The filter conditions
+     * @param update The update operations
+     * @return This bulk write, for chaining
+     */
+    public BulkWrite<T> update(Filter.Find filter, Filter.Update update) {
+        filtered = true;
+        return add(WriteOperation.update(repository.getCollectionName(), filter, update));
+    }
+
+    /**
+     * Adds an update of the first entity matching a filter.
+     *
+     * @param filter The filter conditions
+     * @param update The update operations
+     * @return This bulk write, for chaining
+     */
+    public BulkWrite<T> updateOne(Filter.Find filter, Filter.Update update) {
+        filtered = true;
+        return add(WriteOperation.updateOne(repository.getCollectionName(), filter, update));
+    }
+
+    /**
+     * Adds an update of an entity by its identifier.
+     *
+     * @param id     The identifier of the entity
+     * @param update The update operations
+     * @return This bulk write, for chaining
+     */
+    public BulkWrite<T> updateByID(String id, Filter.Update update) {
+        ids.add(id);
+        return add(WriteOperation.update(repository.getCollectionName(),
+                new Filter.Find().eq(repository.getPrimaryKey(), id), update));
+    }
+
+    /**
+     * Adds a deletion of every entity matching a filter.
+     *
+     * @param filter The filter conditions
+     * @return This bulk write, for chaining
+     */
+    public BulkWrite<T> delete(Filter.Find filter) {
+        filtered = true;
+        filteredDelete = true;
+        return add(WriteOperation.delete(repository.getCollectionName(), filter));
+    }
+
+    /**
+     * Adds a deletion of the first entity matching a filter.
+     *
+     * @param filter The filter conditions
+     * @return This bulk write, for chaining
+     */
+    public BulkWrite<T> deleteOne(Filter.Find filter) {
+        filtered = true;
+        filteredDelete = true;
+        return add(WriteOperation.deleteOne(repository.getCollectionName(), filter));
+    }
+
+    /**
+     * Adds a deletion of an entity by its identifier. A pending write-behind
+     * write of the entity is dropped when the bulk write is executed.
+     *
+     * @param id The identifier of the entity
+     * @return This bulk write, for chaining
+     */
+    public BulkWrite<T> deleteByID(String id) {
+        ids.add(id);
+        deletedIds.add(id);
+        return add(WriteOperation.delete(repository.getCollectionName(),
+                new Filter.Find().eq(repository.getPrimaryKey(), id)));
+    }
+
+    /**
+     * @return The number of operations added so far
+     */
+    public int size() {
+        return operations.size();
+    }
+
+    /**
+     * Applies every operation. Entities whose insert or upsert was applied are
+     * marked clean, and the cached entities affected by the bulk write are
+     * invalidated.
+     *
+     * @return The outcome of every operation, in the order they were added
+     * @throws IllegalStateException if the bulk write was already executed
+     */
+    public BulkWriteResult execute() {
+        if (executed) {
+            throw new IllegalStateException("Bulk write was already executed");
+        }
+        executed = true;
+
+        // Deletes must not be overtaken by a write-behind batch, see
+        // Repository#delete(Filter.Find)
+        WriteBehindQueue<T> writeBehind = filteredDelete || !deletedIds.isEmpty() ? repository.getWriteBehind() : null;
+        if (writeBehind != null) {
+            writeBehind.beginDelete(filteredDelete ? null : deletedIds);
+        }
+
+        try {
+            BulkWriteResult result = repository.getProvider().bulkWrite(operations, ordered);
+            for (Map.Entry<Integer, T> entry : entities.entrySet()) {
+                int index = entry.getKey();
+                if (result.getStatus(index) == BulkWriteResult.Status.APPLIED) {
+                    entry.getValue().markClean(operations.get(index).getDocument());
+                }
+            }
+            return result;
+        } finally {
+            if (writeBehind != null) {
+                writeBehind.endDelete();
+            }
+            if (filtered) {
+                repository.invalidateAllCached();
+            } else {
+                for (String id : ids) {
+                    repository.invalidateCached(id);
+                }
+            }
+        }
+    }
+
+    private BulkWrite<T> addEntity(T entity, WriteOperation operation) {
+        entities.put(operations.size(), entity);
+        ids.add(entity.getId());
+        return add(operation);
+    }
+
+    private BulkWrite<T> add(WriteOperation operation) {
+        if (executed) {
+            throw new IllegalStateException("Bulk write was already executed");
+        }
+        operations.add(operation);
+        return this;
+    }
+
+    private static Map<String, Object> toMap(Schema entity) {
+        if (entity == null) {
+            throw new IllegalArgumentException("Entity cannot be null");
+        }
+        return entity.toMap();
+    }
+}
@@ -2,9 +2,13 @@ package com.sammwy.milkshake;
 
 import java.util.List;
 import java.util.Map;
+import java.util.stream.Stream;
 
 import com.sammwy.classserializer.ClassSerializer;
+import com.sammwy.milkshake.cache.QueryCache;
+import com.sammwy.milkshake.query.BulkWriteResult;
 import com.sammwy.milkshake.query.Filter;
+import com.sammwy.milkshake.query.WriteOperation;
 import com.sammwy.milkshake.schema.Schema;
 
 /**
@@ -29,6 +33,13 @@ public interface Provider {
      */
     public boolean supportsEmbedded();
 
+    /**
+     * Return the query result cache of the provider
+     * 
+     * @return The query cache, or null if query caching is disabled
+     */
+    public QueryCache getQueryCache();
+
     /**
      * Establishes a connection to the database using the provided connection
      * information.
@@ -56,6 +67,15 @@ public interface Provider {
      */
     <T extends Schema> boolean initialize(Class<T> schemaClass, String primaryKey);
 
+    /**
+     * Lists the names of the indexes that currently exist on a collection,
+     * including the ones not declared by any schema.
+     * 
+     * @param collection The name of the collection
+     * @return The index names
+     */
+    List<String> listIndexes(String collection);
+
     /**
      * Inserts multiple documents into the specified collection in a single
      * operation.
@@ -77,6 +97,116 @@ public interface Provider {
      */
     boolean upsert(String collection, Map<String, Object> data, String primaryKey);
 
+    /**
+     * Performs an upsert (insert or update if exists) operation for multiple
+     * documents in a single batched operation.
+     * 
+     * @param collection The name of the collection
+     * @param dataList   The documents including their identifier fields
+     * @param primaryKey The name of the identifier field
+     * @return The number of documents inserted or updated. Every document is
+     *         written, so this is the size of {@code dataList}, including
+     *         documents whose stored values did not change; it is not the
+     *         affected-row count of the database (MySQL counts an updated row
+     *         twice and an unchanged row as 0)
+     */
+    int upsertMany(String collection, List<Map<String, Object>> dataList, String primaryKey);
+
+    /**
+     * Inserts a single entity, skipping the intermediate map when the provider
+     * can, and records the written state of the entity for dirty tracking.
+     * 
+     * @param <T>         The Schema type
+     * @param collection  The name of the collection to insert into
+     * @param entity      The entity to insert
+     * @param schemaClass The Schema class of the entity
+     * @return true if the insertion was successful, false otherwise
+     */
+    <T extends Schema> boolean insert(String collection, T entity, Class<T> schemaClass);
+
+    /**
+     * Inserts multiple entities in a single operation, skipping the
+     * intermediate maps when the provider can, and records the written state
+     * of the entities for dirty tracking.
+     * 
+     * @param <T>         The Schema type
+     * @param collection  The name of the collection to insert into
+     * @param entities    The entities to insert
+     * @param schemaClass The Schema class of the entities
+     * @return The number of successfully inserted entities
+     */
+    <T extends Schema> int insertMany(String collection, List<T> entities, Class<T> schemaClass);
+
+    /**
+     * Inserts or updates a single entity, skipping the intermediate map when
+     * the provider can, and records the written state of the entity for dirty
+     * tracking.
+     * 
+     * @param <T>         The Schema type
+     * @param collection  The name of the collection
+     * @param entity      The entity to insert or update
+     * @param primaryKey  The name of the identifier field
+     * @param schemaClass The Schema class of the entity
+     * @return true if the operation was successful, false otherwise
+     */
+    <T extends Schema> boolean upsert(String collection, T entity, String primaryKey, Class<T> schemaClass);
+
+    /**
+     * Inserts or updates multiple entities in a single batched operation,
+     * skipping the intermediate maps when the provider can, and records the
+     * written state of the entities for dirty tracking.
+     * 
+     * @param <T>         The Schema type
+     * @param collection  The name of the collection
+     * @param entities    The entities to insert or update
+     * @param primaryKey  The name of the identifier field
+     * @param schemaClass The Schema class of the entities
+     * @return The number of entities inserted or updated, see
+     *         {@link #upsertMany(String, List, String)}
+     */
+    <T extends Schema> int upsertMany(String collection, List<T> entities, String primaryKey,
+            Class<T> schemaClass);
+
+    /**
+     * Applies a batch of writes in order, possibly to several collections, all
+     * or nothing: if an operation fails, its error is thrown and none of the
+     * writes is applied. The SQL, memory and log providers apply the batch in
+     * a single transaction. The default implementation, used on MongoDB, runs
+     * an ordered {@link #bulkWrite(List, boolean)} without a transaction, so
+     * there the operations before the failed one stay applied.
+     * 
+     * @param operations The writes to apply
+     * @return The number of documents inserted, updated or deleted
+     * @throws RuntimeException if an operation failed
+     */
+    default int bulkWrite(List<WriteOperation> operations) {
+        BulkWriteResult result = bulkWrite(operations, true);
+        List<Integer> failed = result.getFailedIndexes();
+        if (!failed.isEmpty()) {
+            throw new RuntimeException("Failed to apply bulk write", result.getError(failed.get(0)));
+        }
+        return result.getWrittenCount();
+    }
+
+    /**
+     * Applies a batch of writes, possibly to several collections, and reports
+     * the outcome of every operation instead of failing as a whole.
+     * 
+     * <p>
+     * In ordered mode the operations are applied in order and the first
+     * failure stops the batch: the operations before it stay applied and the
+     * ones after it are skipped. In unordered mode every operation is
+     * attempted, and operations may be regrouped (e.g. every insert into the
+     * same collection sent together), so they should not depend on each other.
+     * SQL providers apply the batch in a single transaction, rolling back only
+     * the failed operations.
+     * 
+     * @param operations The writes to apply
+     * @param ordered    Whether to stop at the first failure and keep the order
+     * @return The outcome of every operation
+     */
+    BulkWriteResult bulkWrite(List<WriteOperation> operations, boolean ordered);
+
     /**
      * Finds all documents matching the specified criteria in the collection.
      * 
@@ -95,6 +225,48 @@ public interface Provider {
      */
     Map<String, Object> findOne(String collection, Filter.Find criteria);
 
+    /**
+     * Finds all documents matching the specified criteria and maps them to
+     * entities, skipping the intermediate map per document when the provider
+     * can.
+     * 
+     * @param <T>         The Schema type
+     * @param collection  The name of the collection to query
+     * @param criteria    The search criteria
+     * @param schemaClass The Schema class to map the documents to
+     * @return A list of matching entities, or empty list if none found
+     */
+    <T extends Schema> List<T> find(String collection, Filter.Find criteria, Class<T> schemaClass);
+
+    /**
+     * Finds a single document matching the specified criteria and maps it to an
+     * entity.
+     * 
+     * @param <T>         The Schema type
+     * @param collection  The name of the collection to query
+     * @param criteria    The search criteria
+     * @param schemaClass The Schema class to map the document to
+     * @return The first matching entity, or null if none found
+     */
+    <T extends Schema> T findOne(String collection, Filter.Find criteria, Class<T> schemaClass);
+
+    /**
+     * Lazily streams the documents matching the specified criteria as
+     * entities. The underlying cursor (and its connection) stays open until the
+     * stream is fully consumed or closed, so the stream should be used in a
+     * try-with-resources block.
+     * 
+     * @param <T>         The Schema type
+     * @param collection  The name of the collection to query
+     * @param criteria    The search criteria
+     * @param schemaClass The Schema class to map the documents to
+     * @param fetchSize   The number of documents fetched per round trip, or 0
+     *                    for the provider default
+     * @return The stream of matching entities
+     */
+    <T extends Schema> Stream<T> stream(String collection, Filter.Find criteria, Class<T> schemaClass,
+            int fetchSize);
+
     /**
      * Finds a document by its unique identifier in the collection.
      * 
@@ -104,6 +276,26 @@ public interface Provider {
      */
     Map<String, Object> findById(String collection, String primaryKey, String id);
 
+    /**
+     * Counts the documents matching the specified criteria without loading
+     * them. Sort, limit, skip and keyset options of the criteria are ignored.
+     * 
+     * @param collection The name of the collection to query
+     * @param criteria   The search criteria, or null to count every document
+     * @return The number of matching documents
+     */
+    long count(String collection, Filter.Find criteria);
+
+    /**
+     * Checks whether at least one document matches the specified criteria
+     * without loading it.
+     * 
+     * @param collection The name of the collection to query
+     * @param criteria   The search criteria, or null to match any document
+     * @return true if a matching document exists, false otherwise
+     */
+    boolean exists(String collection, Filter.Find criteria);
+
     /**
      * Updates all documents matching the specified criteria in the collection.
      * 
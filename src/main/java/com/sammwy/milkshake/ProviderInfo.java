@@ -12,6 +12,12 @@ import java.util.Map;
  * Supports construction from individual components or a connection URI string.
  */
 public class ProviderInfo {
+    /**
+     * Prefix of options consumed by Milkshake itself. These are never forwarded
+     * to the underlying driver connection string.
+     */
+    public static final String LOCAL_OPTION_PREFIX = "milkshake.";
+
     private String protocol;
     private String host;
     private String port;
@@ -213,6 +219,9 @@ public class ProviderInfo {
         if (!options.isEmpty()) {
             sb.append("?");
             for (Map.Entry<String, String> entry : options.entrySet()) {
+                if (entry.getKey().startsWith(LOCAL_OPTION_PREFIX)) {
+                    continue;
+                }
                 sb.append(entry.getKey()).append("=").append(entry.getValue()).append("&");
             }
             sb.deleteCharAt(sb.length() - 1);
@@ -316,6 +325,63 @@ public class ProviderInfo {
         }
     }
 
+    /**
+     * Gets the raw value of an option.
+     * 
+     * @param key The option name
+     * @return The option value, or null if not present
+     */
+    public String getOption(String key) {
+        return options.get(key);
+    }
+
+    /**
+     * Gets the raw value of an option.
+     * 
+     * @param option The option
+     * @return The option value, or null if not present
+     */
+    public String getOption(Options option) {
+        return getOption(option.getKey());
+    }
+
+    /**
+     * Gets the value of an option as an integer.
+     * 
+     * @param option       The option
+     * @param defaultValue The value to return if the option is not present
+     * @return The option value, or the default value if not present
+     * @throws IllegalArgumentException if the option is not a valid integer
+     */
+    public int getOptionInt(Options option, int defaultValue) {
+        long value = getOptionLong(option, defaultValue);
+        if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Value of option " + option.getKey() + " is out of range: " + value);
+        }
+        return (int) value;
+    }
+
+    /**
+     * Gets the value of an option as a long.
+     * 
+     * @param option       The option
+     * @param defaultValue The value to return if the option is not present
+     * @return The option value, or the default value if not present
+     * @throws IllegalArgumentException if the option is not a valid number
+     */
+    public long getOptionLong(Options option, long defaultValue) {
+        String value = getOption(option);
+        if (value == null || value.isEmpty()) {
+            return defaultValue;
+        }
+
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid value for option " + option.getKey() + ": " + value, e);
+        }
+    }
+
     /**
      * Common options enum
      */
@@ -334,11 +400,31 @@ public class ProviderInfo {
         PREP_STMT_CACHE_SIZE("prepStmtCacheSize"),
         PREP_STMT_CACHE_SQL_LIMIT("prepStmtCacheSqlLimit"),
         USE_SERVER_PREP_STMTS("useServerPrepStmts"),
+        USE_CURSOR_FETCH("useCursorFetch"),
         LOG_WARNINGS("logger"),
         PROFILE_SQL("profileSQL"),
         TRACE_PROTOCOL("traceProtocol"),
         CONNECTION_TIMEOUT("connectTimeout"),
-        SOCKET_TIMEOUT("socketTimeout");
+        SOCKET_TIMEOUT("socketTimeout"),
+
+        // Milkshake connection pool (SQL providers)
+        POOL_MIN_SIZE(LOCAL_OPTION_PREFIX + "pool.minSize"),
+        POOL_MAX_SIZE(LOCAL_OPTION_PREFIX + "pool.maxSize"),
+        POOL_ACQUIRE_TIMEOUT(LOCAL_OPTION_PREFIX + "pool.acquireTimeout"),
+        POOL_IDLE_TIMEOUT(LOCAL_OPTION_PREFIX + "pool.idleTimeout"),
+        POOL_VALIDATION_TIMEOUT(LOCAL_OPTION_PREFIX + "pool.validationTimeout"),
+        STATEMENT_CACHE_SIZE(LOCAL_OPTION_PREFIX + "statementCache.size"),
+        MULTI_ROW_INSERT(LOCAL_OPTION_PREFIX + "insert.multiRow"),
+        MAX_ROWS_PER_STATEMENT(LOCAL_OPTION_PREFIX + "insert.maxRowsPerStatement"),
+
+        // Milkshake streaming reads (all providers)
+        FETCH_SIZE(LOCAL_OPTION_PREFIX + "stream.fetchSize"),
+
+        // Milkshake log-structured storage (log provider)
+        LOG_SEGMENT_SIZE(LOCAL_OPTION_PREFIX + "log.segmentSize"),
+        LOG_SYNC(LOCAL_OPTION_PREFIX + "log.sync"),
+        LOG_COMPACTION_INTERVAL(LOCAL_OPTION_PREFIX + "log.compactionInterval"),
+        LOG_COMPACTION_THRESHOLD(LOCAL_OPTION_PREFIX + "log.compactionThreshold");
 
         private final String key;
 
@@ -1,13 +1,23 @@
 package com.sammwy.milkshake;
 
-import java.lang.reflect.Field;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.stream.Stream;
 
-import com.sammwy.milkshake.annotations.SchemaType;
+import com.sammwy.milkshake.annotations.Cached;
+import com.sammwy.milkshake.cache.CacheConfig;
+import com.sammwy.milkshake.cache.CacheStats;
+import com.sammwy.milkshake.cache.EntityCache;
+import com.sammwy.milkshake.cache.QueryCache;
+import com.sammwy.milkshake.query.ContinuationToken;
 import com.sammwy.milkshake.query.Filter;
+import com.sammwy.milkshake.query.Page;
+import com.sammwy.milkshake.schema.IndexDefinition;
 import com.sammwy.milkshake.schema.Schema;
+import com.sammwy.milkshake.schema.SchemaMetadata;
 
 /**
  * A generic repository implementation for performing CRUD operations on a
@@ -22,6 +32,9 @@ public class Repository<T extends Schema> {
     private Class<T> schemaClass;
     private Provider provider;
     private String primaryKey;
+    private SchemaMetadata metadata;
+    private volatile EntityCache cache;
+    private volatile WriteBehindQueue<T> writeBehind;
 
     /**
      * Constructs a new Repository instance for the specified Schema class.
@@ -35,10 +48,89 @@ public class Repository<T extends Schema> {
         this.provider = provider;
         this.schemaClass = schemaClass;
 
-        Field idField = Schema.getIdFieldOf(schemaClass);
-        if (idField != null) {
-            primaryKey = Schema.getIdKeyNameOf(idField);
+        this.metadata = SchemaMetadata.of(schemaClass);
+        this.primaryKey = metadata.getPrimaryKey();
+
+        Cached cached = schemaClass.getAnnotation(Cached.class);
+        if (cached != null) {
+            enableCache(CacheConfig.of(cached));
+        }
+    }
+
+    /**
+     * Enables the entity cache of this repository, replacing any existing one.
+     * Lookups by identifier are then served from memory, and writes made
+     * through this repository (or the entities it manages) invalidate the
+     * affected entries. Writes made directly through the provider bypass the
+     * cache and are not seen until the entries expire.
+     * 
+     * @param config The bounds and expiration of the cache
+     */
+    public void enableCache(CacheConfig config) {
+        if (primaryKey == null) {
+            throw new IllegalStateException("Schema " + schemaClass.getName() + " has no @ID field to cache by");
         }
+        this.cache = new EntityCache(config);
+    }
+
+    /**
+     * Disables the entity cache of this repository and drops its entries.
+     */
+    public void disableCache() {
+        this.cache = null;
+    }
+
+    /**
+     * Gets the statistics of the entity cache.
+     * 
+     * @return The cache statistics, or null if the cache is disabled
+     */
+    public CacheStats getCacheStats() {
+        EntityCache cache = this.cache;
+        return cache != null ? cache.getStats() : null;
+    }
+
+    /**
+     * Enables the write-behind mode of this repository. {@link #save(Schema)}
+     * (and {@link Schema#save()}) then only queue the entity, and a background
+     * thread writes the queued entities in batches. Deleting an entity by its
+     * identifier drops its pending write, and deleting by filter writes the
+     * pending entities first; either way a batch being written is waited for.
+     * Other writes, and reads, go straight to the database and do not see the
+     * pending writes.
+     * 
+     * @param config The queue bounds and flush triggers
+     * @throws IllegalStateException if the write-behind mode is already enabled
+     */
+    public synchronized void enableWriteBehind(WriteBehindConfig config) {
+        if (primaryKey == null) {
+            throw new IllegalStateException("Schema " + schemaClass.getName() + " has no @ID field to queue by");
+        }
+        if (this.writeBehind != null) {
+            throw new IllegalStateException("Write-behind is already enabled for " + getCollectionName());
+        }
+        this.writeBehind = new WriteBehindQueue<>(this, config);
+    }
+
+    /**
+     * Disables the write-behind mode, writing every pending entity first.
+     */
+    public synchronized void disableWriteBehind() {
+        WriteBehindQueue<T> writeBehind = this.writeBehind;
+        if (writeBehind != null) {
+            this.writeBehind = null;
+            writeBehind.close();
+        }
+    }
+
+    /**
+     * Gets the write-behind queue of this repository, e.g. to flush it or read
+     * its counters.
+     * 
+     * @return The queue, or null if the write-behind mode is disabled
+     */
+    public WriteBehindQueue<T> getWriteBehind() {
+        return writeBehind;
     }
 
     /**
@@ -50,13 +142,48 @@ public class Repository<T extends Schema> {
         return primaryKey;
     }
 
+    /**
+     * Gets the indexes declared on the schema with the Index annotation.
+     * 
+     * @return The declared indexes
+     */
+    public List<IndexDefinition> getDeclaredIndexes() {
+        return metadata.getIndexes();
+    }
+
+    /**
+     * Gets the declared indexes that do not exist in the database, e.g. to
+     * report them at startup.
+     * 
+     * @return The missing indexes
+     */
+    public List<IndexDefinition> getMissingIndexes() {
+        List<String> existing = provider.listIndexes(getCollectionName());
+        List<IndexDefinition> missing = new ArrayList<>();
+        for (IndexDefinition index : getDeclaredIndexes()) {
+            if (!existing.contains(index.getName())) {
+                missing.add(index);
+            }
+        }
+        return missing;
+    }
+
     /**
      * Get the collection or table name associated with this repository
      * 
      * @return The collection or table name
      */
     public String getCollectionName() {
-        return getCollectionName(this.schemaClass);
+        return metadata.getCollectionName();
+    }
+
+    /**
+     * Gets the metadata of the Schema class managed by this repository.
+     * 
+     * @return The schema metadata
+     */
+    public SchemaMetadata getMetadata() {
+        return metadata;
     }
 
     /**
@@ -68,7 +195,11 @@ public class Repository<T extends Schema> {
      */
     public boolean insert(T entity) {
         validateSchema(entity);
-        return provider.insert(getCollectionName(), entity.toMap());
+        try {
+            return provider.insert(getCollectionName(), entity, schemaClass);
+        } finally {
+            invalidate(entity.getId());
+        }
     }
 
     /**
@@ -79,16 +210,20 @@ public class Repository<T extends Schema> {
      * @throws IllegalArgumentException if the entities list is null
      */
     public int insertMany(List<T> entities) {
-        List<Map<String, Object>> mapped = new ArrayList<>();
+        List<T> valid = new ArrayList<>();
         for (T entity : entities) {
             try {
                 validateSchema(entity);
-                mapped.add(entity.toMap());
+                valid.add(entity);
             } catch (IllegalArgumentException e) {
                 // Ignore
             }
         }
-        return provider.insertMany(getCollectionName(), mapped);
+        try {
+            return provider.insertMany(getCollectionName(), valid, schemaClass);
+        } finally {
+            invalidateEach(valid);
+        }
     }
 
     /**
@@ -99,24 +234,216 @@ public class Repository<T extends Schema> {
      */
     public boolean upsert(T entity) {
         validateSchema(entity);
-        return provider.upsert(getCollectionName(), entity.toMap(), this.getPrimaryKey());
+        try {
+            return provider.upsert(getCollectionName(), entity, this.getPrimaryKey(), schemaClass);
+        } finally {
+            invalidate(entity.getId());
+        }
+    }
+
+    /**
+     * Saves an entity, writing only what changed. Entities that were loaded
+     * from the database (or already written) are updated with the fields
+     * changed since then, and not written at all if nothing changed. New
+     * entities, or entities whose row no longer exists, are upserted whole. In
+     * write-behind mode the entity is queued instead and written later.
+     * 
+     * @param entity The entity to save
+     * @return true if the operation was successful, false otherwise
+     * @see Schema#getChanges()
+     */
+    public boolean save(T entity) {
+        validateSchema(entity);
+        WriteBehindQueue<T> writeBehind = this.writeBehind;
+        if (writeBehind != null) {
+            // A pending state must be replaced even if the entity went back to
+            // its persisted state
+            if (entity.isDirty() || writeBehind.isPending(entity.getId())) {
+                writeBehind.save(entity);
+            }
+            return true;
+        }
+
+        Map<String, Object> changes = entity.getChanges();
+        if (changes == null) {
+            return upsert(entity);
+        } else if (changes.isEmpty()) {
+            return true;
+        }
+
+        Filter.Update update = new Filter.Update();
+        for (Map.Entry<String, Object> change : changes.entrySet()) {
+            update.set(change.getKey(), change.getValue());
+        }
+        if (!updateByID(entity.getId(), update)) {
+            return upsert(entity);
+        }
+        entity.markClean();
+        return true;
+    }
+
+    /**
+     * Insert or update multiple entities in the database in a single batched
+     * operation.
+     * 
+     * @param entities The entities to insert or update
+     * @return The number of entities inserted or updated
+     */
+    public int upsertMany(List<T> entities) {
+        for (T entity : entities) {
+            validateSchema(entity);
+        }
+        try {
+            return provider.upsertMany(getCollectionName(), entities, this.getPrimaryKey(), schemaClass);
+        } finally {
+            invalidateEach(entities);
+        }
+    }
+
+    /**
+     * Starts a bulk write of mixed inserts, upserts, updates and deletes on
+     * this repository, applied together by {@link BulkWrite#execute()}.
+     * 
+     * @return A new, empty bulk write
+     */
+    public BulkWrite<T> bulkWrite() {
+        return new BulkWrite<>(this);
     }
 
     /**
-     * Finds all entities matching the specified filter criteria.
+     * Finds all entities matching the specified filter criteria. If the filter
+     * selects a subset of fields, the primary key is always added to the
+     * selection and the remaining fields keep the defaults of the schema.
      *
      * @param filter The filter conditions to apply to the query
      * @return A List of matching entities, or an empty list if no matches found
      */
     public List<T> find(Filter.Find filter) {
-        List<Map<String, Object>> results = provider.find(getCollectionName(), filter);
+        QueryCache queryCache = provider.getQueryCache();
+        if (queryCache != null) {
+            Filter.Find query = withPrimaryKey(filter != null ? filter : new Filter.Find());
+            Map<String, Object> defaults = defaultsFor(query);
+            List<T> converted = new ArrayList<>();
+            for (Map<String, Object> result : findCached(queryCache, query, false)) {
+                converted.add(toEntity(result, defaults));
+            }
+            return converted;
+        }
+
+        if (filter == null || filter.getProjection() == null) {
+            return provider.find(getCollectionName(), filter, schemaClass);
+        }
+
+        List<Map<String, Object>> results = provider.find(getCollectionName(), withPrimaryKey(filter));
+        Map<String, Object> defaults = defaultsFor(filter);
         List<T> converted = new ArrayList<>();
         for (Map<String, Object> result : results) {
-            converted.add(Schema.fromMap(this.schemaClass, result));
+            converted.add(toEntity(result, defaults));
         }
         return converted;
     }
 
+    /**
+     * Lazily streams the entities matching the specified filter criteria
+     * without loading the whole result in memory. The stream holds a database
+     * cursor until it is fully consumed or closed, so use it in a
+     * try-with-resources block.
+     *
+     * @param filter The filter conditions to apply to the query
+     * @return The stream of matching entities
+     */
+    public Stream<T> stream(Filter.Find filter) {
+        return stream(filter, 0);
+    }
+
+    /**
+     * Lazily streams the entities matching the specified filter criteria,
+     * fetching them in batches of the given size.
+     *
+     * @param filter    The filter conditions to apply to the query
+     * @param fetchSize The number of entities fetched per round trip, or 0 for
+     *                  the provider default
+     * @return The stream of matching entities
+     * @see #stream(Filter.Find)
+     */
+    public Stream<T> stream(Filter.Find filter, int fetchSize) {
+        return provider.stream(getCollectionName(), withPrimaryKey(filter), schemaClass, fetchSize);
+    }
+
+    /**
+     * Finds a page of entities using keyset pagination. Results are ordered by
+     * the sort fields of the filter followed by the primary key, and each page
+     * starts right after the last entity of the previous one, so the database
+     * never scans the rows of earlier pages. The skip and limit of the filter
+     * are ignored; the given filter itself is not modified.
+     *
+     * @param filter            The filter conditions and sort fields, may be
+     *                          null
+     * @param pageSize          The maximum number of entities per page
+     * @param continuationToken The token of the previous page, or null for the
+     *                          first page
+     * @return The page of entities and the token of the next page
+     * @throws IllegalArgumentException if the token is malformed or was created
+     *                                  for different sort fields
+     */
+    public Page<T> findPage(Filter.Find filter, int pageSize, String continuationToken) {
+        if (pageSize < 1) {
+            throw new IllegalArgumentException("Page size must be at least 1");
+        }
+
+        Filter.Find query = filter != null ? filter.copy() : new Filter.Find();
+        if (!query.getSort().containsKey(primaryKey)) {
+            query.sortAsc(primaryKey); // Tie breaker for a stable order
+        }
+        if (query.getProjection() != null) {
+            query.select(query.getSort().keySet().toArray(new String[0]));
+        }
+        query.skip(0).limit(pageSize);
+        if (continuationToken != null) {
+            query.after(ContinuationToken.decode(continuationToken));
+        }
+
+        List<Map<String, Object>> results = provider.find(getCollectionName(), withPrimaryKey(query));
+        Map<String, Object> defaults = defaultsFor(query);
+        List<T> items = new ArrayList<>(results.size());
+        for (Map<String, Object> result : results) {
+            items.add(toEntity(result, defaults));
+        }
+
+        String next = null;
+        if (results.size() == pageSize) {
+            Map<String, Object> last = results.get(results.size() - 1);
+            List<Object> key = new ArrayList<>();
+            for (String field : query.getSort().keySet()) {
+                key.add(last.get(field));
+            }
+            next = ContinuationToken.encode(key);
+        }
+        return new Page<>(items, next);
+    }
+
+    /**
+     * Counts the entities matching the specified filter criteria without
+     * loading them.
+     *
+     * @param filter The filter conditions, or null to count every entity
+     * @return The number of matching entities
+     */
+    public long count(Filter.Find filter) {
+        return provider.count(getCollectionName(), filter);
+    }
+
+    /**
+     * Checks whether any entity matches the specified filter criteria without
+     * loading it.
+     *
+     * @param filter The filter conditions, or null to match any entity
+     * @return true if a matching entity exists, false otherwise
+     */
+    public boolean exists(Filter.Find filter) {
+        return provider.exists(getCollectionName(), filter);
+    }
+
     /**
      * Finds a single entity by its unique identifier.
      *
@@ -124,8 +451,22 @@ public class Repository<T extends Schema> {
      * @return The matching entity, or null if not found
      */
     public T findById(String id) {
-        Map<String, Object> result = provider.findById(getCollectionName(), primaryKey, id);
-        return result != null ? Schema.fromMap(this.schemaClass, result) : null;
+        EntityCache cache = this.cache;
+        if (cache == null || id == null) {
+            return provider.findOne(getCollectionName(), new Filter.Find().eq(primaryKey, id), schemaClass);
+        }
+
+        Map<String, Object> cached = cache.get(id);
+        if (cached != null) {
+            return Schema.fromMap(schemaClass, cached);
+        }
+
+        long version = cache.version();
+        T entity = provider.findOne(getCollectionName(), new Filter.Find().eq(primaryKey, id), schemaClass);
+        if (entity != null) {
+            cache.putIfCurrent(id, entity.toMap(), version);
+        }
+        return entity;
     }
 
     /**
@@ -136,8 +477,19 @@ public class Repository<T extends Schema> {
      * @return The first matching entity, or null if no matches found
      */
     public T findOne(Filter.Find filter) {
-        Map<String, Object> result = provider.findOne(getCollectionName(), filter);
-        return result != null ? Schema.fromMap(this.schemaClass, result) : null;
+        QueryCache queryCache = provider.getQueryCache();
+        if (queryCache != null) {
+            Filter.Find query = withPrimaryKey(filter != null ? filter : new Filter.Find());
+            List<Map<String, Object>> results = findCached(queryCache, query, true);
+            return results.isEmpty() ? null : toEntity(results.get(0), defaultsFor(query));
+        }
+
+        if (filter == null || filter.getProjection() == null) {
+            return provider.findOne(getCollectionName(), filter, schemaClass);
+        }
+
+        Map<String, Object> result = provider.findOne(getCollectionName(), withPrimaryKey(filter));
+        return result != null ? toEntity(result, defaultsFor(filter)) : null;
     }
 
     /**
@@ -148,7 +500,11 @@ public class Repository<T extends Schema> {
      * @return The number of entities that were successfully updated
      */
     public int update(Filter.Find filter, Filter.Update update) {
-        return provider.update(getCollectionName(), filter, update);
+        try {
+            return provider.update(getCollectionName(), filter, update);
+        } finally {
+            invalidateAll();
+        }
     }
 
     /**
@@ -159,7 +515,11 @@ public class Repository<T extends Schema> {
      * @return true if the entity was found and updated, false otherwise
      */
     public boolean updateByID(String id, Filter.Update update) {
-        return provider.updateByID(getCollectionName(), primaryKey, id, update);
+        try {
+            return provider.updateByID(getCollectionName(), primaryKey, id, update);
+        } finally {
+            invalidate(id);
+        }
     }
 
     /**
@@ -171,7 +531,11 @@ public class Repository<T extends Schema> {
      * @return true if a matching entity was found and updated, false otherwise
      */
     public boolean updateOne(Filter.Find filter, Filter.Update update) {
-        return provider.updateOne(getCollectionName(), filter, update);
+        try {
+            return provider.updateOne(getCollectionName(), filter, update);
+        } finally {
+            invalidateAll();
+        }
     }
 
     /**
@@ -181,7 +545,19 @@ public class Repository<T extends Schema> {
      * @return The number of entities that were successfully deleted
      */
     public int delete(Filter.Find filter) {
-        return provider.delete(getCollectionName(), filter);
+        WriteBehindQueue<T> writeBehind = this.writeBehind;
+        if (writeBehind != null) {
+            writeBehind.beginDelete(null);
+        }
+
+        try {
+            return provider.delete(getCollectionName(), filter);
+        } finally {
+            if (writeBehind != null) {
+                writeBehind.endDelete();
+            }
+            invalidateAll();
+        }
     }
 
     /**
@@ -191,7 +567,19 @@ public class Repository<T extends Schema> {
      * @return true if the entity was found and deleted, false otherwise
      */
     public boolean deleteByID(String id) {
-        return provider.deleteByID(getCollectionName(), primaryKey, id);
+        WriteBehindQueue<T> writeBehind = this.writeBehind;
+        if (writeBehind != null) {
+            writeBehind.beginDelete(Collections.singleton(id));
+        }
+
+        try {
+            return provider.deleteByID(getCollectionName(), primaryKey, id);
+        } finally {
+            if (writeBehind != null) {
+                writeBehind.endDelete();
+            }
+            invalidate(id);
+        }
     }
 
     /**
@@ -202,7 +590,122 @@ public class Repository<T extends Schema> {
      * @return true if a matching entity was found and deleted, false otherwise
      */
     public boolean deleteOne(Filter.Find filter) {
-        return provider.deleteOne(getCollectionName(), filter);
+        WriteBehindQueue<T> writeBehind = this.writeBehind;
+        if (writeBehind != null) {
+            writeBehind.beginDelete(null);
+        }
+
+        try {
+            return provider.deleteOne(getCollectionName(), filter);
+        } finally {
+            if (writeBehind != null) {
+                writeBehind.endDelete();
+            }
+            invalidateAll();
+        }
+    }
+
+    private List<Map<String, Object>> findCached(QueryCache queryCache, Filter.Find query, boolean one) {
+        // A single result is the same query limited to one document
+        Filter.Find key = one ? query.copy().limit(1) : query;
+        List<Map<String, Object>> results = queryCache.get(getCollectionName(), key);
+        if (results != null) {
+            return results;
+        }
+
+        long version = queryCache.version(getCollectionName());
+        if (one) {
+            Map<String, Object> result = provider.findOne(getCollectionName(), query);
+            results = result != null ? List.of(result) : List.of();
+        } else {
+            results = provider.find(getCollectionName(), query);
+        }
+        queryCache.putIfCurrent(getCollectionName(), key, results, version);
+        return results;
+    }
+
+    /**
+     * Drops the cached entity after it was written outside this repository,
+     * e.g. by a session.
+     * 
+     * @param id The identifier of the entity
+     */
+    void invalidateCached(String id) {
+        invalidate(id);
+    }
+
+    /**
+     * Drops every cached entity after a write outside this repository that may
+     * have changed any of them, e.g. a bulk write with filters.
+     */
+    void invalidateAllCached() {
+        invalidateAll();
+    }
+
+    private void invalidate(String id) {
+        EntityCache cache = this.cache;
+        if (cache != null) {
+            cache.invalidate(id);
+        }
+    }
+
+    private void invalidateEach(List<? extends Schema> entities) {
+        EntityCache cache = this.cache;
+        if (cache != null) {
+            for (Schema entity : entities) {
+                cache.invalidate(entity.getId());
+            }
+        }
+    }
+
+    private void invalidateAll() {
+        EntityCache cache = this.cache;
+        if (cache != null) {
+            cache.invalidateAll();
+        }
+    }
+
+    private Filter.Find withPrimaryKey(Filter.Find filter) {
+        if (filter != null && filter.getProjection() != null && primaryKey != null
+                && !filter.getProjection().contains(primaryKey)) {
+            // The filter belongs to the caller, who may reuse it
+            return filter.copy().select(primaryKey);
+        }
+        return filter;
+    }
+
+    private Map<String, Object> defaultsFor(Filter.Find filter) {
+        if (filter == null || filter.getProjection() == null) {
+            return null;
+        }
+
+        return provider.getSerializer().serialize(metadata.newInstance());
+    }
+
+    @SuppressWarnings("unchecked")
+    private T toEntity(Map<String, Object> result, Map<String, Object> defaults) {
+        if (defaults == null) {
+            return Schema.fromMap(this.schemaClass, result);
+        }
+
+        // Unselected fields keep their defaults, copying mutable containers so
+        // they are not shared between entities.
+        Map<String, Object> merged = new HashMap<>();
+        for (Map.Entry<String, Object> entry : defaults.entrySet()) {
+            if (result.containsKey(entry.getKey())) {
+                continue;
+            }
+
+            Object value = entry.getValue();
+            if (value instanceof List) {
+                value = new ArrayList<>((List<Object>) value);
+            } else if (value instanceof Map) {
+                value = new HashMap<>((Map<String, Object>) value);
+            }
+            merged.put(entry.getKey(), value);
+        }
+        merged.putAll(result);
+        return Schema.fromMap(this.schemaClass, merged);
     }
 
     /**
@@ -219,23 +722,4 @@ public class Repository<T extends Schema> {
             throw new IllegalArgumentException("Entity cannot be null");
         return true;
     }
-
-    /**
-     * Gets the collection name for a schema class.
-     * Uses the @SchemaType annotation value if present, otherwise defaults to the
-     * class simple name.
-     *
-     * @param schemaClass The schema class to inspect
-     * @return The collection name to use for this schema
-     */
-    private static String getCollectionName(Class<? extends Schema> schemaClass) {
-        if (schemaClass.isAnnotationPresent(SchemaType.class)) {
-            SchemaType schemaType = schemaClass.getAnnotation(SchemaType.class);
-            String value = schemaType.value();
-            if (value != null && !value.isEmpty()) {
-                return value;
-            }
-        }
-        return schemaClass.getSimpleName();
-    }
 }
\ No newline at end of file
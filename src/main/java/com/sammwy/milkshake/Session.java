@@ -0,0 +1,264 @@
+package com.sammwy.milkshake;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.sammwy.milkshake.query.Filter;
+import com.sammwy.milkshake.query.WriteOperation;
+import com.sammwy.milkshake.schema.Schema;
+
+/**
+ * A unit of work over the repositories of one provider.
+ *
+ * <p>
+ * Entities loaded through a session are kept in an identity map, so loading
+ * the same identifier twice returns the same instance. Saves and deletes are
+ * only recorded and are written together by {@link #commit()}, as batched
+ * upserts and deletes in a single transaction on SQL databases. Saved entities
+ * that did not change since they were loaded are not written.
+ *
+ * <p>
+ * Sessions are not thread-safe and are meant to be short lived, e.g. one per
+ * request:
+ *
+ * <pre>
+ * {@code
+ * try (Session session = new Session(provider)) {
+ *     User user = session.findById(User.class, id);
+ *     user.coins += 10;
+ *     session.save(user);
+ *     session.commit();
+ * }
+ * }
+ * </pre>
+ */
+public class Session implements AutoCloseable {
+    private final Provider provider;
+    private final Map<Class<? extends Schema>, Map<String, Schema>> identityMap = new HashMap<>();
+    private final Map<Schema, Boolean> pending = new LinkedHashMap<>();
+    private boolean closed;
+
+    /**
+     * Opens a new session.
+     *
+     * @param provider The provider of every repository used in the session
+     */
+    public Session(Provider provider) {
+        this.provider = provider;
+    }
+
+    /**
+     * Finds an entity by its identifier, returning the instance already loaded
+     * by this session if any.
+     *
+     * @param <T>         The Schema type
+     * @param schemaClass The Schema class
+     * @param id          The identifier
+     * @return The entity, or null if not found
+     */
+    @SuppressWarnings("unchecked")
+    public <T extends Schema> T findById(Class<T> schemaClass, String id) {
+        checkOpen();
+        Schema loaded = entitiesOf(schemaClass).get(id);
+        if (loaded != null) {
+            return (T) loaded;
+        }
+
+        T entity = repositoryOf(schemaClass).findById(id);
+        return entity != null ? attach(entity) : null;
+    }
+
+    /**
+     * Finds the entities matching a filter. Entities already loaded by this
+     * session are returned as their existing instance, keeping any unsaved
+     * change.
+     *
+     * @param <T>         The Schema type
+     * @param schemaClass The Schema class
+     * @param filter      The filter conditions
+     * @return The matching entities
+     */
+    public <T extends Schema> List<T> find(Class<T> schemaClass, Filter.Find filter) {
+        checkOpen();
+        List<T> results = repositoryOf(schemaClass).find(filter);
+        List<T> attached = new ArrayList<>(results.size());
+        for (T entity : results) {
+            attached.add(attach(entity));
+        }
+        return attached;
+    }
+
+    /**
+     * Records an entity to be inserted or updated on commit, and adds it to the
+     * identity map.
+     *
+     * @param entity The entity to save
+     */
+    public void save(Schema entity) {
+        checkOpen();
+        attach(entity);
+        pending.put(entity, Boolean.TRUE);
+    }
+
+    /**
+     * Records an entity to be deleted on commit, and removes it from the
+     * identity map.
+     *
+     * @param entity The entity to delete
+     */
+    public void delete(Schema entity) {
+        checkOpen();
+        entitiesOf(entity.getClass()).remove(entity.getId());
+        pending.put(entity, Boolean.FALSE);
+    }
+
+    /**
+     * Checks whether there are recorded writes not committed yet.
+     *
+     * @return true if commit has something to write
+     */
+    public boolean hasPendingWrites() {
+        return !pending.isEmpty();
+    }
+
+    /**
+     * Writes every recorded save and delete. Saves are grouped into batched
+     * upserts per collection, followed by one delete per collection, and all of
+     * them are applied as one bulk write, all or nothing, see
+     * {@link Provider#bulkWrite(List)}. If a write fails, the error is thrown
+     * and the recorded writes are kept, so the commit can be retried. Pending
+     * write-behind writes of the deleted entities are dropped. The identity map
+     * is kept, so the session can go on being used.
+     *
+     * @return The number of documents written
+     */
+    public int commit() {
+        checkOpen();
+        if (pending.isEmpty()) {
+            return 0;
+        }
+
+        Map<Repository<Schema>, List<Map<String, Object>>> upserts = new LinkedHashMap<>();
+        Map<Repository<Schema>, Set<String>> deletes = new LinkedHashMap<>();
+        for (Map.Entry<Schema, Boolean> entry : pending.entrySet()) {
+            Schema entity = entry.getKey();
+            Repository<Schema> repository = repositoryOf(entity);
+            if (entry.getValue()) {
+                if (entity.isDirty()) {
+                    upserts.computeIfAbsent(repository, key -> new ArrayList<>()).add(entity.toMap());
+                }
+            } else {
+                deletes.computeIfAbsent(repository, key -> new LinkedHashSet<>()).add(entity.getId());
+            }
+        }
+
+        List<WriteOperation> operations = new ArrayList<>();
+        for (Map.Entry<Repository<Schema>, List<Map<String, Object>>> entry : upserts.entrySet()) {
+            Repository<Schema> repository = entry.getKey();
+            for (Map<String, Object> document : entry.getValue()) {
+                operations.add(WriteOperation.upsert(repository.getCollectionName(), document,
+                        repository.getPrimaryKey()));
+            }
+        }
+        for (Map.Entry<Repository<Schema>, Set<String>> entry : deletes.entrySet()) {
+            Repository<Schema> repository = entry.getKey();
+            operations.add(WriteOperation.delete(repository.getCollectionName(),
+                    new Filter.Find().in(repository.getPrimaryKey(), new ArrayList<>(entry.getValue()))));
+        }
+
+        if (operations.isEmpty()) {
+            pending.clear();
+            return 0;
+        }
+
+        // Deletes must not be overtaken by a write-behind batch, see
+        // Repository#deleteByID(String). Queues are held in collection name
+        // order so concurrent commits cannot deadlock.
+        List<Repository<Schema>> deleted = new ArrayList<>(deletes.keySet());
+        deleted.sort(Comparator.comparing(Repository::getCollectionName));
+        List<WriteBehindQueue<Schema>> queues = new ArrayList<>();
+        int written;
+        try {
+            for (Repository<Schema> repository : deleted) {
+                WriteBehindQueue<Schema> queue = repository.getWriteBehind();
+                if (queue != null) {
+                    queue.beginDelete(deletes.get(repository));
+                    queues.add(queue);
+                }
+            }
+
+            written = provider.bulkWrite(operations);
+            for (Map.Entry<Schema, Boolean> entry : pending.entrySet()) {
+                if (entry.getValue()) {
+                    entry.getKey().markClean();
+                }
+            }
+        } finally {
+            for (WriteBehindQueue<Schema> queue : queues) {
+                queue.endDelete();
+            }
+            for (Map.Entry<Schema, Boolean> entry : pending.entrySet()) {
+                repositoryOf(entry.getKey()).invalidateCached(entry.getKey().getId());
+            }
+        }
+        pending.clear();
+        return written;
+    }
+
+    /**
+     * Discards every recorded write and forgets the loaded entities.
+     */
+    public void clear() {
+        pending.clear();
+        identityMap.clear();
+    }
+
+    /**
+     * Closes the session, discarding the writes that were not committed.
+     */
+    @Override
+    public void close() {
+        clear();
+        closed = true;
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T extends Schema> T attach(T entity) {
+        Map<String, Schema> entities = entitiesOf(entity.getClass());
+        Schema existing = entities.putIfAbsent(entity.getId(), entity);
+        return existing != null ? (T) existing : entity;
+    }
+
+    private Map<String, Schema> entitiesOf(Class<? extends Schema> schemaClass) {
+        return identityMap.computeIfAbsent(schemaClass, key -> new HashMap<>());
+    }
+
+    private <T extends Schema> Repository<T> repositoryOf(Class<T> schemaClass) {
+        Repository<T> repository = RepositoryCache.get(schemaClass);
+        if (repository == null) {
+            throw new IllegalStateException("No repository registered for " + schemaClass.getName());
+        }
+        if (repository.getProvider() != provider) {
+            throw new IllegalStateException("Repository of " + schemaClass.getName()
+                    + " belongs to another provider than the session");
+        }
+        return repository;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Repository<Schema> repositoryOf(Schema entity) {
+        return (Repository<Schema>) repositoryOf(entity.getClass());
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("Session is closed");
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package com.sammwy.milkshake;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Settings of the write-behind mode of a repository.
+ *
+ * <p>
+ * Example usage:
+ *
+ * <pre>
+ * {@code
+ * repository.enableWriteBehind(new WriteBehindConfig()
+ *         .batchSize(500)
+ *         .flushInterval(1, TimeUnit.SECONDS)
+ *         .onFailure((ids, error) -> logger.warn("Lost writes of " + ids, error)));
+ * }
+ * </pre>
+ *
+ * @see Repository#enableWriteBehind(WriteBehindConfig)
+ */
+public class WriteBehindConfig {
+    private int maxPending = 10_000;
+    private int batchSize = 500;
+    private long flushIntervalMillis = 1000;
+    private long enqueueTimeoutMillis = 30_000;
+    private boolean flushOnShutdown = true;
+    private FailureHandler failureHandler;
+
+    /**
+     * Sets the maximum number of entities waiting to be written. Saving a new
+     * entity while the queue is full blocks until the flusher makes room.
+     *
+     * @param maxPending The queue capacity
+     * @return This config, for chaining
+     * @throws IllegalArgumentException if the value is lower than 1
+     */
+    public WriteBehindConfig maxPending(int maxPending) {
+        if (maxPending < 1) {
+            throw new IllegalArgumentException("Write-behind queue capacity must be at least 1");
+        }
+        this.maxPending = maxPending;
+        return this;
+    }
+
+    /**
+     * Sets the number of pending entities that triggers a flush, which is also
+     * the maximum number of entities written per batch.
+     *
+     * @param batchSize The batch size
+     * @return This config, for chaining
+     * @throws IllegalArgumentException if the value is lower than 1
+     */
+    public WriteBehindConfig batchSize(int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Write-behind batch size must be at least 1");
+        }
+        this.batchSize = batchSize;
+        return this;
+    }
+
+    /**
+     * Sets how often pending entities are flushed when the batch size is not
+     * reached.
+     *
+     * @param interval The flush interval
+     * @param unit     The unit of the interval
+     * @return This config, for chaining
+     * @throws IllegalArgumentException if the interval is not positive
+     */
+    public WriteBehindConfig flushInterval(long interval, TimeUnit unit) {
+        if (interval <= 0) {
+            throw new IllegalArgumentException("Write-behind flush interval must be positive");
+        }
+        this.flushIntervalMillis = Math.max(1, unit.toMillis(interval));
+        return this;
+    }
+
+    /**
+     * Sets how long saving an entity waits for room in a full queue before
+     * failing.
+     *
+     * @param timeout The timeout
+     * @param unit    The unit of the timeout
+     * @return This config, for chaining
+     */
+    public WriteBehindConfig enqueueTimeout(long timeout, TimeUnit unit) {
+        this.enqueueTimeoutMillis = Math.max(0, unit.toMillis(timeout));
+        return this;
+    }
+
+    /**
+     * Sets whether pending entities are flushed when the JVM shuts down.
+     *
+     * @param flushOnShutdown true to register a shutdown hook (default)
+     * @return This config, for chaining
+     */
+    public WriteBehindConfig flushOnShutdown(boolean flushOnShutdown) {
+        this.flushOnShutdown = flushOnShutdown;
+        return this;
+    }
+
+    /**
+     * Sets the handler notified when a batch cannot be written. The entities
+     * of a failed batch are dropped from the queue unless saved again.
+     *
+     * @param failureHandler The handler
+     * @return This config, for chaining
+     */
+    public WriteBehindConfig onFailure(FailureHandler failureHandler) {
+        this.failureHandler = failureHandler;
+        return this;
+    }
+
+    /**
+     * @return The queue capacity
+     */
+    public int getMaxPending() {
+        return maxPending;
+    }
+
+    /**
+     * @return The batch size
+     */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * @return The flush interval in milliseconds
+     */
+    public long getFlushIntervalMillis() {
+        return flushIntervalMillis;
+    }
+
+    /**
+     * @return How long a save waits for room in a full queue, in milliseconds
+     */
+    public long getEnqueueTimeoutMillis() {
+        return enqueueTimeoutMillis;
+    }
+
+    /**
+     * @return true if pending entities are flushed on JVM shutdown
+     */
+    public boolean isFlushOnShutdown() {
+        return flushOnShutdown;
+    }
+
+    /**
+     * @return The failure handler, or null
+     */
+    public FailureHandler getFailureHandler() {
+        return failureHandler;
+    }
+
+    /**
+     * Notified when a batch of pending writes fails.
+     */
+    @FunctionalInterface
+    public interface FailureHandler {
+        /**
+         * Called from the flusher thread after a batch failed.
+         *
+         * @param ids   The identifiers of the entities that were not written
+         * @param error The cause of the failure
+         */
+        void onFailure(List<String> ids, Throwable error);
+    }
+}
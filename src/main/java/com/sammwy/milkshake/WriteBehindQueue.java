@@ -0,0 +1,374 @@
+package com.sammwy.milkshake;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.sammwy.milkshake.query.WriteOperation;
+import com.sammwy.milkshake.schema.Schema;
+
+/**
+ * Buffers the saves of a repository in memory and writes them in batches from
+ * a background thread.
+ *
+ * <p>
+ * Entities are queued by identifier: saving an entity that is already waiting
+ * replaces its pending state instead of adding another write, so an entity
+ * saved many times between two flushes is written once. The state is captured
+ * when {@link #save(Schema)} is called, so later changes to the entity are
+ * only written if it is saved again.
+ *
+ * <p>
+ * A flush is triggered when the batch size is reached and on every flush
+ * interval. The queue is bounded: saving a new entity while it is full blocks
+ * the caller until the flusher makes room.
+ *
+ * @param <T> The Schema type
+ * @see Repository#enableWriteBehind(WriteBehindConfig)
+ */
+public class WriteBehindQueue<T extends Schema> implements AutoCloseable {
+    private final Repository<T> repository;
+    private final WriteBehindConfig config;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notFull = lock.newCondition();
+    private final LinkedHashMap<String, Pending<T>> pending = new LinkedHashMap<>();
+    private boolean flushRequested;
+    private boolean closed;
+
+    /**
+     * Serializes flushes, so batches of the same entity are never reordered,
+     * and deletes with the flushes.
+     */
+    private final ReentrantLock flushLock = new ReentrantLock();
+    private final ScheduledExecutorService flusher;
+    private final Thread shutdownHook;
+
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    WriteBehindQueue(Repository<T> repository, WriteBehindConfig config) {
+        this.repository = repository;
+        this.config = config;
+
+        this.flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "milkshake-write-behind-" + repository.getCollectionName());
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = config.getFlushIntervalMillis();
+        this.flusher.scheduleWithFixedDelay(this::flushQuietly, interval, interval, TimeUnit.MILLISECONDS);
+
+        if (config.isFlushOnShutdown()) {
+            this.shutdownHook = new Thread(this::flushQuietly, "milkshake-write-behind-shutdown");
+            Runtime.getRuntime().addShutdownHook(shutdownHook);
+        } else {
+            this.shutdownHook = null;
+        }
+    }
+
+    /**
+     * Queues the current state of an entity, replacing the pending state of the
+     * same entity if any.
+     *
+     * @param entity The entity to save
+     * @throws IllegalStateException if the queue is closed
+     * @throws RuntimeException      if the queue stayed full for longer than the
+     *                               enqueue timeout
+     */
+    public void save(T entity) {
+        String id = entity.getId();
+        Map<String, Object> document = entity.toMap();
+        boolean flush = false;
+
+        lock.lock();
+        try {
+            checkOpen();
+            if (pending.containsKey(id)) {
+                coalesced.incrementAndGet();
+            } else {
+                long remaining = TimeUnit.MILLISECONDS.toNanos(config.getEnqueueTimeoutMillis());
+                while (pending.size() >= config.getMaxPending()) {
+                    requestFlush();
+                    if (remaining <= 0) {
+                        throw new RuntimeException("Write-behind queue of " + repository.getCollectionName()
+                                + " is full (" + config.getMaxPending() + " pending entities)");
+                    }
+                    try {
+                        remaining = notFull.awaitNanos(remaining);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new RuntimeException("Interrupted while waiting for the write-behind queue", e);
+                    }
+                    checkOpen();
+                }
+            }
+
+            pending.put(id, new Pending<>(entity, document));
+            if (pending.size() >= config.getBatchSize() && !flushRequested) {
+                flushRequested = true;
+                flush = true;
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        if (flush) {
+            submitFlush();
+        }
+    }
+
+    /**
+     * Checks whether an entity is waiting to be written.
+     *
+     * @param id The identifier of the entity
+     * @return true if the entity has a pending write
+     */
+    public boolean isPending(String id) {
+        lock.lock();
+        try {
+            return pending.containsKey(id);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Drops the pending write of an entity, e.g. because it is being deleted.
+     *
+     * @param id The identifier of the entity
+     * @return true if a pending write was dropped
+     */
+    public boolean cancel(String id) {
+        lock.lock();
+        try {
+            boolean removed = pending.remove(id) != null;
+            if (removed) {
+                notFull.signalAll();
+            }
+            return removed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Prepares a delete of the repository, which must run before
+     * {@link #endDelete()} is called. Waits for the batch being written, if
+     * any, and holds back the next ones, so no queued state can be written
+     * after the delete and restore a deleted entity. The pending writes of the
+     * deleted identifiers are dropped; if they are not known (a delete by
+     * filter), every pending entity is written first instead, so the delete
+     * applies to the state saved before it.
+     *
+     * @param ids The identifiers of the deleted entities, or null if unknown
+     */
+    void beginDelete(Collection<String> ids) {
+        flushLock.lock();
+        try {
+            if (ids == null) {
+                flush();
+            } else {
+                for (String id : ids) {
+                    cancel(id);
+                }
+            }
+        } catch (RuntimeException e) {
+            flushLock.unlock();
+            throw e;
+        }
+    }
+
+    /**
+     * Lets the flushes go on after a delete started by
+     * {@link #beginDelete(Collection)}.
+     */
+    void endDelete() {
+        flushLock.unlock();
+    }
+
+    /**
+     * Writes every pending entity on the calling thread and waits until done.
+     * Failed batches are reported to the failure handler.
+     */
+    public void flush() {
+        flushLock.lock();
+        try {
+            while (true) {
+                List<Pending<T>> batch = takeBatch();
+                if (batch.isEmpty()) {
+                    return;
+                }
+                write(batch);
+            }
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    /**
+     * @return The number of entities waiting to be written
+     */
+    public int getPendingCount() {
+        lock.lock();
+        try {
+            return pending.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return The number of entities written so far
+     */
+    public long getWrittenCount() {
+        return written.get();
+    }
+
+    /**
+     * @return The number of saves merged into an already pending write
+     */
+    public long getCoalescedCount() {
+        return coalesced.get();
+    }
+
+    /**
+     * @return The number of entities whose write failed
+     */
+    public long getFailedCount() {
+        return failed.get();
+    }
+
+    /**
+     * Stops accepting saves, writes every pending entity and stops the flusher
+     * thread.
+     */
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(config.getFlushIntervalMillis(), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+
+        if (shutdownHook != null) {
+            try {
+                Runtime.getRuntime().removeShutdownHook(shutdownHook);
+            } catch (IllegalStateException e) {
+                // Already shutting down, the hook is running
+            }
+        }
+    }
+
+    private void requestFlush() {
+        if (!flushRequested) {
+            flushRequested = true;
+            submitFlush();
+        }
+    }
+
+    private void submitFlush() {
+        try {
+            flusher.execute(this::flushQuietly);
+        } catch (RejectedExecutionException e) {
+            // Closing, the remaining entities are flushed by close()
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            // Reported to the failure handler, keep the flusher alive
+        }
+    }
+
+    private List<Pending<T>> takeBatch() {
+        lock.lock();
+        try {
+            flushRequested = false;
+            List<Pending<T>> batch = new ArrayList<>(Math.min(pending.size(), config.getBatchSize()));
+            Iterator<Pending<T>> iterator = pending.values().iterator();
+            while (iterator.hasNext() && batch.size() < config.getBatchSize()) {
+                batch.add(iterator.next());
+                iterator.remove();
+            }
+            if (!batch.isEmpty()) {
+                notFull.signalAll();
+            }
+            return batch;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void write(List<Pending<T>> batch) {
+        List<WriteOperation> operations = new ArrayList<>(batch.size());
+        for (Pending<T> entry : batch) {
+            operations.add(WriteOperation.upsert(repository.getCollectionName(), entry.document,
+                    repository.getPrimaryKey()));
+        }
+
+        try {
+            repository.getProvider().bulkWrite(operations);
+            written.addAndGet(batch.size());
+            for (Pending<T> entry : batch) {
+                entry.entity.markClean(entry.document);
+            }
+        } catch (RuntimeException e) {
+            failed.addAndGet(batch.size());
+            WriteBehindConfig.FailureHandler handler = config.getFailureHandler();
+            if (handler != null) {
+                List<String> ids = new ArrayList<>(batch.size());
+                for (Pending<T> entry : batch) {
+                    ids.add(entry.entity.getId());
+                }
+                handler.onFailure(ids, e);
+            }
+        } finally {
+            for (Pending<T> entry : batch) {
+                repository.invalidateCached(entry.entity.getId());
+            }
+        }
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("Write-behind queue of " + repository.getCollectionName() + " is closed");
+        }
+    }
+
+    private static final class Pending<T extends Schema> {
+        final T entity;
+        final Map<String, Object> document;
+
+        Pending(T entity, Map<String, Object> document) {
+            this.entity = entity;
+            this.document = document;
+        }
+    }
+}
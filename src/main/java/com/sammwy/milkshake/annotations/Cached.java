@@ -0,0 +1,48 @@
+package com.sammwy.milkshake.annotations;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+import com.sammwy.milkshake.Repository;
+import com.sammwy.milkshake.schema.Schema;
+
+/**
+ * Enables the entity cache of the repository of a schema, so lookups by
+ * identifier are served from memory after the first load.
+ *
+ * <p>
+ * Example usage:
+ * 
+ * <pre>
+ * {@code
+ * @SchemaType("users")
+ * @Cached(maxEntries = 5000, ttlSeconds = 60)
+ * public class User extends Schema {
+ *     // class implementation
+ * }
+ * }
+ * </pre>
+ *
+ * @see Repository#enableCache(com.sammwy.milkshake.cache.CacheConfig)
+ * @see Schema
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface Cached {
+    /**
+     * The maximum number of cached entities. The least recently used entities
+     * are evicted first.
+     *
+     * @return The maximum number of entries
+     */
+    int maxEntries() default 10_000;
+
+    /**
+     * How long an entity stays cached after being loaded, in seconds.
+     *
+     * @return The time to live, or 0 (default) to keep entries until evicted
+     */
+    long ttlSeconds() default 0;
+}
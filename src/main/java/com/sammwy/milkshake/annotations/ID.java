@@ -5,7 +5,9 @@ import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.lang.annotation.Target;
 
+import com.sammwy.milkshake.schema.IdGenerator;
 import com.sammwy.milkshake.schema.Schema;
+import com.sammwy.milkshake.schema.UUIDv7Generator;
 
 /**
  * Marks a field as the unique identifier for a document in the database.
@@ -35,4 +37,13 @@ public @interface ID {
      * @return The custom name for the database field.
      */
     String name() default "_id";
+
+    /**
+     * Specifies the generator of the identifiers of new documents. The
+     * identifier is generated lazily, the first time it is read, so documents
+     * loaded from the database never generate one.
+     *
+     * @return The generator class
+     */
+    Class<? extends IdGenerator> generator() default UUIDv7Generator.class;
 }
\ No newline at end of file
@@ -0,0 +1,63 @@
+package com.sammwy.milkshake.annotations;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Repeatable;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+import com.sammwy.milkshake.schema.Schema;
+
+/**
+ * Declares a database index on a schema. Missing indexes are created when the
+ * repository of the schema is added to a provider.
+ *
+ * <p>
+ * On a field, the index covers that field followed by any extra
+ * {@link #fields()}. On a class, {@link #fields()} lists the indexed fields
+ * and is required. Field names are the names used in the database.
+ *
+ * <p>
+ * Example usage:
+ * 
+ * <pre>
+ * {@code
+ * @SchemaType("users")
+ * @Index(fields = { "guild", "coins" })
+ * public class User extends Schema {
+ *     @Prop
+ *     @Index(unique = true)
+ *     public String username;
+ * }
+ * }
+ * </pre>
+ *
+ * @see Schema
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ ElementType.FIELD, ElementType.TYPE })
+@Repeatable(Indexes.class)
+public @interface Index {
+    /**
+     * Specifies the name of the index.
+     * If empty (default), a name is derived from the collection and the fields.
+     *
+     * @return The index name, or empty string to derive it
+     */
+    String name() default "";
+
+    /**
+     * The indexed fields, in order. On a field these are appended after the
+     * annotated field to build a compound index.
+     *
+     * @return The indexed field names
+     */
+    String[] fields() default {};
+
+    /**
+     * Indicates whether the indexed values must be unique.
+     *
+     * @return true if the index is unique, false otherwise (default)
+     */
+    boolean unique() default false;
+}
@@ -0,0 +1,20 @@
+package com.sammwy.milkshake.annotations;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Container for repeated {@link Index} annotations.
+ *
+ * @see Index
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ ElementType.FIELD, ElementType.TYPE })
+public @interface Indexes {
+    /**
+     * @return The repeated index declarations
+     */
+    Index[] value();
+}
@@ -0,0 +1,114 @@
+package com.sammwy.milkshake.cache;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.sammwy.milkshake.annotations.Cached;
+
+/**
+ * Bounds and expiration of a cache.
+ *
+ * <p>
+ * Example usage:
+ * 
+ * <pre>
+ * {@code
+ * CacheConfig config = new CacheConfig()
+ *         .maxEntries(5000)
+ *         .ttl(30, TimeUnit.SECONDS);
+ * }
+ * </pre>
+ */
+public class CacheConfig {
+    public static final int DEFAULT_MAX_ENTRIES = 10_000;
+
+    private int maxEntries = DEFAULT_MAX_ENTRIES;
+    private long maxWeight;
+    private Weigher<Object, Map<String, Object>> weigher;
+    private long ttlNanos;
+
+    /**
+     * Creates the configuration declared by a {@link Cached} annotation.
+     *
+     * @param cached The annotation
+     * @return The configuration
+     */
+    public static CacheConfig of(Cached cached) {
+        return new CacheConfig().maxEntries(cached.maxEntries()).ttl(cached.ttlSeconds(), TimeUnit.SECONDS);
+    }
+
+    /**
+     * Sets the maximum number of entries. The least recently used entries are
+     * evicted first.
+     *
+     * @param maxEntries The maximum number of entries
+     * @return This config, for chaining
+     * @throws IllegalArgumentException if the value is lower than 1
+     */
+    public CacheConfig maxEntries(int maxEntries) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("Cache max entries must be at least 1");
+        }
+        this.maxEntries = maxEntries;
+        return this;
+    }
+
+    /**
+     * Bounds the total weight of the entries, in addition to their number.
+     *
+     * @param maxWeight The maximum total weight
+     * @param weigher   Computes the weight of an entry from its key and its
+     *                  document
+     * @return This config, for chaining
+     * @throws IllegalArgumentException if the weight is lower than 1
+     */
+    @SuppressWarnings("unchecked")
+    public CacheConfig maxWeight(long maxWeight, Weigher<?, Map<String, Object>> weigher) {
+        if (maxWeight < 1) {
+            throw new IllegalArgumentException("Cache max weight must be at least 1");
+        }
+        this.maxWeight = maxWeight;
+        this.weigher = (Weigher<Object, Map<String, Object>>) weigher;
+        return this;
+    }
+
+    /**
+     * Sets how long an entry stays cached after being written.
+     *
+     * @param duration The time to live, or 0 to keep entries until evicted
+     * @param unit     The unit of the duration
+     * @return This config, for chaining
+     */
+    public CacheConfig ttl(long duration, TimeUnit unit) {
+        this.ttlNanos = Math.max(0, unit.toNanos(duration));
+        return this;
+    }
+
+    /**
+     * @return The maximum number of entries
+     */
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    /**
+     * @return The maximum total weight, or 0 if the weight is not bounded
+     */
+    public long getMaxWeight() {
+        return maxWeight;
+    }
+
+    /**
+     * @return The weigher of the entries, or null if the weight is not bounded
+     */
+    public Weigher<Object, Map<String, Object>> getWeigher() {
+        return weigher;
+    }
+
+    /**
+     * @return The time to live in nanoseconds, or 0 if entries do not expire
+     */
+    public long getTtlNanos() {
+        return ttlNanos;
+    }
+}
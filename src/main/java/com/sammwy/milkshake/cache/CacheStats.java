@@ -0,0 +1,89 @@
+package com.sammwy.milkshake.cache;
+
+/**
+ * Immutable snapshot of the usage of a cache.
+ */
+public class CacheStats {
+    private final long hits;
+    private final long misses;
+    private final long evictions;
+    private final long expirations;
+    private final long invalidations;
+    private final int size;
+    private final long weight;
+
+    public CacheStats(long hits, long misses, long evictions, long expirations, long invalidations, int size,
+            long weight) {
+        this.hits = hits;
+        this.misses = misses;
+        this.evictions = evictions;
+        this.expirations = expirations;
+        this.invalidations = invalidations;
+        this.size = size;
+        this.weight = weight;
+    }
+
+    /**
+     * @return The number of lookups served from the cache
+     */
+    public long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return The number of lookups that had to go to the database
+     */
+    public long getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return The number of entries evicted to stay within the bounds
+     */
+    public long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * @return The number of entries dropped because their time to live elapsed
+     */
+    public long getExpirations() {
+        return expirations;
+    }
+
+    /**
+     * @return The number of entries dropped because of writes
+     */
+    public long getInvalidations() {
+        return invalidations;
+    }
+
+    /**
+     * @return The number of cached entries
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * @return The total weight of the cached entries, 0 if not weighed
+     */
+    public long getWeight() {
+        return weight;
+    }
+
+    /**
+     * @return The fraction of lookups served from the cache, between 0 and 1
+     */
+    public double getHitRatio() {
+        long total = hits + misses;
+        return total == 0 ? 0 : hits / (double) total;
+    }
+
+    @Override
+    public String toString() {
+        return "CacheStats{hits=" + hits + ", misses=" + misses + ", evictions=" + evictions + ", expirations="
+                + expirations + ", invalidations=" + invalidations + ", size=" + size + ", weight=" + weight
+                + ", hitRatio=" + String.format("%.2f", getHitRatio()) + "}";
+    }
+}
@@ -0,0 +1,226 @@
+package com.sammwy.milkshake.cache;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
+
+/**
+ * Bounded LRU map with per-entry time to live, shared by the caches of this
+ * package.
+ *
+ * <p>
+ * Every invalidation bumps a version counter. Loaders read the version before
+ * going to the database and store their result with
+ * {@link #putIfCurrent(Object, Object, long)}, so a value read before a
+ * concurrent write is never cached after that write invalidated it.
+ *
+ * @param <K> The key type
+ * @param <V> The value type
+ */
+class CacheStore<K, V> {
+    private final int maxEntries;
+    private final long maxWeight;
+    private final Weigher<? super K, ? super V> weigher;
+    private final long ttlNanos;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final LinkedHashMap<K, Entry<V>> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long weight;
+    private long version;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+
+    CacheStore(int maxEntries, long maxWeight, Weigher<? super K, ? super V> weigher, long ttlNanos) {
+        this.maxEntries = maxEntries;
+        this.maxWeight = weigher != null ? maxWeight : 0;
+        this.weigher = weigher;
+        this.ttlNanos = ttlNanos;
+    }
+
+    V get(K key) {
+        return get(key, null);
+    }
+
+    /**
+     * Gets a value, dropping it if it no longer passes the given check.
+     *
+     * @param valid Checks whether a cached value is still current, may be null
+     * @return The value, or null if it is missing, expired or invalid
+     */
+    V get(K key, Predicate<V> valid) {
+        lock.lock();
+        try {
+            Entry<V> entry = entries.get(key);
+            if (entry == null) {
+                misses.increment();
+                return null;
+            }
+
+            if (entry.isExpired(System.nanoTime())) {
+                entries.remove(key);
+                weight -= entry.weight;
+                expirations.increment();
+                misses.increment();
+                return null;
+            }
+
+            if (valid != null && !valid.test(entry.value)) {
+                entries.remove(key);
+                weight -= entry.weight;
+                invalidations.increment();
+                misses.increment();
+                return null;
+            }
+
+            hits.increment();
+            return entry.value;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    long version() {
+        lock.lock();
+        try {
+            return version;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stores a value unless the cache was invalidated after the given version
+     * was read.
+     *
+     * @return true if the value was stored
+     */
+    boolean putIfCurrent(K key, V value, long expectedVersion) {
+        return put(key, value, expectedVersion, true);
+    }
+
+    /**
+     * Stores a value regardless of the version.
+     *
+     * @return true if the value was stored
+     */
+    boolean put(K key, V value) {
+        return put(key, value, 0, false);
+    }
+
+    private boolean put(K key, V value, long expectedVersion, boolean checkVersion) {
+        long entryWeight = weigher != null ? Math.max(0, weigher.weigh(key, value)) : 0;
+        if (maxWeight > 0 && entryWeight > maxWeight) {
+            return false; // Would evict everything else and still not fit
+        }
+
+        long expiresAt = ttlNanos > 0 ? System.nanoTime() + ttlNanos : 0;
+        lock.lock();
+        try {
+            if (checkVersion && version != expectedVersion) {
+                return false;
+            }
+
+            Entry<V> previous = entries.put(key, new Entry<>(value, entryWeight, expiresAt));
+            if (previous != null) {
+                weight -= previous.weight;
+            }
+            weight += entryWeight;
+            evictOverflow();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void invalidate(K key) {
+        lock.lock();
+        try {
+            version++;
+            Entry<V> entry = entries.remove(key);
+            if (entry != null) {
+                weight -= entry.weight;
+                invalidations.increment();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void invalidateIf(Predicate<K> predicate) {
+        lock.lock();
+        try {
+            version++;
+            Iterator<Map.Entry<K, Entry<V>>> iterator = entries.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<K, Entry<V>> entry = iterator.next();
+                if (predicate.test(entry.getKey())) {
+                    weight -= entry.getValue().weight;
+                    iterator.remove();
+                    invalidations.increment();
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void invalidateAll() {
+        lock.lock();
+        try {
+            version++;
+            invalidations.add(entries.size());
+            entries.clear();
+            weight = 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    CacheStats getStats() {
+        lock.lock();
+        try {
+            return new CacheStats(hits.sum(), misses.sum(), evictions.sum(), expirations.sum(),
+                    invalidations.sum(), entries.size(), weight);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void evictOverflow() {
+        Iterator<Entry<V>> eldest = entries.values().iterator();
+        long now = System.nanoTime();
+        while (eldest.hasNext() && (entries.size() > maxEntries || (maxWeight > 0 && weight > maxWeight))) {
+            Entry<V> entry = eldest.next();
+            eldest.remove();
+            weight -= entry.weight;
+            if (entry.isExpired(now)) {
+                expirations.increment();
+            } else {
+                evictions.increment();
+            }
+        }
+    }
+
+    private static final class Entry<V> {
+        final V value;
+        final long weight;
+        final long expiresAt;
+
+        Entry(V value, long weight, long expiresAt) {
+            this.value = value;
+            this.weight = weight;
+            this.expiresAt = expiresAt;
+        }
+
+        boolean isExpired(long now) {
+            return expiresAt != 0 && now - expiresAt >= 0;
+        }
+    }
+}
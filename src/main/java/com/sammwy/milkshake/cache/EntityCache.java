@@ -0,0 +1,88 @@
+package com.sammwy.milkshake.cache;
+
+import java.util.Map;
+
+import com.sammwy.milkshake.schema.Schema;
+
+/**
+ * Second-level cache of the documents of one repository, keyed by identifier.
+ *
+ * <p>
+ * The cache stores a private copy of every document instead of the entities
+ * themselves, so each lookup builds a fresh entity and changes made to a
+ * loaded entity never leak into the cache before they are saved.
+ *
+ * @see com.sammwy.milkshake.Repository#enableCache(CacheConfig)
+ */
+public class EntityCache {
+    private final CacheStore<String, Map<String, Object>> store;
+
+    public EntityCache(CacheConfig config) {
+        this.store = new CacheStore<>(config.getMaxEntries(), config.getMaxWeight(), config.getWeigher(),
+                config.getTtlNanos());
+    }
+
+    /**
+     * Gets a copy of the cached document of an entity.
+     *
+     * @param id The identifier of the entity
+     * @return The document, or null if it is not cached
+     */
+    public Map<String, Object> get(String id) {
+        Map<String, Object> document = store.get(id);
+        return document != null ? copy(document) : null;
+    }
+
+    /**
+     * Gets the current version of the cache, to be passed to
+     * {@link #putIfCurrent(String, Map, long)} after loading a document.
+     *
+     * @return The version
+     */
+    public long version() {
+        return store.version();
+    }
+
+    /**
+     * Caches a copy of a document loaded from the database, unless an entity
+     * was invalidated since the given version was read.
+     *
+     * @param id       The identifier of the entity
+     * @param document The loaded document
+     * @param version  The version read before loading the document
+     * @return true if the document was cached
+     */
+    public boolean putIfCurrent(String id, Map<String, Object> document, long version) {
+        return store.putIfCurrent(id, copy(document), version);
+    }
+
+    /**
+     * Drops the cached document of an entity after it was written.
+     *
+     * @param id The identifier of the entity
+     */
+    public void invalidate(String id) {
+        store.invalidate(id);
+    }
+
+    /**
+     * Drops every cached document, e.g. after a write that may have changed any
+     * entity.
+     */
+    public void invalidateAll() {
+        store.invalidateAll();
+    }
+
+    /**
+     * Gets a snapshot of the cache usage.
+     *
+     * @return The cache statistics
+     */
+    public CacheStats getStats() {
+        return store.getStats();
+    }
+
+    static Map<String, Object> copy(Map<String, Object> document) {
+        return Schema.copyDocument(document);
+    }
+}
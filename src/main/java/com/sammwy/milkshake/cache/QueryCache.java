@@ -0,0 +1,223 @@
+package com.sammwy.milkshake.cache;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sammwy.milkshake.query.Filter.Find;
+
+/**
+ * Cache of query results shared by every repository of a provider, keyed by
+ * the collection and a normalized form of the Find filter.
+ *
+ * <p>
+ * Filters are normalized so that equivalent queries share an entry: criteria
+ * fields, selected fields and $in values are order-independent, and integral
+ * or decimal numbers of different types compare equal. Sort fields keep their
+ * order since it changes the result.
+ *
+ * <p>
+ * Every collection has a version stamp that the provider bumps on each write
+ * to it (see {@link #notifyWrite(String)}). Entries remember the version they
+ * were loaded at and are dropped once it is outdated, so a write invalidates
+ * all the cached queries of its collection in constant time.
+ */
+public class QueryCache {
+    private final CacheStore<String, Result> store;
+    private final Map<String, AtomicLong> versions = new ConcurrentHashMap<>();
+
+    public QueryCache(CacheConfig config) {
+        Weigher<Object, Map<String, Object>> weigher = config.getWeigher();
+        this.store = new CacheStore<>(config.getMaxEntries(), config.getMaxWeight(),
+                weigher == null ? null : (key, result) -> {
+                    long weight = 1;
+                    for (Map<String, Object> document : result.documents) {
+                        weight += weigher.weigh(key, document);
+                    }
+                    return weight;
+                },
+                config.getTtlNanos());
+    }
+
+    /**
+     * Gets a copy of the cached result of a query.
+     *
+     * @param collection The collection name
+     * @param criteria   The filter
+     * @return The documents, or null if the result is not cached or outdated
+     */
+    public List<Map<String, Object>> get(String collection, Find criteria) {
+        Result result = store.get(keyOf(collection, criteria),
+                cached -> cached.version == versionOf(collection).get());
+        if (result == null) {
+            return null;
+        }
+
+        List<Map<String, Object>> copy = new ArrayList<>(result.documents.size());
+        for (Map<String, Object> document : result.documents) {
+            copy.add(EntityCache.copy(document));
+        }
+        return copy;
+    }
+
+    /**
+     * Gets the current version of a collection, to be passed to
+     * {@link #putIfCurrent(String, Find, List, long)} after running a query.
+     *
+     * @param collection The collection name
+     * @return The version
+     */
+    public long version(String collection) {
+        return versionOf(collection).get();
+    }
+
+    /**
+     * Caches a copy of the result of a query, unless the collection was written
+     * since the given version was read.
+     *
+     * @param collection The collection name
+     * @param criteria   The filter
+     * @param documents  The result
+     * @param version    The version read before running the query
+     * @return true if the result was cached
+     */
+    public boolean putIfCurrent(String collection, Find criteria, List<Map<String, Object>> documents,
+            long version) {
+        if (version != versionOf(collection).get()) {
+            return false;
+        }
+
+        List<Map<String, Object>> copy = new ArrayList<>(documents.size());
+        for (Map<String, Object> document : documents) {
+            copy.add(EntityCache.copy(document));
+        }
+        return store.put(keyOf(collection, criteria), new Result(version, copy));
+    }
+
+    /**
+     * Invalidates every cached query of a collection after a write to it.
+     *
+     * @param collection The collection name
+     */
+    public void notifyWrite(String collection) {
+        versionOf(collection).incrementAndGet();
+    }
+
+    /**
+     * Drops every cached query.
+     */
+    public void invalidateAll() {
+        for (AtomicLong version : versions.values()) {
+            version.incrementAndGet();
+        }
+        store.invalidateAll();
+    }
+
+    /**
+     * Gets a snapshot of the cache usage.
+     *
+     * @return The cache statistics
+     */
+    public CacheStats getStats() {
+        return store.getStats();
+    }
+
+    private AtomicLong versionOf(String collection) {
+        return versions.computeIfAbsent(collection, key -> new AtomicLong());
+    }
+
+    /**
+     * Builds the normalized key of a query.
+     *
+     * @param collection The collection name
+     * @param criteria   The filter, may be null
+     * @return The key
+     */
+    static String keyOf(String collection, Find criteria) {
+        StringBuilder key = new StringBuilder(64).append(collection).append('|');
+        if (criteria == null) {
+            return key.toString();
+        }
+
+        appendValue(key, criteria.getCriteria(), false);
+        if (criteria.getProjection() != null) {
+            key.append("#").append(new TreeSet<>(criteria.getProjection()));
+        }
+        if (!criteria.getSort().isEmpty()) {
+            key.append('@');
+            for (Map.Entry<String, Integer> entry : criteria.getSort().entrySet()) {
+                key.append(entry.getKey()).append(entry.getValue() < 0 ? '-' : '+');
+            }
+        }
+        if (criteria.getAfter() != null) {
+            key.append('>');
+            appendValue(key, criteria.getAfter(), false);
+        }
+        if (criteria.getLimit() > 0) {
+            key.append('l').append(criteria.getLimit());
+        }
+        if (criteria.getSkip() > 0) {
+            key.append('o').append(criteria.getSkip());
+        }
+        return key.toString();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void appendValue(StringBuilder key, Object value, boolean unordered) {
+        if (value == null) {
+            key.append('n');
+        } else if (value instanceof String) {
+            String string = (String) value;
+            key.append('s').append(string.length()).append(':').append(string);
+        } else if (value instanceof Byte || value instanceof Short || value instanceof Integer
+                || value instanceof Long) {
+            key.append('i').append(((Number) value).longValue()).append(';');
+        } else if (value instanceof Float || value instanceof Double) {
+            key.append('d').append(((Number) value).doubleValue()).append(';');
+        } else if (value instanceof Boolean) {
+            key.append((Boolean) value ? 'T' : 'F');
+        } else if (value instanceof Map) {
+            key.append('{');
+            for (Map.Entry<String, Object> entry : new TreeMap<>((Map<String, Object>) value).entrySet()) {
+                String field = entry.getKey();
+                key.append(field.length()).append(':').append(field);
+                appendValue(key, entry.getValue(), field.equals("$in") || field.equals("$nin")
+                        || field.equals("$or") || field.equals("$and"));
+            }
+            key.append('}');
+        } else if (value instanceof List) {
+            List<String> items = new ArrayList<>();
+            for (Object item : (List<Object>) value) {
+                StringBuilder itemKey = new StringBuilder();
+                appendValue(itemKey, item, false);
+                items.add(itemKey.toString());
+            }
+            if (unordered) {
+                items.sort(null);
+            }
+            key.append('[');
+            for (String item : items) {
+                key.append(item);
+            }
+            key.append(']');
+        } else {
+            String string = String.valueOf(value);
+            key.append('o').append(value.getClass().getName()).append(':').append(string.length()).append(':')
+                    .append(string);
+        }
+    }
+
+    private static final class Result {
+        final long version;
+        final List<Map<String, Object>> documents;
+
+        Result(long version, List<Map<String, Object>> documents) {
+            this.version = version;
+            this.documents = documents;
+        }
+    }
+}
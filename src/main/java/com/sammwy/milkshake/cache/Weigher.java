@@ -0,0 +1,20 @@
+package com.sammwy.milkshake.cache;
+
+/**
+ * Computes the weight of a cache entry, used to bound caches by something
+ * other than their number of entries (e.g. an estimate of their size).
+ *
+ * @param <K> The key type
+ * @param <V> The value type
+ */
+@FunctionalInterface
+public interface Weigher<K, V> {
+    /**
+     * Gets the weight of an entry.
+     *
+     * @param key   The key of the entry
+     * @param value The cached value
+     * @return The weight, at least 0
+     */
+    long weigh(K key, V value);
+}
@@ -0,0 +1,47 @@
+package com.sammwy.milkshake.codec;
+
+/**
+ * Value conversions used by the generated codecs, mirroring the types
+ * returned by the database drivers (e.g. SQLite booleans stored as integers).
+ */
+public final class CodecSupport {
+    private CodecSupport() {
+    }
+
+    public static int toInt(Object value) {
+        return value instanceof Number ? ((Number) value).intValue() : Integer.parseInt(value.toString());
+    }
+
+    public static long toLong(Object value) {
+        return value instanceof Number ? ((Number) value).longValue() : Long.parseLong(value.toString());
+    }
+
+    public static short toShort(Object value) {
+        return value instanceof Number ? ((Number) value).shortValue() : Short.parseShort(value.toString());
+    }
+
+    public static byte toByte(Object value) {
+        return value instanceof Number ? ((Number) value).byteValue() : Byte.parseByte(value.toString());
+    }
+
+    public static double toDouble(Object value) {
+        return value instanceof Number ? ((Number) value).doubleValue() : Double.parseDouble(value.toString());
+    }
+
+    public static float toFloat(Object value) {
+        return value instanceof Number ? ((Number) value).floatValue() : Float.parseFloat(value.toString());
+    }
+
+    public static boolean toBoolean(Object value) {
+        if (value instanceof Boolean) {
+            return (Boolean) value;
+        } else if (value instanceof Number) {
+            return ((Number) value).intValue() != 0;
+        }
+        return Boolean.parseBoolean(value.toString());
+    }
+
+    public static String toStr(Object value) {
+        return value instanceof String ? (String) value : value.toString();
+    }
+}
@@ -0,0 +1,46 @@
+package com.sammwy.milkshake.codec;
+
+import java.util.List;
+import java.util.Map;
+
+import com.sammwy.milkshake.schema.Schema;
+
+/**
+ * Converts a Schema class to and from its document representation without
+ * reflection. Implementations are generated at compile time by
+ * {@link com.sammwy.milkshake.codec.processor.SchemaCodecProcessor} as
+ * {@code <SchemaName>_MilkshakeCodec} and discovered with
+ * {@link java.util.ServiceLoader}.
+ *
+ * @param <T> The Schema type
+ * @see SchemaCodecs
+ */
+public interface SchemaCodec<T extends Schema> {
+    /**
+     * @return The Schema class handled by this codec
+     */
+    Class<T> getSchemaClass();
+
+    /**
+     * @return The declared types of the persistent fields, used to detect
+     *         custom serializers that the codec would bypass
+     */
+    List<Class<?>> getFieldTypes();
+
+    /**
+     * Converts an entity to a document.
+     *
+     * @param entity The entity
+     * @return The document, with one entry per persistent field
+     */
+    Map<String, Object> encode(T entity);
+
+    /**
+     * Creates an entity from a document. Fields missing from the document keep
+     * their default values.
+     *
+     * @param data The document
+     * @return The new entity
+     */
+    T decode(Map<String, Object> data);
+}
@@ -0,0 +1,64 @@
+package com.sammwy.milkshake.codec;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.ServiceLoader;
+
+import com.sammwy.milkshake.SerializerRegistry;
+import com.sammwy.milkshake.schema.Schema;
+
+/**
+ * Registry of the generated {@link SchemaCodec}s found on the class path.
+ */
+public final class SchemaCodecs {
+    private static final ClassValue<SchemaCodec<?>> ACTIVE = new ClassValue<>() {
+        @Override
+        protected SchemaCodec<?> computeValue(Class<?> type) {
+            SchemaCodec<?> codec = Loaded.CODECS.get(type);
+            if (codec == null) {
+                return null;
+            }
+
+            // A custom serializer registered for one of the field types must win
+            // over the direct field access of the codec.
+            for (Class<?> fieldType : codec.getFieldTypes()) {
+                if (SerializerRegistry.getSerializers().containsKey(fieldType)) {
+                    return null;
+                }
+            }
+            return codec;
+        }
+    };
+
+    private SchemaCodecs() {
+    }
+
+    /**
+     * Gets the generated codec of a Schema class.
+     *
+     * @param <T>         The Schema type
+     * @param schemaClass The Schema class
+     * @return The codec, or null if none was generated and reflection must be
+     *         used instead
+     */
+    @SuppressWarnings("unchecked")
+    public static <T extends Schema> SchemaCodec<T> get(Class<T> schemaClass) {
+        return (SchemaCodec<T>) ACTIVE.get(schemaClass);
+    }
+
+    /**
+     * Lazily loads the codecs the first time one is requested.
+     */
+    private static final class Loaded {
+        @SuppressWarnings("rawtypes")
+        static final Map<Class<?>, SchemaCodec<?>> CODECS = new HashMap<>();
+
+        static {
+            @SuppressWarnings("rawtypes")
+            ServiceLoader<SchemaCodec> loader = ServiceLoader.load(SchemaCodec.class, SchemaCodecs.class.getClassLoader());
+            for (SchemaCodec<?> codec : loader) {
+                CODECS.put(codec.getSchemaClass(), codec);
+            }
+        }
+    }
+}
@@ -0,0 +1,314 @@
+package com.sammwy.milkshake.codec.processor;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+
+import com.sammwy.milkshake.annotations.Embedded;
+import com.sammwy.milkshake.annotations.ID;
+import com.sammwy.milkshake.annotations.Prop;
+import com.sammwy.milkshake.codec.SchemaCodec;
+
+/**
+ * Generates a {@link SchemaCodec} named {@code <SchemaName>_MilkshakeCodec}
+ * for every {@code @SchemaType} class, reading and writing its fields
+ * directly, and registers them in
+ * {@code META-INF/services/com.sammwy.milkshake.codec.SchemaCodec}.
+ *
+ * <p>
+ * Codecs are only generated for top level schemas extending Schema directly
+ * whose persistent fields are non-private, non-final and of a primitive,
+ * boxed, String or byte[] type. Other schemas (e.g. with embedded fields)
+ * keep using the reflective serializer.
+ *
+ * <p>
+ * The processor is not registered as a service, so it never runs just because
+ * the library is on the class path. Projects opt in by putting the library on
+ * their annotation processor path and naming it with
+ * {@code -processor com.sammwy.milkshake.codec.processor.SchemaCodecProcessor}.
+ */
+@SupportedAnnotationTypes("com.sammwy.milkshake.annotations.SchemaType")
+public class SchemaCodecProcessor extends AbstractProcessor {
+    private static final String SCHEMA_CLASS = "com.sammwy.milkshake.schema.Schema";
+    private static final String SUFFIX = "_MilkshakeCodec";
+
+    private final Set<String> generated = new LinkedHashSet<>();
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        for (TypeElement annotation : annotations) {
+            for (Element element : roundEnv.getElementsAnnotatedWith(annotation)) {
+                if (element.getKind() == ElementKind.CLASS) {
+                    generate((TypeElement) element);
+                }
+            }
+        }
+
+        if (roundEnv.processingOver() && !generated.isEmpty()) {
+            writeServiceFile();
+        }
+        return false;
+    }
+
+    private void generate(TypeElement type) {
+        List<CodecField> fields = new ArrayList<>();
+        String reason = collectFields(type, fields);
+        if (reason != null) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.NOTE,
+                    "No codec generated for " + type.getQualifiedName() + " (" + reason
+                            + "), reflection will be used",
+                    type);
+            return;
+        }
+
+        String packageName = ((PackageElement) type.getEnclosingElement()).getQualifiedName().toString();
+        String schemaName = type.getSimpleName().toString();
+        String codecName = schemaName + SUFFIX;
+        String qualifiedName = packageName.isEmpty() ? codecName : packageName + "." + codecName;
+
+        try {
+            FileObject file = processingEnv.getFiler().createSourceFile(qualifiedName, type);
+            try (Writer writer = file.openWriter()) {
+                writer.write(render(packageName, schemaName, codecName, fields));
+            }
+            generated.add(qualifiedName);
+        } catch (IOException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                    "Failed to generate " + qualifiedName + ": " + e.getMessage(), type);
+        }
+    }
+
+    private String collectFields(TypeElement type, List<CodecField> fields) {
+        if (!(type.getEnclosingElement() instanceof PackageElement)) {
+            return "not a top level class";
+        }
+        if (type.getModifiers().contains(Modifier.ABSTRACT)) {
+            return "abstract class";
+        }
+        if (!type.getSuperclass().toString().equals(SCHEMA_CLASS)) {
+            return "does not extend Schema directly";
+        }
+        if (!hasAccessibleConstructor(type)) {
+            return "no accessible no-args constructor";
+        }
+
+        for (VariableElement field : ElementFilter.fieldsIn(type.getEnclosedElements())) {
+            if (field.getModifiers().contains(Modifier.STATIC)) {
+                continue;
+            }
+
+            Prop prop = field.getAnnotation(Prop.class);
+            ID id = field.getAnnotation(ID.class);
+            if (field.getAnnotation(Embedded.class) != null) {
+                return "embedded field " + field.getSimpleName();
+            }
+            if (prop == null && id == null) {
+                continue;
+            }
+
+            if (field.getModifiers().contains(Modifier.PRIVATE) || field.getModifiers().contains(Modifier.FINAL)) {
+                return "private or final field " + field.getSimpleName();
+            }
+
+            String converter = converterOf(field.asType());
+            if (converter == null) {
+                return "unsupported type of field " + field.getSimpleName();
+            }
+
+            String name = field.getSimpleName().toString();
+            String key;
+            if (prop != null) {
+                key = prop.name().isEmpty() ? name : prop.name();
+            } else {
+                key = id.name().isEmpty() ? name : id.name();
+            }
+            fields.add(new CodecField(name, key, field.asType(), converter));
+        }
+        return null;
+    }
+
+    private boolean hasAccessibleConstructor(TypeElement type) {
+        for (ExecutableElement constructor : ElementFilter.constructorsIn(type.getEnclosedElements())) {
+            if (constructor.getParameters().isEmpty() && !constructor.getModifiers().contains(Modifier.PRIVATE)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Gets the CodecSupport conversion of a field type.
+     *
+     * @return The conversion expression with a {@code %s} placeholder for the
+     *         value, or null if the type is not supported
+     */
+    private static String converterOf(TypeMirror type) {
+        switch (type.getKind()) {
+            case INT:
+                return "CodecSupport.toInt(%s)";
+            case LONG:
+                return "CodecSupport.toLong(%s)";
+            case SHORT:
+                return "CodecSupport.toShort(%s)";
+            case BYTE:
+                return "CodecSupport.toByte(%s)";
+            case DOUBLE:
+                return "CodecSupport.toDouble(%s)";
+            case FLOAT:
+                return "CodecSupport.toFloat(%s)";
+            case BOOLEAN:
+                return "CodecSupport.toBoolean(%s)";
+            case ARRAY:
+                return type.toString().equals("byte[]") ? "(byte[]) %s" : null;
+            case DECLARED:
+                break;
+            default:
+                return null;
+        }
+
+        switch (type.toString()) {
+            case "java.lang.String":
+                return "CodecSupport.toStr(%s)";
+            case "java.lang.Integer":
+                return "CodecSupport.toInt(%s)";
+            case "java.lang.Long":
+                return "CodecSupport.toLong(%s)";
+            case "java.lang.Short":
+                return "CodecSupport.toShort(%s)";
+            case "java.lang.Byte":
+                return "CodecSupport.toByte(%s)";
+            case "java.lang.Double":
+                return "CodecSupport.toDouble(%s)";
+            case "java.lang.Float":
+                return "CodecSupport.toFloat(%s)";
+            case "java.lang.Boolean":
+                return "CodecSupport.toBoolean(%s)";
+            default:
+                return null;
+        }
+    }
+
+    private static String render(String packageName, String schemaName, String codecName, List<CodecField> fields) {
+        StringBuilder out = new StringBuilder();
+        if (!packageName.isEmpty()) {
+            out.append("package ").append(packageName).append(";\n\n");
+        }
+
+        out.append("import java.util.LinkedHashMap;\n");
+        out.append("import java.util.List;\n");
+        out.append("import java.util.Map;\n\n");
+        out.append("import com.sammwy.milkshake.codec.CodecSupport;\n");
+        out.append("import com.sammwy.milkshake.codec.SchemaCodec;\n\n");
+        out.append("/**\n * Codec of {@link ").append(schemaName).append("}, generated by ")
+                .append(SchemaCodecProcessor.class.getSimpleName()).append(".\n */\n");
+        out.append("@javax.annotation.processing.Generated(\"").append(SchemaCodecProcessor.class.getName())
+                .append("\")\n");
+        out.append("public final class ").append(codecName).append(" implements SchemaCodec<").append(schemaName)
+                .append("> {\n");
+
+        out.append("    private static final List<Class<?>> FIELD_TYPES = List.of(");
+        for (int i = 0; i < fields.size(); i++) {
+            if (i > 0) {
+                out.append(", ");
+            }
+            out.append(fields.get(i).type).append(".class");
+        }
+        out.append(");\n\n");
+
+        out.append("    @Override\n    public Class<").append(schemaName).append("> getSchemaClass() {\n");
+        out.append("        return ").append(schemaName).append(".class;\n    }\n\n");
+
+        out.append("    @Override\n    public List<Class<?>> getFieldTypes() {\n");
+        out.append("        return FIELD_TYPES;\n    }\n\n");
+
+        out.append("    @Override\n    public Map<String, Object> encode(").append(schemaName)
+                .append(" entity) {\n");
+        out.append("        Map<String, Object> data = new LinkedHashMap<>(")
+                .append(Math.max(2, fields.size() * 4 / 3 + 1)).append(");\n");
+        for (CodecField field : fields) {
+            out.append("        data.put(\"").append(escape(field.key)).append("\", entity.").append(field.name)
+                    .append(");\n");
+        }
+        out.append("        return data;\n    }\n\n");
+
+        out.append("    @Override\n    public ").append(schemaName).append(" decode(Map<String, Object> data) {\n");
+        out.append("        ").append(schemaName).append(" entity = new ").append(schemaName).append("();\n");
+        out.append("        Object value;\n");
+        for (CodecField field : fields) {
+            String key = escape(field.key);
+            String converted = String.format(field.converter, "value");
+            out.append("        value = data.get(\"").append(key).append("\");\n");
+            if (field.type.getKind().isPrimitive()) {
+                // Missing and null values keep the default of the field
+                out.append("        if (value != null) {\n");
+                out.append("            entity.").append(field.name).append(" = ").append(converted).append(";\n");
+            } else {
+                out.append("        if (value != null || data.containsKey(\"").append(key).append("\")) {\n");
+                out.append("            entity.").append(field.name).append(" = value == null ? null : ")
+                        .append(converted).append(";\n");
+            }
+            out.append("        }\n");
+        }
+        out.append("        return entity;\n    }\n}\n");
+        return out.toString();
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+
+    private void writeServiceFile() {
+        String path = "META-INF/services/" + SchemaCodec.class.getName();
+        try {
+            FileObject file = processingEnv.getFiler().createResource(StandardLocation.CLASS_OUTPUT, "", path);
+            try (Writer writer = file.openWriter()) {
+                for (String name : generated) {
+                    writer.write(name);
+                    writer.write('\n');
+                }
+            }
+        } catch (IOException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                    "Failed to write " + path + ": " + e.getMessage());
+        }
+    }
+
+    private static final class CodecField {
+        final String name;
+        final String key;
+        final TypeMirror type;
+        final String converter;
+
+        CodecField(String name, String key, TypeMirror type, String converter) {
+            this.name = name;
+            this.key = key;
+            this.type = type;
+            this.converter = converter;
+        }
+    }
+}
@@ -1,11 +1,20 @@
 package com.sammwy.milkshake.providers;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
 import com.sammwy.classserializer.ClassSerializer;
 import com.sammwy.milkshake.Provider;
 import com.sammwy.milkshake.SerializerRegistry;
+import com.sammwy.milkshake.cache.CacheConfig;
+import com.sammwy.milkshake.cache.QueryCache;
+import com.sammwy.milkshake.query.Filter;
+import com.sammwy.milkshake.schema.Schema;
 
 public abstract class AbstractProvider implements Provider {
     private ClassSerializer serializer;
+    private volatile QueryCache queryCache;
 
     public AbstractProvider() {
         this.serializer = SerializerRegistry.createSerializer(!this.supportsEmbedded());
@@ -15,4 +24,107 @@ public abstract class AbstractProvider implements Provider {
     public ClassSerializer getSerializer() {
         return serializer;
     }
+
+    /**
+     * Enables the query result cache of this provider, replacing any existing
+     * one. Results of repository queries are then cached until their
+     * collection is written through this provider or they expire.
+     * 
+     * @param config The bounds and expiration of the cache
+     */
+    public void enableQueryCache(CacheConfig config) {
+        this.queryCache = new QueryCache(config);
+    }
+
+    /**
+     * Disables the query result cache of this provider and drops its entries.
+     */
+    public void disableQueryCache() {
+        this.queryCache = null;
+    }
+
+    @Override
+    public QueryCache getQueryCache() {
+        return queryCache;
+    }
+
+    /**
+     * Invalidates the cached queries of a collection. Called by every write
+     * operation of the provider.
+     * 
+     * @param collection The written collection
+     */
+    protected void notifyWrite(String collection) {
+        QueryCache queryCache = this.queryCache;
+        if (queryCache != null) {
+            queryCache.notifyWrite(collection);
+        }
+    }
+
+    @Override
+    public <T extends Schema> boolean insert(String collection, T entity, Class<T> schemaClass) {
+        Map<String, Object> data = entity.toMap();
+        boolean inserted = insert(collection, data);
+        if (inserted) {
+            entity.markClean(data);
+        }
+        return inserted;
+    }
+
+    @Override
+    public <T extends Schema> int insertMany(String collection, List<T> entities, Class<T> schemaClass) {
+        List<Map<String, Object>> dataList = toMaps(entities);
+        int inserted = insertMany(collection, dataList);
+        markClean(entities, dataList);
+        return inserted;
+    }
+
+    @Override
+    public <T extends Schema> boolean upsert(String collection, T entity, String primaryKey, Class<T> schemaClass) {
+        Map<String, Object> data = entity.toMap();
+        boolean upserted = upsert(collection, data, primaryKey);
+        if (upserted) {
+            entity.markClean(data);
+        }
+        return upserted;
+    }
+
+    @Override
+    public <T extends Schema> int upsertMany(String collection, List<T> entities, String primaryKey,
+            Class<T> schemaClass) {
+        List<Map<String, Object>> dataList = toMaps(entities);
+        int upserted = upsertMany(collection, dataList, primaryKey);
+        markClean(entities, dataList);
+        return upserted;
+    }
+
+    private static List<Map<String, Object>> toMaps(List<? extends Schema> entities) {
+        List<Map<String, Object>> dataList = new ArrayList<>(entities.size());
+        for (Schema entity : entities) {
+            dataList.add(entity.toMap());
+        }
+        return dataList;
+    }
+
+    private static void markClean(List<? extends Schema> entities, List<Map<String, Object>> dataList) {
+        for (int i = 0; i < entities.size(); i++) {
+            entities.get(i).markClean(dataList.get(i));
+        }
+    }
+
+    @Override
+    public <T extends Schema> List<T> find(String collection, Filter.Find criteria, Class<T> schemaClass) {
+        List<Map<String, Object>> results = find(collection, criteria);
+        List<T> converted = new ArrayList<>(results.size());
+        for (Map<String, Object> result : results) {
+            converted.add(Schema.fromMap(schemaClass, result));
+        }
+        return converted;
+    }
+
+    @Override
+    public <T extends Schema> T findOne(String collection, Filter.Find criteria, Class<T> schemaClass) {
+        Map<String, Object> result = findOne(collection, criteria);
+        return result != null ? Schema.fromMap(schemaClass, result) : null;
+    }
 }
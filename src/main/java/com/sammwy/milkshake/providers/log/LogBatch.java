@@ -0,0 +1,165 @@
+package com.sammwy.milkshake.providers.log;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiPredicate;
+
+/**
+ * The changes of a write in progress, applied over the committed documents
+ * until they are appended to the log as one frame. Nothing is visible to
+ * readers before the commit, so a failed write is simply discarded.
+ */
+final class LogBatch implements LogView {
+    private final LogView committed;
+    private final Map<String, Map<Object, Pending>> changes = new LinkedHashMap<>();
+    private final List<Undo> undo = new ArrayList<>();
+
+    /**
+     * New version of a document, or its deletion when the document is null.
+     */
+    private static final class Pending {
+        final Map<String, Object> document;
+
+        Pending(Map<String, Object> document) {
+            this.document = document;
+        }
+    }
+
+    private static final class Undo {
+        final String collection;
+        final Object key;
+        final Pending previous;
+
+        Undo(String collection, Object key, Pending previous) {
+            this.collection = collection;
+            this.key = key;
+            this.previous = previous;
+        }
+    }
+
+    /**
+     * @param committed The committed documents, which must not change until
+     *                  the batch is committed or discarded
+     */
+    LogBatch(LogView committed) {
+        this.committed = committed;
+    }
+
+    @Override
+    public Map<String, Object> get(String collection, Object key) {
+        Pending pending = pendingOf(collection, key);
+        if (pending != null) {
+            return pending.document != null ? new HashMap<>(pending.document) : null;
+        }
+        return committed.get(collection, key);
+    }
+
+    @Override
+    public boolean contains(String collection, Object key) {
+        Pending pending = pendingOf(collection, key);
+        return pending != null ? pending.document != null : committed.contains(collection, key);
+    }
+
+    @Override
+    public void scan(String collection, BiPredicate<Object, Map<String, Object>> visitor) {
+        Map<Object, Pending> pending = changes.get(collection);
+        if (pending == null) {
+            committed.scan(collection, visitor);
+            return;
+        }
+
+        boolean[] stopped = { false };
+        committed.scan(collection, (key, document) -> {
+            if (pending.containsKey(key)) {
+                return true;
+            }
+            stopped[0] = !visitor.test(key, document);
+            return !stopped[0];
+        });
+        if (stopped[0]) {
+            return;
+        }
+
+        for (Map.Entry<Object, Pending> entry : new ArrayList<>(pending.entrySet())) {
+            Map<String, Object> document = entry.getValue().document;
+            if (document != null && !visitor.test(entry.getKey(), new HashMap<>(document))) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Writes a new version of a document.
+     *
+     * @param collection The collection
+     * @param key        The normalized key
+     * @param document   The document, owned by the batch from now on
+     */
+    void put(String collection, Object key, Map<String, Object> document) {
+        change(collection, key, new Pending(document));
+    }
+
+    /**
+     * Deletes a document.
+     *
+     * @param collection The collection
+     * @param key        The normalized key
+     */
+    void delete(String collection, Object key) {
+        change(collection, key, new Pending(null));
+    }
+
+    /**
+     * @return A mark to roll back to
+     */
+    int mark() {
+        return undo.size();
+    }
+
+    /**
+     * Discards every change made after a mark.
+     *
+     * @param mark The mark returned by {@link #mark()}
+     */
+    void rollback(int mark) {
+        for (int i = undo.size() - 1; i >= mark; i--) {
+            Undo entry = undo.remove(i);
+            Map<Object, Pending> pending = changes.get(entry.collection);
+            if (entry.previous != null) {
+                pending.put(entry.key, entry.previous);
+            } else {
+                pending.remove(entry.key);
+            }
+        }
+    }
+
+    /**
+     * @return The resulting change of every written document, skipping the
+     *         deletions of documents that were never committed
+     */
+    List<LogStore.Change> getChanges() {
+        List<LogStore.Change> result = new ArrayList<>();
+        for (Map.Entry<String, Map<Object, Pending>> collection : changes.entrySet()) {
+            for (Map.Entry<Object, Pending> entry : collection.getValue().entrySet()) {
+                Pending pending = entry.getValue();
+                if (pending.document != null || committed.contains(collection.getKey(), entry.getKey())) {
+                    result.add(new LogStore.Change(collection.getKey(), entry.getKey(), pending.document));
+                }
+            }
+        }
+        return result;
+    }
+
+    private Pending pendingOf(String collection, Object key) {
+        Map<Object, Pending> pending = changes.get(collection);
+        return pending != null ? pending.get(key) : null;
+    }
+
+    private void change(String collection, Object key, Pending change) {
+        Pending previous = changes.computeIfAbsent(collection, name -> new LinkedHashMap<>()).put(key, change);
+        undo.add(new Undo(collection, key, previous));
+    }
+}
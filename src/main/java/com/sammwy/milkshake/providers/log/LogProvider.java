@@ -0,0 +1,543 @@
+package com.sammwy.milkshake.providers.log;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiPredicate;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+import com.sammwy.milkshake.ProviderInfo;
+import com.sammwy.milkshake.ProviderInfo.Options;
+import com.sammwy.milkshake.Repository;
+import com.sammwy.milkshake.RepositoryCache;
+import com.sammwy.milkshake.providers.AbstractProvider;
+import com.sammwy.milkshake.providers.memory.DocumentMatcher;
+import com.sammwy.milkshake.providers.memory.DocumentQuery;
+import com.sammwy.milkshake.providers.memory.DocumentUpdater;
+import com.sammwy.milkshake.providers.memory.Values;
+import com.sammwy.milkshake.query.BulkWriteResult;
+import com.sammwy.milkshake.query.Filter.Find;
+import com.sammwy.milkshake.query.Filter.Update;
+import com.sammwy.milkshake.query.WriteOperation;
+import com.sammwy.milkshake.schema.Schema;
+import com.sammwy.milkshake.schema.SchemaMetadata;
+
+/**
+ * Embedded provider storing documents in a log of memory-mapped segment files
+ * in a local directory, for single-node deployments.
+ *
+ * <p>
+ * Every write appends one frame to the end of the log, so writes are
+ * sequential and a write is recovered entirely or not at all. An in-memory
+ * primary index maps each document to its current version in the log, which
+ * reads decode straight from the mapped file. Opening the directory replays
+ * the log to rebuild the index, and a background task compacts the segments
+ * that mostly hold overwritten or deleted documents.
+ *
+ * <p>
+ * Filters on the primary key ({@code eq}, {@code in}) are served by the index;
+ * other filters scan the collection. Indexes declared with {@code @Index} are
+ * not built, so {@link Repository#getMissingIndexes()} reports them. Without
+ * a sort, documents are returned in no particular order.
+ *
+ * <p>
+ * The provider is thread-safe. Writes are serialized, while reads never block
+ * and see every write either entirely or not at all. Frames reach the
+ * operating system on every write and survive a crash of the process; set
+ * {@link Options#LOG_SYNC} to also force them to the storage device.
+ */
+public class LogProvider extends AbstractProvider {
+    private static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+    private static final int MIN_SEGMENT_SIZE = 4096;
+    private static final long DEFAULT_COMPACTION_INTERVAL = 60_000;
+    private static final int DEFAULT_COMPACTION_THRESHOLD = 50;
+
+    private final Map<String, String> primaryKeys = new ConcurrentHashMap<>();
+    private volatile LogStore store;
+    private ScheduledExecutorService compactor;
+    private double compactionThreshold;
+
+    public LogProvider open(File directory) {
+        ProviderInfo info = new ProviderInfo(null, null, directory.getAbsolutePath());
+        connect(info);
+        return this;
+    }
+
+    @Override
+    public boolean supportsEmbedded() {
+        return true;
+    }
+
+    @Override
+    public void connect(ProviderInfo info) {
+        String directory = info.getDatabase();
+        if (directory == null || directory.isEmpty()) {
+            throw new IllegalArgumentException("Missing log directory");
+        }
+
+        int segmentSize = Math.max(MIN_SEGMENT_SIZE,
+                info.getOptionInt(Options.LOG_SEGMENT_SIZE, DEFAULT_SEGMENT_SIZE));
+        boolean sync = "true".equalsIgnoreCase(info.getOption(Options.LOG_SYNC));
+        long interval = info.getOptionLong(Options.LOG_COMPACTION_INTERVAL, DEFAULT_COMPACTION_INTERVAL);
+        int threshold = info.getOptionInt(Options.LOG_COMPACTION_THRESHOLD, DEFAULT_COMPACTION_THRESHOLD);
+        this.compactionThreshold = Math.min(100, Math.max(1, threshold)) / 100.0;
+
+        try {
+            this.store = LogStore.open(Paths.get(directory), segmentSize, sync);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to open log", e);
+        }
+
+        if (interval > 0) {
+            this.compactor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "milkshake-log-compactor");
+                thread.setDaemon(true);
+                return thread;
+            });
+            this.compactor.scheduleWithFixedDelay(this::compactInBackground, interval, interval,
+                    TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Compacts the segments where the share of overwritten or deleted
+     * documents reaches the compaction threshold. Called periodically in the
+     * background unless the compaction interval is 0.
+     *
+     * @return The number of compacted segments
+     */
+    public int compact() {
+        try {
+            return getStore().compact(compactionThreshold);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to compact log", e);
+        }
+    }
+
+    /**
+     * Stops the compaction and closes the log files. Every write made so far
+     * is forced to the storage device.
+     */
+    public void close() {
+        if (this.compactor != null) {
+            this.compactor.shutdown();
+        }
+
+        LogStore store = this.store;
+        if (store != null) {
+            try {
+                store.close();
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to close log", e);
+            }
+        }
+    }
+
+    private void compactInBackground() {
+        try {
+            compact();
+        } catch (RuntimeException e) {
+            // Retried on the next run; an exception would cancel the schedule
+        }
+    }
+
+    private LogStore getStore() {
+        if (this.store == null) {
+            throw new IllegalStateException("Provider is not connected");
+        }
+        return this.store;
+    }
+
+    @Override
+    public <T extends Schema> boolean initialize(Class<T> schemaClass, String primaryKey) {
+        if (primaryKey == null) {
+            throw new RuntimeException("Schema must have an @ID field");
+        }
+
+        SchemaMetadata metadata = SchemaMetadata.of(schemaClass);
+        primaryKeys.put(metadata.getCollectionName(), primaryKey);
+        return true;
+    }
+
+    @Override
+    public List<String> listIndexes(String collection) {
+        return primaryKeys.containsKey(collection) ? List.of("PRIMARY") : Collections.emptyList();
+    }
+
+    @Override
+    public boolean insert(String collection, Map<String, Object> data) {
+        return write(Collections.singleton(collection), "Failed to insert data", batch -> {
+            insert(batch, collection, data);
+            return true;
+        });
+    }
+
+    @Override
+    public int insertMany(String collection, List<Map<String, Object>> dataList) {
+        return write(Collections.singleton(collection), "Failed to insert multiple records", batch -> {
+            for (Map<String, Object> data : dataList) {
+                insert(batch, collection, data);
+            }
+            return dataList.size();
+        });
+    }
+
+    @Override
+    public boolean upsert(String collection, Map<String, Object> data, String primaryKey) {
+        return write(Collections.singleton(collection), "Failed to upsert data", batch -> {
+            upsert(batch, collection, data, primaryKey);
+            return true;
+        });
+    }
+
+    @Override
+    public int upsertMany(String collection, List<Map<String, Object>> dataList, String primaryKey) {
+        return write(Collections.singleton(collection), "Failed to upsert multiple records", batch -> {
+            for (Map<String, Object> data : dataList) {
+                upsert(batch, collection, data, primaryKey);
+            }
+            return dataList.size();
+        });
+    }
+
+    @Override
+    public int bulkWrite(List<WriteOperation> operations) {
+        if (operations.isEmpty())
+            return 0;
+
+        // A failed batch is never committed to the log
+        return write(collectionsOf(operations), "Failed to apply bulk write", batch -> {
+            int written = 0;
+            for (WriteOperation operation : operations) {
+                written += apply(batch, operation);
+            }
+            return written;
+        });
+    }
+
+    @Override
+    public BulkWriteResult bulkWrite(List<WriteOperation> operations, boolean ordered) {
+        BulkWriteResult result = new BulkWriteResult(operations);
+        if (operations.isEmpty())
+            return result;
+
+        return write(collectionsOf(operations), "Failed to apply bulk write", batch -> {
+            for (int i = 0; i < operations.size(); i++) {
+                int mark = batch.mark();
+                try {
+                    result.recordApplied(i, apply(batch, operations.get(i)));
+                } catch (RuntimeException e) {
+                    // Only the failed operation is discarded, like a savepoint
+                    batch.rollback(mark);
+                    result.recordFailure(i, e);
+                    if (ordered) {
+                        break;
+                    }
+                }
+            }
+            return result;
+        });
+    }
+
+    @Override
+    public List<Map<String, Object>> find(String collection, Find criteria) {
+        List<Map<String, Object>> results = new ArrayList<>();
+        for (Map<String, Object> document : select(getStore(), collection, criteria, false)) {
+            results.add(DocumentQuery.project(document, criteria));
+        }
+        return results;
+    }
+
+    @Override
+    public Map<String, Object> findOne(String collection, Find criteria) {
+        List<Map<String, Object>> results = select(getStore(), collection, criteria, true);
+        return results.isEmpty() ? null : DocumentQuery.project(results.get(0), criteria);
+    }
+
+    @Override
+    public <T extends Schema> Stream<T> stream(String collection, Find criteria, Class<T> schemaClass,
+            int fetchSize) {
+        // Documents are decoded when matched, only the conversion is lazy
+        return select(getStore(), collection, criteria, false).stream()
+                .map(document -> Schema.fromMap(schemaClass, DocumentQuery.project(document, criteria)));
+    }
+
+    @Override
+    public Map<String, Object> findById(String collection, String primaryKey, String id) {
+        return findOne(collection, new Find().eq(primaryKey, id));
+    }
+
+    @Override
+    public long count(String collection, Find criteria) {
+        LogStore store = getStore();
+        Map<String, Object> conditions = criteriaOf(criteria);
+        if (conditions.isEmpty()) {
+            return store.count(collection);
+        }
+
+        long[] count = { 0 };
+        scan(store, collection, conditions, (key, document) -> {
+            count[0]++;
+            return true;
+        });
+        return count[0];
+    }
+
+    @Override
+    public boolean exists(String collection, Find criteria) {
+        boolean[] found = { false };
+        scan(getStore(), collection, criteriaOf(criteria), (key, document) -> {
+            found[0] = true;
+            return false;
+        });
+        return found[0];
+    }
+
+    @Override
+    public int update(String collection, Find criteria, Update update) {
+        return write(Collections.singleton(collection), "Failed to update data",
+                batch -> update(batch, collection, criteria, update, false));
+    }
+
+    @Override
+    public boolean updateByID(String collection, String primaryKey, String id, Update update) {
+        return update(collection, new Find().eq(primaryKey, id), update) > 0;
+    }
+
+    @Override
+    public boolean updateOne(String collection, Find criteria, Update update) {
+        return write(Collections.singleton(collection), "Failed to update one record",
+                batch -> update(batch, collection, criteria, update, true)) > 0;
+    }
+
+    @Override
+    public int delete(String collection, Find criteria) {
+        return write(Collections.singleton(collection), "Failed to delete data",
+                batch -> delete(batch, collection, criteria, false));
+    }
+
+    @Override
+    public boolean deleteByID(String collection, String primaryKey, String id) {
+        return delete(collection, new Find().eq(primaryKey, id)) > 0;
+    }
+
+    @Override
+    public boolean deleteOne(String collection, Find criteria) {
+        return write(Collections.singleton(collection), "Failed to delete one record",
+                batch -> delete(batch, collection, criteria, true)) > 0;
+    }
+
+    @Override
+    public <T extends Schema> Repository<T> addRepository(Class<T> schemaClass) {
+        Repository<T> repo = new Repository<>(this, schemaClass);
+        RepositoryCache.cache(schemaClass, repo);
+
+        if (repo.getMetadata().hasId()) {
+            initialize(schemaClass, repo.getPrimaryKey());
+        } else {
+            throw new RuntimeException("Schema must have an @ID field");
+        }
+
+        return repo;
+    }
+
+    /**
+     * Runs a write in a batch under the store lock and appends its changes to
+     * the log as one frame. Nothing is written if it fails.
+     */
+    private <R> R write(Collection<String> collections, String error, Function<LogBatch, R> write) {
+        LogStore store = getStore();
+        store.lock();
+        try {
+            LogBatch batch = new LogBatch(store);
+            R result = write.apply(batch);
+            store.commit(batch.getChanges());
+            return result;
+        } catch (IOException | RuntimeException e) {
+            throw new RuntimeException(error, e);
+        } finally {
+            store.unlock();
+            for (String collection : collections) {
+                notifyWrite(collection);
+            }
+        }
+    }
+
+    private int apply(LogBatch batch, WriteOperation operation) {
+        String collection = operation.getCollection();
+        switch (operation.getType()) {
+            case INSERT:
+                insert(batch, collection, operation.getDocument());
+                return 1;
+            case UPSERT:
+                upsert(batch, collection, operation.getDocument(), operation.getPrimaryKey());
+                return 1;
+            case UPDATE:
+                return update(batch, collection, operation.getCriteria(), operation.getUpdate(), false);
+            case UPDATE_ONE:
+                return update(batch, collection, operation.getCriteria(), operation.getUpdate(), true);
+            case DELETE:
+                return delete(batch, collection, operation.getCriteria(), false);
+            case DELETE_ONE:
+                return delete(batch, collection, operation.getCriteria(), true);
+            default:
+                throw new UnsupportedOperationException("Unknown write operation: " + operation.getType());
+        }
+    }
+
+    private void insert(LogBatch batch, String collection, Map<String, Object> data) {
+        Object key = keyOf(collection, primaryKeyOf(collection), data);
+        if (batch.contains(collection, key)) {
+            throw new RuntimeException("Duplicate key " + primaryKeyOf(collection) + " = "
+                    + data.get(primaryKeyOf(collection)) + " in " + collection);
+        }
+        batch.put(collection, key, data);
+    }
+
+    private void upsert(LogBatch batch, String collection, Map<String, Object> data, String primaryKey) {
+        primaryKeys.putIfAbsent(collection, primaryKey);
+        Object key = keyOf(collection, primaryKey, data);
+        Map<String, Object> existing = batch.get(collection, key);
+        if (existing != null) {
+            existing.putAll(data);
+            data = existing;
+        }
+        batch.put(collection, key, data);
+    }
+
+    private int update(LogBatch batch, String collection, Find criteria, Update update, boolean one) {
+        if (update == null || update.getUpdateOperations().isEmpty()) {
+            return 0;
+        }
+
+        String primaryKey = primaryKeyOf(collection);
+        List<Map.Entry<Object, Map<String, Object>>> matched = matching(batch, collection, criteria, one);
+        for (Map.Entry<Object, Map<String, Object>> entry : matched) {
+            Map<String, Object> updated = DocumentUpdater.apply(entry.getValue(), update);
+            Object key = keyOf(collection, primaryKey, updated);
+            if (!key.equals(entry.getKey())) {
+                if (batch.contains(collection, key)) {
+                    throw new RuntimeException("Duplicate key " + primaryKey + " = " + updated.get(primaryKey)
+                            + " in " + collection);
+                }
+                batch.delete(collection, entry.getKey());
+            }
+            batch.put(collection, key, updated);
+        }
+        return matched.size();
+    }
+
+    private int delete(LogBatch batch, String collection, Find criteria, boolean one) {
+        List<Map.Entry<Object, Map<String, Object>>> matched = matching(batch, collection, criteria, one);
+        for (Map.Entry<Object, Map<String, Object>> entry : matched) {
+            batch.delete(collection, entry.getKey());
+        }
+        return matched.size();
+    }
+
+    private String primaryKeyOf(String collection) {
+        String primaryKey = primaryKeys.get(collection);
+        if (primaryKey == null) {
+            throw new IllegalStateException(
+                    "Collection " + collection + " has no primary key, add its repository first");
+        }
+        return primaryKey;
+    }
+
+    private static Object keyOf(String collection, String primaryKey, Map<String, Object> document) {
+        Object id = document.get(primaryKey);
+        if (id == null) {
+            throw new IllegalArgumentException("Document of " + collection + " has no " + primaryKey);
+        }
+        return Values.key(id);
+    }
+
+    private List<Map<String, Object>> select(LogView view, String collection, Find criteria, boolean one) {
+        Map<String, Object> conditions = criteriaOf(criteria);
+        return DocumentQuery.select(criteria, one,
+                visitor -> scan(view, collection, conditions, (key, document) -> visitor.test(document)));
+    }
+
+    private List<Map.Entry<Object, Map<String, Object>>> matching(LogView view, String collection, Find criteria,
+            boolean one) {
+        List<Map.Entry<Object, Map<String, Object>>> matched = new ArrayList<>();
+        scan(view, collection, criteriaOf(criteria), (key, document) -> {
+            matched.add(new AbstractMap.SimpleImmutableEntry<>(key, document));
+            return !one;
+        });
+        return matched;
+    }
+
+    /**
+     * Visits the documents matching a criteria map, looking them up in the
+     * primary index when the criteria restrict the primary key.
+     */
+    private void scan(LogView view, String collection, Map<String, Object> criteria,
+            BiPredicate<Object, Map<String, Object>> visitor) {
+        Collection<Object> keys = lookupKeys(collection, criteria);
+        if (keys == null) {
+            view.scan(collection,
+                    (key, document) -> !DocumentMatcher.matches(document, criteria) || visitor.test(key, document));
+            return;
+        }
+
+        for (Object key : keys) {
+            Map<String, Object> document = view.get(collection, key);
+            if (document != null && DocumentMatcher.matches(document, criteria) && !visitor.test(key, document)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Gets the keys an {@code eq} or {@code in} condition on the primary key
+     * restricts the documents to, or null if every document must be scanned.
+     */
+    @SuppressWarnings("unchecked")
+    private Collection<Object> lookupKeys(String collection, Map<String, Object> criteria) {
+        String primaryKey = primaryKeys.get(collection);
+        Object condition = primaryKey != null ? criteria.get(primaryKey) : null;
+        if (condition == null) {
+            return null;
+        } else if (!(condition instanceof Map)) {
+            return Collections.singletonList(Values.key(condition));
+        }
+
+        Map<String, Object> operators = (Map<String, Object>) condition;
+        if (operators.containsKey("$eq")) {
+            return Collections.singletonList(Values.key(operators.get("$eq")));
+        } else if (operators.containsKey("$in")) {
+            Set<Object> keys = new LinkedHashSet<>();
+            for (Object value : (List<?>) operators.get("$in")) {
+                keys.add(Values.key(value));
+            }
+            return keys;
+        }
+        return null;
+    }
+
+    private static Map<String, Object> criteriaOf(Find criteria) {
+        return criteria != null ? criteria.getCriteria() : Collections.emptyMap();
+    }
+
+    private static Set<String> collectionsOf(List<WriteOperation> operations) {
+        Set<String> collections = new LinkedHashSet<>();
+        for (WriteOperation operation : operations) {
+            collections.add(operation.getCollection());
+        }
+        return collections;
+    }
+}
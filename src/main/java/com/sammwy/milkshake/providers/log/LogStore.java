@@ -0,0 +1,453 @@
+package com.sammwy.milkshake.providers.log;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiPredicate;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import com.sammwy.milkshake.providers.memory.Values;
+
+/**
+ * Log-structured storage of documents: every write appends a frame to the
+ * active segment, and an in-memory primary index maps the key of each
+ * document of each collection to the position of its current version.
+ *
+ * <p>
+ * A frame holds every change of one write, so a write is recovered entirely
+ * or not at all. Opening the store replays the segments in order to rebuild
+ * the index, dropping a torn frame at the end of the log. Compaction copies
+ * the current documents of the segments that mostly hold overwritten ones to
+ * the end of the log and deletes them.
+ *
+ * <p>
+ * Writes and compaction are serialized by the store lock, which callers must
+ * hold around {@link #commit(List)}. Reads never lock: they decode the
+ * document straight from the mapped segment the index points to.
+ */
+final class LogStore implements LogView {
+    private static final String LOCK_FILE = "LOCK";
+    private static final byte PUT = 1;
+    private static final byte DELETE = 2;
+
+    private final Path directory;
+    private final int segmentSize;
+    private final boolean sync;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final FileChannel lockChannel;
+    private final FileLock fileLock;
+    private final Map<String, Map<Object, RecordPointer>> collections = new ConcurrentHashMap<>();
+    private final RecordCodec.Writer writer = new RecordCodec.Writer(4096);
+
+    /** Oldest first, the last one is the active segment. */
+    private final List<Segment> segments = new ArrayList<>();
+    private volatile boolean closed;
+
+    /**
+     * A change of one document, appended by {@link #commit(List)}.
+     */
+    static final class Change {
+        final String collection;
+        final Object key;
+        final Map<String, Object> document;
+
+        /**
+         * @param collection The collection
+         * @param key        The normalized key
+         * @param document   The new version of the document, or null to delete
+         *                   it
+         */
+        Change(String collection, Object key, Map<String, Object> document) {
+            this.collection = collection;
+            this.key = key;
+            this.document = document;
+        }
+    }
+
+    /**
+     * Position of the current version of a document.
+     */
+    private static final class RecordPointer {
+        final Segment segment;
+        final int position;
+        /** Bytes of the whole change, counted as live in the segment. */
+        final int size;
+
+        RecordPointer(Segment segment, int position, int size) {
+            this.segment = segment;
+            this.position = position;
+            this.size = size;
+        }
+    }
+
+    private LogStore(Path directory, int segmentSize, boolean sync, FileChannel lockChannel, FileLock fileLock) {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.sync = sync;
+        this.lockChannel = lockChannel;
+        this.fileLock = fileLock;
+    }
+
+    /**
+     * Opens the log of a directory, creating it if needed, and replays it.
+     *
+     * @param directory   The log directory, locked until the store is closed
+     * @param segmentSize The capacity of new segments
+     * @param sync        Whether every write is forced to the storage device
+     * @return The store
+     * @throws IOException if the directory is used by another process or the
+     *                     log cannot be read
+     */
+    static LogStore open(Path directory, int segmentSize, boolean sync) throws IOException {
+        Files.createDirectories(directory);
+        FileChannel lockChannel = FileChannel.open(directory.resolve(LOCK_FILE), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE);
+        FileLock fileLock = lockChannel.tryLock();
+        if (fileLock == null) {
+            lockChannel.close();
+            throw new IOException("Log directory is in use by another process: " + directory);
+        }
+
+        LogStore store = new LogStore(directory, segmentSize, sync, lockChannel, fileLock);
+        try {
+            store.recover();
+        } catch (IOException | RuntimeException e) {
+            store.close();
+            throw e;
+        }
+        return store;
+    }
+
+    private void recover() throws IOException {
+        List<Path> files;
+        try (Stream<Path> listing = Files.list(directory)) {
+            files = listing.filter(Segment::isSegment)
+                    .sorted(Comparator.comparingLong(Segment::idOf))
+                    .collect(Collectors.toList());
+        }
+
+        for (int i = 0; i < files.size(); i++) {
+            Segment segment;
+            try {
+                segment = Segment.open(files.get(i));
+            } catch (IOException e) {
+                if (i < files.size() - 1) {
+                    throw e;
+                }
+                // Created by a crash before its header was written, so it
+                // holds no frame
+                Files.delete(files.get(i));
+                break;
+            }
+
+            segments.add(segment);
+            segment.replay((payload, length) -> apply(segment, payload));
+        }
+
+        if (segments.isEmpty()) {
+            segments.add(Segment.create(directory, 1, segmentSize));
+        }
+    }
+
+    void lock() {
+        lock.lock();
+    }
+
+    void unlock() {
+        lock.unlock();
+    }
+
+    @Override
+    public Map<String, Object> get(String collection, Object key) {
+        Map<Object, RecordPointer> index = collections.get(collection);
+        RecordPointer pointer = index != null ? index.get(key) : null;
+        return pointer != null ? read(pointer) : null;
+    }
+
+    @Override
+    public boolean contains(String collection, Object key) {
+        Map<Object, RecordPointer> index = collections.get(collection);
+        return index != null && index.containsKey(key);
+    }
+
+    @Override
+    public void scan(String collection, BiPredicate<Object, Map<String, Object>> visitor) {
+        Map<Object, RecordPointer> index = collections.get(collection);
+        if (index == null) {
+            return;
+        }
+
+        for (Map.Entry<Object, RecordPointer> entry : index.entrySet()) {
+            if (!visitor.test(entry.getKey(), read(entry.getValue()))) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * @param collection The collection
+     * @return The number of documents of the collection
+     */
+    long count(String collection) {
+        Map<Object, RecordPointer> index = collections.get(collection);
+        return index != null ? index.size() : 0;
+    }
+
+    /**
+     * Appends the changes of a write as one frame and publishes them to
+     * readers. The caller must hold the lock.
+     *
+     * @param changes The changes, in order
+     * @throws IOException              if a new segment cannot be created
+     * @throws IllegalArgumentException if a document holds a value that cannot
+     *                                  be stored
+     */
+    void commit(List<Change> changes) throws IOException {
+        if (changes.isEmpty()) {
+            return;
+        }
+        ensureOpen();
+
+        writer.reset();
+        writer.writeInt(changes.size());
+        for (Change change : changes) {
+            writer.writeByte(change.document != null ? PUT : DELETE);
+            writer.writeString(change.collection);
+            // Byte array keys are normalized to buffers
+            RecordCodec.write(writer, change.key instanceof ByteBuffer ? toArray((ByteBuffer) change.key) : change.key);
+            if (change.document != null) {
+                int length = writer.size();
+                writer.writeInt(0);
+                RecordCodec.writeDocument(writer, change.document);
+                writer.setInt(length, writer.size() - length - 4);
+            }
+        }
+        append();
+    }
+
+    /**
+     * Appends the encoded frame, rolling to a new segment if it does not fit,
+     * and applies it to the index.
+     */
+    private void append() throws IOException {
+        int length = writer.size();
+        Segment active = segments.get(segments.size() - 1);
+        if (!active.fits(length)) {
+            long capacity = Math.max(segmentSize, Segment.capacityFor(length));
+            if (capacity > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Write of " + length + " bytes is too large for a segment");
+            }
+            if (sync) {
+                active.force();
+            }
+            active = Segment.create(directory, active.getId() + 1, (int) capacity);
+            segments.add(active);
+        }
+
+        int payload = active.append(writer.array(), length);
+        if (sync) {
+            active.force();
+        }
+        apply(active, payload);
+    }
+
+    /**
+     * Applies the changes of a frame to the index.
+     */
+    private void apply(Segment segment, int payload) {
+        RecordCodec.Reader reader = new RecordCodec.Reader(segment.getBuffer(), payload);
+        int count = reader.readInt();
+        for (int i = 0; i < count; i++) {
+            int start = reader.position();
+            byte op = reader.readByte();
+            Map<Object, RecordPointer> index = collections.computeIfAbsent(reader.readString(),
+                    name -> new ConcurrentHashMap<>());
+            Object key = Values.key(reader.readValue());
+
+            RecordPointer previous;
+            if (op == PUT) {
+                int length = reader.readInt();
+                int position = reader.position();
+                reader.skip(length);
+
+                RecordPointer pointer = new RecordPointer(segment, position, reader.position() - start);
+                segment.addLiveBytes(pointer.size);
+                previous = index.put(key, pointer);
+            } else {
+                previous = index.remove(key);
+            }
+
+            if (previous != null) {
+                previous.segment.addLiveBytes(-previous.size);
+            }
+        }
+    }
+
+    private static byte[] toArray(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return bytes;
+    }
+
+    private static Map<String, Object> read(RecordPointer pointer) {
+        return new RecordCodec.Reader(pointer.segment.getBuffer(), pointer.position).readDocument();
+    }
+
+    /**
+     * Compacts the sealed segments where the share of overwritten or deleted
+     * documents reaches a threshold, oldest first. Writers wait while a
+     * segment is compacted.
+     *
+     * @param threshold The share of dead bytes, between 0 and 1
+     * @return The number of compacted segments
+     * @throws IOException if a segment cannot be written or deleted
+     */
+    int compact(double threshold) throws IOException {
+        int compacted = 0;
+        while (true) {
+            lock();
+            try {
+                ensureOpen();
+                Segment candidate = null;
+                for (int i = 0; i < segments.size() - 1; i++) {
+                    Segment segment = segments.get(i);
+                    double dead = 1 - (double) segment.getLiveBytes() / Math.max(1, segment.getUsedBytes());
+                    if (dead >= threshold) {
+                        candidate = segment;
+                        break;
+                    }
+                }
+
+                if (candidate == null) {
+                    return compacted;
+                }
+                compact(candidate);
+                compacted++;
+            } finally {
+                unlock();
+            }
+        }
+    }
+
+    /**
+     * Copies the current documents of a segment, and the deletions that still
+     * hide documents of older segments, to the end of the log in one frame,
+     * then deletes the segment.
+     */
+    private void compact(Segment segment) throws IOException {
+        boolean hasOlder = segments.indexOf(segment) > 0;
+        ByteBuffer buffer = segment.getBuffer();
+        int[] count = { 0 };
+
+        writer.reset();
+        writer.writeInt(0);
+        segment.forEachFrame((payload, length) -> {
+            RecordCodec.Reader reader = new RecordCodec.Reader(buffer, payload);
+            int changes = reader.readInt();
+            for (int i = 0; i < changes; i++) {
+                byte op = reader.readByte();
+                String collection = reader.readString();
+                Object key = reader.readValue();
+                Map<Object, RecordPointer> index = collections.get(collection);
+                RecordPointer current = index.get(Values.key(key));
+
+                if (op == PUT) {
+                    int documentLength = reader.readInt();
+                    int position = reader.position();
+                    reader.skip(documentLength);
+                    if (current == null || current.segment != segment || current.position != position) {
+                        continue; // Overwritten or deleted since
+                    }
+
+                    writer.writeByte(PUT);
+                    writer.writeString(collection);
+                    RecordCodec.write(writer, key);
+                    writer.writeInt(documentLength);
+                    writer.writeRaw(buffer, position, documentLength);
+                    count[0]++;
+                } else if (hasOlder && current == null) {
+                    // Dropped once no older segment can hold the document. A
+                    // deletion followed by a new version is dropped too, as
+                    // copying it after that version would delete it.
+                    writer.writeByte(DELETE);
+                    writer.writeString(collection);
+                    RecordCodec.write(writer, key);
+                    count[0]++;
+                }
+            }
+        });
+
+        if (count[0] > 0) {
+            writer.setInt(0, count[0]);
+            append();
+            if (!sync) {
+                // The copies must be durable before the segment is gone
+                segments.get(segments.size() - 1).force();
+            }
+        }
+
+        int position = segments.indexOf(segment);
+        segments.remove(position);
+        try {
+            segment.delete();
+        } catch (IOException e) {
+            // Kept in order, so its deletions still apply after a restart
+            // and the next compaction retries
+            segments.add(position, segment);
+            throw e;
+        }
+    }
+
+    private void ensureOpen() {
+        if (closed) {
+            throw new IllegalStateException("Log is closed");
+        }
+    }
+
+    /**
+     * Forces the log to the storage device and closes its files. Documents
+     * cannot be written or read afterwards.
+     *
+     * @throws IOException if a file cannot be closed
+     */
+    void close() throws IOException {
+        lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            collections.clear();
+
+            IOException failure = null;
+            for (Segment segment : segments) {
+                try {
+                    segment.force();
+                    segment.close();
+                } catch (IOException e) {
+                    failure = failure == null ? e : failure;
+                }
+            }
+            segments.clear();
+
+            fileLock.release();
+            lockChannel.close();
+            if (failure != null) {
+                throw failure;
+            }
+        } finally {
+            unlock();
+        }
+    }
+}
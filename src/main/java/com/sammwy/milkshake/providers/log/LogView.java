@@ -0,0 +1,37 @@
+package com.sammwy.milkshake.providers.log;
+
+import java.util.Map;
+import java.util.function.BiPredicate;
+
+/**
+ * Read access to the documents of a {@link LogProvider}, either as committed
+ * or as seen by a write in progress.
+ *
+ * <p>
+ * Keys are primary key values normalized with
+ * {@link com.sammwy.milkshake.providers.memory.Values#key(Object)}.
+ */
+interface LogView {
+    /**
+     * @param collection The collection
+     * @param key        The normalized key
+     * @return A copy of the document, or null if missing
+     */
+    Map<String, Object> get(String collection, Object key);
+
+    /**
+     * @param collection The collection
+     * @param key        The normalized key
+     * @return true if the document exists
+     */
+    boolean contains(String collection, Object key);
+
+    /**
+     * Visits every document of a collection, in no particular order.
+     *
+     * @param collection The collection
+     * @param visitor    Receives the normalized key and a copy of each
+     *                   document, and returns false to stop the scan
+     */
+    void scan(String collection, BiPredicate<Object, Map<String, Object>> visitor);
+}
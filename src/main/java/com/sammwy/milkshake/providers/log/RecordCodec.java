@@ -0,0 +1,308 @@
+package com.sammwy.milkshake.providers.log;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Binary encoding of the documents and keys stored in the log.
+ *
+ * <p>
+ * Every value starts with a one byte tag. Numbers keep their boxed type, and
+ * lists and documents hold their size followed by their elements, so a
+ * document is decoded in one pass straight from the mapped segment.
+ */
+final class RecordCodec {
+    private static final byte NULL = 0;
+    private static final byte FALSE = 1;
+    private static final byte TRUE = 2;
+    private static final byte INT = 3;
+    private static final byte LONG = 4;
+    private static final byte DOUBLE = 5;
+    private static final byte FLOAT = 6;
+    private static final byte SHORT = 7;
+    private static final byte BYTE = 8;
+    private static final byte STRING = 9;
+    private static final byte BYTES = 10;
+    private static final byte LIST = 11;
+    private static final byte DOCUMENT = 12;
+    private static final byte BIG_INTEGER = 13;
+    private static final byte BIG_DECIMAL = 14;
+
+    private RecordCodec() {
+    }
+
+    /**
+     * Growable buffer records are encoded into before they are appended.
+     */
+    static final class Writer {
+        private byte[] bytes;
+        private int size;
+
+        Writer(int capacity) {
+            this.bytes = new byte[Math.max(16, capacity)];
+        }
+
+        /**
+         * @return The number of bytes written
+         */
+        int size() {
+            return size;
+        }
+
+        /**
+         * @return The underlying array, valid up to {@link #size()}
+         */
+        byte[] array() {
+            return bytes;
+        }
+
+        void reset() {
+            size = 0;
+        }
+
+        void writeByte(int value) {
+            ensure(1);
+            bytes[size++] = (byte) value;
+        }
+
+        void writeInt(int value) {
+            ensure(4);
+            bytes[size++] = (byte) (value >>> 24);
+            bytes[size++] = (byte) (value >>> 16);
+            bytes[size++] = (byte) (value >>> 8);
+            bytes[size++] = (byte) value;
+        }
+
+        void writeLong(long value) {
+            writeInt((int) (value >>> 32));
+            writeInt((int) value);
+        }
+
+        void writeBytes(byte[] value) {
+            writeInt(value.length);
+            ensure(value.length);
+            System.arraycopy(value, 0, bytes, size, value.length);
+            size += value.length;
+        }
+
+        /**
+         * Copies bytes of a buffer without their length.
+         *
+         * @param source   The buffer
+         * @param position The position of the first byte
+         * @param length   The number of bytes
+         */
+        void writeRaw(ByteBuffer source, int position, int length) {
+            ensure(length);
+            source.get(position, bytes, size, length);
+            size += length;
+        }
+
+        void writeString(String value) {
+            writeBytes(value.getBytes(StandardCharsets.UTF_8));
+        }
+
+        /**
+         * Overwrites an int written earlier.
+         *
+         * @param position The position of the int
+         * @param value    The new value
+         */
+        void setInt(int position, int value) {
+            bytes[position] = (byte) (value >>> 24);
+            bytes[position + 1] = (byte) (value >>> 16);
+            bytes[position + 2] = (byte) (value >>> 8);
+            bytes[position + 3] = (byte) value;
+        }
+
+        private void ensure(int length) {
+            if (size + length > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + length));
+            }
+        }
+    }
+
+    /**
+     * Encodes a value.
+     *
+     * @param writer The destination
+     * @param value  The value
+     * @throws IllegalArgumentException if the value has an unsupported type
+     */
+    @SuppressWarnings("unchecked")
+    static void write(Writer writer, Object value) {
+        if (value == null) {
+            writer.writeByte(NULL);
+        } else if (value instanceof String) {
+            writer.writeByte(STRING);
+            writer.writeString((String) value);
+        } else if (value instanceof Integer) {
+            writer.writeByte(INT);
+            writer.writeInt((Integer) value);
+        } else if (value instanceof Long) {
+            writer.writeByte(LONG);
+            writer.writeLong((Long) value);
+        } else if (value instanceof Boolean) {
+            writer.writeByte((Boolean) value ? TRUE : FALSE);
+        } else if (value instanceof Double) {
+            writer.writeByte(DOUBLE);
+            writer.writeLong(Double.doubleToRawLongBits((Double) value));
+        } else if (value instanceof Float) {
+            writer.writeByte(FLOAT);
+            writer.writeInt(Float.floatToRawIntBits((Float) value));
+        } else if (value instanceof Short) {
+            writer.writeByte(SHORT);
+            writer.writeInt((Short) value);
+        } else if (value instanceof Byte) {
+            writer.writeByte(BYTE);
+            writer.writeByte((Byte) value);
+        } else if (value instanceof byte[]) {
+            writer.writeByte(BYTES);
+            writer.writeBytes((byte[]) value);
+        } else if (value instanceof List) {
+            List<Object> list = (List<Object>) value;
+            writer.writeByte(LIST);
+            writer.writeInt(list.size());
+            for (Object item : list) {
+                write(writer, item);
+            }
+        } else if (value instanceof Map) {
+            writer.writeByte(DOCUMENT);
+            writeDocument(writer, (Map<String, Object>) value);
+        } else if (value instanceof BigInteger) {
+            writer.writeByte(BIG_INTEGER);
+            writer.writeString(value.toString());
+        } else if (value instanceof BigDecimal) {
+            writer.writeByte(BIG_DECIMAL);
+            writer.writeString(value.toString());
+        } else {
+            throw new IllegalArgumentException("Unsupported value type: " + value.getClass().getName());
+        }
+    }
+
+    /**
+     * Encodes a document without its tag.
+     *
+     * @param writer   The destination
+     * @param document The document
+     * @throws IllegalArgumentException if a value has an unsupported type
+     */
+    static void writeDocument(Writer writer, Map<String, Object> document) {
+        writer.writeInt(document.size());
+        for (Map.Entry<String, Object> entry : document.entrySet()) {
+            writer.writeString(entry.getKey());
+            write(writer, entry.getValue());
+        }
+    }
+
+    /**
+     * Decodes values with absolute reads, so a segment can be read by many
+     * threads while it is appended to.
+     */
+    static final class Reader {
+        private final ByteBuffer buffer;
+        private int position;
+
+        Reader(ByteBuffer buffer, int position) {
+            this.buffer = buffer;
+            this.position = position;
+        }
+
+        int position() {
+            return position;
+        }
+
+        void skip(int length) {
+            position += length;
+        }
+
+        byte readByte() {
+            return buffer.get(position++);
+        }
+
+        int readInt() {
+            int value = buffer.getInt(position);
+            position += 4;
+            return value;
+        }
+
+        long readLong() {
+            long value = buffer.getLong(position);
+            position += 8;
+            return value;
+        }
+
+        byte[] readBytes() {
+            int length = readInt();
+            byte[] value = new byte[length];
+            buffer.get(position, value);
+            position += length;
+            return value;
+        }
+
+        String readString() {
+            return new String(readBytes(), StandardCharsets.UTF_8);
+        }
+
+        Object readValue() {
+            byte tag = readByte();
+            switch (tag) {
+                case NULL:
+                    return null;
+                case FALSE:
+                    return false;
+                case TRUE:
+                    return true;
+                case INT:
+                    return readInt();
+                case LONG:
+                    return readLong();
+                case DOUBLE:
+                    return Double.longBitsToDouble(readLong());
+                case FLOAT:
+                    return Float.intBitsToFloat(readInt());
+                case SHORT:
+                    return (short) readInt();
+                case BYTE:
+                    return readByte();
+                case STRING:
+                    return readString();
+                case BYTES:
+                    return readBytes();
+                case LIST: {
+                    int size = readInt();
+                    List<Object> list = new ArrayList<>(size);
+                    for (int i = 0; i < size; i++) {
+                        list.add(readValue());
+                    }
+                    return list;
+                }
+                case DOCUMENT:
+                    return readDocument();
+                case BIG_INTEGER:
+                    return new BigInteger(readString());
+                case BIG_DECIMAL:
+                    return new BigDecimal(readString());
+                default:
+                    throw new IllegalStateException("Corrupted record: unknown value tag " + tag);
+            }
+        }
+
+        Map<String, Object> readDocument() {
+            int size = readInt();
+            Map<String, Object> document = new HashMap<>(Math.max(4, (int) (size / 0.75f) + 1));
+            for (int i = 0; i < size; i++) {
+                String key = readString();
+                document.put(key, readValue());
+            }
+            return document;
+        }
+    }
+}
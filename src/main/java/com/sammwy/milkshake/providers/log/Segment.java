@@ -0,0 +1,256 @@
+package com.sammwy.milkshake.providers.log;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * One file of the log, memory-mapped for its whole capacity.
+ *
+ * <p>
+ * A segment starts with a header and holds frames appended one after the
+ * other. Each frame is its payload length, the CRC-32 of its payload and the
+ * payload. A zero length marks the end of the written frames: the mapped file
+ * is zero-filled, and every append writes the end marker after its frame
+ * before committing the frame length.
+ *
+ * <p>
+ * Appends are made by one thread at a time, while reads of committed frames
+ * can run concurrently since they only use absolute positions.
+ */
+final class Segment {
+    static final String EXTENSION = ".log";
+
+    private static final int MAGIC = 0x4D4B4C47;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+    private static final int FRAME_HEADER_SIZE = 8;
+    private static final int END_MARKER_SIZE = 4;
+
+    private final long id;
+    private final Path path;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private int end = HEADER_SIZE;
+    private long liveBytes;
+
+    private Segment(long id, Path path, FileChannel channel, MappedByteBuffer buffer) {
+        this.id = id;
+        this.path = path;
+        this.channel = channel;
+        this.buffer = buffer;
+    }
+
+    /**
+     * Creates an empty segment.
+     *
+     * @param directory The log directory
+     * @param id        The segment id, greater than the ids of older segments
+     * @param capacity  The size of the file
+     * @return The segment
+     * @throws IOException if the file cannot be created or mapped
+     */
+    static Segment create(Path directory, long id, int capacity) throws IOException {
+        Path path = directory.resolve(fileName(id));
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        try {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, VERSION);
+            return new Segment(id, path, channel, buffer);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Opens an existing segment. Its frames must then be read with
+     * {@link #replay(FrameVisitor)} to find where appends continue.
+     *
+     * @param path The segment file
+     * @return The segment
+     * @throws IOException if the file cannot be mapped or is not a segment
+     */
+    static Segment open(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            long size = channel.size();
+            if (size < HEADER_SIZE || size > Integer.MAX_VALUE) {
+                throw new IOException("Not a log segment: " + path);
+            }
+
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                throw new IOException("Not a log segment: " + path);
+            }
+            return new Segment(idOf(path), path, channel, buffer);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @param path A file of the log directory
+     * @return true if the file is named like a segment
+     */
+    static boolean isSegment(Path path) {
+        String name = path.getFileName().toString();
+        return name.endsWith(EXTENSION) && name.length() > EXTENSION.length()
+                && name.substring(0, name.length() - EXTENSION.length()).chars().allMatch(Character::isDigit);
+    }
+
+    /**
+     * @param path A segment file
+     * @return The id of the segment
+     */
+    static long idOf(Path path) {
+        String name = path.getFileName().toString();
+        return Long.parseLong(name.substring(0, name.length() - EXTENSION.length()));
+    }
+
+    private static String fileName(long id) {
+        return String.format("%020d", id) + EXTENSION;
+    }
+
+    /**
+     * Gets the size of a segment holding a single frame.
+     *
+     * @param payloadLength The payload length of the frame
+     * @return The minimum capacity
+     */
+    static long capacityFor(int payloadLength) {
+        return (long) HEADER_SIZE + FRAME_HEADER_SIZE + payloadLength + END_MARKER_SIZE;
+    }
+
+    long getId() {
+        return id;
+    }
+
+    /**
+     * @return The mapped file, only to be read at absolute positions
+     */
+    ByteBuffer getBuffer() {
+        return buffer;
+    }
+
+    /**
+     * @param payloadLength The payload length of a frame
+     * @return true if the frame can be appended
+     */
+    boolean fits(int payloadLength) {
+        return (long) end + FRAME_HEADER_SIZE + payloadLength + END_MARKER_SIZE <= buffer.capacity();
+    }
+
+    /**
+     * Appends a frame. The caller must have checked that it fits.
+     *
+     * @param payload The array holding the payload
+     * @param length  The payload length
+     * @return The position of the payload in the segment
+     */
+    int append(byte[] payload, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(payload, 0, length);
+
+        int position = end + FRAME_HEADER_SIZE;
+        buffer.put(position, payload, 0, length);
+        buffer.putInt(position + length, 0);
+        buffer.putInt(end + 4, (int) crc.getValue());
+        // The length commits the frame
+        buffer.putInt(end, length);
+        end = position + length;
+        return position;
+    }
+
+    /**
+     * Reads the committed frames from the start of the segment, stopping at
+     * the end marker or at the first torn or corrupted frame, and continues
+     * appends from there.
+     *
+     * @param visitor Receives the payload of every valid frame
+     */
+    void replay(FrameVisitor visitor) {
+        int position = HEADER_SIZE;
+        int capacity = buffer.capacity();
+        CRC32 crc = new CRC32();
+        while (position + FRAME_HEADER_SIZE <= capacity) {
+            int length = buffer.getInt(position);
+            int payload = position + FRAME_HEADER_SIZE;
+            if (length <= 0 || length > capacity - payload) {
+                break;
+            }
+
+            crc.reset();
+            crc.update(buffer.duplicate().limit(payload + length).position(payload));
+            if ((int) crc.getValue() != buffer.getInt(position + 4)) {
+                break;
+            }
+
+            visitor.visit(payload, length);
+            position = payload + length;
+        }
+        end = position;
+    }
+
+    /**
+     * Reads the frames already replayed or appended.
+     *
+     * @param visitor Receives the payload of every frame
+     */
+    void forEachFrame(FrameVisitor visitor) {
+        int position = HEADER_SIZE;
+        while (position < end) {
+            int length = buffer.getInt(position);
+            visitor.visit(position + FRAME_HEADER_SIZE, length);
+            position += FRAME_HEADER_SIZE + length;
+        }
+    }
+
+    /**
+     * @return The number of bytes holding frames
+     */
+    int getUsedBytes() {
+        return end - HEADER_SIZE;
+    }
+
+    /**
+     * @return The number of bytes holding the current version of a document
+     */
+    long getLiveBytes() {
+        return liveBytes;
+    }
+
+    void addLiveBytes(long delta) {
+        liveBytes += delta;
+    }
+
+    /**
+     * Writes the appended frames to the storage device.
+     */
+    void force() {
+        buffer.force();
+    }
+
+    void close() throws IOException {
+        // The mapping stays valid for readers until it is garbage collected
+        channel.close();
+    }
+
+    void delete() throws IOException {
+        close();
+        Files.deleteIfExists(path);
+    }
+
+    @FunctionalInterface
+    interface FrameVisitor {
+        void visit(int payload, int length);
+    }
+}
@@ -0,0 +1,207 @@
+package com.sammwy.milkshake.providers.memory;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * Evaluates the criteria of a {@link com.sammwy.milkshake.query.Filter.Find}
+ * against a document held in memory.
+ *
+ * <p>
+ * Conditions follow MongoDB for null values: range and pattern conditions
+ * never match a null or missing field, while {@code ne} and {@code nin} do.
+ * LIKE patterns are case insensitive, as with the default collations of SQLite
+ * and MySQL.
+ */
+public final class DocumentMatcher {
+    /**
+     * Upper bound of cached patterns, cleared when reached.
+     */
+    private static final int MAX_CACHED_PATTERNS = 1024;
+
+    private static final Map<String, Pattern> LIKE_PATTERNS = new ConcurrentHashMap<>();
+    private static final Map<String, Pattern> REGEX_PATTERNS = new ConcurrentHashMap<>();
+
+    private DocumentMatcher() {
+    }
+
+    /**
+     * Checks whether a document matches every condition of a criteria map.
+     *
+     * @param document The document
+     * @param criteria The criteria of a Find filter, may be null or empty to
+     *                 match every document
+     * @return true if the document matches
+     * @throws UnsupportedOperationException if an unknown operator is
+     *                                       encountered
+     */
+    @SuppressWarnings("unchecked")
+    public static boolean matches(Map<String, Object> document, Map<String, Object> criteria) {
+        if (criteria == null) {
+            return true;
+        }
+
+        for (Map.Entry<String, Object> entry : criteria.entrySet()) {
+            String field = entry.getKey();
+            Object value = entry.getValue();
+
+            switch (field) {
+                case "$or":
+                    if (!matchesAny(document, (List<Map<String, Object>>) value)) {
+                        return false;
+                    }
+                    break;
+                case "$and":
+                    for (Map<String, Object> branch : (List<Map<String, Object>>) value) {
+                        if (!matches(document, branch)) {
+                            return false;
+                        }
+                    }
+                    break;
+                case "$not":
+                    if (matches(document, (Map<String, Object>) value)) {
+                        return false;
+                    }
+                    break;
+                default:
+                    Object actual = Values.get(document, field);
+                    if (value instanceof Map) {
+                        if (!matchesCondition(actual, (Map<String, Object>) value)) {
+                            return false;
+                        }
+                    } else if (actual == null || !Values.equal(actual, value)) {
+                        return false;
+                    }
+            }
+        }
+        return true;
+    }
+
+    private static boolean matchesAny(Map<String, Object> document, List<Map<String, Object>> branches) {
+        for (Map<String, Object> branch : branches) {
+            if (matches(document, branch)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean matchesCondition(Object actual, Map<String, Object> condition) {
+        for (Map.Entry<String, Object> entry : condition.entrySet()) {
+            Object operand = entry.getValue();
+            boolean matched;
+            switch (entry.getKey()) {
+                case "$eq":
+                    matched = actual != null && Values.equal(actual, operand);
+                    break;
+                case "$ne":
+                    matched = !Values.equal(actual, operand);
+                    break;
+                case "$gt":
+                    matched = Values.comparable(actual, operand) && Values.compare(actual, operand) > 0;
+                    break;
+                case "$gte":
+                    matched = Values.comparable(actual, operand) && Values.compare(actual, operand) >= 0;
+                    break;
+                case "$lt":
+                    matched = Values.comparable(actual, operand) && Values.compare(actual, operand) < 0;
+                    break;
+                case "$lte":
+                    matched = Values.comparable(actual, operand) && Values.compare(actual, operand) <= 0;
+                    break;
+                case "$in":
+                    matched = actual != null && contains((List<?>) operand, actual);
+                    break;
+                case "$nin":
+                    matched = !contains((List<?>) operand, actual);
+                    break;
+                case "$like":
+                    matched = isText(actual) && pattern(LIKE_PATTERNS, (String) operand, true)
+                            .matcher(actual.toString()).matches();
+                    break;
+                case "$regex":
+                    matched = isText(actual) && pattern(REGEX_PATTERNS, (String) operand, false)
+                            .matcher(actual.toString()).find();
+                    break;
+                case "$exists":
+                    matched = actual != null;
+                    break;
+                case "$isNull":
+                    matched = actual == null;
+                    break;
+                default:
+                    throw new UnsupportedOperationException("Unknown operator: " + entry.getKey());
+            }
+
+            if (!matched) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Checks whether a list contains a value, comparing numbers by value.
+     *
+     * @param list  The list
+     * @param value The value
+     * @return true if an element of the list is equal to the value
+     */
+    public static boolean contains(List<?> list, Object value) {
+        Object key = Values.key(value);
+        for (Object item : list) {
+            if (key.equals(Values.key(item))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isText(Object value) {
+        // SQL databases match patterns against the text of numbers too
+        return value instanceof String || value instanceof Number || value instanceof Boolean;
+    }
+
+    private static Pattern pattern(Map<String, Pattern> cache, String source, boolean like) {
+        Pattern pattern = cache.get(source);
+        if (pattern == null) {
+            pattern = like ? Pattern.compile(likeToRegex(source), Pattern.CASE_INSENSITIVE | Pattern.DOTALL)
+                    : Pattern.compile(source);
+            if (cache.size() >= MAX_CACHED_PATTERNS) {
+                cache.clear();
+            }
+            cache.put(source, pattern);
+        }
+        return pattern;
+    }
+
+    /**
+     * Converts a LIKE pattern of
+     * {@link com.sammwy.milkshake.query.Filter.Find#like(String, String)} to
+     * a regular expression matched against the whole value.
+     */
+    private static String likeToRegex(String like) {
+        StringBuilder regex = new StringBuilder(like.length() + 8);
+        StringBuilder literal = new StringBuilder();
+        for (int i = 0; i < like.length(); i++) {
+            char c = like.charAt(i);
+            if (c == '!' && i + 1 < like.length()) {
+                literal.append(like.charAt(++i));
+            } else if (c == '%' || c == '_') {
+                if (literal.length() > 0) {
+                    regex.append(Pattern.quote(literal.toString()));
+                    literal.setLength(0);
+                }
+                regex.append(c == '%' ? ".*" : ".");
+            } else {
+                literal.append(c);
+            }
+        }
+        if (literal.length() > 0) {
+            regex.append(Pattern.quote(literal.toString()));
+        }
+        return regex.toString();
+    }
+}
@@ -0,0 +1,120 @@
+package com.sammwy.milkshake.providers.memory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+
+import com.sammwy.milkshake.query.Filter;
+
+/**
+ * Sorts, pages and projects the documents matching a {@link Filter.Find} for
+ * the providers that evaluate filters in process.
+ */
+public final class DocumentQuery {
+    private DocumentQuery() {
+    }
+
+    /**
+     * Source of the documents matching the criteria of a filter.
+     */
+    @FunctionalInterface
+    public interface Scan {
+        /**
+         * Visits the matching documents, in the natural order of the source.
+         *
+         * @param visitor Receives each document and returns false to stop the
+         *                scan
+         */
+        void scan(Predicate<Map<String, Object>> visitor);
+    }
+
+    /**
+     * Applies the keyset, sort, skip and limit of a filter to the matching
+     * documents. Without a sort, the scan stops as soon as the page is full.
+     *
+     * @param criteria The filter, may be null
+     * @param one      Whether only the first document is needed
+     * @param scan     The source of the matching documents
+     * @return The documents of the page, in order
+     */
+    public static List<Map<String, Object>> select(Filter.Find criteria, boolean one, Scan scan) {
+        int skip = criteria != null ? criteria.getSkip() : 0;
+        int limit = one ? 1 : criteria != null ? criteria.getLimit() : 0;
+        Map<String, Integer> sort = criteria != null ? criteria.getSort() : Collections.emptyMap();
+
+        List<Map<String, Object>> results = new ArrayList<>();
+        if (sort.isEmpty()) {
+            int[] skipped = { 0 };
+            scan.scan(document -> {
+                if (skipped[0] < skip) {
+                    skipped[0]++;
+                    return true;
+                }
+                results.add(document);
+                return limit <= 0 || results.size() < limit;
+            });
+            return results;
+        }
+
+        List<Object> after = criteria.getAfter();
+        scan.scan(document -> {
+            if (after == null || compareToKey(document, sort, after) > 0) {
+                results.add(document);
+            }
+            return true;
+        });
+
+        // Stable, so equal sort keys stay in the natural order
+        results.sort((a, b) -> compare(a, b, sort));
+        int from = Math.min(skip, results.size());
+        int to = limit > 0 ? Math.min(results.size(), from + limit) : results.size();
+        return from == 0 && to == results.size() ? results : new ArrayList<>(results.subList(from, to));
+    }
+
+    /**
+     * Keeps only the projected fields of a document, if the filter has a
+     * projection. Projected fields missing from the document are null.
+     *
+     * @param document The document
+     * @param criteria The filter, may be null
+     * @return The document itself without a projection, otherwise a new
+     *         document sharing the projected values
+     */
+    public static Map<String, Object> project(Map<String, Object> document, Filter.Find criteria) {
+        Set<String> projection = criteria != null ? criteria.getProjection() : null;
+        if (projection == null || projection.isEmpty()) {
+            return document;
+        }
+
+        Map<String, Object> projected = new HashMap<>();
+        for (String field : projection) {
+            projected.put(field, Values.get(document, field));
+        }
+        return projected;
+    }
+
+    private static int compare(Map<String, Object> a, Map<String, Object> b, Map<String, Integer> sort) {
+        for (Map.Entry<String, Integer> entry : sort.entrySet()) {
+            int compared = Values.compare(Values.get(a, entry.getKey()), Values.get(b, entry.getKey()));
+            if (compared != 0) {
+                return entry.getValue() < 0 ? -compared : compared;
+            }
+        }
+        return 0;
+    }
+
+    private static int compareToKey(Map<String, Object> document, Map<String, Integer> sort, List<Object> key) {
+        int i = 0;
+        for (Map.Entry<String, Integer> entry : sort.entrySet()) {
+            int compared = Values.compare(Values.get(document, entry.getKey()), key.get(i++));
+            if (compared != 0) {
+                return entry.getValue() < 0 ? -compared : compared;
+            }
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,128 @@
+package com.sammwy.milkshake.providers.memory;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.sammwy.milkshake.query.Filter;
+import com.sammwy.milkshake.schema.Schema;
+
+/**
+ * Applies the operations of a {@link Filter.Update} to a document held in
+ * memory.
+ *
+ * <p>
+ * Documents are never modified in place: the update returns a new document,
+ * so readers holding the previous one keep seeing a consistent state. Missing
+ * fields count as 0 for {@code inc} and {@code mul} and as an empty array for
+ * the array operators, like on MongoDB.
+ */
+public final class DocumentUpdater {
+    private DocumentUpdater() {
+    }
+
+    /**
+     * Applies update operations to a copy of a document.
+     *
+     * @param document The current document, left untouched
+     * @param update   The update operations
+     * @return The updated copy
+     * @throws IllegalArgumentException      if an operator does not apply to
+     *                                       the current value of a field
+     * @throws UnsupportedOperationException if an unknown operator is
+     *                                       encountered
+     */
+    @SuppressWarnings("unchecked")
+    public static Map<String, Object> apply(Map<String, Object> document, Filter.Update update) {
+        Map<String, Object> updated = new HashMap<>(document);
+        String now = null;
+
+        for (Map.Entry<String, Object> operation : update.getUpdateOperations().entrySet()) {
+            String op = operation.getKey();
+            for (Map.Entry<String, Object> entry : ((Map<String, Object>) operation.getValue()).entrySet()) {
+                String field = entry.getKey();
+                Object value = entry.getValue();
+                Object current = Values.get(updated, field);
+
+                switch (op) {
+                    case "$set":
+                        Values.put(updated, field, Schema.copyValue(value));
+                        break;
+                    case "$inc":
+                        Values.put(updated, field, current == null ? value
+                                : Values.add(numberOf(field, current), (Number) value));
+                        break;
+                    case "$mul":
+                        Values.put(updated, field, Values.multiply(
+                                current == null ? 0 : numberOf(field, current), (Number) value));
+                        break;
+                    case "$min":
+                        if (current == null || Values.compare(value, current) < 0) {
+                            Values.put(updated, field, Schema.copyValue(value));
+                        }
+                        break;
+                    case "$max":
+                        if (current == null || Values.compare(value, current) > 0) {
+                            Values.put(updated, field, Schema.copyValue(value));
+                        }
+                        break;
+                    case "$unset":
+                        Values.remove(updated, field);
+                        break;
+                    case "$currentDate":
+                        if (now == null) {
+                            now = Filter.Update.CURRENT_DATE_FORMAT.format(Instant.now());
+                        }
+                        Values.put(updated, field, now);
+                        break;
+                    case "$push": {
+                        List<Object> array = arrayOf(field, current);
+                        array.add(Schema.copyValue(value));
+                        Values.put(updated, field, array);
+                        break;
+                    }
+                    case "$addToSet": {
+                        List<Object> array = arrayOf(field, current);
+                        if (!DocumentMatcher.contains(array, value)) {
+                            array.add(Schema.copyValue(value));
+                            Values.put(updated, field, array);
+                        }
+                        break;
+                    }
+                    case "$pull":
+                        if (current != null) {
+                            List<Object> array = arrayOf(field, current);
+                            array.removeIf(item -> Values.equal(item, value));
+                            Values.put(updated, field, array);
+                        }
+                        break;
+                    default:
+                        throw new UnsupportedOperationException("Unknown update operator: " + op);
+                }
+            }
+        }
+        return updated;
+    }
+
+    private static Number numberOf(String field, Object value) {
+        if (!(value instanceof Number)) {
+            throw new IllegalArgumentException("Field " + field + " is not numeric");
+        }
+        return (Number) value;
+    }
+
+    /**
+     * Copies the array value of a field, so it can be modified.
+     */
+    @SuppressWarnings("unchecked")
+    private static List<Object> arrayOf(String field, Object value) {
+        if (value == null) {
+            return new ArrayList<>();
+        } else if (!(value instanceof List)) {
+            throw new IllegalArgumentException("Field " + field + " is not an array");
+        }
+        return new ArrayList<>((List<Object>) value);
+    }
+}
@@ -0,0 +1,547 @@
+package com.sammwy.milkshake.providers.memory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.sammwy.milkshake.query.Filter;
+import com.sammwy.milkshake.schema.IndexDefinition;
+import com.sammwy.milkshake.schema.Schema;
+
+/**
+ * The documents of one collection of a {@link MemoryProvider}, with their
+ * indexes.
+ *
+ * <p>
+ * Documents are stored by row id in insertion order and are never modified in
+ * place: writes replace them with updated copies. Writers are serialized by
+ * the collection lock, which callers must hold around every write, while
+ * readers never lock: they see every document either before or after a write,
+ * and a query running during a write may or may not see it.
+ */
+class MemoryCollection {
+    /**
+     * Name of the index on the primary key reported by
+     * {@link #getIndexNames()}.
+     */
+    static final String PRIMARY_INDEX = "PRIMARY";
+
+    private final String name;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final ConcurrentSkipListMap<Long, Map<String, Object>> rows = new ConcurrentSkipListMap<>();
+    private long nextRowId;
+
+    private volatile String primaryKey;
+    private volatile List<IndexDefinition> definitions = Collections.emptyList();
+    private volatile Map<String, MemoryIndex> indexes = Collections.emptyMap();
+
+    MemoryCollection(String name) {
+        this.name = name;
+    }
+
+    /**
+     * @return The collection name
+     */
+    String getName() {
+        return name;
+    }
+
+    void lock() {
+        lock.lock();
+    }
+
+    void unlock() {
+        lock.unlock();
+    }
+
+    /**
+     * Sets the primary key and the declared indexes of the collection, and
+     * indexes the existing documents. The caller must hold the lock.
+     *
+     * @param primaryKey  The primary key, or null for none
+     * @param definitions The declared indexes
+     * @throws RuntimeException if the existing documents break a unique index
+     */
+    void configure(String primaryKey, List<IndexDefinition> definitions) {
+        Set<String> ordered = new HashSet<>();
+        for (IndexDefinition definition : definitions) {
+            ordered.addAll(definition.getFields());
+        }
+
+        Map<String, MemoryIndex> indexes = new HashMap<>();
+        if (primaryKey != null) {
+            indexes.put(primaryKey, new MemoryIndex(primaryKey, ordered.contains(primaryKey)));
+        }
+        for (String field : ordered) {
+            indexes.putIfAbsent(field, new MemoryIndex(field, true));
+        }
+        for (Map.Entry<Long, Map<String, Object>> row : rows.entrySet()) {
+            for (MemoryIndex index : indexes.values()) {
+                index.add(row.getValue(), row.getKey());
+            }
+        }
+
+        String previousKey = this.primaryKey;
+        List<IndexDefinition> previousDefinitions = this.definitions;
+        Map<String, MemoryIndex> previousIndexes = this.indexes;
+        this.primaryKey = primaryKey;
+        this.definitions = Collections.unmodifiableList(new ArrayList<>(definitions));
+        this.indexes = Collections.unmodifiableMap(indexes);
+
+        try {
+            for (Map.Entry<Long, Map<String, Object>> row : rows.entrySet()) {
+                checkUnique(row.getValue(), row.getKey());
+            }
+        } catch (RuntimeException e) {
+            this.primaryKey = previousKey;
+            this.definitions = previousDefinitions;
+            this.indexes = previousIndexes;
+            throw e;
+        }
+    }
+
+    /**
+     * @return The names of the primary key index and the declared indexes
+     */
+    List<String> getIndexNames() {
+        List<String> names = new ArrayList<>();
+        if (primaryKey != null) {
+            names.add(PRIMARY_INDEX);
+        }
+        for (IndexDefinition definition : definitions) {
+            names.add(definition.getName());
+        }
+        return names;
+    }
+
+    /**
+     * Drops every document, keeping the indexes. The caller must hold the
+     * lock.
+     */
+    void clear() {
+        rows.clear();
+        configure(primaryKey, definitions);
+    }
+
+    /**
+     * Inserts a copy of a document. The caller must hold the lock.
+     *
+     * @param document The document
+     * @param journal  The journal recording the write
+     * @throws RuntimeException if the document breaks a unique index
+     */
+    void insert(Map<String, Object> document, Journal journal) {
+        Map<String, Object> stored = Schema.copyDocument(document);
+        checkUnique(stored, -1);
+
+        long rowId = nextRowId++;
+        rows.put(rowId, stored);
+        for (MemoryIndex index : indexes.values()) {
+            index.add(stored, rowId);
+        }
+        journal.record(this, rowId, null);
+    }
+
+    /**
+     * Inserts a copy of a document, or sets its fields on the document with
+     * the same identifier. The caller must hold the lock.
+     *
+     * @param document   The document
+     * @param primaryKey The identifier field
+     * @param journal    The journal recording the write
+     * @throws RuntimeException if the document breaks a unique index
+     */
+    void upsert(Map<String, Object> document, String primaryKey, Journal journal) {
+        Long rowId = firstRow(new Filter.Find().eq(primaryKey, document.get(primaryKey)).getCriteria());
+        if (rowId == null) {
+            insert(document, journal);
+            return;
+        }
+
+        Map<String, Object> previous = rows.get(rowId);
+        Map<String, Object> updated = new HashMap<>(previous);
+        updated.putAll(Schema.copyDocument(document));
+        replace(rowId, previous, updated, journal);
+    }
+
+    /**
+     * Applies update operations to the matching documents. The caller must
+     * hold the lock.
+     *
+     * @param criteria The filter, may be null
+     * @param update   The update operations
+     * @param one      Whether only the first matching document is updated
+     * @param journal  The journal recording the writes
+     * @return The number of documents updated
+     * @throws RuntimeException if an updated document breaks a unique index
+     */
+    int update(Filter.Find criteria, Filter.Update update, boolean one, Journal journal) {
+        if (update == null || update.getUpdateOperations().isEmpty()) {
+            return 0;
+        }
+
+        List<Long> matched = matchingRows(criteriaOf(criteria), one);
+        for (long rowId : matched) {
+            Map<String, Object> previous = rows.get(rowId);
+            replace(rowId, previous, DocumentUpdater.apply(previous, update), journal);
+        }
+        return matched.size();
+    }
+
+    /**
+     * Deletes the matching documents. The caller must hold the lock.
+     *
+     * @param criteria The filter, may be null
+     * @param one      Whether only the first matching document is deleted
+     * @param journal  The journal recording the writes
+     * @return The number of documents deleted
+     */
+    int delete(Filter.Find criteria, boolean one, Journal journal) {
+        List<Long> matched = matchingRows(criteriaOf(criteria), one);
+        for (long rowId : matched) {
+            Map<String, Object> previous = rows.remove(rowId);
+            for (MemoryIndex index : indexes.values()) {
+                index.remove(previous, rowId);
+            }
+            journal.record(this, rowId, previous);
+        }
+        return matched.size();
+    }
+
+    /**
+     * Finds the documents matching a filter, sorted, paged and in insertion
+     * order otherwise. The returned documents are the stored ones and must not
+     * be modified.
+     *
+     * @param criteria The filter, may be null
+     * @param one      Whether only the first document is needed
+     * @return The matching documents
+     */
+    List<Map<String, Object>> select(Filter.Find criteria, boolean one) {
+        Map<String, Object> conditions = criteriaOf(criteria);
+        return DocumentQuery.select(criteria, one,
+                visitor -> scan(conditions, (rowId, document) -> visitor.test(document)));
+    }
+
+    /**
+     * Finds a document by its identifier. The returned document is the stored
+     * one and must not be modified.
+     *
+     * @param primaryKey The identifier field
+     * @param id         The identifier
+     * @return The document, or null if not found
+     */
+    Map<String, Object> findById(String primaryKey, String id) {
+        Long rowId = firstRow(new Filter.Find().eq(primaryKey, id).getCriteria());
+        return rowId != null ? rows.get(rowId) : null;
+    }
+
+    /**
+     * Counts the documents matching a filter.
+     *
+     * @param criteria The filter, may be null
+     * @return The number of matching documents
+     */
+    long count(Filter.Find criteria) {
+        Map<String, Object> conditions = criteriaOf(criteria);
+        if (conditions.isEmpty()) {
+            return rows.size();
+        }
+
+        long[] count = { 0 };
+        scan(conditions, (rowId, document) -> {
+            count[0]++;
+            return true;
+        });
+        return count[0];
+    }
+
+    /**
+     * Checks whether a document matches a filter.
+     *
+     * @param criteria The filter, may be null
+     * @return true if a matching document exists
+     */
+    boolean exists(Filter.Find criteria) {
+        return firstRow(criteriaOf(criteria)) != null;
+    }
+
+    /**
+     * Puts a document back to its state before a write, used to roll back.
+     * The caller must hold the lock.
+     *
+     * @param rowId    The row id
+     * @param previous The previous document, or null if the row did not exist
+     */
+    private void restore(long rowId, Map<String, Object> previous) {
+        Map<String, Object> current = previous != null ? rows.put(rowId, previous) : rows.remove(rowId);
+        for (MemoryIndex index : indexes.values()) {
+            if (current == null) {
+                index.add(previous, rowId);
+            } else if (previous == null) {
+                index.remove(current, rowId);
+            } else if (index.changed(current, previous)) {
+                index.add(previous, rowId);
+                index.remove(current, rowId);
+            }
+        }
+    }
+
+    private void replace(long rowId, Map<String, Object> previous, Map<String, Object> updated, Journal journal) {
+        checkUnique(updated, rowId);
+
+        // The row is stored before it is moved in the indexes, so readers
+        // looking it up by its old value find it and discard it
+        rows.put(rowId, updated);
+        for (MemoryIndex index : indexes.values()) {
+            if (index.changed(previous, updated)) {
+                index.add(updated, rowId);
+                index.remove(previous, rowId);
+            }
+        }
+        journal.record(this, rowId, previous);
+    }
+
+    /**
+     * Checks that a document does not share the value of the primary key or
+     * of a unique index with another row. Null values are never duplicates.
+     */
+    private void checkUnique(Map<String, Object> document, long rowId) {
+        String primaryKey = this.primaryKey;
+        if (primaryKey != null) {
+            Object id = Values.get(document, primaryKey);
+            if (id != null && hasOther(indexes.get(primaryKey).equal(id), rowId)) {
+                throw new RuntimeException("Duplicate key " + primaryKey + " = " + id + " in " + name);
+            }
+        }
+
+        for (IndexDefinition definition : definitions) {
+            if (!definition.isUnique()) {
+                continue;
+            }
+
+            List<String> fields = definition.getFields();
+            Object first = Values.get(document, fields.get(0));
+            if (first == null) {
+                continue;
+            }
+
+            for (long candidate : indexes.get(fields.get(0)).equal(first)) {
+                Map<String, Object> other = rows.get(candidate);
+                if (candidate != rowId && other != null && sameValues(document, other, fields)) {
+                    throw new RuntimeException("Duplicate key for unique index " + definition.getName()
+                            + " in " + name);
+                }
+            }
+        }
+    }
+
+    private static boolean hasOther(Set<Long> rowIds, long rowId) {
+        return rowIds.size() > 1 || (rowIds.size() == 1 && !rowIds.contains(rowId));
+    }
+
+    private static boolean sameValues(Map<String, Object> document, Map<String, Object> other, List<String> fields) {
+        for (String field : fields) {
+            Object value = Values.get(document, field);
+            if (value == null || !Values.equal(value, Values.get(other, field))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private Long firstRow(Map<String, Object> criteria) {
+        Long[] found = { null };
+        scan(criteria, (rowId, document) -> {
+            found[0] = rowId;
+            return false;
+        });
+        return found[0];
+    }
+
+    private List<Long> matchingRows(Map<String, Object> criteria, boolean one) {
+        List<Long> matched = new ArrayList<>();
+        scan(criteria, (rowId, document) -> {
+            matched.add(rowId);
+            return !one;
+        });
+        return matched;
+    }
+
+    /**
+     * Visits the documents matching a criteria map in insertion order, looking
+     * up the candidates in an index when one applies.
+     */
+    private void scan(Map<String, Object> criteria, RowVisitor visitor) {
+        Collection<Long> candidates = plan(criteria);
+        if (candidates == null) {
+            for (Map.Entry<Long, Map<String, Object>> row : rows.entrySet()) {
+                if (DocumentMatcher.matches(row.getValue(), criteria) && !visitor.visit(row.getKey(), row.getValue())) {
+                    return;
+                }
+            }
+            return;
+        }
+
+        SortedSet<Long> ordered = candidates instanceof SortedSet ? (SortedSet<Long>) candidates
+                : new TreeSet<>(candidates);
+        for (long rowId : ordered) {
+            Map<String, Object> document = rows.get(rowId);
+            if (document != null && DocumentMatcher.matches(document, criteria) && !visitor.visit(rowId, document)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Gets the smallest set of candidate rows given by the indexes for a
+     * criteria map, or null if no index applies and every row must be
+     * scanned.
+     */
+    @SuppressWarnings("unchecked")
+    private Collection<Long> plan(Map<String, Object> criteria) {
+        Map<String, MemoryIndex> indexes = this.indexes;
+        Collection<Long> best = null;
+        for (Map.Entry<String, Object> entry : criteria.entrySet()) {
+            String field = entry.getKey();
+            Object value = entry.getValue();
+            Collection<Long> candidates = null;
+
+            switch (field) {
+                case "$or":
+                    candidates = planAny((List<Map<String, Object>>) value);
+                    break;
+                case "$and":
+                    for (Map<String, Object> branch : (List<Map<String, Object>>) value) {
+                        candidates = smallest(candidates, plan(branch));
+                    }
+                    break;
+                case "$not":
+                    break;
+                default:
+                    MemoryIndex index = indexes.get(field);
+                    if (index != null) {
+                        candidates = value instanceof Map ? planCondition(index, (Map<String, Object>) value)
+                                : index.equal(value);
+                    }
+            }
+
+            best = smallest(best, candidates);
+            if (best != null && best.isEmpty()) {
+                break;
+            }
+        }
+        return best;
+    }
+
+    private Collection<Long> planAny(List<Map<String, Object>> branches) {
+        SortedSet<Long> union = new TreeSet<>();
+        for (Map<String, Object> branch : branches) {
+            Collection<Long> candidates = plan(branch);
+            if (candidates == null) {
+                return null; // One branch needs a full scan anyway
+            }
+            union.addAll(candidates);
+        }
+        return union;
+    }
+
+    private static Collection<Long> planCondition(MemoryIndex index, Map<String, Object> condition) {
+        if (condition.containsKey("$eq")) {
+            return index.equal(condition.get("$eq"));
+        } else if (condition.containsKey("$isNull")) {
+            return index.equal(null);
+        } else if (condition.containsKey("$in")) {
+            SortedSet<Long> union = new TreeSet<>();
+            for (Object value : (List<?>) condition.get("$in")) {
+                union.addAll(index.equal(value));
+            }
+            return union;
+        } else if (!index.isOrdered()) {
+            return null;
+        }
+
+        boolean lowInclusive = !condition.containsKey("$gt");
+        Object low = lowInclusive ? condition.get("$gte") : condition.get("$gt");
+        boolean highInclusive = !condition.containsKey("$lt");
+        Object high = highInclusive ? condition.get("$lte") : condition.get("$lt");
+        if (low == null && high == null) {
+            return null;
+        }
+        return index.range(low, lowInclusive, high, highInclusive);
+    }
+
+    private static Collection<Long> smallest(Collection<Long> a, Collection<Long> b) {
+        if (a == null) {
+            return b;
+        } else if (b == null) {
+            return a;
+        }
+        return b.size() < a.size() ? b : a;
+    }
+
+    private static Map<String, Object> criteriaOf(Filter.Find criteria) {
+        return criteria != null ? criteria.getCriteria() : Collections.emptyMap();
+    }
+
+    @FunctionalInterface
+    private interface RowVisitor {
+        /**
+         * @return false to stop the scan
+         */
+        boolean visit(long rowId, Map<String, Object> document);
+    }
+
+    /**
+     * Records the previous state of the rows written by a batch, so the batch
+     * or its last operations can be rolled back. Collections must stay locked
+     * until the journal is discarded.
+     */
+    static final class Journal {
+        private final List<Entry> entries = new ArrayList<>();
+
+        /**
+         * @return A mark to roll back to
+         */
+        int mark() {
+            return entries.size();
+        }
+
+        /**
+         * Rolls back every write recorded after a mark.
+         *
+         * @param mark The mark returned by {@link #mark()}, 0 for every write
+         */
+        void rollback(int mark) {
+            for (int i = entries.size() - 1; i >= mark; i--) {
+                Entry entry = entries.remove(i);
+                entry.collection.restore(entry.rowId, entry.previous);
+            }
+        }
+
+        private void record(MemoryCollection collection, long rowId, Map<String, Object> previous) {
+            entries.add(new Entry(collection, rowId, previous));
+        }
+
+        private static final class Entry {
+            final MemoryCollection collection;
+            final long rowId;
+            final Map<String, Object> previous;
+
+            Entry(MemoryCollection collection, long rowId, Map<String, Object> previous) {
+                this.collection = collection;
+                this.rowId = rowId;
+                this.previous = previous;
+            }
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package com.sammwy.milkshake.providers.memory;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Secondary index of one field of a {@link MemoryCollection}, mapping values
+ * to the row ids that have them: a hash index for equality and membership
+ * lookups, and an ordered skip-list index for range lookups.
+ *
+ * <p>
+ * Only the writer of the collection modifies the index, while readers look it
+ * up without locking. Readers therefore treat the row ids found here as
+ * candidates and check every one against the current row.
+ */
+class MemoryIndex {
+    private final String field;
+    private final Map<Object, Set<Long>> hash = new ConcurrentHashMap<>();
+    private final ConcurrentSkipListMap<Object, Set<Long>> ordered;
+
+    /**
+     * @param field   The indexed field
+     * @param ordered Whether to also maintain the ordered index
+     */
+    MemoryIndex(String field, boolean ordered) {
+        this.field = field;
+        this.ordered = ordered ? new ConcurrentSkipListMap<>(Values::compare) : null;
+    }
+
+    /**
+     * @return The indexed field
+     */
+    String getField() {
+        return field;
+    }
+
+    /**
+     * @return true if range lookups are supported
+     */
+    boolean isOrdered() {
+        return ordered != null;
+    }
+
+    /**
+     * Adds a row under the value of the indexed field in a document.
+     *
+     * @param document The document of the row
+     * @param rowId    The row id
+     */
+    void add(Map<String, Object> document, long rowId) {
+        Object key = Values.key(Values.get(document, field));
+        hash.computeIfAbsent(key, k -> ConcurrentHashMap.newKeySet()).add(rowId);
+        if (isRanged(key)) {
+            ordered.computeIfAbsent(key, k -> ConcurrentHashMap.newKeySet()).add(rowId);
+        }
+    }
+
+    /**
+     * Removes a row from under the value of the indexed field in a document.
+     *
+     * @param document The document the row was indexed with
+     * @param rowId    The row id
+     */
+    void remove(Map<String, Object> document, long rowId) {
+        Object key = Values.key(Values.get(document, field));
+        removeFrom(hash, key, rowId);
+        if (isRanged(key)) {
+            removeFrom(ordered, key, rowId);
+        }
+    }
+
+    /**
+     * Checks whether an update of a document moves its row in this index.
+     *
+     * @param previous The previous document
+     * @param updated  The updated document
+     * @return true if the indexed value changed
+     */
+    boolean changed(Map<String, Object> previous, Map<String, Object> updated) {
+        return !Values.key(Values.get(previous, field)).equals(Values.key(Values.get(updated, field)));
+    }
+
+    /**
+     * Gets the rows whose indexed field is equal to a value.
+     *
+     * @param value The value, null for the rows where the field is null or
+     *              missing
+     * @return The row ids, possibly modified concurrently
+     */
+    Set<Long> equal(Object value) {
+        Set<Long> rows = hash.get(Values.key(value));
+        return rows != null ? rows : Collections.emptySet();
+    }
+
+    /**
+     * Gets the rows whose indexed field is in a range. Only values of the same
+     * kind as the bounds are returned, like range conditions.
+     *
+     * @param low           The lower bound, or null for none
+     * @param lowInclusive  Whether the lower bound is inclusive
+     * @param high          The upper bound, or null for none
+     * @param highInclusive Whether the upper bound is inclusive
+     * @return The row ids in ascending order
+     */
+    SortedSet<Long> range(Object low, boolean lowInclusive, Object high, boolean highInclusive) {
+        Object lowKey = low != null ? Values.key(low) : null;
+        Object highKey = high != null ? Values.key(high) : null;
+        Object kind = lowKey != null ? lowKey : highKey;
+
+        NavigableMap<Object, Set<Long>> range = ordered;
+        if (lowKey != null && highKey != null) {
+            if (!Values.comparable(lowKey, highKey) || Values.compare(lowKey, highKey) > 0) {
+                return Collections.emptySortedSet();
+            }
+            range = ordered.subMap(lowKey, lowInclusive, highKey, highInclusive);
+        } else if (lowKey != null) {
+            range = ordered.tailMap(lowKey, lowInclusive);
+        } else if (highKey != null) {
+            range = ordered.headMap(highKey, highInclusive).descendingMap();
+        }
+
+        SortedSet<Long> rows = new TreeSet<>();
+        for (Map.Entry<Object, Set<Long>> entry : range.entrySet()) {
+            if (!Values.comparable(entry.getKey(), kind)) {
+                break; // Left the type bracket of the bounds
+            }
+            rows.addAll(entry.getValue());
+        }
+        return rows;
+    }
+
+    private boolean isRanged(Object key) {
+        return ordered != null && key != Values.NULL_KEY;
+    }
+
+    private static void removeFrom(Map<Object, Set<Long>> index, Object key, long rowId) {
+        Set<Long> rows = index.get(key);
+        if (rows != null) {
+            rows.remove(rowId);
+            if (rows.isEmpty()) {
+                index.remove(key);
+            }
+        }
+    }
+}
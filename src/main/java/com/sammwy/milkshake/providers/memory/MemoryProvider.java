@@ -0,0 +1,351 @@
+package com.sammwy.milkshake.providers.memory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiFunction;
+import java.util.stream.Stream;
+
+import com.sammwy.milkshake.ProviderInfo;
+import com.sammwy.milkshake.Repository;
+import com.sammwy.milkshake.RepositoryCache;
+import com.sammwy.milkshake.providers.AbstractProvider;
+import com.sammwy.milkshake.providers.memory.MemoryCollection.Journal;
+import com.sammwy.milkshake.query.BulkWriteResult;
+import com.sammwy.milkshake.query.Filter.Find;
+import com.sammwy.milkshake.query.Filter.Update;
+import com.sammwy.milkshake.query.WriteOperation;
+import com.sammwy.milkshake.schema.Schema;
+import com.sammwy.milkshake.schema.SchemaMetadata;
+
+/**
+ * Provider keeping every collection in process memory, for tests and caches
+ * that do not need persistence.
+ *
+ * <p>
+ * Filters are evaluated in process. The primary key has a hash index, and
+ * every field of an {@code @Index} declared by a schema has a hash index for
+ * {@code eq} and {@code in} conditions and an ordered skip-list index for
+ * range conditions; other conditions are checked against the candidates of
+ * the most selective index, or against every document when no index applies.
+ *
+ * <p>
+ * The provider is thread-safe. Writes to a collection are serialized and each
+ * write is atomic, while reads never block and see a document either before or
+ * after a concurrent write. Returned documents are copies.
+ */
+public class MemoryProvider extends AbstractProvider {
+    private final Map<String, MemoryCollection> collections = new ConcurrentHashMap<>();
+
+    @Override
+    public boolean supportsEmbedded() {
+        return true;
+    }
+
+    @Override
+    public void connect(ProviderInfo info) {
+        // Nothing to connect to
+    }
+
+    /**
+     * Drops every document of every collection, keeping their indexes.
+     */
+    public void clear() {
+        for (MemoryCollection collection : collections.values()) {
+            collection.lock();
+            try {
+                collection.clear();
+            } finally {
+                collection.unlock();
+            }
+            notifyWrite(collection.getName());
+        }
+    }
+
+    @Override
+    public <T extends Schema> boolean initialize(Class<T> schemaClass, String primaryKey) {
+        SchemaMetadata metadata = SchemaMetadata.of(schemaClass);
+        MemoryCollection collection = collectionOf(metadata.getCollectionName());
+        collection.lock();
+        try {
+            collection.configure(primaryKey, metadata.getIndexes());
+            return true;
+        } catch (RuntimeException e) {
+            throw new RuntimeException("Failed to initialize collection for " + schemaClass.getName(), e);
+        } finally {
+            collection.unlock();
+        }
+    }
+
+    @Override
+    public List<String> listIndexes(String collection) {
+        MemoryCollection target = collections.get(collection);
+        return target != null ? target.getIndexNames() : Collections.emptyList();
+    }
+
+    @Override
+    public boolean insert(String collection, Map<String, Object> data) {
+        return write(collection, "Failed to insert data", (target, journal) -> {
+            target.insert(data, journal);
+            return true;
+        });
+    }
+
+    @Override
+    public int insertMany(String collection, List<Map<String, Object>> dataList) {
+        return write(collection, "Failed to insert multiple records", (target, journal) -> {
+            for (Map<String, Object> data : dataList) {
+                target.insert(data, journal);
+            }
+            return dataList.size();
+        });
+    }
+
+    @Override
+    public boolean upsert(String collection, Map<String, Object> data, String primaryKey) {
+        return write(collection, "Failed to upsert data", (target, journal) -> {
+            target.upsert(data, primaryKey, journal);
+            return true;
+        });
+    }
+
+    @Override
+    public int upsertMany(String collection, List<Map<String, Object>> dataList, String primaryKey) {
+        return write(collection, "Failed to upsert multiple records", (target, journal) -> {
+            for (Map<String, Object> data : dataList) {
+                target.upsert(data, primaryKey, journal);
+            }
+            return dataList.size();
+        });
+    }
+
+    @Override
+    public int bulkWrite(List<WriteOperation> operations) {
+        if (operations.isEmpty())
+            return 0;
+
+        List<MemoryCollection> locked = lockAll(operations);
+        Journal journal = new Journal();
+        try {
+            int written = 0;
+            for (WriteOperation operation : operations) {
+                written += apply(operation, journal);
+            }
+            return written;
+        } catch (RuntimeException e) {
+            journal.rollback(0);
+            throw new RuntimeException("Failed to apply bulk write", e);
+        } finally {
+            unlockAll(locked);
+        }
+    }
+
+    @Override
+    public BulkWriteResult bulkWrite(List<WriteOperation> operations, boolean ordered) {
+        BulkWriteResult result = new BulkWriteResult(operations);
+        if (operations.isEmpty())
+            return result;
+
+        List<MemoryCollection> locked = lockAll(operations);
+        Journal journal = new Journal();
+        try {
+            for (int i = 0; i < operations.size(); i++) {
+                int mark = journal.mark();
+                try {
+                    result.recordApplied(i, apply(operations.get(i), journal));
+                } catch (RuntimeException e) {
+                    // Only the failed operation is undone, like a savepoint
+                    journal.rollback(mark);
+                    result.recordFailure(i, e);
+                    if (ordered) {
+                        break;
+                    }
+                }
+            }
+        } finally {
+            unlockAll(locked);
+        }
+        return result;
+    }
+
+    @Override
+    public List<Map<String, Object>> find(String collection, Find criteria) {
+        MemoryCollection target = collections.get(collection);
+        if (target == null) {
+            return new ArrayList<>();
+        }
+
+        List<Map<String, Object>> results = new ArrayList<>();
+        for (Map<String, Object> document : target.select(criteria, false)) {
+            results.add(project(document, criteria));
+        }
+        return results;
+    }
+
+    @Override
+    public Map<String, Object> findOne(String collection, Find criteria) {
+        MemoryCollection target = collections.get(collection);
+        if (target == null) {
+            return null;
+        }
+
+        List<Map<String, Object>> results = target.select(criteria, true);
+        return results.isEmpty() ? null : project(results.get(0), criteria);
+    }
+
+    @Override
+    public <T extends Schema> Stream<T> stream(String collection, Find criteria, Class<T> schemaClass,
+            int fetchSize) {
+        // Everything is in memory already, so only the conversion is lazy
+        MemoryCollection target = collections.get(collection);
+        if (target == null) {
+            return Stream.empty();
+        }
+        return target.select(criteria, false).stream()
+                .map(document -> Schema.fromMap(schemaClass, project(document, criteria)));
+    }
+
+    @Override
+    public Map<String, Object> findById(String collection, String primaryKey, String id) {
+        MemoryCollection target = collections.get(collection);
+        Map<String, Object> document = target != null ? target.findById(primaryKey, id) : null;
+        return document != null ? Schema.copyDocument(document) : null;
+    }
+
+    @Override
+    public long count(String collection, Find criteria) {
+        MemoryCollection target = collections.get(collection);
+        return target != null ? target.count(criteria) : 0;
+    }
+
+    @Override
+    public boolean exists(String collection, Find criteria) {
+        MemoryCollection target = collections.get(collection);
+        return target != null && target.exists(criteria);
+    }
+
+    @Override
+    public int update(String collection, Find criteria, Update update) {
+        return write(collection, "Failed to update data",
+                (target, journal) -> target.update(criteria, update, false, journal));
+    }
+
+    @Override
+    public boolean updateByID(String collection, String primaryKey, String id, Update update) {
+        return update(collection, new Find().eq(primaryKey, id), update) > 0;
+    }
+
+    @Override
+    public boolean updateOne(String collection, Find criteria, Update update) {
+        return write(collection, "Failed to update one record",
+                (target, journal) -> target.update(criteria, update, true, journal)) > 0;
+    }
+
+    @Override
+    public int delete(String collection, Find criteria) {
+        return write(collection, "Failed to delete data",
+                (target, journal) -> target.delete(criteria, false, journal));
+    }
+
+    @Override
+    public boolean deleteByID(String collection, String primaryKey, String id) {
+        return delete(collection, new Find().eq(primaryKey, id)) > 0;
+    }
+
+    @Override
+    public boolean deleteOne(String collection, Find criteria) {
+        return write(collection, "Failed to delete one record",
+                (target, journal) -> target.delete(criteria, true, journal)) > 0;
+    }
+
+    @Override
+    public <T extends Schema> Repository<T> addRepository(Class<T> schemaClass) {
+        Repository<T> repo = new Repository<>(this, schemaClass);
+        RepositoryCache.cache(schemaClass, repo);
+        initialize(schemaClass, repo.getPrimaryKey());
+        return repo;
+    }
+
+    private MemoryCollection collectionOf(String name) {
+        return collections.computeIfAbsent(name, MemoryCollection::new);
+    }
+
+    /**
+     * Runs a write on a locked collection, rolling it back entirely if it
+     * fails.
+     */
+    private <R> R write(String collection, String error, BiFunction<MemoryCollection, Journal, R> write) {
+        MemoryCollection target = collectionOf(collection);
+        Journal journal = new Journal();
+        target.lock();
+        try {
+            return write.apply(target, journal);
+        } catch (RuntimeException e) {
+            journal.rollback(0);
+            throw new RuntimeException(error, e);
+        } finally {
+            target.unlock();
+            notifyWrite(collection);
+        }
+    }
+
+    private int apply(WriteOperation operation, Journal journal) {
+        MemoryCollection target = collectionOf(operation.getCollection());
+        switch (operation.getType()) {
+            case INSERT:
+                target.insert(operation.getDocument(), journal);
+                return 1;
+            case UPSERT:
+                target.upsert(operation.getDocument(), operation.getPrimaryKey(), journal);
+                return 1;
+            case UPDATE:
+                return target.update(operation.getCriteria(), operation.getUpdate(), false, journal);
+            case UPDATE_ONE:
+                return target.update(operation.getCriteria(), operation.getUpdate(), true, journal);
+            case DELETE:
+                return target.delete(operation.getCriteria(), false, journal);
+            case DELETE_ONE:
+                return target.delete(operation.getCriteria(), true, journal);
+            default:
+                throw new UnsupportedOperationException("Unknown write operation: " + operation.getType());
+        }
+    }
+
+    /**
+     * Locks every collection written by a bulk write, in name order so
+     * concurrent bulk writes cannot deadlock.
+     */
+    private List<MemoryCollection> lockAll(List<WriteOperation> operations) {
+        Set<String> names = new TreeSet<>();
+        for (WriteOperation operation : operations) {
+            names.add(operation.getCollection());
+        }
+
+        List<MemoryCollection> locked = new ArrayList<>(names.size());
+        for (String name : names) {
+            MemoryCollection collection = collectionOf(name);
+            collection.lock();
+            locked.add(collection);
+        }
+        return locked;
+    }
+
+    private void unlockAll(List<MemoryCollection> locked) {
+        for (MemoryCollection collection : locked) {
+            collection.unlock();
+            notifyWrite(collection.getName());
+        }
+    }
+
+    /**
+     * Copies a stored document for the caller, keeping only the projected
+     * fields if any.
+     */
+    private static Map<String, Object> project(Map<String, Object> document, Find criteria) {
+        return Schema.copyDocument(DocumentQuery.project(document, criteria));
+    }
+}
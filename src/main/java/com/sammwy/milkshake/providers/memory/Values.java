@@ -0,0 +1,303 @@
+package com.sammwy.milkshake.providers.memory;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Comparison, equality and path access of document values for the providers
+ * that evaluate filters in process.
+ *
+ * <p>
+ * Numbers are compared by value whatever their boxed type, so {@code 2},
+ * {@code 2L} and {@code 2.0} are equal. Values of different kinds are ordered
+ * null, numbers, strings, byte arrays, booleans and then everything else, like
+ * the type brackets of MongoDB; range conditions only match values of the same
+ * kind as their operand.
+ */
+public final class Values {
+    /**
+     * Index key of null and missing values, since concurrent maps do not
+     * accept null keys.
+     */
+    public static final Object NULL_KEY = new Object() {
+        @Override
+        public String toString() {
+            return "null";
+        }
+    };
+
+    /** Type brackets, in sort order. */
+    private static final int NULL = 0;
+    private static final int NUMBER = 1;
+    private static final int STRING = 2;
+    private static final int BYTES = 3;
+    private static final int BOOLEAN = 4;
+    private static final int OTHER = 5;
+
+    private Values() {
+    }
+
+    /**
+     * Reads a field of a document. Dotted paths such as {@code embedded.child}
+     * are resolved through nested documents when the document has no field
+     * with that exact name.
+     *
+     * @param document The document
+     * @param path     The field name or dotted path
+     * @return The value, or null if missing
+     */
+    @SuppressWarnings("unchecked")
+    public static Object get(Map<String, Object> document, String path) {
+        Object value = document.get(path);
+        if (value != null || path.indexOf('.') < 0 || document.containsKey(path)) {
+            return value;
+        }
+
+        Object current = document;
+        int start = 0;
+        while (current instanceof Map) {
+            int dot = path.indexOf('.', start);
+            String key = dot < 0 ? path.substring(start) : path.substring(start, dot);
+            current = ((Map<String, Object>) current).get(key);
+            if (dot < 0) {
+                return current;
+            }
+            start = dot + 1;
+        }
+        return null;
+    }
+
+    /**
+     * Writes a field of a document owned by the caller, copying the nested
+     * documents along a dotted path instead of modifying them.
+     *
+     * @param document The document to modify
+     * @param path     The field name or dotted path
+     * @param value    The new value
+     */
+    @SuppressWarnings("unchecked")
+    public static void put(Map<String, Object> document, String path, Object value) {
+        int dot = path.indexOf('.');
+        if (dot < 0 || document.containsKey(path)) {
+            document.put(path, value);
+            return;
+        }
+
+        String head = path.substring(0, dot);
+        Object child = document.get(head);
+        Map<String, Object> copy = child instanceof Map ? new HashMap<>((Map<String, Object>) child) : new HashMap<>();
+        put(copy, path.substring(dot + 1), value);
+        document.put(head, copy);
+    }
+
+    /**
+     * Removes a field of a document owned by the caller, copying the nested
+     * documents along a dotted path instead of modifying them.
+     *
+     * @param document The document to modify
+     * @param path     The field name or dotted path
+     */
+    @SuppressWarnings("unchecked")
+    public static void remove(Map<String, Object> document, String path) {
+        int dot = path.indexOf('.');
+        if (dot < 0 || document.containsKey(path)) {
+            document.remove(path);
+            return;
+        }
+
+        String head = path.substring(0, dot);
+        Object child = document.get(head);
+        if (child instanceof Map) {
+            Map<String, Object> copy = new HashMap<>((Map<String, Object>) child);
+            remove(copy, path.substring(dot + 1));
+            document.put(head, copy);
+        }
+    }
+
+    /**
+     * Normalizes a value into a key whose {@code equals} and
+     * {@code hashCode} follow {@link #equal(Object, Object)}: integral
+     * numbers become longs, byte arrays are compared by content and null
+     * becomes {@link #NULL_KEY}.
+     *
+     * @param value The value
+     * @return The key
+     */
+    public static Object key(Object value) {
+        if (value == null) {
+            return NULL_KEY;
+        } else if (value instanceof Number) {
+            return normalize((Number) value);
+        } else if (value instanceof byte[]) {
+            return ByteBuffer.wrap((byte[]) value);
+        }
+        return value;
+    }
+
+    /**
+     * Checks whether two values are equal, comparing numbers by value.
+     *
+     * @param a The first value
+     * @param b The second value
+     * @return true if both values are equal
+     */
+    public static boolean equal(Object a, Object b) {
+        return Objects.equals(key(a), key(b));
+    }
+
+    /**
+     * Checks whether two values can be ordered by a range condition.
+     *
+     * @param a The first value
+     * @param b The second value
+     * @return true if both values are non-null and of the same kind
+     */
+    public static boolean comparable(Object a, Object b) {
+        return a != null && b != null && bracket(a) == bracket(b)
+                && (bracket(a) != OTHER || (a instanceof Comparable && a.getClass() == b.getClass()));
+    }
+
+    /**
+     * Compares two values in the total order used for sorting and ordered
+     * indexes.
+     *
+     * @param a The first value
+     * @param b The second value
+     * @return A negative number, zero or a positive number as the first value
+     *         is lower than, equal to or greater than the second one
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    public static int compare(Object a, Object b) {
+        if (a == NULL_KEY) {
+            a = null;
+        }
+        if (b == NULL_KEY) {
+            b = null;
+        }
+
+        int bracket = Integer.compare(bracket(a), bracket(b));
+        if (bracket != 0) {
+            return bracket;
+        }
+
+        switch (bracket(a)) {
+            case NULL:
+                return 0;
+            case NUMBER:
+                return compareNumbers((Number) a, (Number) b);
+            case STRING:
+                return ((String) a).compareTo((String) b);
+            case BYTES:
+                return bytesOf(a).compareTo(bytesOf(b));
+            case BOOLEAN:
+                return Boolean.compare((Boolean) a, (Boolean) b);
+            default:
+                if (a instanceof Comparable && a.getClass() == b.getClass()) {
+                    return ((Comparable) a).compareTo(b);
+                }
+                int type = a.getClass().getName().compareTo(b.getClass().getName());
+                return type != 0 ? type : a.toString().compareTo(b.toString());
+        }
+    }
+
+    /**
+     * Adds two numbers, keeping integers when both are integral and the
+     * result fits.
+     *
+     * @param a The first number
+     * @param b The second number
+     * @return The sum
+     * @throws ArithmeticException if an integral sum overflows a long
+     */
+    public static Number add(Number a, Number b) {
+        if (isIntegral(a) && isIntegral(b)) {
+            return narrow(Math.addExact(a.longValue(), b.longValue()), a, b);
+        }
+        return a.doubleValue() + b.doubleValue();
+    }
+
+    /**
+     * Multiplies two numbers, keeping integers when both are integral and the
+     * result fits.
+     *
+     * @param a The first number
+     * @param b The second number
+     * @return The product
+     * @throws ArithmeticException if an integral product overflows a long
+     */
+    public static Number multiply(Number a, Number b) {
+        if (isIntegral(a) && isIntegral(b)) {
+            return narrow(Math.multiplyExact(a.longValue(), b.longValue()), a, b);
+        }
+        return a.doubleValue() * b.doubleValue();
+    }
+
+    private static int bracket(Object value) {
+        if (value == null) {
+            return NULL;
+        } else if (value instanceof Number) {
+            return NUMBER;
+        } else if (value instanceof String) {
+            return STRING;
+        } else if (value instanceof byte[] || value instanceof ByteBuffer) {
+            return BYTES;
+        } else if (value instanceof Boolean) {
+            return BOOLEAN;
+        }
+        return OTHER;
+    }
+
+    private static ByteBuffer bytesOf(Object value) {
+        return value instanceof byte[] ? ByteBuffer.wrap((byte[]) value) : (ByteBuffer) value;
+    }
+
+    private static boolean isIntegral(Number number) {
+        return number instanceof Integer || number instanceof Long || number instanceof Short
+                || number instanceof Byte || number instanceof BigInteger;
+    }
+
+    private static Number narrow(long value, Number a, Number b) {
+        boolean ints = !(a instanceof Long || a instanceof BigInteger) && !(b instanceof Long || b instanceof BigInteger);
+        if (ints && value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE) {
+            return (int) value;
+        }
+        return value;
+    }
+
+    private static Number normalize(Number number) {
+        if (number instanceof Long) {
+            return number;
+        } else if (number instanceof Integer || number instanceof Short || number instanceof Byte) {
+            return number.longValue();
+        } else if (number instanceof BigInteger) {
+            BigInteger big = (BigInteger) number;
+            return big.bitLength() < 64 ? (Number) big.longValue() : (Number) big.doubleValue();
+        } else if (number instanceof BigDecimal) {
+            BigDecimal big = (BigDecimal) number;
+            try {
+                return big.longValueExact();
+            } catch (ArithmeticException e) {
+                return big.doubleValue();
+            }
+        }
+
+        double value = number.doubleValue();
+        if (value == Math.rint(value) && value >= Long.MIN_VALUE && value < Long.MAX_VALUE) {
+            return (long) value;
+        }
+        return value;
+    }
+
+    private static int compareNumbers(Number a, Number b) {
+        Number x = normalize(a);
+        Number y = normalize(b);
+        if (x instanceof Long && y instanceof Long) {
+            return Long.compare(x.longValue(), y.longValue());
+        }
+        return Double.compare(x.doubleValue(), y.doubleValue());
+    }
+}
@@ -1,35 +1,84 @@
 package com.sammwy.milkshake.providers.mongo;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import org.bson.Document;
+import org.bson.codecs.configuration.CodecRegistries;
 import org.bson.conversions.Bson;
 
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.MongoClientSettings;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.bulk.BulkWriteResult;
 import com.mongodb.client.FindIterable;
 import com.mongodb.client.MongoClient;
 import com.mongodb.client.MongoClients;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
 import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.DeleteManyModel;
+import com.mongodb.client.model.DeleteOneModel;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.InsertOneModel;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.ReplaceOneModel;
+import com.mongodb.client.model.ReplaceOptions;
+import com.mongodb.client.model.UpdateManyModel;
+import com.mongodb.client.model.UpdateOneModel;
 import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.WriteModel;
 import com.mongodb.client.result.DeleteResult;
 import com.mongodb.client.result.UpdateResult;
 import com.sammwy.milkshake.ProviderInfo;
+import com.sammwy.milkshake.ProviderInfo.Options;
 import com.sammwy.milkshake.Repository;
 import com.sammwy.milkshake.RepositoryCache;
 import com.sammwy.milkshake.providers.AbstractProvider;
 import com.sammwy.milkshake.query.Filter;
+import com.sammwy.milkshake.query.WriteOperation;
+import com.sammwy.milkshake.schema.IndexDefinition;
 import com.sammwy.milkshake.schema.Schema;
+import com.sammwy.milkshake.schema.SchemaMetadata;
 
 public class MongoProvider extends AbstractProvider {
     private MongoClient client;
     private MongoDatabase database;
+    private int fetchSize;
 
     @Override
     public <T extends Schema> boolean initialize(Class<T> schemaClass, String primaryKey) {
+        SchemaMetadata metadata = SchemaMetadata.of(schemaClass);
+        MongoCollection<Document> mongoCollection = database.getCollection(metadata.getCollectionName());
+
+        // createIndex is a no-op for indexes that already exist
+        for (IndexDefinition index : metadata.getIndexes()) {
+            IndexOptions options = new IndexOptions().name(index.getName()).unique(index.isUnique());
+            mongoCollection.createIndex(Indexes.ascending(index.getFields()), options);
+        }
         return true;
     }
 
+    @Override
+    public List<String> listIndexes(String collection) {
+        List<String> names = new ArrayList<>();
+        for (Document index : database.getCollection(collection).listIndexes()) {
+            names.add(index.getString("name"));
+        }
+        return names;
+    }
+
     @Override
     public boolean supportsEmbedded() {
         return true;
@@ -37,37 +86,297 @@ public class MongoProvider extends AbstractProvider {
 
     @Override
     public void connect(ProviderInfo info) {
+        this.fetchSize = Math.max(0, info.getOptionInt(Options.FETCH_SIZE, 0));
         this.client = MongoClients.create(info.toURI("mongodb"));
-        this.database = client.getDatabase(info.getDatabase());
+        // Schema classes are checked first, everything else uses the driver codecs
+        this.database = client.getDatabase(info.getDatabase()).withCodecRegistry(CodecRegistries.fromRegistries(
+                CodecRegistries.fromProviders(new SchemaCodecProvider()),
+                MongoClientSettings.getDefaultCodecRegistry()));
     }
 
     @Override
     public boolean insert(String collection, Map<String, Object> data) {
-        database.getCollection(collection).insertOne(new Document(data));
-        return true;
+        try {
+            database.getCollection(collection).insertOne(new Document(data));
+            return true;
+        } finally {
+            notifyWrite(collection);
+        }
     }
 
     @Override
     public int insertMany(String collection, List<Map<String, Object>> dataList) {
-        List<Document> docs = dataList.stream().map(Document::new).toList();
-        database.getCollection(collection).insertMany(docs);
-        return docs.size();
+        try {
+            List<Document> docs = dataList.stream().map(Document::new).toList();
+            database.getCollection(collection).insertMany(docs);
+            return docs.size();
+        } finally {
+            notifyWrite(collection);
+        }
     }
 
     @Override
     public boolean upsert(String collection, Map<String, Object> data, String primaryKey) {
-        String id = (String) data.get(primaryKey);
-        Document filter = new Document(primaryKey, id);
-        Document update = new Document("$set", new Document(data));
-        UpdateOptions options = new UpdateOptions().upsert(true);
-        database.getCollection(collection).updateOne(filter, update, options);
-        return true;
+        try {
+            String id = (String) data.get(primaryKey);
+            Document filter = new Document(primaryKey, id);
+            Document update = new Document("$set", new Document(data));
+            UpdateOptions options = new UpdateOptions().upsert(true);
+            database.getCollection(collection).updateOne(filter, update, options);
+            return true;
+        } finally {
+            notifyWrite(collection);
+        }
+    }
+
+    @Override
+    public int upsertMany(String collection, List<Map<String, Object>> dataList, String primaryKey) {
+        if (dataList.isEmpty())
+            return 0;
+
+        try {
+            UpdateOptions options = new UpdateOptions().upsert(true);
+            List<WriteModel<Document>> writes = new ArrayList<>(dataList.size());
+            for (Map<String, Object> data : dataList) {
+                Document filter = new Document(primaryKey, data.get(primaryKey));
+                Document update = new Document("$set", new Document(data));
+                writes.add(new UpdateOneModel<>(filter, update, options));
+            }
+
+            BulkWriteResult result = database.getCollection(collection).bulkWrite(writes,
+                    new BulkWriteOptions().ordered(false));
+            return result.getMatchedCount() + result.getUpserts().size();
+        } finally {
+            notifyWrite(collection);
+        }
+    }
+
+    @Override
+    public <T extends Schema> boolean insert(String collection, T entity, Class<T> schemaClass) {
+        if (!SchemaCodecProvider.supports(schemaClass)) {
+            return super.insert(collection, entity, schemaClass);
+        }
+
+        try {
+            database.getCollection(collection, schemaClass).insertOne(entity);
+            entity.markLoaded();
+            return true;
+        } finally {
+            notifyWrite(collection);
+        }
+    }
+
+    @Override
+    public <T extends Schema> int insertMany(String collection, List<T> entities, Class<T> schemaClass) {
+        if (!SchemaCodecProvider.supports(schemaClass)) {
+            return super.insertMany(collection, entities, schemaClass);
+        } else if (entities.isEmpty()) {
+            return 0;
+        }
+
+        try {
+            database.getCollection(collection, schemaClass).insertMany(entities);
+            for (T entity : entities) {
+                entity.markLoaded();
+            }
+            return entities.size();
+        } finally {
+            notifyWrite(collection);
+        }
+    }
+
+    /**
+     * Upserts an entity by replacing the whole document, which removes the
+     * fields that are not part of the schema.
+     */
+    @Override
+    public <T extends Schema> boolean upsert(String collection, T entity, String primaryKey, Class<T> schemaClass) {
+        if (!SchemaCodecProvider.supports(schemaClass)) {
+            return super.upsert(collection, entity, primaryKey, schemaClass);
+        }
+
+        try {
+            Document filter = new Document(primaryKey, entity.getId());
+            ReplaceOptions options = new ReplaceOptions().upsert(true);
+            database.getCollection(collection, schemaClass).replaceOne(filter, entity, options);
+            entity.markLoaded();
+            return true;
+        } finally {
+            notifyWrite(collection);
+        }
+    }
+
+    /**
+     * Upserts entities by replacing the whole documents, which removes the
+     * fields that are not part of the schema.
+     */
+    @Override
+    public <T extends Schema> int upsertMany(String collection, List<T> entities, String primaryKey,
+            Class<T> schemaClass) {
+        if (!SchemaCodecProvider.supports(schemaClass)) {
+            return super.upsertMany(collection, entities, primaryKey, schemaClass);
+        } else if (entities.isEmpty()) {
+            return 0;
+        }
+
+        try {
+            ReplaceOptions options = new ReplaceOptions().upsert(true);
+            List<WriteModel<T>> writes = new ArrayList<>(entities.size());
+            for (T entity : entities) {
+                Document filter = new Document(primaryKey, entity.getId());
+                writes.add(new ReplaceOneModel<>(filter, entity, options));
+            }
+
+            BulkWriteResult result = database.getCollection(collection, schemaClass).bulkWrite(writes,
+                    new BulkWriteOptions().ordered(false));
+            for (T entity : entities) {
+                entity.markLoaded();
+            }
+            return result.getMatchedCount() + result.getUpserts().size();
+        } finally {
+            notifyWrite(collection);
+        }
+    }
+
+    @Override
+    public com.sammwy.milkshake.query.BulkWriteResult bulkWrite(List<WriteOperation> operations, boolean ordered) {
+        com.sammwy.milkshake.query.BulkWriteResult result = new com.sammwy.milkshake.query.BulkWriteResult(
+                operations);
+        for (List<Integer> group : groupByCollection(operations, ordered)) {
+            String collection = operations.get(group.get(0)).getCollection();
+            List<WriteModel<Document>> writes = new ArrayList<>(group.size());
+            for (int index : group) {
+                writes.add(toWriteModel(operations.get(index)));
+            }
+
+            try {
+                BulkWriteResult written = database.getCollection(collection).bulkWrite(writes,
+                        new BulkWriteOptions().ordered(ordered));
+                record(operations, group, written, null, ordered, result);
+            } catch (MongoBulkWriteException e) {
+                record(operations, group, e.getWriteResult(), e, ordered, result);
+                if (ordered) {
+                    break;
+                }
+            } finally {
+                notifyWrite(collection);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Splits a bulk write into one bulk write per collection: every run of
+     * consecutive operations on the same collection when ordered, every
+     * operation on the same collection otherwise.
+     */
+    private static List<List<Integer>> groupByCollection(List<WriteOperation> operations, boolean ordered) {
+        Map<String, List<Integer>> groups = new LinkedHashMap<>();
+        List<List<Integer>> sequence = new ArrayList<>();
+        String previous = null;
+        for (int i = 0; i < operations.size(); i++) {
+            String collection = operations.get(i).getCollection();
+            if (!ordered) {
+                groups.computeIfAbsent(collection, key -> {
+                    List<Integer> group = new ArrayList<>();
+                    sequence.add(group);
+                    return group;
+                }).add(i);
+                continue;
+            }
+
+            if (!collection.equals(previous)) {
+                sequence.add(new ArrayList<>());
+                previous = collection;
+            }
+            sequence.get(sequence.size() - 1).add(i);
+        }
+        return sequence;
+    }
+
+    /**
+     * Records the outcome of a bulk write sent for a group of operations.
+     * MongoDB reports errors by index within the group, and only totals for
+     * updates and deletes.
+     */
+    private static void record(List<WriteOperation> operations, List<Integer> group, BulkWriteResult written,
+            MongoBulkWriteException exception, boolean ordered, com.sammwy.milkshake.query.BulkWriteResult result) {
+        Map<Integer, BulkWriteError> errors = new HashMap<>();
+        int firstFailure = group.size();
+        if (exception != null) {
+            for (BulkWriteError error : exception.getWriteErrors()) {
+                errors.put(error.getIndex(), error);
+                firstFailure = Math.min(firstFailure, error.getIndex());
+            }
+        }
+
+        int upserts = 0;
+        for (int i = 0; i < group.size(); i++) {
+            int index = group.get(i);
+            BulkWriteError error = errors.get(i);
+            if (error != null) {
+                result.recordFailure(index,
+                        new RuntimeException("Write error " + error.getCode() + ": " + error.getMessage(), exception));
+            } else if (ordered && i > firstFailure) {
+                continue; // Not attempted after the first failure
+            } else if (operations.get(index).getType() == WriteOperation.Type.INSERT) {
+                result.recordApplied(index, 1);
+            } else if (operations.get(index).getType() == WriteOperation.Type.UPSERT) {
+                result.recordApplied(index, 1);
+                upserts++;
+            } else {
+                result.recordApplied(index, com.sammwy.milkshake.query.BulkWriteResult.UNKNOWN);
+            }
+        }
+
+        // Upserts that replaced an existing document are counted as matched
+        result.addCount(WriteOperation.Type.UPDATE,
+                written.getMatchedCount() - (upserts - written.getUpserts().size()));
+        result.addCount(WriteOperation.Type.DELETE, written.getDeletedCount());
+    }
+
+    private static WriteModel<Document> toWriteModel(WriteOperation operation) {
+        switch (operation.getType()) {
+            case INSERT:
+                return new InsertOneModel<>(new Document(operation.getDocument()));
+            case UPSERT: {
+                String primaryKey = operation.getPrimaryKey();
+                Document filter = new Document(primaryKey, operation.getDocument().get(primaryKey));
+                Document update = new Document("$set", new Document(operation.getDocument()));
+                return new UpdateOneModel<>(filter, update, new UpdateOptions().upsert(true));
+            }
+            case UPDATE: {
+                Bson criteria = MongoUtils.toBson(operation.getCriteria());
+                Filter.Update update = operation.getUpdate();
+                return MongoUtils.requiresPipeline(update)
+                        ? new UpdateManyModel<>(criteria, MongoUtils.toPipeline(update))
+                        : new UpdateManyModel<>(criteria, MongoUtils.toBson(update));
+            }
+            case UPDATE_ONE: {
+                Bson criteria = MongoUtils.toBson(operation.getCriteria());
+                Filter.Update update = operation.getUpdate();
+                return MongoUtils.requiresPipeline(update)
+                        ? new UpdateOneModel<>(criteria, MongoUtils.toPipeline(update))
+                        : new UpdateOneModel<>(criteria, MongoUtils.toBson(update));
+            }
+            case DELETE:
+                return new DeleteManyModel<>(MongoUtils.toBson(operation.getCriteria()));
+            case DELETE_ONE:
+                return new DeleteOneModel<>(MongoUtils.toBson(operation.getCriteria()));
+            default:
+                throw new IllegalArgumentException("Unsupported write operation " + operation.getType());
+        }
     }
 
     @Override
     public List<Map<String, Object>> find(String collection, Filter.Find criteria) {
-        Bson criteriaDoc = MongoUtils.toBson(criteria);
-        FindIterable<Document> docs = database.getCollection(collection).find(criteriaDoc);
+        criteria = matchAll(criteria);
+        Bson criteriaDoc = MongoUtils.toQuery(criteria);
+        FindIterable<Document> docs = database.getCollection(collection).find(criteriaDoc)
+                .projection(MongoUtils.toProjection(criteria))
+                .sort(MongoUtils.toSort(criteria))
+                .skip(criteria.getSkip())
+                .limit(criteria.getLimit());
         List<Map<String, Object>> results = new ArrayList<>();
         for (Document doc : docs) {
             results.add(doc);
@@ -75,10 +384,103 @@ public class MongoProvider extends AbstractProvider {
         return results;
     }
 
+    @Override
+    public <T extends Schema> List<T> find(String collection, Filter.Find criteria, Class<T> schemaClass) {
+        if (!SchemaCodecProvider.supports(schemaClass)) {
+            return super.find(collection, criteria, schemaClass);
+        }
+
+        criteria = matchAll(criteria);
+        FindIterable<T> entities = database.getCollection(collection, schemaClass)
+                .find(MongoUtils.toQuery(criteria))
+                .projection(MongoUtils.toProjection(criteria))
+                .sort(MongoUtils.toSort(criteria))
+                .skip(criteria.getSkip())
+                .limit(criteria.getLimit());
+        List<T> results = new ArrayList<>();
+        for (T entity : entities) {
+            results.add(entity);
+        }
+        return results;
+    }
+
+    @Override
+    public <T extends Schema> T findOne(String collection, Filter.Find criteria, Class<T> schemaClass) {
+        if (!SchemaCodecProvider.supports(schemaClass)) {
+            return super.findOne(collection, criteria, schemaClass);
+        }
+
+        criteria = matchAll(criteria);
+        return database.getCollection(collection, schemaClass).find(MongoUtils.toQuery(criteria))
+                .projection(MongoUtils.toProjection(criteria))
+                .sort(MongoUtils.toSort(criteria))
+                .skip(criteria.getSkip())
+                .first();
+    }
+
+    @Override
+    public <T extends Schema> Stream<T> stream(String collection, Filter.Find criteria, Class<T> schemaClass,
+            int fetchSize) {
+        criteria = matchAll(criteria);
+        int batchSize = fetchSize > 0 ? fetchSize : this.fetchSize;
+        if (SchemaCodecProvider.supports(schemaClass)) {
+            FindIterable<T> entities = database.getCollection(collection, schemaClass)
+                    .find(MongoUtils.toQuery(criteria))
+                    .projection(MongoUtils.toProjection(criteria))
+                    .sort(MongoUtils.toSort(criteria))
+                    .skip(criteria.getSkip())
+                    .limit(criteria.getLimit())
+                    .batchSize(batchSize);
+            return streamOf(entities.iterator(), entity -> entity);
+        }
+
+        FindIterable<Document> docs = database.getCollection(collection).find(MongoUtils.toQuery(criteria))
+                .projection(MongoUtils.toProjection(criteria))
+                .sort(MongoUtils.toSort(criteria))
+                .skip(criteria.getSkip())
+                .limit(criteria.getLimit())
+                .batchSize(batchSize);
+        return streamOf(docs.iterator(), doc -> Schema.fromMap(schemaClass, doc));
+    }
+
+    /**
+     * Reads a null filter, which repositories pass on to match every document,
+     * as an empty one.
+     */
+    private static Filter.Find matchAll(Filter.Find criteria) {
+        return criteria != null ? criteria : new Filter.Find();
+    }
+
+    private static <D, T> Stream<T> streamOf(MongoCursor<D> cursor, Function<D, T> converter) {
+        Iterator<T> entities = new Iterator<T>() {
+            @Override
+            public boolean hasNext() {
+                boolean hasNext = cursor.hasNext();
+                if (!hasNext) {
+                    cursor.close();
+                }
+                return hasNext;
+            }
+
+            @Override
+            public T next() {
+                return converter.apply(cursor.next());
+            }
+        };
+
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(entities, Spliterator.ORDERED), false)
+                .onClose(cursor::close);
+    }
+
     @Override
     public Map<String, Object> findOne(String collection, Filter.Find criteria) {
-        Bson criteriaDoc = MongoUtils.toBson(criteria);
-        Document doc = database.getCollection(collection).find(criteriaDoc).first();
+        criteria = matchAll(criteria);
+        Bson criteriaDoc = MongoUtils.toQuery(criteria);
+        Document doc = database.getCollection(collection).find(criteriaDoc)
+                .projection(MongoUtils.toProjection(criteria))
+                .sort(MongoUtils.toSort(criteria))
+                .skip(criteria.getSkip())
+                .first();
         return doc;
     }
 
@@ -89,54 +491,109 @@ public class MongoProvider extends AbstractProvider {
     }
 
     @Override
-    public int update(String collection, Filter.Find criteria, Filter.Update update) {
-        Bson criteriaDoc = MongoUtils.toBson(criteria);
-        Bson updateDoc = MongoUtils.toBson(update);
+    public long count(String collection, Filter.Find criteria) {
+        if (criteria == null || criteria.getCriteria().isEmpty()) {
+            // Served from the collection metadata instead of scanning it
+            return database.getCollection(collection).estimatedDocumentCount();
+        }
+        return database.getCollection(collection).countDocuments(MongoUtils.toBson(criteria));
+    }
 
-        UpdateResult result = database.getCollection(collection).updateMany(criteriaDoc, updateDoc);
-        return (int) result.getModifiedCount();
+    @Override
+    public boolean exists(String collection, Filter.Find criteria) {
+        Bson criteriaDoc = criteria != null ? MongoUtils.toBson(criteria) : new Document();
+        Document doc = database.getCollection(collection).find(criteriaDoc)
+                .projection(Projections.include("_id"))
+                .limit(1)
+                .first();
+        return doc != null;
+    }
+
+    @Override
+    public int update(String collection, Filter.Find criteria, Filter.Update update) {
+        try {
+            Bson criteriaDoc = MongoUtils.toBson(criteria);
+            UpdateResult result = update(collection, criteriaDoc, update, true);
+            return (int) result.getModifiedCount();
+        } finally {
+            notifyWrite(collection);
+        }
     }
 
     @Override
     public boolean updateByID(String collection, String primaryKey, String id, Filter.Update update) {
-        Bson updateDoc = MongoUtils.toBson(update);
-        Document filter = new Document(primaryKey, id);
-        UpdateResult result = database.getCollection(collection).updateOne(filter, updateDoc);
-        return result.getModifiedCount() > 0;
+        try {
+            Document filter = new Document(primaryKey, id);
+            UpdateResult result = update(collection, filter, update, false);
+            return result.getModifiedCount() > 0;
+        } finally {
+            notifyWrite(collection);
+        }
     }
 
     @Override
     public boolean updateOne(String collection, Filter.Find criteria, Filter.Update update) {
-        Bson criteriaDoc = MongoUtils.toBson(criteria);
+        try {
+            Bson criteriaDoc = MongoUtils.toBson(criteria);
+            UpdateResult result = update(collection, criteriaDoc, update, false);
+            return result.getModifiedCount() > 0;
+        } finally {
+            notifyWrite(collection);
+        }
+    }
+
+    /**
+     * Updates the first or every matching document, as an update pipeline
+     * when the update has values computed by the server.
+     */
+    private UpdateResult update(String collection, Bson criteria, Filter.Update update, boolean many) {
+        MongoCollection<Document> mongoCollection = database.getCollection(collection);
+        if (MongoUtils.requiresPipeline(update)) {
+            List<Bson> pipeline = MongoUtils.toPipeline(update);
+            return many ? mongoCollection.updateMany(criteria, pipeline) : mongoCollection.updateOne(criteria, pipeline);
+        }
+
         Bson updateDoc = MongoUtils.toBson(update);
-        UpdateResult result = database.getCollection(collection).updateOne(criteriaDoc, updateDoc);
-        return result.getModifiedCount() > 0;
+        return many ? mongoCollection.updateMany(criteria, updateDoc) : mongoCollection.updateOne(criteria, updateDoc);
     }
 
     @Override
     public int delete(String collection, Filter.Find criteria) {
-        Bson criteriaDoc = MongoUtils.toBson(criteria);
-        DeleteResult result = database.getCollection(collection).deleteMany(criteriaDoc);
-        return (int) result.getDeletedCount();
+        try {
+            Bson criteriaDoc = MongoUtils.toBson(criteria);
+            DeleteResult result = database.getCollection(collection).deleteMany(criteriaDoc);
+            return (int) result.getDeletedCount();
+        } finally {
+            notifyWrite(collection);
+        }
     }
 
     @Override
     public boolean deleteByID(String collection, String primaryKey, String id) {
-        DeleteResult result = database.getCollection(collection).deleteOne(new Document(primaryKey, id));
-        return result.getDeletedCount() > 0;
+        try {
+            DeleteResult result = database.getCollection(collection).deleteOne(new Document(primaryKey, id));
+            return result.getDeletedCount() > 0;
+        } finally {
+            notifyWrite(collection);
+        }
     }
 
     @Override
     public boolean deleteOne(String collection, Filter.Find criteria) {
-        Bson criteriaDoc = MongoUtils.toBson(criteria);
-        DeleteResult result = database.getCollection(collection).deleteOne(criteriaDoc);
-        return result.getDeletedCount() > 0;
+        try {
+            Bson criteriaDoc = MongoUtils.toBson(criteria);
+            DeleteResult result = database.getCollection(collection).deleteOne(criteriaDoc);
+            return result.getDeletedCount() > 0;
+        } finally {
+            notifyWrite(collection);
+        }
     }
 
     @Override
     public <T extends Schema> Repository<T> addRepository(Class<T> schemaClass) {
         Repository<T> repo = new Repository<>(this, schemaClass);
         RepositoryCache.cache(schemaClass, repo);
+        initialize(schemaClass, repo.getPrimaryKey());
         return repo;
     }
 }
@@ -1,12 +1,15 @@
 package com.sammwy.milkshake.providers.mongo;
 
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
+import org.bson.Document;
 import org.bson.conversions.Bson;
 
 import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
 import com.mongodb.client.model.Updates;
 import com.sammwy.milkshake.query.Filter.Find;
 import com.sammwy.milkshake.query.Filter.Update;
@@ -18,10 +21,85 @@ import com.sammwy.milkshake.query.Filter.Update;
  * operations.
  */
 public class MongoUtils {
+    /**
+     * The {@code $dateToString} format of {@link Update#CURRENT_DATE_FORMAT}.
+     */
+    private static final String CURRENT_DATE_FORMAT = "%Y-%m-%d %H:%M:%S.%L";
+
+    /**
+     * Converts the sort fields of a Milkshake Find filter to a MongoDB sort
+     * document.
+     *
+     * @param filter The Find filter to convert
+     * @return A Bson sort document, or null if the filter is not sorted
+     */
+    public static Bson toSort(Find filter) {
+        if (filter == null || filter.getSort().isEmpty()) {
+            return null;
+        }
+        return new Document(new LinkedHashMap<>(filter.getSort()));
+    }
+
+    /**
+     * Converts a Milkshake Find filter to a MongoDB BSON filter, including the
+     * keyset condition set with {@link Find#after(List)}.
+     *
+     * @param filter The Find filter to convert
+     * @return A Bson filter representing the query conditions
+     */
+    public static Bson toQuery(Find filter) {
+        Bson criteria = toBson(filter);
+        if (filter.getAfter() == null) {
+            return criteria;
+        }
+
+        // (a > x) OR (a = x AND b > y) OR ...
+        List<String> fields = new ArrayList<>(filter.getSort().keySet());
+        List<Bson> branches = new ArrayList<>();
+        for (int i = 0; i < fields.size(); i++) {
+            List<Bson> terms = new ArrayList<>();
+            for (int j = 0; j < i; j++) {
+                terms.add(Filters.eq(fields.get(j), filter.getAfter().get(j)));
+            }
+
+            // Null and missing values sort first, and only match $eq, $ne and
+            // the inclusive range operators
+            String field = fields.get(i);
+            Object value = filter.getAfter().get(i);
+            if (filter.getSort().get(field) >= 0) {
+                terms.add(value != null ? Filters.gt(field, value) : Filters.ne(field, null));
+            } else {
+                terms.add(value != null ? Filters.or(Filters.lt(field, value), Filters.eq(field, null))
+                        : Filters.lt(field, null));
+            }
+            branches.add(terms.size() == 1 ? terms.get(0) : Filters.and(terms));
+        }
+
+        return Filters.and(criteria, Filters.or(branches));
+    }
+
+    /**
+     * Converts the projection of a Milkshake Find filter to a MongoDB
+     * projection document.
+     *
+     * @param filter The Find filter to convert
+     * @return A Bson projection including the selected fields, or null if every
+     *         field should be returned
+     *
+     * @see Projections
+     */
+    public static Bson toProjection(Find filter) {
+        if (filter == null || filter.getProjection() == null || filter.getProjection().isEmpty()) {
+            return null;
+        }
+        return Projections.include(new ArrayList<>(filter.getProjection()));
+    }
 
     /**
      * Converts a Milkshake Find filter to a MongoDB BSON filter.
-     * Supports standard comparison operators: $eq, $ne, $gt, $lt, $in.
+     * Supports the comparison operators $eq, $ne, $gt, $gte, $lt, $lte, $in and
+     * $nin, the pattern operators $like and $regex, the null checks $exists and
+     * $isNull and the $or, $and and $not groups.
      *
      * @param filter The Find filter to convert
      * @return A Bson filter representing the query conditions
@@ -31,14 +109,40 @@ public class MongoUtils {
      * @see Find
      */
     public static Bson toBson(Find filter) {
+        return toBson(filter.getCriteria());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Bson toBson(Map<String, Object> criteria) {
         List<Bson> bsonList = new ArrayList<>();
 
-        for (Map.Entry<String, Object> entry : filter.getCriteria().entrySet()) {
+        for (Map.Entry<String, Object> entry : criteria.entrySet()) {
             String field = entry.getKey();
             Object value = entry.getValue();
 
+            switch (field) {
+                case "$or":
+                case "$and":
+                    List<Bson> branches = new ArrayList<>();
+                    for (Map<String, Object> branch : (List<Map<String, Object>>) value) {
+                        branches.add(toBson(branch));
+                    }
+                    if (field.equals("$and")) {
+                        bsonList.addAll(branches);
+                    } else if (branches.isEmpty()) {
+                        bsonList.add(Filters.in("_id", new ArrayList<>())); // Matches nothing
+                    } else {
+                        bsonList.add(Filters.or(branches));
+                    }
+                    continue;
+                case "$not":
+                    bsonList.add(Filters.nor(toBson((Map<String, Object>) value)));
+                    continue;
+                default:
+                    break;
+            }
+
             if (value instanceof Map) {
-                @SuppressWarnings("unchecked")
                 Map<String, Object> condition = (Map<String, Object>) value;
 
                 for (Map.Entry<String, Object> cond : condition.entrySet()) {
@@ -46,18 +150,43 @@ public class MongoUtils {
                     Object val = cond.getValue();
 
                     switch (op) {
+                        case "$eq":
+                            bsonList.add(Filters.eq(field, val));
+                            break;
                         case "$ne":
                             bsonList.add(Filters.ne(field, val));
                             break;
                         case "$gt":
                             bsonList.add(Filters.gt(field, val));
                             break;
+                        case "$gte":
+                            bsonList.add(Filters.gte(field, val));
+                            break;
                         case "$lt":
                             bsonList.add(Filters.lt(field, val));
                             break;
+                        case "$lte":
+                            bsonList.add(Filters.lte(field, val));
+                            break;
                         case "$in":
                             bsonList.add(Filters.in(field, (List<?>) val));
                             break;
+                        case "$nin":
+                            bsonList.add(Filters.nin(field, (List<?>) val));
+                            break;
+                        case "$like":
+                            bsonList.add(Filters.regex(field, likeToRegex((String) val)));
+                            break;
+                        case "$regex":
+                            bsonList.add(Filters.regex(field, (String) val));
+                            break;
+                        case "$exists":
+                            // Same as IS NOT NULL on SQL databases
+                            bsonList.add(Filters.ne(field, null));
+                            break;
+                        case "$isNull":
+                            bsonList.add(Filters.eq(field, null));
+                            break;
                         default:
                             throw new UnsupportedOperationException("Unknown operator: " + op);
                     }
@@ -67,17 +196,76 @@ public class MongoUtils {
             }
         }
 
-        return bsonList.isEmpty() ? Filters.empty() : Filters.and(bsonList);
+        if (bsonList.isEmpty()) {
+            return Filters.empty();
+        }
+        return bsonList.size() == 1 ? bsonList.get(0) : Filters.and(bsonList);
+    }
+
+    /**
+     * Converts a LIKE pattern of {@link Find#like(String, String)} to an
+     * anchored regular expression. A trailing {@code %} is dropped rather than
+     * translated, so prefix patterns stay simple enough for MongoDB to answer
+     * from an index.
+     *
+     * @param pattern The LIKE pattern
+     * @return The equivalent regular expression
+     */
+    static String likeToRegex(String pattern) {
+        int end = pattern.length();
+        boolean open = false;
+        while (end > 0 && pattern.charAt(end - 1) == '%' && !isEscaped(pattern, end - 1)) {
+            end--;
+            open = true;
+        }
+
+        StringBuilder regex = new StringBuilder(pattern.length() + 8).append('^');
+        for (int i = 0; i < end; i++) {
+            char c = pattern.charAt(i);
+            if (c == '!' && i + 1 < end) {
+                appendLiteral(regex, pattern.charAt(++i));
+            } else if (c == '%') {
+                regex.append("[\\s\\S]*");
+            } else if (c == '_') {
+                regex.append("[\\s\\S]");
+            } else {
+                appendLiteral(regex, c);
+            }
+        }
+        if (!open) {
+            regex.append('$');
+        }
+        return regex.toString();
+    }
+
+    private static boolean isEscaped(String pattern, int index) {
+        int escapes = 0;
+        for (int i = index - 1; i >= 0 && pattern.charAt(i) == '!'; i--) {
+            escapes++;
+        }
+        return escapes % 2 == 1;
+    }
+
+    private static void appendLiteral(StringBuilder regex, char c) {
+        if ("\\^$.|?*+()[]{}".indexOf(c) >= 0) {
+            regex.append('\\');
+        }
+        regex.append(c);
     }
 
     /**
      * Converts a Milkshake Update filter to MongoDB BSON update operations.
-     * Supports standard update operators: $set, $inc, $push.
+     * Supports the update operators $set, $inc, $mul, $min, $max, $unset,
+     * $push, $pull and $addToSet. Updates with $currentDate are computed by
+     * the server and must be converted with {@link #toPipeline(Update)}
+     * instead.
      *
      * @param update The Update filter to convert
      * @return A Bson update operation, or null if no operations were specified
-     * @throws UnsupportedOperationException if an unknown operator is encountered
-     * @throws ClassCastException            if $inc value is not a Number
+     * @throws UnsupportedOperationException if an unknown operator or
+     *                                       $currentDate is encountered
+     * @throws ClassCastException            if a $inc or $mul value is not a
+     *                                       Number
      *
      * @see Updates
      * @see Update
@@ -101,9 +289,29 @@ public class MongoUtils {
                     case "$inc":
                         bsonUpdates.add(Updates.inc(field, (Number) value));
                         break;
+                    case "$mul":
+                        bsonUpdates.add(Updates.mul(field, (Number) value));
+                        break;
+                    case "$min":
+                        bsonUpdates.add(Updates.min(field, value));
+                        break;
+                    case "$max":
+                        bsonUpdates.add(Updates.max(field, value));
+                        break;
+                    case "$unset":
+                        bsonUpdates.add(Updates.unset(field));
+                        break;
+                    case "$currentDate":
+                        throw new UnsupportedOperationException("$currentDate requires an update pipeline");
                     case "$push":
                         bsonUpdates.add(Updates.push(field, value));
                         break;
+                    case "$pull":
+                        bsonUpdates.add(Updates.pull(field, value));
+                        break;
+                    case "$addToSet":
+                        bsonUpdates.add(Updates.addToSet(field, value));
+                        break;
                     default:
                         throw new UnsupportedOperationException("Unknown update operator: " + op);
                 }
@@ -112,4 +320,98 @@ public class MongoUtils {
 
         return bsonUpdates.isEmpty() ? null : Updates.combine(bsonUpdates);
     }
+
+    /**
+     * Checks whether an update has values computed by the server, so it must
+     * be sent as the update pipeline of {@link #toPipeline(Update)}.
+     *
+     * @param update The Update filter
+     * @return true if the update has a $currentDate operation
+     */
+    public static boolean requiresPipeline(Update update) {
+        return update.getUpdateOperations().containsKey("$currentDate");
+    }
+
+    /**
+     * Converts a Milkshake Update filter to an update pipeline, writing every
+     * update operator as the equivalent aggregation expression. $currentDate
+     * takes the time of the database server ({@code $$NOW}) and writes it as
+     * the same UTC text as the SQL providers (see
+     * {@link Update#CURRENT_DATE_FORMAT}) instead of a BSON date.
+     *
+     * @param update The Update filter to convert
+     * @return The pipeline stages, empty if no operations were specified
+     * @throws UnsupportedOperationException if an unknown operator is encountered
+     */
+    public static List<Bson> toPipeline(Update update) {
+        Document set = new Document();
+        List<String> unset = new ArrayList<>();
+
+        for (Map.Entry<String, Object> operation : update.getUpdateOperations().entrySet()) {
+            String op = operation.getKey();
+            @SuppressWarnings("unchecked")
+            Map<String, Object> fields = (Map<String, Object>) operation.getValue();
+
+            for (Map.Entry<String, Object> entry : fields.entrySet()) {
+                String field = entry.getKey();
+                String path = "$" + field;
+                // Values are never read as field paths or expressions
+                Document value = new Document("$literal", entry.getValue());
+
+                switch (op) {
+                    case "$set":
+                        set.put(field, value);
+                        break;
+                    case "$inc":
+                        set.put(field, new Document("$add", List.of(ifNull(path, 0), value)));
+                        break;
+                    case "$mul":
+                        set.put(field, new Document("$multiply", List.of(ifNull(path, 0), value)));
+                        break;
+                    case "$min":
+                        set.put(field, new Document("$min", List.of(path, value)));
+                        break;
+                    case "$max":
+                        set.put(field, new Document("$max", List.of(path, value)));
+                        break;
+                    case "$unset":
+                        unset.add(field);
+                        break;
+                    case "$currentDate":
+                        set.put(field, new Document("$dateToString", new Document("format", CURRENT_DATE_FORMAT)
+                                .append("date", "$$NOW")
+                                .append("timezone", "UTC")));
+                        break;
+                    case "$push":
+                        set.put(field, new Document("$concatArrays", List.of(ifNull(path, List.of()), List.of(value))));
+                        break;
+                    case "$pull":
+                        set.put(field, new Document("$filter", new Document("input", ifNull(path, List.of()))
+                                .append("cond", new Document("$ne", List.of("$$this", value)))));
+                        break;
+                    case "$addToSet": {
+                        Document array = ifNull(path, List.of());
+                        set.put(field, new Document("$cond", List.of(new Document("$in", List.of(value, array)),
+                                array, new Document("$concatArrays", List.of(array, List.of(value))))));
+                        break;
+                    }
+                    default:
+                        throw new UnsupportedOperationException("Unknown update operator: " + op);
+                }
+            }
+        }
+
+        List<Bson> pipeline = new ArrayList<>();
+        if (!set.isEmpty()) {
+            pipeline.add(new Document("$set", set));
+        }
+        if (!unset.isEmpty()) {
+            pipeline.add(new Document("$unset", unset));
+        }
+        return pipeline;
+    }
+
+    private static Document ifNull(String path, Object fallback) {
+        return new Document("$ifNull", List.of(path, fallback));
+    }
 }
\ No newline at end of file
@@ -0,0 +1,278 @@
+package com.sammwy.milkshake.providers.mongo;
+
+import java.lang.reflect.Modifier;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.bson.BsonBinary;
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.BsonWriter;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+
+import com.sammwy.milkshake.SerializerRegistry;
+import com.sammwy.milkshake.codec.CodecSupport;
+import com.sammwy.milkshake.schema.Schema;
+import com.sammwy.milkshake.schema.SchemaMetadata;
+
+/**
+ * Encodes and decodes a Schema class straight to and from BSON, reading and
+ * writing its fields through {@link SchemaMetadata} instead of going through
+ * an intermediate map and {@link org.bson.Document}.
+ *
+ * <p>
+ * Only flat schemas are supported: no embedded fields, and non-final
+ * properties of a primitive, boxed, String or byte[] type without a custom
+ * serializer, the same subset as the generated
+ * {@link com.sammwy.milkshake.codec.SchemaCodec}s.
+ * Fields of the document that are not part of the schema (e.g. {@code _id})
+ * are skipped, and missing fields keep their default values.
+ *
+ * @param <T> The Schema type
+ * @see SchemaCodecProvider
+ */
+public final class SchemaBsonCodec<T extends Schema> implements Codec<T> {
+    private final Class<T> schemaClass;
+    private final SchemaMetadata metadata;
+    private final Map<String, Field> fields;
+
+    private SchemaBsonCodec(Class<T> schemaClass, SchemaMetadata metadata, Map<String, Field> fields) {
+        this.schemaClass = schemaClass;
+        this.metadata = metadata;
+        this.fields = fields;
+    }
+
+    /**
+     * Creates the codec of a Schema class.
+     *
+     * @param <T>         The Schema type
+     * @param schemaClass The Schema class
+     * @return The codec, or null if the schema is not supported
+     */
+    public static <T extends Schema> SchemaBsonCodec<T> of(Class<T> schemaClass) {
+        SchemaMetadata metadata = SchemaMetadata.of(schemaClass);
+        if (!metadata.getEmbedded().isEmpty()) {
+            return null;
+        }
+
+        List<SchemaMetadata.Property> properties = metadata.getProperties();
+        Map<String, Field> fields = new HashMap<>(properties.size() * 4 / 3 + 1);
+        for (SchemaMetadata.Property property : properties) {
+            Kind kind = Kind.of(property.getType());
+            // A custom serializer registered for the field type must win over
+            // the direct field access of the codec
+            if (kind == null || Modifier.isFinal(property.getField().getModifiers())
+                    || SerializerRegistry.getSerializers().containsKey(property.getType())) {
+                return null;
+            }
+            fields.put(property.getName(), new Field(property, kind));
+        }
+        return new SchemaBsonCodec<>(schemaClass, metadata, fields);
+    }
+
+    @Override
+    public Class<T> getEncoderClass() {
+        return schemaClass;
+    }
+
+    @Override
+    public void encode(BsonWriter writer, T entity, EncoderContext context) {
+        writer.writeStartDocument();
+        String primaryKey = metadata.getPrimaryKey();
+        if (primaryKey != null) {
+            writer.writeString(primaryKey, entity.getId());
+        }
+        for (SchemaMetadata.Property property : metadata.getProperties()) {
+            writer.writeName(property.getName());
+            writeValue(writer, property.get(entity));
+        }
+        writer.writeEndDocument();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public T decode(BsonReader reader, DecoderContext context) {
+        T entity = (T) metadata.newInstance();
+        String primaryKey = metadata.getPrimaryKey();
+
+        reader.readStartDocument();
+        while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            String name = reader.readName();
+            if (name.equals(primaryKey)) {
+                Object id = readValue(reader);
+                metadata.setId(entity, id != null ? CodecSupport.toStr(id) : null);
+                continue;
+            }
+
+            Field field = fields.get(name);
+            if (field == null) {
+                reader.skipValue();
+                continue;
+            }
+
+            Object value = readValue(reader);
+            if (value != null) {
+                field.property.set(entity, field.kind.convert(value));
+            } else if (!field.property.getType().isPrimitive()) {
+                field.property.set(entity, null);
+            }
+        }
+        reader.readEndDocument();
+
+        entity.markLoaded();
+        return entity;
+    }
+
+    private static void writeValue(BsonWriter writer, Object value) {
+        if (value == null) {
+            writer.writeNull();
+        } else if (value instanceof String) {
+            writer.writeString((String) value);
+        } else if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            writer.writeInt32(((Number) value).intValue());
+        } else if (value instanceof Long) {
+            writer.writeInt64((Long) value);
+        } else if (value instanceof Double || value instanceof Float) {
+            writer.writeDouble(((Number) value).doubleValue());
+        } else if (value instanceof Boolean) {
+            writer.writeBoolean((Boolean) value);
+        } else if (value instanceof byte[]) {
+            writer.writeBinaryData(new BsonBinary((byte[]) value));
+        } else {
+            throw new IllegalArgumentException("Unsupported value type " + value.getClass().getName());
+        }
+    }
+
+    /**
+     * Reads the current value as the Java type the driver would put in a
+     * Document. Values of other BSON types are skipped and read as null.
+     */
+    private static Object readValue(BsonReader reader) {
+        switch (reader.getCurrentBsonType()) {
+            case NULL:
+                reader.readNull();
+                return null;
+            case STRING:
+                return reader.readString();
+            case INT32:
+                return reader.readInt32();
+            case INT64:
+                return reader.readInt64();
+            case DOUBLE:
+                return reader.readDouble();
+            case BOOLEAN:
+                return reader.readBoolean();
+            case BINARY:
+                return reader.readBinaryData().getData();
+            case OBJECT_ID:
+                return reader.readObjectId().toHexString();
+            case DATE_TIME:
+                return reader.readDateTime();
+            case DECIMAL128:
+                return reader.readDecimal128().bigDecimalValue();
+            case SYMBOL:
+                return reader.readSymbol();
+            default:
+                reader.skipValue();
+                return null;
+        }
+    }
+
+    /**
+     * The conversion of a BSON value to the declared type of a field.
+     */
+    private enum Kind {
+        INT {
+            @Override
+            Object convert(Object value) {
+                return CodecSupport.toInt(value);
+            }
+        },
+        LONG {
+            @Override
+            Object convert(Object value) {
+                return CodecSupport.toLong(value);
+            }
+        },
+        SHORT {
+            @Override
+            Object convert(Object value) {
+                return CodecSupport.toShort(value);
+            }
+        },
+        BYTE {
+            @Override
+            Object convert(Object value) {
+                return CodecSupport.toByte(value);
+            }
+        },
+        DOUBLE {
+            @Override
+            Object convert(Object value) {
+                return CodecSupport.toDouble(value);
+            }
+        },
+        FLOAT {
+            @Override
+            Object convert(Object value) {
+                return CodecSupport.toFloat(value);
+            }
+        },
+        BOOLEAN {
+            @Override
+            Object convert(Object value) {
+                return CodecSupport.toBoolean(value);
+            }
+        },
+        STRING {
+            @Override
+            Object convert(Object value) {
+                return CodecSupport.toStr(value);
+            }
+        },
+        BYTES {
+            @Override
+            Object convert(Object value) {
+                return value;
+            }
+        };
+
+        abstract Object convert(Object value);
+
+        static Kind of(Class<?> type) {
+            if (type == int.class || type == Integer.class) {
+                return INT;
+            } else if (type == long.class || type == Long.class) {
+                return LONG;
+            } else if (type == short.class || type == Short.class) {
+                return SHORT;
+            } else if (type == byte.class || type == Byte.class) {
+                return BYTE;
+            } else if (type == double.class || type == Double.class) {
+                return DOUBLE;
+            } else if (type == float.class || type == Float.class) {
+                return FLOAT;
+            } else if (type == boolean.class || type == Boolean.class) {
+                return BOOLEAN;
+            } else if (type == String.class) {
+                return STRING;
+            } else if (type == byte[].class) {
+                return BYTES;
+            }
+            return null;
+        }
+    }
+
+    private static final class Field {
+        final SchemaMetadata.Property property;
+        final Kind kind;
+
+        Field(SchemaMetadata.Property property, Kind kind) {
+            this.property = property;
+            this.kind = kind;
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package com.sammwy.milkshake.providers.mongo;
+
+import org.bson.codecs.Codec;
+import org.bson.codecs.configuration.CodecProvider;
+import org.bson.codecs.configuration.CodecRegistry;
+
+import com.sammwy.milkshake.schema.Schema;
+
+/**
+ * Provides a {@link SchemaBsonCodec} for every supported Schema class, so
+ * collections obtained with {@code getCollection(name, schemaClass)} read and
+ * write entities without converting them to documents first.
+ */
+public class SchemaCodecProvider implements CodecProvider {
+    private static final ClassValue<SchemaBsonCodec<?>> CODECS = new ClassValue<>() {
+        @Override
+        @SuppressWarnings({ "unchecked", "rawtypes" })
+        protected SchemaBsonCodec<?> computeValue(Class<?> type) {
+            return Schema.class.isAssignableFrom(type) ? SchemaBsonCodec.of((Class) type) : null;
+        }
+    };
+
+    /**
+     * Checks whether a Schema class can be read and written with a
+     * {@link SchemaBsonCodec}.
+     *
+     * @param schemaClass The Schema class
+     * @return true if a codec is available
+     */
+    public static boolean supports(Class<? extends Schema> schemaClass) {
+        return CODECS.get(schemaClass) != null;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> Codec<T> get(Class<T> type, CodecRegistry registry) {
+        return (Codec<T>) CODECS.get(type);
+    }
+}
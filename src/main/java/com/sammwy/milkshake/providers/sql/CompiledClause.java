@@ -0,0 +1,53 @@
+package com.sammwy.milkshake.providers.sql;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A WHERE or SET clause compiled from the shape of a filter, with a value
+ * source for every placeholder.
+ */
+class CompiledClause {
+    private final String sql;
+    private final ValueSource[] sources;
+
+    public CompiledClause(String sql, List<ValueSource> sources) {
+        this.sql = sql;
+        this.sources = sources.toArray(new ValueSource[0]);
+    }
+
+    public String getSql() {
+        return sql;
+    }
+
+    public boolean isEmpty() {
+        return sql.isEmpty();
+    }
+
+    public List<Object> resolve(Map<String, Object> root) {
+        List<Object> parameters = new ArrayList<>(sources.length);
+        for (ValueSource source : sources) {
+            parameters.add(source.get(root));
+        }
+        return parameters;
+    }
+
+    public int bind(PreparedStatement stmt, int index, Map<String, Object> root) throws SQLException {
+        for (ValueSource source : sources) {
+            stmt.setObject(index++, source.get(root));
+        }
+        return index;
+    }
+
+    /**
+     * Reads the value bound to a placeholder of a compiled clause from a
+     * criteria or update map.
+     */
+    @FunctionalInterface
+    interface ValueSource {
+        Object get(Map<String, Object> root);
+    }
+}
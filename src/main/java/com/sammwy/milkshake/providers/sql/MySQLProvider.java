@@ -8,11 +8,41 @@ import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import com.sammwy.milkshake.ProviderInfo;
 import com.sammwy.milkshake.ProviderInfo.Options;
+import com.sammwy.milkshake.schema.IndexDefinition;
 
 public class MySQLProvider extends SQLProvider {
+    /**
+     * MySQL prepared statements can't have more than 65535 placeholders.
+     */
+    private static final int MAX_BIND_PARAMETERS = 65535;
+
+    /**
+     * Fraction of max_allowed_packet used by a single statement, leaving room for
+     * the protocol overhead.
+     */
+    private static final double PACKET_USAGE = 0.9;
+
+    /**
+     * Key prefix length of indexed TEXT columns, the longest that fits the
+     * 767 byte key limit with utf8mb4.
+     */
+    private static final int INDEX_PREFIX_LENGTH = 191;
+
+    private static final Pattern SERVER_VERSION = Pattern.compile("^(\\d+)\\.(\\d+)\\.(\\d+)");
+
+    private volatile long maxAllowedPacket = -1;
+    /**
+     * Whether the server supports row aliases in INSERT statements, null until
+     * the first connection is opened.
+     */
+    private volatile Boolean rowAlias;
+    private boolean cursorFetch;
+
     @Override
     protected String getDriverClass() {
         return "com.mysql.cj.jdbc.Driver";
@@ -24,6 +54,14 @@ public class MySQLProvider extends SQLProvider {
         info.optionIfNotPresent(Options.ALLOW_PUBLIC_KEY_RETRIEVAL, "true");
         info.optionIfNotPresent(Options.SERVER_TIMEZONE, "UTC");
 
+        // Statements are cached per connection, so let the server keep them parsed
+        // and planned instead of re-sending the full text on every execution.
+        if (info.getOptionInt(Options.STATEMENT_CACHE_SIZE, 1) > 0) {
+            info.optionIfNotPresent(Options.USE_SERVER_PREP_STMTS, "true");
+        }
+
+        this.cursorFetch = "true".equalsIgnoreCase(info.getOption(Options.USE_CURSOR_FETCH));
+
         String protocol = info.getProtocol() != null ? info.getProtocol() : "mysql";
         String format = "jdbc:%s://%s:%d/%s%s";
         return String.format(
@@ -40,6 +78,31 @@ public class MySQLProvider extends SQLProvider {
         try (Statement stmt = connection.createStatement()) {
             stmt.execute("SET FOREIGN_KEY_CHECKS = 1");
         }
+
+        if (rowAlias == null) {
+            rowAlias = supportsRowAlias(connection.getMetaData().getDatabaseProductVersion());
+        }
+    }
+
+    /**
+     * Checks whether a server version supports the row alias of
+     * {@code INSERT ... AS new}, added in MySQL 8.0.19. MariaDB has none, even
+     * when it reports a MySQL compatible version such as
+     * {@code 5.5.5-10.6.12-MariaDB}.
+     *
+     * @param version The version reported by the server
+     * @return true if row aliases are supported
+     */
+    static boolean supportsRowAlias(String version) {
+        Matcher matcher = SERVER_VERSION.matcher(version);
+        if (version.contains("MariaDB") || !matcher.find()) {
+            return false;
+        }
+
+        int major = Integer.parseInt(matcher.group(1));
+        int minor = Integer.parseInt(matcher.group(2));
+        int patch = Integer.parseInt(matcher.group(3));
+        return major > 8 || (major == 8 && (minor > 0 || patch >= 19));
     }
 
     @Override
@@ -48,63 +111,65 @@ public class MySQLProvider extends SQLProvider {
     }
 
     @Override
-    public boolean upsert(String collection, Map<String, Object> data, String primaryKey) {
-        try {
-            StringBuilder sql = new StringBuilder("INSERT INTO " + collection + " (");
-            StringBuilder values = new StringBuilder();
-            StringBuilder updates = new StringBuilder();
-
-            List<String> keys = new ArrayList<>(data.keySet());
-            List<Object> insertParams = new ArrayList<>();
-            List<Object> updateParams = new ArrayList<>();
-
-            boolean first = true;
-            for (String key : keys) {
-                if (!first) {
-                    sql.append(", ");
-                    values.append(", ");
-                }
+    protected int getMaxBindParameters() {
+        return MAX_BIND_PARAMETERS;
+    }
 
-                sql.append(escapeIdentifier(key));
-                values.append("?");
+    /**
+     * Connector/J buffers the whole result in memory unless the fetch size is
+     * {@link Integer#MIN_VALUE}, which streams the rows one by one from the
+     * socket. With {@code useCursorFetch=true} the server keeps a cursor instead
+     * and the requested fetch size is honored.
+     */
+    @Override
+    protected int getStreamFetchSize(int requested) {
+        return cursorFetch && requested > 0 ? requested : Integer.MIN_VALUE;
+    }
 
-                insertParams.add(data.get(key));
-                first = false;
+    @Override
+    protected long getMaxStatementBytes(PooledConnection connection) throws SQLException {
+        if (maxAllowedPacket < 0) {
+            try (Statement stmt = connection.getConnection().createStatement();
+                    ResultSet rs = stmt.executeQuery("SELECT @@max_allowed_packet")) {
+                maxAllowedPacket = rs.next() ? rs.getLong(1) : 4 * 1024 * 1024;
             }
+        }
+        return (long) (maxAllowedPacket * PACKET_USAGE);
+    }
 
-            sql.append(") VALUES (").append(values).append(")");
-
-            // Prepare ON DUPLICATE KEY UPDATE clause
-            first = true;
-            for (String key : keys) {
-                if (key.equals(primaryKey))
-                    continue; // Avoid updating the primary key
-
-                if (!first) {
-                    updates.append(", ");
-                }
-
-                updates.append(escapeIdentifier(key)).append(" = ?");
-                updateParams.add(data.get(key));
-
-                first = false;
+    /**
+     * Refers to the inserted values through the {@code new} row alias, as
+     * {@code VALUES(col)} is deprecated since MySQL 8.0.20 and warns on every
+     * statement. Older servers, and MariaDB, keep using {@code VALUES(col)}.
+     */
+    @Override
+    protected String buildUpsertClause(List<String> columns, String primaryKey) {
+        boolean alias = Boolean.TRUE.equals(rowAlias);
+        StringBuilder clause = new StringBuilder(alias ? " AS new" : "").append(" ON DUPLICATE KEY UPDATE ");
+        boolean first = true;
+        for (String column : columns) {
+            if (column.equals(primaryKey))
+                continue; // Avoid updating the primary key
+
+            if (!first) {
+                clause.append(", ");
             }
 
-            if (!updateParams.isEmpty()) {
-                sql.append(" ON DUPLICATE KEY UPDATE ").append(updates);
+            String escaped = escapeIdentifier(column);
+            if (alias) {
+                clause.append(escaped).append(" = new.").append(escaped);
+            } else {
+                clause.append(escaped).append(" = VALUES(").append(escaped).append(")");
             }
+            first = false;
+        }
 
-            List<Object> allParams = new ArrayList<>();
-            allParams.addAll(insertParams);
-            allParams.addAll(updateParams);
-
-            try (PreparedStatement stmt = connection.prepareStatement(sql.toString())) {
-                setParameters(stmt, allParams);
-                return stmt.executeUpdate() > 0;
-            }
-        } catch (SQLException e) {
-            throw new RuntimeException("Failed to upsert data", e);
+        if (first) {
+            // Nothing but the primary key, keep the existing row as is
+            String escaped = escapeIdentifier(primaryKey);
+            clause.append(escaped).append(" = ").append(escaped);
         }
+        return clause.toString();
     }
 
     /**
@@ -117,13 +182,58 @@ public class MySQLProvider extends SQLProvider {
     @Override
     public boolean tableExists(String tableName) throws SQLException {
         String sql = "SELECT 1 FROM information_schema.tables WHERE table_schema = ? AND table_name = ? LIMIT 1";
-        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
-            stmt.setString(1, connection.getCatalog()); // Gets the current database name
+        return withConnection(connection -> {
+            PreparedStatement stmt = connection.prepare(sql);
+            stmt.setString(1, connection.getConnection().getCatalog()); // Gets the current database name
             stmt.setString(2, tableName);
             try (ResultSet rs = stmt.executeQuery()) {
                 return rs.next();
             }
+        });
+    }
+
+    @Override
+    protected List<String> fetchIndexNames(PooledConnection connection, String tableName) throws SQLException {
+        PreparedStatement stmt = connection.prepare(
+                "SELECT DISTINCT index_name FROM information_schema.statistics WHERE table_schema = ? AND table_name = ?");
+        stmt.setString(1, connection.getConnection().getCatalog());
+        stmt.setString(2, tableName);
+        List<String> names = new ArrayList<>();
+        try (ResultSet rs = stmt.executeQuery()) {
+            while (rs.next()) {
+                names.add(rs.getString(1));
+            }
+        }
+        return names;
+    }
+
+    @Override
+    protected String buildCreateIndex(String tableName, IndexDefinition index, Map<String, Object> fieldsMap) {
+        // MySQL has no CREATE INDEX IF NOT EXISTS, existing indexes are skipped
+        // by name instead. TEXT and BLOB columns need a key prefix length.
+        StringBuilder sql = new StringBuilder("CREATE ");
+        if (index.isUnique()) {
+            sql.append("UNIQUE ");
+        }
+        sql.append("INDEX ").append(escapeIdentifier(index.getName())).append(" ON ").append(tableName).append(" (");
+
+        boolean first = true;
+        for (String field : index.getFields()) {
+            if (!first) {
+                sql.append(", ");
+            }
+
+            sql.append(escapeIdentifier(field));
+            Object value = fieldsMap.get(field);
+            if (value != null) {
+                String type = SQLUtils.getSQLType(value.getClass(), false);
+                if ("TEXT".equals(type) || "BLOB".equals(type)) {
+                    sql.append("(").append(INDEX_PREFIX_LENGTH).append(")");
+                }
+            }
+            first = false;
         }
+        return sql.append(")").toString();
     }
 
     @Override
@@ -0,0 +1,96 @@
+package com.sammwy.milkshake.providers.sql;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+/**
+ * A physical JDBC connection owned by a {@link SQLConnectionPool}.
+ * Callers borrow it through {@link SQLConnectionPool#acquire()} and must hand
+ * it back with {@link SQLConnectionPool#release(PooledConnection)} instead of
+ * closing it.
+ *
+ * <p>
+ * Each pooled connection keeps its own cache of prepared statements, see
+ * {@link #prepare(String)}.
+ */
+public class PooledConnection {
+    private final Connection connection;
+    private final StatementCache statements;
+    private final long createdAt;
+    private long lastUsedAt;
+
+    PooledConnection(Connection connection, int statementCacheSize, StatementCache.Counters counters) {
+        this.connection = connection;
+        this.statements = new StatementCache(connection, statementCacheSize, counters);
+        this.createdAt = System.nanoTime();
+        this.lastUsedAt = this.createdAt;
+    }
+
+    /**
+     * Gets the underlying JDBC connection.
+     *
+     * @return The JDBC connection
+     */
+    public Connection getConnection() {
+        return connection;
+    }
+
+    /**
+     * Gets a prepared statement for the given SQL, reusing the one cached by
+     * this connection when possible. The returned statement is owned by the
+     * cache and must not be closed, but any ResultSet it produces must be.
+     *
+     * @param sql The SQL text
+     * @return The prepared statement
+     * @throws SQLException if the statement cannot be prepared
+     */
+    public PreparedStatement prepare(String sql) throws SQLException {
+        return statements.prepare(sql);
+    }
+
+    /**
+     * Drops the cached statement for the given SQL, e.g. after the schema it
+     * refers to changed.
+     *
+     * @param sql The SQL text
+     */
+    public void invalidate(String sql) {
+        statements.invalidate(sql);
+    }
+
+    /**
+     * Gets the moment this connection was opened.
+     *
+     * @return The creation time as returned by {@link System#nanoTime()}
+     */
+    public long getCreatedAt() {
+        return createdAt;
+    }
+
+    /**
+     * Gets the moment this connection was last returned to the pool.
+     *
+     * @return The last usage time as returned by {@link System#nanoTime()}
+     */
+    public long getLastUsedAt() {
+        return lastUsedAt;
+    }
+
+    StatementCache getStatements() {
+        return statements;
+    }
+
+    void touch() {
+        this.lastUsedAt = System.nanoTime();
+    }
+
+    void closeQuietly() {
+        statements.closeAll();
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            // Ignore
+        }
+    }
+}
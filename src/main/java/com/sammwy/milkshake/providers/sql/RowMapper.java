@@ -0,0 +1,187 @@
+package com.sammwy.milkshake.providers.sql;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.sammwy.milkshake.SerializerRegistry;
+import com.sammwy.milkshake.schema.Schema;
+import com.sammwy.milkshake.schema.SchemaMetadata;
+import com.sammwy.milkshake.schema.SchemaMetadata.Property;
+
+/**
+ * Maps the rows of a ResultSet straight into entities. The columns are
+ * resolved to entity fields once per query and every cell is read with the
+ * typed getter of its field, without building an intermediate map per row.
+ *
+ * @param <T> The Schema type
+ */
+final class RowMapper<T extends Schema> {
+    private final SchemaMetadata metadata;
+    private final ColumnWriter[] writers;
+
+    private RowMapper(SchemaMetadata metadata, ColumnWriter[] writers) {
+        this.metadata = metadata;
+        this.writers = writers;
+    }
+
+    /**
+     * Resolves the columns of a result to the fields of a schema.
+     *
+     * @param <T>         The Schema type
+     * @param schemaClass The Schema class
+     * @param columns     The metadata of the result
+     * @return The mapper, or null if a column cannot be mapped directly (e.g.
+     *         embedded fields or types with a custom serializer) and the
+     *         serializer must be used instead
+     * @throws SQLException if the metadata cannot be read
+     */
+    static <T extends Schema> RowMapper<T> create(Class<T> schemaClass, ResultSetMetaData columns)
+            throws SQLException {
+        SchemaMetadata metadata = SchemaMetadata.of(schemaClass);
+        if (!metadata.getEmbedded().isEmpty()) {
+            return null; // Embedded fields are flattened by the serializer
+        }
+
+        Map<String, Property> properties = new HashMap<>();
+        for (Property property : metadata.getProperties()) {
+            properties.put(property.getName(), property);
+        }
+
+        int columnCount = columns.getColumnCount();
+        ColumnWriter[] writers = new ColumnWriter[columnCount];
+        for (int i = 1; i <= columnCount; i++) {
+            String column = columns.getColumnName(i);
+            if (column.equals(metadata.getPrimaryKey())) {
+                writers[i - 1] = (rs, index, entity) -> metadata.setId(entity, rs.getString(index));
+                continue;
+            }
+
+            Property property = properties.get(column);
+            if (property == null || SerializerRegistry.getSerializers().containsKey(property.getType())) {
+                return null;
+            }
+
+            ColumnWriter writer = writerOf(property);
+            if (writer == null) {
+                return null;
+            }
+            writers[i - 1] = writer;
+        }
+
+        return new RowMapper<>(metadata, writers);
+    }
+
+    /**
+     * Creates an entity from the current row.
+     *
+     * @param rs The result positioned on the row
+     * @return The new entity
+     * @throws SQLException if a value cannot be read
+     */
+    @SuppressWarnings("unchecked")
+    T map(ResultSet rs) throws SQLException {
+        Schema entity = metadata.newInstance();
+        for (int i = 0; i < writers.length; i++) {
+            writers[i].write(rs, i + 1, entity);
+        }
+        entity.markLoaded();
+        return (T) entity;
+    }
+
+    private static ColumnWriter writerOf(Property property) {
+        Class<?> type = property.getType();
+
+        // Primitives keep their default on SQL NULL, boxed types become null
+        if (type == int.class) {
+            return (rs, index, entity) -> {
+                int value = rs.getInt(index);
+                if (!rs.wasNull()) {
+                    property.set(entity, value);
+                }
+            };
+        } else if (type == long.class) {
+            return (rs, index, entity) -> {
+                long value = rs.getLong(index);
+                if (!rs.wasNull()) {
+                    property.set(entity, value);
+                }
+            };
+        } else if (type == double.class) {
+            return (rs, index, entity) -> {
+                double value = rs.getDouble(index);
+                if (!rs.wasNull()) {
+                    property.set(entity, value);
+                }
+            };
+        } else if (type == float.class) {
+            return (rs, index, entity) -> {
+                float value = rs.getFloat(index);
+                if (!rs.wasNull()) {
+                    property.set(entity, value);
+                }
+            };
+        } else if (type == boolean.class) {
+            return (rs, index, entity) -> {
+                boolean value = rs.getBoolean(index);
+                if (!rs.wasNull()) {
+                    property.set(entity, value);
+                }
+            };
+        } else if (type == short.class) {
+            return (rs, index, entity) -> {
+                short value = rs.getShort(index);
+                if (!rs.wasNull()) {
+                    property.set(entity, value);
+                }
+            };
+        } else if (type == byte.class) {
+            return (rs, index, entity) -> {
+                byte value = rs.getByte(index);
+                if (!rs.wasNull()) {
+                    property.set(entity, value);
+                }
+            };
+        } else if (type == String.class) {
+            return (rs, index, entity) -> property.set(entity, rs.getString(index));
+        } else if (type == byte[].class) {
+            return (rs, index, entity) -> property.set(entity, rs.getBytes(index));
+        } else if (type == Integer.class) {
+            return (rs, index, entity) -> {
+                int value = rs.getInt(index);
+                property.set(entity, rs.wasNull() ? null : value);
+            };
+        } else if (type == Long.class) {
+            return (rs, index, entity) -> {
+                long value = rs.getLong(index);
+                property.set(entity, rs.wasNull() ? null : value);
+            };
+        } else if (type == Double.class) {
+            return (rs, index, entity) -> {
+                double value = rs.getDouble(index);
+                property.set(entity, rs.wasNull() ? null : value);
+            };
+        } else if (type == Float.class) {
+            return (rs, index, entity) -> {
+                float value = rs.getFloat(index);
+                property.set(entity, rs.wasNull() ? null : value);
+            };
+        } else if (type == Boolean.class) {
+            return (rs, index, entity) -> {
+                boolean value = rs.getBoolean(index);
+                property.set(entity, rs.wasNull() ? null : value);
+            };
+        }
+        return null;
+    }
+
+    /**
+     * Reads one column of the current row into an entity field.
+     */
+    @FunctionalInterface
+    private interface ColumnWriter {
+        void write(ResultSet rs, int index, Schema entity) throws SQLException;
+    }
+}
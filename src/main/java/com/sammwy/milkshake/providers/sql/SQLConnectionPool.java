@@ -0,0 +1,416 @@
+package com.sammwy.milkshake.providers.sql;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A bounded pool of JDBC connections shared by every repository of a
+ * {@link SQLProvider}.
+ *
+ * <p>
+ * Idle connections are handed out in LIFO order so the most recently used
+ * connections stay warm, while the ones at the tail are closed by a
+ * background evictor once they exceed the idle timeout (never going below the
+ * configured minimum size). Connections that have been idle for a while are
+ * validated before being handed out.
+ *
+ * <p>
+ * Every connection carries its own prepared statement cache; the hit and miss
+ * counters of all of them are aggregated by {@link #getStatementCacheStats()}.
+ */
+public class SQLConnectionPool {
+    /**
+     * Connections used more recently than this are assumed to be alive and are
+     * not validated again on acquire.
+     */
+    private static final long VALIDATION_BYPASS_NANOS = TimeUnit.MILLISECONDS.toNanos(500);
+
+    private final ConnectionFactory factory;
+    private final int minSize;
+    private final int maxSize;
+    private final long acquireTimeoutNanos;
+    private final long idleTimeoutNanos;
+    private final int validationTimeoutSeconds;
+    private final int statementCacheSize;
+    private final StatementCache.Counters statementCounters = new StatementCache.Counters();
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition available = lock.newCondition();
+    private final Deque<PooledConnection> idle = new ArrayDeque<>();
+    private int total;
+    private int active;
+    private int waiting;
+    private boolean closed;
+
+    private final AtomicLong acquireCount = new AtomicLong();
+    private final AtomicLong waitCount = new AtomicLong();
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private final AtomicLong timeoutCount = new AtomicLong();
+    private final AtomicLong createdCount = new AtomicLong();
+    private final AtomicLong destroyedCount = new AtomicLong();
+
+    private final ScheduledExecutorService evictor;
+
+    /**
+     * Creates a new pool and eagerly opens {@code minSize} connections.
+     *
+     * @param factory                  Opens new physical connections
+     * @param minSize                  The number of connections kept open even
+     *                                 when idle
+     * @param maxSize                  The maximum number of open connections
+     * @param acquireTimeoutMillis     How long {@link #acquire()} waits for a free
+     *                                 connection before failing
+     * @param idleTimeoutMillis        How long a connection may stay idle before
+     *                                 being closed, or 0 to disable eviction
+     * @param validationTimeoutSeconds The timeout passed to
+     *                                 {@link Connection#isValid(int)}
+     * @param statementCacheSize       The number of prepared statements cached
+     *                                 per connection, or 0 to disable caching
+     * @throws SQLException if the initial connections cannot be opened
+     */
+    public SQLConnectionPool(ConnectionFactory factory, int minSize, int maxSize, long acquireTimeoutMillis,
+            long idleTimeoutMillis, int validationTimeoutSeconds, int statementCacheSize) throws SQLException {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("Pool max size must be at least 1");
+        }
+        if (minSize < 0 || minSize > maxSize) {
+            throw new IllegalArgumentException("Pool min size must be between 0 and " + maxSize);
+        }
+
+        this.factory = factory;
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.acquireTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(acquireTimeoutMillis);
+        this.idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(idleTimeoutMillis);
+        this.validationTimeoutSeconds = Math.max(1, validationTimeoutSeconds);
+        this.statementCacheSize = Math.max(0, statementCacheSize);
+
+        try {
+            for (int i = 0; i < minSize; i++) {
+                idle.addLast(open());
+                total++;
+            }
+        } catch (SQLException e) {
+            close();
+            throw e;
+        }
+
+        if (idleTimeoutMillis > 0) {
+            long period = Math.max(1000, idleTimeoutMillis / 2);
+            this.evictor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "milkshake-pool-evictor");
+                thread.setDaemon(true);
+                return thread;
+            });
+            this.evictor.scheduleWithFixedDelay(this::evictIdle, period, period, TimeUnit.MILLISECONDS);
+        } else {
+            this.evictor = null;
+        }
+    }
+
+    /**
+     * Borrows a connection from the pool, opening a new one if the pool has not
+     * reached its maximum size, or waiting up to the acquire timeout otherwise.
+     *
+     * @return A connection that must be given back with
+     *         {@link #release(PooledConnection)}
+     * @throws SQLTimeoutException if no connection became available in time
+     * @throws SQLException        if the pool is closed or a connection cannot be
+     *                             opened
+     */
+    public PooledConnection acquire() throws SQLException {
+        long start = System.nanoTime();
+        long deadline = start + acquireTimeoutNanos;
+        boolean waited = false;
+
+        try {
+            while (true) {
+                PooledConnection candidate;
+                boolean create = false;
+
+                lock.lock();
+                try {
+                    while (true) {
+                        if (closed) {
+                            throw new SQLException("Connection pool is closed");
+                        }
+
+                        candidate = idle.pollFirst();
+                        if (candidate != null) {
+                            active++;
+                            break;
+                        }
+
+                        if (total < maxSize) {
+                            total++;
+                            active++;
+                            create = true;
+                            break;
+                        }
+
+                        long remaining = deadline - System.nanoTime();
+                        if (remaining <= 0) {
+                            timeoutCount.incrementAndGet();
+                            throw new SQLTimeoutException("Timed out waiting for a connection after "
+                                    + TimeUnit.NANOSECONDS.toMillis(acquireTimeoutNanos) + "ms (pool size "
+                                    + maxSize + ")");
+                        }
+
+                        waited = true;
+                        waiting++;
+                        try {
+                            available.awaitNanos(remaining);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            throw new SQLException("Interrupted while waiting for a connection", e);
+                        } finally {
+                            waiting--;
+                        }
+                    }
+                } finally {
+                    lock.unlock();
+                }
+
+                if (create) {
+                    try {
+                        PooledConnection connection = open();
+                        acquireCount.incrementAndGet();
+                        return connection;
+                    } catch (SQLException e) {
+                        forget(null);
+                        throw e;
+                    }
+                }
+
+                if (isUsable(candidate)) {
+                    acquireCount.incrementAndGet();
+                    return candidate;
+                }
+
+                forget(candidate);
+            }
+        } finally {
+            if (waited) {
+                long elapsed = System.nanoTime() - start;
+                waitCount.incrementAndGet();
+                totalWaitNanos.addAndGet(elapsed);
+                maxWaitNanos.accumulateAndGet(elapsed, Math::max);
+            }
+        }
+    }
+
+    /**
+     * Gives a borrowed connection back to the pool. Any transaction left open is
+     * rolled back and broken connections are discarded.
+     *
+     * @param connection The connection to release, may be null
+     */
+    public void release(PooledConnection connection) {
+        if (connection == null) {
+            return;
+        }
+
+        connection.getStatements().closePending();
+
+        boolean broken;
+        try {
+            Connection raw = connection.getConnection();
+            broken = raw.isClosed();
+            if (!broken && !raw.getAutoCommit()) {
+                raw.rollback();
+                raw.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            broken = true;
+        }
+
+        boolean discard;
+        lock.lock();
+        try {
+            active--;
+            discard = broken || closed;
+            if (discard) {
+                total--;
+            } else {
+                connection.touch();
+                idle.addFirst(connection);
+            }
+            available.signal();
+        } finally {
+            lock.unlock();
+        }
+
+        if (discard) {
+            destroyedCount.incrementAndGet();
+            connection.closeQuietly();
+        }
+    }
+
+    /**
+     * Gets a snapshot of the current pool usage.
+     *
+     * @return The pool statistics
+     */
+    public SQLPoolStats getStats() {
+        lock.lock();
+        try {
+            return new SQLPoolStats(active, idle.size(), total, waiting, maxSize,
+                    acquireCount.get(), waitCount.get(), totalWaitNanos.get(), maxWaitNanos.get(),
+                    timeoutCount.get(), createdCount.get(), destroyedCount.get());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets a snapshot of the prepared statement caches of every connection,
+     * borrowed or idle.
+     *
+     * @return The statement cache statistics
+     */
+    public StatementCacheStats getStatementCacheStats() {
+        return new StatementCacheStats(statementCounters.hits.sum(), statementCounters.misses.sum(),
+                statementCounters.evictions.sum(), statementCounters.cached.intValue());
+    }
+
+    /**
+     * Closes every idle connection and stops the evictor. Connections currently
+     * borrowed are closed as soon as they are released.
+     */
+    public void close() {
+        List<PooledConnection> toClose;
+        lock.lock();
+        try {
+            closed = true;
+            toClose = new ArrayList<>(idle);
+            total -= idle.size();
+            idle.clear();
+            available.signalAll();
+        } finally {
+            lock.unlock();
+        }
+
+        if (evictor != null) {
+            evictor.shutdownNow();
+        }
+
+        for (PooledConnection connection : toClose) {
+            destroyedCount.incrementAndGet();
+            connection.closeQuietly();
+        }
+    }
+
+    private PooledConnection open() throws SQLException {
+        PooledConnection connection = new PooledConnection(factory.create(), statementCacheSize,
+                statementCounters);
+        createdCount.incrementAndGet();
+        return connection;
+    }
+
+    private boolean isUsable(PooledConnection connection) {
+        if (System.nanoTime() - connection.getLastUsedAt() < VALIDATION_BYPASS_NANOS) {
+            return true;
+        }
+
+        try {
+            return connection.getConnection().isValid(validationTimeoutSeconds);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private void forget(PooledConnection connection) {
+        lock.lock();
+        try {
+            total--;
+            active--;
+            available.signal();
+        } finally {
+            lock.unlock();
+        }
+
+        if (connection != null) {
+            destroyedCount.incrementAndGet();
+            connection.closeQuietly();
+        }
+    }
+
+    private void evictIdle() {
+        List<PooledConnection> evicted = new ArrayList<>();
+        int missing;
+
+        lock.lock();
+        try {
+            long now = System.nanoTime();
+            while (total > minSize && !idle.isEmpty()
+                    && now - idle.peekLast().getLastUsedAt() > idleTimeoutNanos) {
+                evicted.add(idle.pollLast());
+                total--;
+            }
+
+            missing = closed ? 0 : minSize - total;
+            total += Math.max(0, missing);
+        } finally {
+            lock.unlock();
+        }
+
+        for (PooledConnection connection : evicted) {
+            destroyedCount.incrementAndGet();
+            connection.closeQuietly();
+        }
+
+        // Top the pool back up to its minimum size after broken connections were
+        // discarded.
+        for (int i = 0; i < missing; i++) {
+            PooledConnection connection = null;
+            try {
+                connection = open();
+            } catch (SQLException e) {
+                // Retried on the next run
+            }
+
+            lock.lock();
+            try {
+                if (connection == null || closed) {
+                    total--;
+                } else {
+                    idle.addLast(connection);
+                    available.signal();
+                    connection = null;
+                }
+            } finally {
+                lock.unlock();
+            }
+
+            if (connection != null) {
+                connection.closeQuietly();
+            }
+        }
+    }
+
+    /**
+     * Opens new physical connections for the pool.
+     */
+    @FunctionalInterface
+    public interface ConnectionFactory {
+        /**
+         * Opens and configures a new connection.
+         *
+         * @return The new connection
+         * @throws SQLException if the connection cannot be opened
+         */
+        Connection create() throws SQLException;
+    }
+}
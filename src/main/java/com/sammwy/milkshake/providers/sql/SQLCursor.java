@@ -0,0 +1,109 @@
+package com.sammwy.milkshake.providers.sql;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+
+import com.sammwy.milkshake.schema.Schema;
+
+/**
+ * Walks an open ResultSet one row at a time, mapping every row to an entity.
+ *
+ * <p>
+ * The cursor owns its statement and the pooled connection it was executed on:
+ * both are released as soon as the last row has been read or the cursor is
+ * closed, whichever happens first. Closing is idempotent.
+ *
+ * @param <T> The Schema type
+ */
+final class SQLCursor<T extends Schema> extends Spliterators.AbstractSpliterator<T> implements AutoCloseable {
+    private final SQLConnectionPool pool;
+    private final PooledConnection connection;
+    private final PreparedStatement stmt;
+    private final ResultSet rs;
+    private final Class<T> schemaClass;
+    private final RowMapper<T> mapper;
+    private final String[] columns;
+    private boolean closed;
+
+    SQLCursor(SQLConnectionPool pool, PooledConnection connection, PreparedStatement stmt, ResultSet rs,
+            Class<T> schemaClass) throws SQLException {
+        super(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL);
+        this.pool = pool;
+        this.connection = connection;
+        this.stmt = stmt;
+        this.rs = rs;
+        this.schemaClass = schemaClass;
+
+        ResultSetMetaData metadata = rs.getMetaData();
+        this.mapper = RowMapper.create(schemaClass, metadata);
+        if (mapper == null) {
+            this.columns = new String[metadata.getColumnCount()];
+            for (int i = 1; i <= columns.length; i++) {
+                columns[i - 1] = metadata.getColumnName(i);
+            }
+        } else {
+            this.columns = null;
+        }
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super T> action) {
+        if (closed) {
+            return false;
+        }
+
+        T entity;
+        try {
+            if (!rs.next()) {
+                close();
+                return false;
+            }
+            entity = mapper != null ? mapper.map(rs) : Schema.fromMap(schemaClass, readRow());
+        } catch (SQLException e) {
+            close();
+            throw new RuntimeException("Failed to read streamed record", e);
+        }
+
+        action.accept(entity);
+        return true;
+    }
+
+    private Map<String, Object> readRow() throws SQLException {
+        Map<String, Object> row = new HashMap<>(columns.length * 4 / 3 + 1);
+        for (int i = 1; i <= columns.length; i++) {
+            row.put(columns[i - 1], rs.getObject(i));
+        }
+        return row;
+    }
+
+    /**
+     * Closes the result, its statement and gives the connection back to the
+     * pool.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+
+        try {
+            rs.close();
+        } catch (SQLException e) {
+            // Closing the statement below releases it anyway
+        }
+        try {
+            stmt.close();
+        } catch (SQLException e) {
+            // The connection is validated when released
+        }
+        pool.release(connection);
+    }
+}
@@ -0,0 +1,140 @@
+package com.sammwy.milkshake.providers.sql;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Immutable snapshot of the usage of a {@link SQLConnectionPool}.
+ */
+public class SQLPoolStats {
+    private final int active;
+    private final int idle;
+    private final int total;
+    private final int pending;
+    private final int maxSize;
+    private final long acquireCount;
+    private final long waitCount;
+    private final long totalWaitNanos;
+    private final long maxWaitNanos;
+    private final long timeoutCount;
+    private final long createdCount;
+    private final long destroyedCount;
+
+    public SQLPoolStats(int active, int idle, int total, int pending, int maxSize, long acquireCount,
+            long waitCount, long totalWaitNanos, long maxWaitNanos, long timeoutCount, long createdCount,
+            long destroyedCount) {
+        this.active = active;
+        this.idle = idle;
+        this.total = total;
+        this.pending = pending;
+        this.maxSize = maxSize;
+        this.acquireCount = acquireCount;
+        this.waitCount = waitCount;
+        this.totalWaitNanos = totalWaitNanos;
+        this.maxWaitNanos = maxWaitNanos;
+        this.timeoutCount = timeoutCount;
+        this.createdCount = createdCount;
+        this.destroyedCount = destroyedCount;
+    }
+
+    /**
+     * @return The number of connections currently borrowed
+     */
+    public int getActive() {
+        return active;
+    }
+
+    /**
+     * @return The number of open connections waiting to be borrowed
+     */
+    public int getIdle() {
+        return idle;
+    }
+
+    /**
+     * @return The number of open connections (active, idle and being opened)
+     */
+    public int getTotal() {
+        return total;
+    }
+
+    /**
+     * @return The number of threads currently waiting for a connection
+     */
+    public int getPending() {
+        return pending;
+    }
+
+    /**
+     * @return The maximum number of connections the pool may open
+     */
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * @return The number of successful acquires since the pool was created
+     */
+    public long getAcquireCount() {
+        return acquireCount;
+    }
+
+    /**
+     * @return The number of acquires that had to wait for a free connection
+     */
+    public long getWaitCount() {
+        return waitCount;
+    }
+
+    /**
+     * @return The accumulated time spent waiting for free connections, in
+     *         milliseconds
+     */
+    public long getTotalWaitMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(totalWaitNanos);
+    }
+
+    /**
+     * @return The average time an acquire that had to wait spent waiting, in
+     *         milliseconds
+     */
+    public double getAverageWaitMillis() {
+        return waitCount == 0 ? 0 : (totalWaitNanos / (double) waitCount) / 1_000_000.0;
+    }
+
+    /**
+     * @return The longest time a single acquire spent waiting, in milliseconds
+     */
+    public long getMaxWaitMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(maxWaitNanos);
+    }
+
+    /**
+     * @return The number of acquires that timed out
+     */
+    public long getTimeoutCount() {
+        return timeoutCount;
+    }
+
+    /**
+     * @return The number of physical connections opened
+     */
+    public long getCreatedCount() {
+        return createdCount;
+    }
+
+    /**
+     * @return The number of physical connections closed (evicted, broken or on
+     *         shutdown)
+     */
+    public long getDestroyedCount() {
+        return destroyedCount;
+    }
+
+    @Override
+    public String toString() {
+        return "SQLPoolStats{active=" + active + ", idle=" + idle + ", total=" + total + ", pending=" + pending
+                + ", maxSize=" + maxSize + ", waitCount=" + waitCount + ", avgWaitMs="
+                + String.format("%.2f", getAverageWaitMillis()) + ", maxWaitMs=" + getMaxWaitMillis()
+                + ", timeouts=" + timeoutCount + "}";
+    }
+}
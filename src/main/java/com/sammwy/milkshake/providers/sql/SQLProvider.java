@@ -1,34 +1,56 @@
 package com.sammwy.milkshake.providers.sql;
 
-import java.lang.reflect.Field;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
+import java.sql.Savepoint;
 import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.Map.Entry;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
-import com.sammwy.classserializer.ClassUtils;
 import com.sammwy.milkshake.ProviderInfo;
+import com.sammwy.milkshake.ProviderInfo.Options;
 import com.sammwy.milkshake.Repository;
 import com.sammwy.milkshake.RepositoryCache;
 import com.sammwy.milkshake.annotations.SchemaType;
 import com.sammwy.milkshake.providers.AbstractProvider;
+import com.sammwy.milkshake.providers.sql.SQLQueryCompiler.CompiledQuery;
+import com.sammwy.milkshake.query.BulkWriteResult;
 import com.sammwy.milkshake.query.Filter.Find;
 import com.sammwy.milkshake.query.Filter.Update;
+import com.sammwy.milkshake.query.WriteOperation;
+import com.sammwy.milkshake.schema.IndexDefinition;
 import com.sammwy.milkshake.schema.Schema;
+import com.sammwy.milkshake.schema.SchemaMetadata;
 
 public abstract class SQLProvider extends AbstractProvider {
-    protected Connection connection;
+    private static final int DEFAULT_POOL_MIN_SIZE = 1;
+    private static final int DEFAULT_POOL_MAX_SIZE = 10;
+    private static final long DEFAULT_ACQUIRE_TIMEOUT = 30_000;
+    private static final long DEFAULT_IDLE_TIMEOUT = 600_000;
+    private static final int DEFAULT_VALIDATION_TIMEOUT = 5;
+    private static final int DEFAULT_STATEMENT_CACHE_SIZE = 128;
+    private static final int DEFAULT_MAX_ROWS_PER_STATEMENT = 1000;
+
+    protected SQLConnectionPool pool;
+    private SQLQueryCompiler compiler;
+    private boolean multiRowInsert = true;
+    private int maxRowsPerStatement = DEFAULT_MAX_ROWS_PER_STATEMENT;
+    private int fetchSize;
 
     protected abstract String getDriverClass();
 
@@ -47,9 +69,34 @@ public abstract class SQLProvider extends AbstractProvider {
     public void connect(ProviderInfo info) {
         try {
             Class.forName(getDriverClass());
-            this.connection = DriverManager.getConnection(getConnectionString(info),
-                    info.getUsername(), info.getPassword());
-            setupConnection(this.connection);
+            String url = getConnectionString(info);
+            String username = info.getUsername();
+            String password = info.getPassword();
+
+            this.multiRowInsert = !"false".equalsIgnoreCase(info.getOption(Options.MULTI_ROW_INSERT));
+            this.maxRowsPerStatement = Math.max(1,
+                    info.getOptionInt(Options.MAX_ROWS_PER_STATEMENT, DEFAULT_MAX_ROWS_PER_STATEMENT));
+            this.fetchSize = Math.max(0, info.getOptionInt(Options.FETCH_SIZE, 0));
+            this.compiler = new SQLQueryCompiler(isSQLite(), this::escapeIdentifier);
+
+            int maxSize = getMaxPoolSize(info);
+            int statementCacheSize = info.getOptionInt(Options.STATEMENT_CACHE_SIZE, DEFAULT_STATEMENT_CACHE_SIZE);
+            this.pool = new SQLConnectionPool(() -> {
+                Connection connection = DriverManager.getConnection(url, username, password);
+                try {
+                    setupConnection(connection);
+                } catch (SQLException e) {
+                    connection.close();
+                    throw e;
+                }
+                return connection;
+            },
+                    Math.min(info.getOptionInt(Options.POOL_MIN_SIZE, DEFAULT_POOL_MIN_SIZE), maxSize),
+                    maxSize,
+                    info.getOptionLong(Options.POOL_ACQUIRE_TIMEOUT, DEFAULT_ACQUIRE_TIMEOUT),
+                    info.getOptionLong(Options.POOL_IDLE_TIMEOUT, DEFAULT_IDLE_TIMEOUT),
+                    info.getOptionInt(Options.POOL_VALIDATION_TIMEOUT, DEFAULT_VALIDATION_TIMEOUT),
+                    statementCacheSize);
         } catch (ClassNotFoundException e) {
             throw new RuntimeException("JDBC driver not found", e);
         } catch (SQLException e) {
@@ -57,211 +104,642 @@ public abstract class SQLProvider extends AbstractProvider {
         }
     }
 
-    @Override
-    public boolean insert(String collection, Map<String, Object> data) {
+    /**
+     * Gets the maximum number of pooled connections for this provider.
+     *
+     * @param info The connection information
+     * @return The maximum pool size
+     */
+    protected int getMaxPoolSize(ProviderInfo info) {
+        return info.getOptionInt(Options.POOL_MAX_SIZE, DEFAULT_POOL_MAX_SIZE);
+    }
+
+    /**
+     * Gets the connection pool statistics (active, idle and wait times).
+     *
+     * @return A snapshot of the pool statistics
+     */
+    public SQLPoolStats getPoolStats() {
+        return getPool().getStats();
+    }
+
+    /**
+     * Gets the prepared statement cache statistics (hits, misses and evictions)
+     * of all pooled connections.
+     *
+     * @return A snapshot of the statement cache statistics
+     */
+    public StatementCacheStats getStatementCacheStats() {
+        return getPool().getStatementCacheStats();
+    }
+
+    /**
+     * Closes the connection pool. Connections currently in use are closed as soon
+     * as they are released.
+     */
+    public void close() {
+        if (this.pool != null) {
+            this.pool.close();
+        }
+    }
+
+    /**
+     * Borrows a connection from the pool, runs the action with it and gives the
+     * connection back.
+     *
+     * @param <R>    The result type
+     * @param action The action to run
+     * @return The result of the action
+     * @throws SQLException if a database error occurs
+     */
+    protected <R> R withConnection(SQLAction<R> action) throws SQLException {
+        SQLConnectionPool pool = getPool();
+        PooledConnection connection = pool.acquire();
         try {
-            StringBuilder sql = new StringBuilder("INSERT INTO " + collection + " (");
-            StringBuilder values = new StringBuilder(") VALUES (");
-            List<Object> parameters = new ArrayList<>();
+            return action.apply(connection);
+        } finally {
+            pool.release(connection);
+        }
+    }
 
-            boolean first = true;
-            for (Map.Entry<String, Object> entry : data.entrySet()) {
-                if (!first) {
-                    sql.append(", ");
-                    values.append(", ");
+    /**
+     * Borrows a connection from the pool and runs the action inside a
+     * transaction, committing on success and rolling back on failure.
+     *
+     * @param <R>    The result type
+     * @param action The action to run
+     * @return The result of the action
+     * @throws SQLException if a database error occurs
+     */
+    protected <R> R inTransaction(SQLAction<R> action) throws SQLException {
+        return withConnection(connection -> {
+            Connection raw = connection.getConnection();
+            raw.setAutoCommit(false);
+            try {
+                R result = action.apply(connection);
+                raw.commit();
+                return result;
+            } catch (SQLException | RuntimeException e) {
+                try {
+                    raw.rollback();
+                } catch (SQLException rollbackEx) {
+                    e.addSuppressed(rollbackEx);
                 }
-
-                sql.append(escapeIdentifier(entry.getKey()));
-                values.append("?");
-                parameters.add(entry.getValue());
-                first = false;
+                throw e;
+            } finally {
+                raw.setAutoCommit(true);
             }
+        });
+    }
 
-            sql.append(values).append(")");
+    private SQLConnectionPool getPool() {
+        if (this.pool == null) {
+            throw new IllegalStateException("Provider is not connected");
+        }
+        return this.pool;
+    }
 
-            try (PreparedStatement stmt = connection.prepareStatement(sql.toString(),
-                    Statement.RETURN_GENERATED_KEYS)) {
-                setParameters(stmt, parameters);
-                return stmt.executeUpdate() > 0;
-            }
+    @Override
+    public boolean insert(String collection, Map<String, Object> data) {
+        try {
+            return withConnection(connection -> insert(connection, collection, data));
         } catch (SQLException e) {
             throw new RuntimeException("Failed to insert data", e);
+        } finally {
+            notifyWrite(collection);
         }
     }
 
+    protected boolean insert(PooledConnection connection, String collection, Map<String, Object> data)
+            throws SQLException {
+        StringBuilder sql = new StringBuilder("INSERT INTO " + collection + " (");
+        StringBuilder values = new StringBuilder(") VALUES (");
+        List<Object> parameters = new ArrayList<>();
+
+        boolean first = true;
+        for (Map.Entry<String, Object> entry : data.entrySet()) {
+            if (!first) {
+                sql.append(", ");
+                values.append(", ");
+            }
+
+            sql.append(escapeIdentifier(entry.getKey()));
+            values.append("?");
+            parameters.add(entry.getValue());
+            first = false;
+        }
+
+        sql.append(values).append(")");
+
+        PreparedStatement stmt = connection.prepare(sql.toString());
+        setParameters(stmt, parameters);
+        return stmt.executeUpdate() > 0;
+    }
+
     @Override
     public int insertMany(String collection, List<Map<String, Object>> dataList) {
         if (dataList.isEmpty())
             return 0;
 
         try {
-            connection.setAutoCommit(false);
-            int count = 0;
+            return inTransaction(connection -> {
+                if (canUseBatchInsert(dataList)) {
+                    if (multiRowInsert) {
+                        List<String> columns = new ArrayList<>(dataList.get(0).keySet());
+                        return executeMultiRowInsert(connection, collection, columns, dataList, "");
+                    }
+                    return executeBatchInsert(connection, collection, dataList);
+                }
 
-            if (canUseBatchInsert(dataList)) {
-                count = executeBatchInsert(collection, dataList);
-            } else {
+                int count = 0;
                 for (Map<String, Object> data : dataList) {
-                    if (insert(collection, data))
+                    if (insert(connection, collection, data))
                         count++;
                 }
-            }
-
-            connection.commit();
-            return count;
+                return count;
+            });
         } catch (SQLException e) {
-            try {
-                connection.rollback();
-            } catch (SQLException rollbackEx) {
-                throw new RuntimeException("Failed to rollback transaction", rollbackEx);
-            }
             throw new RuntimeException("Failed to insert multiple records", e);
         } finally {
-            try {
-                connection.setAutoCommit(true);
-            } catch (SQLException e) {
-                // Ignore
-            }
+            notifyWrite(collection);
         }
     }
 
     @Override
-    public List<Map<String, Object>> find(String collection, Find criteria) {
+    public boolean upsert(String collection, Map<String, Object> data, String primaryKey) {
+        List<String> columns = new ArrayList<>(data.keySet());
+        String clause = buildUpsertClause(columns, primaryKey);
         try {
-            SQLCriteriaResult criteriaResult = SQLUtils.buildWhereCriteria(criteria);
-            String sql = "SELECT * FROM " + collection;
+            return withConnection(connection -> executeMultiRowInsert(connection, collection, columns,
+                    Collections.singletonList(data), clause) > 0);
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed to upsert data", e);
+        } finally {
+            notifyWrite(collection);
+        }
+    }
 
-            if (!criteriaResult.getWhereClause().isEmpty()) {
-                sql += " WHERE " + criteriaResult.getWhereClause();
-            }
+    @Override
+    public int upsertMany(String collection, List<Map<String, Object>> dataList, String primaryKey) {
+        if (dataList.isEmpty())
+            return 0;
 
-            try (PreparedStatement stmt = connection.prepareStatement(sql)) {
-                setParameters(stmt, criteriaResult.getParameters());
-                return resultSetToList(stmt.executeQuery());
-            }
+        // Rows with the same columns share the same statement
+        Map<Set<String>, List<Map<String, Object>>> groups = new LinkedHashMap<>();
+        for (Map<String, Object> data : dataList) {
+            groups.computeIfAbsent(data.keySet(), keys -> new ArrayList<>()).add(data);
+        }
+
+        try {
+            return inTransaction(connection -> {
+                for (List<Map<String, Object>> group : groups.values()) {
+                    List<String> columns = new ArrayList<>(group.get(0).keySet());
+                    executeMultiRowInsert(connection, collection, columns, group,
+                            buildUpsertClause(columns, primaryKey));
+                }
+                // Every row is written, the affected-row counts of the driver
+                // would count updated rows twice on MySQL
+                return dataList.size();
+            });
         } catch (SQLException e) {
-            throw new RuntimeException("Failed to find data", e);
+            throw new RuntimeException("Failed to upsert multiple records", e);
+        } finally {
+            notifyWrite(collection);
         }
     }
 
     @Override
-    public Map<String, Object> findOne(String collection, Find criteria) {
+    public int bulkWrite(List<WriteOperation> operations) {
+        if (operations.isEmpty())
+            return 0;
+
         try {
-            SQLCriteriaResult criteriaResult = SQLUtils.buildWhereCriteria(criteria);
-            String sql = "SELECT * FROM " + collection;
+            // Without savepoints, the first failure rolls back the whole batch
+            return inTransaction(connection -> {
+                int written = 0;
+                for (List<Integer> group : groupBulkWrite(operations, true)) {
+                    for (int count : executeGroup(connection, operations, group)) {
+                        written += Math.max(count, 0);
+                    }
+                }
+                return written;
+            });
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed to apply bulk write", e);
+        } finally {
+            for (String collection : collectionsOf(operations)) {
+                notifyWrite(collection);
+            }
+        }
+    }
+
+    @Override
+    public BulkWriteResult bulkWrite(List<WriteOperation> operations, boolean ordered) {
+        BulkWriteResult result = new BulkWriteResult(operations);
+        if (operations.isEmpty())
+            return result;
 
-            if (!criteriaResult.getWhereClause().isEmpty()) {
-                sql += " WHERE " + criteriaResult.getWhereClause();
+        try {
+            inTransaction(connection -> {
+                for (List<Integer> group : groupBulkWrite(operations, ordered)) {
+                    if (!applyGroup(connection, operations, group, ordered, result) && ordered) {
+                        break;
+                    }
+                }
+                return null;
+            });
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed to apply bulk write", e);
+        } finally {
+            for (String collection : collectionsOf(operations)) {
+                notifyWrite(collection);
             }
-            sql += " LIMIT 1";
+        }
+        return result;
+    }
 
-            try (PreparedStatement stmt = connection.prepareStatement(sql)) {
-                setParameters(stmt, criteriaResult.getParameters());
-                List<Map<String, Object>> results = resultSetToList(stmt.executeQuery());
-                return results.isEmpty() ? null : results.get(0);
+    /**
+     * Splits a bulk write into groups of operations that run as one statement
+     * (inserts or upserts of the same columns) or one JDBC batch (updates or
+     * deletes compiled to the same SQL). Ordered writes only group consecutive
+     * operations; unordered writes group every compatible operation.
+     */
+    private List<List<Integer>> groupBulkWrite(List<WriteOperation> operations, boolean ordered) {
+        Map<String, List<Integer>> groups = new LinkedHashMap<>();
+        List<List<Integer>> sequence = new ArrayList<>();
+        String previous = null;
+        for (int i = 0; i < operations.size(); i++) {
+            String key = groupKey(operations.get(i));
+            if (ordered) {
+                if (key == null || !key.equals(previous)) {
+                    sequence.add(new ArrayList<>());
+                }
+                sequence.get(sequence.size() - 1).add(i);
+                previous = key;
+            } else if (key == null) {
+                sequence.add(new ArrayList<>(List.of(i)));
+            } else {
+                groups.computeIfAbsent(key, k -> {
+                    List<Integer> group = new ArrayList<>();
+                    sequence.add(group);
+                    return group;
+                }).add(i);
             }
-        } catch (SQLException e) {
-            throw new RuntimeException("Failed to find one record", e);
         }
+        return sequence;
     }
 
-    @Override
-    public Map<String, Object> findById(String collection, String primaryKey, String id) {
-        return findOne(collection, new Find().eq(primaryKey, id));
+    private String groupKey(WriteOperation operation) {
+        switch (operation.getType()) {
+            case INSERT:
+            case UPSERT:
+                return operation.getType() + "|" + operation.getCollection() + "|" + operation.getPrimaryKey() + "|"
+                        + operation.getDocument().keySet();
+            default:
+                CompiledQuery query = compile(operation);
+                return query.isNoop() ? null : operation.getType() + "|" + query.getSql();
+        }
     }
 
-    @Override
-    public int update(String collection, Find criteria, Update update) {
+    /**
+     * Applies a group of a bulk write inside a savepoint. If the group fails,
+     * it is rolled back and its operations are retried one by one to find out
+     * which ones failed.
+     *
+     * @return true if every operation of the group was applied
+     */
+    private boolean applyGroup(PooledConnection connection, List<WriteOperation> operations, List<Integer> group,
+            boolean ordered, BulkWriteResult result) throws SQLException {
+        Connection raw = connection.getConnection();
+        Savepoint savepoint = raw.setSavepoint();
         try {
-            SQLUpdateResult updateResult = SQLUtils.buildUpdateStatement(update);
-            if (updateResult.getSetClause().isEmpty()) {
-                return 0;
+            int[] counts = executeGroup(connection, operations, group);
+            raw.releaseSavepoint(savepoint);
+            for (int i = 0; i < group.size(); i++) {
+                result.recordApplied(group.get(i), counts[i]);
             }
+            return true;
+        } catch (SQLException e) {
+            raw.rollback(savepoint);
+            if (group.size() == 1) {
+                result.recordFailure(group.get(0), e);
+                return false;
+            }
+        }
 
-            SQLCriteriaResult criteriaResult = SQLUtils.buildWhereCriteria(criteria);
-            String sql = "UPDATE " + collection + " SET " + updateResult.getSetClause();
+        boolean applied = true;
+        for (int index : group) {
+            Savepoint single = raw.setSavepoint();
+            try {
+                int count = executeGroup(connection, operations, List.of(index))[0];
+                raw.releaseSavepoint(single);
+                result.recordApplied(index, count);
+            } catch (SQLException e) {
+                raw.rollback(single);
+                result.recordFailure(index, e);
+                applied = false;
+                if (ordered) {
+                    break;
+                }
+            }
+        }
+        return applied;
+    }
 
-            if (!criteriaResult.getWhereClause().isEmpty()) {
-                sql += " WHERE " + criteriaResult.getWhereClause();
+    private int[] executeGroup(PooledConnection connection, List<WriteOperation> operations, List<Integer> group)
+            throws SQLException {
+        WriteOperation first = operations.get(group.get(0));
+        int[] counts = new int[group.size()];
+        if (first.getType() == WriteOperation.Type.INSERT || first.getType() == WriteOperation.Type.UPSERT) {
+            List<Map<String, Object>> rows = new ArrayList<>(group.size());
+            for (int index : group) {
+                rows.add(operations.get(index).getDocument());
             }
 
-            try (PreparedStatement stmt = connection.prepareStatement(sql)) {
-                int paramIndex = 1;
+            List<String> columns = new ArrayList<>(first.getDocument().keySet());
+            String clause = first.getType() == WriteOperation.Type.UPSERT
+                    ? buildUpsertClause(columns, first.getPrimaryKey())
+                    : "";
+            executeMultiRowInsert(connection, first.getCollection(), columns, rows, clause);
+            // One statement for the whole group, so the per-row counts are not
+            // reported; every row is written once, as in upsertMany
+            Arrays.fill(counts, 1);
+            return counts;
+        }
+
+        if (group.size() == 1) {
+            counts[0] = executeWrite(connection, first);
+            return counts;
+        }
+
+        CompiledQuery query = compile(first);
+        PreparedStatement stmt = connection.prepare(query.getSql());
+        try {
+            for (int index : group) {
+                WriteOperation operation = operations.get(index);
+                query.bind(stmt, operation.getCriteria(), operation.getUpdate());
+                stmt.addBatch();
+            }
+            int[] results = stmt.executeBatch();
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = results[i] >= 0 ? results[i] : BulkWriteResult.UNKNOWN;
+            }
+            return counts;
+        } catch (SQLException e) {
+            stmt.clearBatch(); // The statement is cached and reused
+            throw e;
+        }
+    }
+
+    private int executeWrite(PooledConnection connection, WriteOperation operation) throws SQLException {
+        CompiledQuery query = compile(operation);
+        if (query.isNoop()) {
+            return 0;
+        }
+
+        PreparedStatement stmt = connection.prepare(query.getSql());
+        query.bind(stmt, operation.getCriteria(), operation.getUpdate());
+        return stmt.executeUpdate();
+    }
+
+    private CompiledQuery compile(WriteOperation operation) {
+        String collection = operation.getCollection();
+        Find criteria = operation.getCriteria();
+        switch (operation.getType()) {
+            case UPDATE:
+            case UPDATE_ONE:
+                return compiler.update(collection, criteria, operation.getUpdate(),
+                        operation.getType() == WriteOperation.Type.UPDATE_ONE);
+            default:
+                return compiler.delete(collection, criteria,
+                        operation.getType() == WriteOperation.Type.DELETE_ONE);
+        }
+    }
+
+    private static Set<String> collectionsOf(List<WriteOperation> operations) {
+        Set<String> collections = new LinkedHashSet<>();
+        for (WriteOperation operation : operations) {
+            collections.add(operation.getCollection());
+        }
+        return collections;
+    }
+
+    /**
+     * Builds the clause appended to an {@code INSERT} statement to turn it into
+     * an upsert that updates every column but the primary key on conflict.
+     *
+     * @param columns    The inserted columns
+     * @param primaryKey The primary key column
+     * @return The upsert clause, starting with a space
+     */
+    protected abstract String buildUpsertClause(List<String> columns, String primaryKey);
 
-                // Set update parameters
-                for (Object param : updateResult.getParameters()) {
-                    stmt.setObject(paramIndex++, param);
+    @Override
+    public List<Map<String, Object>> find(String collection, Find criteria) {
+        CompiledQuery query = compiler.select(collection, criteria, false);
+        try {
+            return withConnection(connection -> {
+                PreparedStatement stmt = connection.prepare(query.getSql());
+                query.bind(stmt, criteria, null);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    return resultSetToList(rs);
                 }
+            });
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed to find data", e);
+        }
+    }
 
-                // Set where parameters
-                for (Object param : criteriaResult.getParameters()) {
-                    stmt.setObject(paramIndex++, param);
+    @Override
+    public Map<String, Object> findOne(String collection, Find criteria) {
+        CompiledQuery query = compiler.select(collection, criteria, true);
+        try {
+            return withConnection(connection -> {
+                PreparedStatement stmt = connection.prepare(query.getSql());
+                query.bind(stmt, criteria, null);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    List<Map<String, Object>> results = resultSetToList(rs);
+                    return results.isEmpty() ? null : results.get(0);
                 }
+            });
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed to find one record", e);
+        }
+    }
 
-                return stmt.executeUpdate();
-            }
+    @Override
+    public <T extends Schema> List<T> find(String collection, Find criteria, Class<T> schemaClass) {
+        CompiledQuery query = compiler.select(collection, criteria, false);
+        try {
+            return withConnection(connection -> {
+                PreparedStatement stmt = connection.prepare(query.getSql());
+                query.bind(stmt, criteria, null);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    return resultSetToEntities(rs, schemaClass);
+                }
+            });
         } catch (SQLException e) {
-            throw new RuntimeException("Failed to update data", e);
+            throw new RuntimeException("Failed to find data", e);
         }
     }
 
     @Override
-    public boolean updateByID(String collection, String primaryKey, String id, Update update) {
-        return update(collection, new Find().eq(primaryKey, id), update) > 0;
+    public <T extends Schema> T findOne(String collection, Find criteria, Class<T> schemaClass) {
+        CompiledQuery query = compiler.select(collection, criteria, true);
+        try {
+            return withConnection(connection -> {
+                PreparedStatement stmt = connection.prepare(query.getSql());
+                query.bind(stmt, criteria, null);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    List<T> results = resultSetToEntities(rs, schemaClass);
+                    return results.isEmpty() ? null : results.get(0);
+                }
+            });
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed to find one record", e);
+        }
     }
 
     @Override
-    public boolean updateOne(String collection, Find criteria, Update update) {
+    public <T extends Schema> Stream<T> stream(String collection, Find criteria, Class<T> schemaClass,
+            int fetchSize) {
+        CompiledQuery query = compiler.select(collection, criteria, false);
+        SQLConnectionPool pool = getPool();
+        SQLCursor<T> cursor;
         try {
-            SQLUpdateResult updateResult = SQLUtils.buildUpdateStatement(update);
-            if (updateResult.getSetClause().isEmpty()) {
-                return false;
+            PooledConnection connection = pool.acquire();
+            PreparedStatement stmt = null;
+            try {
+                // Not served from the statement cache: the cursor closes it
+                stmt = connection.getConnection().prepareStatement(query.getSql(), ResultSet.TYPE_FORWARD_ONLY,
+                        ResultSet.CONCUR_READ_ONLY);
+                stmt.setFetchSize(getStreamFetchSize(fetchSize > 0 ? fetchSize : this.fetchSize));
+                query.bind(stmt, criteria, null);
+                cursor = new SQLCursor<>(pool, connection, stmt, stmt.executeQuery(), schemaClass);
+            } catch (SQLException | RuntimeException e) {
+                if (stmt != null) {
+                    try {
+                        stmt.close();
+                    } catch (SQLException ignored) {
+                        // Already failing
+                    }
+                }
+                pool.release(connection);
+                throw e;
             }
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed to stream data", e);
+        }
 
-            SQLCriteriaResult criteriaResult = SQLUtils.buildWhereCriteria(criteria);
-            String sql = "UPDATE " + collection + " SET " + updateResult.getSetClause();
+        return StreamSupport.stream(cursor, false).onClose(cursor::close);
+    }
 
-            if (!criteriaResult.getWhereClause().isEmpty()) {
-                sql += " WHERE " + criteriaResult.getWhereClause();
-            }
-            sql += " LIMIT 1";
+    /**
+     * Gets the JDBC fetch size used when streaming rows.
+     *
+     * @param requested The requested number of rows per round trip, or 0 for
+     *                  the default
+     * @return The fetch size hint passed to the driver
+     */
+    protected int getStreamFetchSize(int requested) {
+        return requested;
+    }
 
-            try (PreparedStatement stmt = connection.prepareStatement(sql)) {
-                int paramIndex = 1;
+    @Override
+    public Map<String, Object> findById(String collection, String primaryKey, String id) {
+        return findOne(collection, new Find().eq(primaryKey, id));
+    }
 
-                // Set update parameters
-                for (Object param : updateResult.getParameters()) {
-                    stmt.setObject(paramIndex++, param);
+    @Override
+    public long count(String collection, Find criteria) {
+        CompiledQuery query = compiler.count(collection, criteria);
+        try {
+            return withConnection(connection -> {
+                PreparedStatement stmt = connection.prepare(query.getSql());
+                query.bind(stmt, criteria, null);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    return rs.next() ? rs.getLong(1) : 0L;
                 }
+            });
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed to count records", e);
+        }
+    }
 
-                // Set where parameters
-                for (Object param : criteriaResult.getParameters()) {
-                    stmt.setObject(paramIndex++, param);
+    @Override
+    public boolean exists(String collection, Find criteria) {
+        CompiledQuery query = compiler.exists(collection, criteria);
+        try {
+            return withConnection(connection -> {
+                PreparedStatement stmt = connection.prepare(query.getSql());
+                query.bind(stmt, criteria, null);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    return rs.next();
                 }
+            });
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed to check record existence", e);
+        }
+    }
+
+    @Override
+    public int update(String collection, Find criteria, Update update) {
+        CompiledQuery query = compiler.update(collection, criteria, update, false);
+        if (query.isNoop()) {
+            return 0;
+        }
+
+        try {
+            return withConnection(connection -> {
+                PreparedStatement stmt = connection.prepare(query.getSql());
+                query.bind(stmt, criteria, update);
+                return stmt.executeUpdate();
+            });
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed to update data", e);
+        } finally {
+            notifyWrite(collection);
+        }
+    }
 
+    @Override
+    public boolean updateByID(String collection, String primaryKey, String id, Update update) {
+        return update(collection, new Find().eq(primaryKey, id), update) > 0;
+    }
+
+    @Override
+    public boolean updateOne(String collection, Find criteria, Update update) {
+        CompiledQuery query = compiler.update(collection, criteria, update, true);
+        if (query.isNoop()) {
+            return false;
+        }
+
+        try {
+            return withConnection(connection -> {
+                PreparedStatement stmt = connection.prepare(query.getSql());
+                query.bind(stmt, criteria, update);
                 return stmt.executeUpdate() > 0;
-            }
+            });
         } catch (SQLException e) {
             throw new RuntimeException("Failed to update one record", e);
+        } finally {
+            notifyWrite(collection);
         }
     }
 
     @Override
     public int delete(String collection, Find criteria) {
+        CompiledQuery query = compiler.delete(collection, criteria, false);
         try {
-            SQLCriteriaResult criteriaResult = SQLUtils.buildWhereCriteria(criteria);
-            String sql = "DELETE FROM " + collection;
-
-            if (!criteriaResult.getWhereClause().isEmpty()) {
-                sql += " WHERE " + criteriaResult.getWhereClause();
-            }
-
-            try (PreparedStatement stmt = connection.prepareStatement(sql)) {
-                setParameters(stmt, criteriaResult.getParameters());
+            return withConnection(connection -> {
+                PreparedStatement stmt = connection.prepare(query.getSql());
+                query.bind(stmt, criteria, null);
                 return stmt.executeUpdate();
-            }
+            });
         } catch (SQLException e) {
             throw new RuntimeException("Failed to delete data", e);
+        } finally {
+            notifyWrite(collection);
         }
     }
 
@@ -272,21 +750,17 @@ public abstract class SQLProvider extends AbstractProvider {
 
     @Override
     public boolean deleteOne(String collection, Find criteria) {
+        CompiledQuery query = compiler.delete(collection, criteria, true);
         try {
-            SQLCriteriaResult criteriaResult = SQLUtils.buildWhereCriteria(criteria);
-            String sql = "DELETE FROM " + collection;
-
-            if (!criteriaResult.getWhereClause().isEmpty()) {
-                sql += " WHERE " + criteriaResult.getWhereClause();
-            }
-            sql += " LIMIT 1";
-
-            try (PreparedStatement stmt = connection.prepareStatement(sql)) {
-                setParameters(stmt, criteriaResult.getParameters());
+            return withConnection(connection -> {
+                PreparedStatement stmt = connection.prepare(query.getSql());
+                query.bind(stmt, criteria, null);
                 return stmt.executeUpdate() > 0;
-            }
+            });
         } catch (SQLException e) {
             throw new RuntimeException("Failed to delete one record", e);
+        } finally {
+            notifyWrite(collection);
         }
     }
 
@@ -295,10 +769,8 @@ public abstract class SQLProvider extends AbstractProvider {
         Repository<T> repo = new Repository<>(this, schemaClass);
         RepositoryCache.cache(schemaClass, repo);
 
-        Field idField = Schema.getIdFieldOf(schemaClass);
-        if (idField != null) {
-            String idFieldKey = Schema.getIdKeyNameOf(idField);
-            initialize(schemaClass, idFieldKey);
+        if (repo.getMetadata().hasId()) {
+            initialize(schemaClass, repo.getPrimaryKey());
         } else {
             throw new RuntimeException("Schema must have an @ID field");
         }
@@ -317,16 +789,49 @@ public abstract class SQLProvider extends AbstractProvider {
         ResultSetMetaData metadata = rs.getMetaData();
         int columnCount = metadata.getColumnCount();
 
+        // Resolve the column names once instead of for every cell
+        String[] columns = new String[columnCount];
+        for (int i = 1; i <= columnCount; i++) {
+            columns[i - 1] = metadata.getColumnName(i);
+        }
+
         while (rs.next()) {
-            Map<String, Object> row = new HashMap<>();
+            Map<String, Object> row = new HashMap<>(columnCount * 4 / 3 + 1);
             for (int i = 1; i <= columnCount; i++) {
-                row.put(metadata.getColumnName(i), rs.getObject(i));
+                row.put(columns[i - 1], rs.getObject(i));
             }
             results.add(row);
         }
         return results;
     }
 
+    /**
+     * Maps every row of a result to an entity, writing the typed column values
+     * straight into the entity fields when possible and falling back to the
+     * serializer otherwise.
+     *
+     * @param <T>         The Schema type
+     * @param rs          The result
+     * @param schemaClass The Schema class
+     * @return The entities
+     * @throws SQLException if a value cannot be read
+     */
+    protected <T extends Schema> List<T> resultSetToEntities(ResultSet rs, Class<T> schemaClass) throws SQLException {
+        RowMapper<T> mapper = RowMapper.create(schemaClass, rs.getMetaData());
+        List<T> results = new ArrayList<>();
+        if (mapper == null) {
+            for (Map<String, Object> row : resultSetToList(rs)) {
+                results.add(Schema.fromMap(schemaClass, row));
+            }
+            return results;
+        }
+
+        while (rs.next()) {
+            results.add(mapper.map(rs));
+        }
+        return results;
+    }
+
     private boolean canUseBatchInsert(List<Map<String, Object>> dataList) {
         if (dataList.size() <= 1)
             return true;
@@ -335,7 +840,8 @@ public abstract class SQLProvider extends AbstractProvider {
         return dataList.stream().allMatch(map -> map.keySet().equals(first.keySet()));
     }
 
-    private int executeBatchInsert(String table, List<Map<String, Object>> dataList) throws SQLException {
+    private int executeBatchInsert(PooledConnection connection, String table, List<Map<String, Object>> dataList)
+            throws SQLException {
         Map<String, Object> first = dataList.get(0);
         StringBuilder sql = new StringBuilder("INSERT INTO " + table + " (");
 
@@ -347,20 +853,153 @@ public abstract class SQLProvider extends AbstractProvider {
                 .append(String.join(", ", Collections.nCopies(first.size(), "?")))
                 .append(")");
 
-        try (PreparedStatement stmt = connection.prepareStatement(sql.toString())) {
+        PreparedStatement stmt = connection.prepare(sql.toString());
+        try {
             for (Map<String, Object> data : dataList) {
                 int i = 1;
-                for (Object value : data.values()) {
-                    stmt.setObject(i++, value);
+                for (String key : first.keySet()) {
+                    stmt.setObject(i++, data.get(key));
                 }
                 stmt.addBatch();
             }
 
             int[] results = stmt.executeBatch();
-            return Arrays.stream(results).sum();
+            return Arrays.stream(results).map(result -> result == Statement.SUCCESS_NO_INFO ? 1 : result).sum();
+        } catch (SQLException e) {
+            stmt.clearBatch();
+            throw e;
         }
     }
 
+    /**
+     * Inserts rows with multi-row {@code INSERT ... VALUES (...), (...)}
+     * statements, splitting them into chunks that fit the bind parameter limit
+     * ({@link #getMaxBindParameters()}), the statement size limit
+     * ({@link #getMaxStatementBytes(PooledConnection)}) and the configured
+     * maximum number of rows per statement. Full chunks share the same SQL text
+     * so they reuse one cached prepared statement.
+     *
+     * @param connection The connection to use
+     * @param table      The table name
+     * @param columns    The columns to insert, every row must contain them
+     * @param dataList   The rows to insert
+     * @param suffix     SQL appended to every statement (e.g. an upsert clause)
+     * @return The number of affected rows reported by the driver
+     * @throws SQLException if a database error occurs
+     */
+    protected int executeMultiRowInsert(PooledConnection connection, String table, List<String> columns,
+            List<Map<String, Object>> dataList, String suffix) throws SQLException {
+        int columnCount = columns.size();
+        if (columnCount == 0) {
+            throw new SQLException("Cannot insert rows without columns into " + table);
+        }
+
+        int rowsPerStatement = Math.max(1, Math.min(maxRowsPerStatement, getMaxBindParameters() / columnCount));
+        long maxBytes = getMaxStatementBytes(connection);
+
+        StringBuilder prefix = new StringBuilder("INSERT INTO ").append(table).append(" (");
+        for (int i = 0; i < columnCount; i++) {
+            if (i > 0) {
+                prefix.append(", ");
+            }
+            prefix.append(escapeIdentifier(columns.get(i)));
+        }
+        prefix.append(") VALUES ");
+
+        StringBuilder tuple = new StringBuilder("(");
+        for (int i = 0; i < columnCount; i++) {
+            tuple.append(i > 0 ? ", ?" : "?");
+        }
+        tuple.append(")");
+
+        int count = 0;
+        int start = 0;
+        int total = dataList.size();
+        long baseBytes = prefix.length() + suffix.length();
+
+        while (start < total) {
+            // Grow the chunk until it hits the row limit or the statement size limit
+            int end = start;
+            long bytes = baseBytes;
+            while (end < total && end - start < rowsPerStatement) {
+                long rowBytes = tuple.length() + 2;
+                Map<String, Object> row = dataList.get(end);
+                for (String column : columns) {
+                    rowBytes += estimateSize(row.get(column));
+                }
+
+                if (end > start && bytes + rowBytes > maxBytes) {
+                    break;
+                }
+                bytes += rowBytes;
+                end++;
+            }
+
+            int rows = end - start;
+            StringBuilder sql = new StringBuilder(prefix.length() + rows * (tuple.length() + 2) + suffix.length());
+            sql.append(prefix);
+            for (int i = 0; i < rows; i++) {
+                if (i > 0) {
+                    sql.append(", ");
+                }
+                sql.append(tuple);
+            }
+            sql.append(suffix);
+
+            PreparedStatement stmt = connection.prepare(sql.toString());
+            int index = 1;
+            for (int i = start; i < end; i++) {
+                Map<String, Object> row = dataList.get(i);
+                for (String column : columns) {
+                    stmt.setObject(index++, row.get(column));
+                }
+            }
+            count += stmt.executeUpdate();
+            start = end;
+        }
+
+        return count;
+    }
+
+    /**
+     * Gets the maximum number of bind parameters a single statement may have.
+     *
+     * @return The bind parameter limit of the database engine
+     */
+    protected abstract int getMaxBindParameters();
+
+    /**
+     * Gets the maximum size in bytes of a single statement including its bound
+     * values.
+     *
+     * @param connection A connection to query the server limits with
+     * @return The statement size limit of the database engine
+     * @throws SQLException if the limit cannot be queried
+     */
+    protected long getMaxStatementBytes(PooledConnection connection) throws SQLException {
+        return Long.MAX_VALUE;
+    }
+
+    /**
+     * Estimates the number of bytes a value takes on the wire.
+     *
+     * @param value The value to estimate
+     * @return The estimated size in bytes
+     */
+    protected static long estimateSize(Object value) {
+        if (value == null) {
+            return 4;
+        } else if (value instanceof CharSequence) {
+            // Worst case UTF-8 plus quoting and escaping
+            return ((CharSequence) value).length() * 4L + 2;
+        } else if (value instanceof byte[]) {
+            return ((byte[]) value).length * 2L + 3;
+        } else if (value instanceof Number || value instanceof Boolean) {
+            return 24;
+        }
+        return String.valueOf(value).length() * 4L + 2;
+    }
+
     /**
      * Initializes the database table for a Schema class.
      * This method analyzes the fields in the Schema class and creates
@@ -377,67 +1016,147 @@ public abstract class SQLProvider extends AbstractProvider {
             throw new RuntimeException("Schema class " + schemaClass.getName() + " is missing @SchemaType annotation");
         }
 
-        String tableName = schemaType.value();
-        if (tableName == null || tableName.trim().isEmpty()) {
-            tableName = schemaClass.getSimpleName();
-        }
+        SchemaMetadata metadata = SchemaMetadata.of(schemaClass);
+        String tableName = metadata.getCollectionName();
 
         try {
-            // Check if table already exists
-            if (tableExists(tableName)) {
-                return true;
-            }
-
-            // Build CREATE TABLE statement
-            StringBuilder createTableSQL = new StringBuilder();
-            createTableSQL.append("CREATE TABLE IF NOT EXISTS ").append(tableName).append(" (");
+            // Get all fields from the schema class including parent classes
+            Object instance = metadata.newInstance();
+            Map<String, Object> fieldsMap = this.getSerializer().serialize(instance);
 
-            if (this.isSQLite()) {
-                createTableSQL.append(primaryKey + " TEXT PRIMARY KEY");
-            } else {
-                createTableSQL.append("`" + primaryKey + "` VARCHAR(255) PRIMARY KEY");
+            if (!tableExists(tableName)) {
+                createTable(tableName, primaryKey, fieldsMap);
             }
 
-            // Get all fields from the schema class including parent classes
-            Object instance = ClassUtils.createInstance(schemaClass);
-            Map<String, Object> fieldsMap = this.getSerializer().serialize(instance);
+            createIndexes(tableName, metadata.getIndexes(), fieldsMap);
+            return true;
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed to initialize table for " + schemaClass.getName(), e);
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to parse table for " + schemaClass.getName(), e);
+        }
+    }
 
-            for (Entry<String, Object> entry : fieldsMap.entrySet()) {
-                String fieldName = entry.getKey();
-                Class<?> fieldType = entry.getValue().getClass();
+    private void createTable(String tableName, String primaryKey, Map<String, Object> fieldsMap)
+            throws SQLException {
+        // Build CREATE TABLE statement
+        StringBuilder createTableSQL = new StringBuilder();
+        createTableSQL.append("CREATE TABLE IF NOT EXISTS ").append(tableName).append(" (");
 
-                // Skip the id field as we've already added it
-                if (fieldName.equals(primaryKey)) {
-                    continue;
-                }
+        if (this.isSQLite()) {
+            createTableSQL.append(primaryKey + " TEXT PRIMARY KEY");
+        } else {
+            createTableSQL.append("`" + primaryKey + "` VARCHAR(255) PRIMARY KEY");
+        }
 
-                String sqlType = SQLUtils.getSQLType(fieldType, this.isSQLite());
-                if (sqlType != null) {
-                    createTableSQL.append(", ").append(fieldName).append(" ").append(sqlType);
-                } else {
-                    throw new RuntimeException("Unsupported field type: " + fieldType.getName());
-                }
+        for (Entry<String, Object> entry : fieldsMap.entrySet()) {
+            String fieldName = entry.getKey();
+
+            // Skip the id field as we've already added it (it is not generated
+            // yet on a fresh instance)
+            if (fieldName.equals(primaryKey)) {
+                continue;
             }
 
-            if (this.isSQLite()) {
-                createTableSQL.append(")");
+            Class<?> fieldType = entry.getValue().getClass();
+
+            String sqlType = SQLUtils.getSQLType(fieldType, this.isSQLite());
+            if (sqlType != null) {
+                createTableSQL.append(", ").append(fieldName).append(" ").append(sqlType);
             } else {
-                createTableSQL.append(") ENGINE=InnoDB DEFAULT CHARSET=utf8mb4");
+                throw new RuntimeException("Unsupported field type: " + fieldType.getName());
             }
+        }
+
+        if (this.isSQLite()) {
+            createTableSQL.append(")");
+        } else {
+            createTableSQL.append(") ENGINE=InnoDB DEFAULT CHARSET=utf8mb4");
+        }
 
-            // Execute CREATE TABLE statement
-            try (Statement stmt = connection.createStatement()) {
+        // Execute CREATE TABLE statement
+        withConnection(connection -> {
+            try (Statement stmt = connection.getConnection().createStatement()) {
                 stmt.execute(createTableSQL.toString());
                 return true;
             }
+        });
+    }
+
+    /**
+     * Creates the declared indexes that do not exist yet.
+     *
+     * @param tableName The table name
+     * @param indexes   The declared indexes
+     * @param fieldsMap The serialized default instance of the schema, used to
+     *                  resolve column types
+     * @throws SQLException if an index cannot be created
+     */
+    protected void createIndexes(String tableName, List<IndexDefinition> indexes, Map<String, Object> fieldsMap)
+            throws SQLException {
+        if (indexes.isEmpty()) {
+            return;
+        }
+
+        List<String> existing = listIndexes(tableName);
+        withConnection(connection -> {
+            try (Statement stmt = connection.getConnection().createStatement()) {
+                for (IndexDefinition index : indexes) {
+                    if (!existing.contains(index.getName())) {
+                        stmt.execute(buildCreateIndex(tableName, index, fieldsMap));
+                    }
+                }
+                return true;
+            }
+        });
+    }
+
+    /**
+     * Builds the statement that creates an index.
+     *
+     * @param tableName The table name
+     * @param index     The index to create
+     * @param fieldsMap The serialized default instance of the schema, used to
+     *                  resolve column types
+     * @return The {@code CREATE INDEX} statement
+     */
+    protected String buildCreateIndex(String tableName, IndexDefinition index, Map<String, Object> fieldsMap) {
+        return "CREATE " + (index.isUnique() ? "UNIQUE " : "") + "INDEX IF NOT EXISTS "
+                + escapeIdentifier(index.getName()) + " ON " + tableName + " ("
+                + index.getFields().stream().map(this::escapeIdentifier).collect(Collectors.joining(", ")) + ")";
+    }
+
+    @Override
+    public List<String> listIndexes(String collection) {
+        try {
+            return withConnection(connection -> fetchIndexNames(connection, collection));
         } catch (SQLException e) {
-            throw new RuntimeException("Failed to initialize table for " + schemaClass.getName(), e);
-        } catch (Exception e) {
-            throw new RuntimeException("Failed to parse table for " + schemaClass.getName(), e);
+            throw new RuntimeException("Failed to list indexes of " + collection, e);
         }
     }
 
+    /**
+     * Queries the names of the indexes of a table.
+     *
+     * @param connection The connection to query with
+     * @param tableName  The table name
+     * @return The index names
+     * @throws SQLException if the indexes cannot be queried
+     */
+    protected abstract List<String> fetchIndexNames(PooledConnection connection, String tableName)
+            throws SQLException;
+
     public abstract boolean tableExists(String tableName) throws SQLException;
 
     public abstract boolean isSQLite();
+
+    /**
+     * An action run with a borrowed connection.
+     *
+     * @param <R> The result type
+     */
+    @FunctionalInterface
+    protected interface SQLAction<R> {
+        R apply(PooledConnection connection) throws SQLException;
+    }
 }
\ No newline at end of file
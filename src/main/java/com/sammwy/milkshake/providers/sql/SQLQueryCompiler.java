@@ -0,0 +1,336 @@
+package com.sammwy.milkshake.providers.sql;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+
+import com.sammwy.milkshake.query.Filter.Find;
+import com.sammwy.milkshake.query.Filter.Update;
+
+/**
+ * Compiles the shape of Find and Update filters (fields, operators and $in
+ * sizes, but not values) into complete SQL statements and caches them.
+ *
+ * <p>
+ * Repeated queries that only differ in their values, such as
+ * {@code new Find().eq("name", x)} for different {@code x}, reuse the same
+ * {@link CompiledQuery}: only the shape key is computed and the values are
+ * bound straight into the prepared statement. Since the SQL text is identical,
+ * the statement is also served from the per-connection statement cache.
+ */
+class SQLQueryCompiler {
+    /**
+     * Upper bound of cached shapes, to protect against unbounded shapes such as
+     * $in lists of ever changing sizes.
+     */
+    private static final int MAX_CACHED_QUERIES = 2048;
+
+    private static final Map<String, Object> EMPTY = Collections.emptyMap();
+
+    private final Map<String, CompiledQuery> cache = new ConcurrentHashMap<>();
+    private final boolean sqlite;
+    private final UnaryOperator<String> escaper;
+
+    /**
+     * @param sqlite  Whether statements are compiled for SQLite rather than
+     *                MySQL
+     * @param escaper Quotes a column name for the dialect
+     */
+    SQLQueryCompiler(boolean sqlite, UnaryOperator<String> escaper) {
+        this.sqlite = sqlite;
+        this.escaper = escaper;
+    }
+
+    /**
+     * Compiles a {@code SELECT} query, listing the projected columns of the
+     * filter or {@code *} if it has none.
+     *
+     * @param collection The table name
+     * @param criteria   The filter, may be null
+     * @param one        Whether only the first row is needed
+     * @return The compiled query
+     */
+    CompiledQuery select(String collection, Find criteria, boolean one) {
+        String key = key(one ? 'S' : 's', collection, criteria, null);
+        return cache(key, () -> {
+            CompiledClause where = SQLUtils.compileWhere(criteriaOf(criteria), escaper);
+            CompiledClause seek = criteria != null && criteria.getAfter() != null
+                    ? SQLUtils.compileSeek(criteria.getSort(), sqlite, escaper)
+                    : null;
+
+            StringBuilder sql = new StringBuilder("SELECT ");
+            appendColumns(sql, criteria != null ? criteria.getProjection() : null);
+            sql.append(" FROM ").append(collection);
+            if (seek == null) {
+                appendWhere(sql, where);
+            } else if (where.isEmpty()) {
+                sql.append(" WHERE ").append(seek.getSql());
+            } else {
+                sql.append(" WHERE (").append(where.getSql()).append(") AND ").append(seek.getSql());
+            }
+
+            if (criteria != null && !criteria.getSort().isEmpty()) {
+                sql.append(" ORDER BY ");
+                boolean first = true;
+                for (Map.Entry<String, Integer> entry : criteria.getSort().entrySet()) {
+                    if (!first) {
+                        sql.append(", ");
+                    }
+                    sql.append(escaper.apply(entry.getKey())).append(entry.getValue() < 0 ? " DESC" : " ASC");
+                    first = false;
+                }
+            }
+
+            // Limit and offset are bound as parameters so the shape does not
+            // depend on the page size.
+            boolean offset = criteria != null && criteria.getSkip() > 0;
+            boolean limit = !one && (offset || (criteria != null && criteria.getLimit() > 0));
+            if (one) {
+                sql.append(" LIMIT 1");
+            } else if (limit) {
+                sql.append(" LIMIT ?");
+            }
+            if (offset) {
+                sql.append(" OFFSET ?");
+            }
+            return new CompiledQuery(sql.toString(), null, where, seek, limit, offset);
+        });
+    }
+
+    /**
+     * Compiles a {@code SELECT COUNT(*)} query.
+     *
+     * @param collection The table name
+     * @param criteria   The filter, may be null
+     * @return The compiled query
+     */
+    CompiledQuery count(String collection, Find criteria) {
+        String key = key('c', collection, criteria, null);
+        return cache(key, () -> {
+            CompiledClause where = SQLUtils.compileWhere(criteriaOf(criteria), escaper);
+            StringBuilder sql = new StringBuilder("SELECT COUNT(*) FROM ").append(collection);
+            appendWhere(sql, where);
+            return new CompiledQuery(sql.toString(), null, where, null, false, false);
+        });
+    }
+
+    /**
+     * Compiles a {@code SELECT 1 ... LIMIT 1} query that checks whether any row
+     * matches.
+     *
+     * @param collection The table name
+     * @param criteria   The filter, may be null
+     * @return The compiled query
+     */
+    CompiledQuery exists(String collection, Find criteria) {
+        String key = key('e', collection, criteria, null);
+        return cache(key, () -> {
+            CompiledClause where = SQLUtils.compileWhere(criteriaOf(criteria), escaper);
+            StringBuilder sql = new StringBuilder("SELECT 1 FROM ").append(collection);
+            appendWhere(sql, where);
+            sql.append(" LIMIT 1");
+            return new CompiledQuery(sql.toString(), null, where, null, false, false);
+        });
+    }
+
+    /**
+     * Compiles an {@code UPDATE} query.
+     *
+     * @param collection The table name
+     * @param criteria   The filter, may be null
+     * @param update     The update operations
+     * @param one        Whether only the first matching row is updated
+     * @return The compiled query, {@link CompiledQuery#isNoop()} if the update has
+     *         no operations
+     */
+    CompiledQuery update(String collection, Find criteria, Update update, boolean one) {
+        String key = key(one ? 'U' : 'u', collection, criteria, update);
+        return cache(key, () -> {
+            CompiledClause set = SQLUtils.compileSet(update != null ? update.getUpdateOperations() : EMPTY, sqlite,
+                    escaper);
+            if (set.isEmpty()) {
+                return new CompiledQuery(null, null, null, null, false, false);
+            }
+
+            CompiledClause where = SQLUtils.compileWhere(criteriaOf(criteria), escaper);
+            StringBuilder sql = new StringBuilder("UPDATE ").append(collection).append(" SET ").append(set.getSql());
+            appendWhere(sql, where);
+            if (one) {
+                sql.append(" LIMIT 1");
+            }
+            return new CompiledQuery(sql.toString(), set, where, null, false, false);
+        });
+    }
+
+    /**
+     * Compiles a {@code DELETE} query.
+     *
+     * @param collection The table name
+     * @param criteria   The filter, may be null
+     * @param one        Whether only the first matching row is deleted
+     * @return The compiled query
+     */
+    CompiledQuery delete(String collection, Find criteria, boolean one) {
+        String key = key(one ? 'D' : 'd', collection, criteria, null);
+        return cache(key, () -> {
+            CompiledClause where = SQLUtils.compileWhere(criteriaOf(criteria), escaper);
+            StringBuilder sql = new StringBuilder("DELETE FROM ").append(collection);
+            appendWhere(sql, where);
+            if (one) {
+                sql.append(" LIMIT 1");
+            }
+            return new CompiledQuery(sql.toString(), null, where, null, false, false);
+        });
+    }
+
+    /**
+     * Gets the number of compiled shapes currently cached.
+     *
+     * @return The cache size
+     */
+    int size() {
+        return cache.size();
+    }
+
+    private CompiledQuery cache(String key, Supplier<CompiledQuery> compiler) {
+        CompiledQuery query = cache.get(key);
+        if (query != null) {
+            return query;
+        }
+
+        query = compiler.get();
+        if (cache.size() < MAX_CACHED_QUERIES) {
+            cache.putIfAbsent(key, query);
+        }
+        return query;
+    }
+
+    private static String key(char kind, String collection, Find criteria, Update update) {
+        StringBuilder key = new StringBuilder(64).append(kind).append(collection).append('|');
+        if (criteria != null) {
+            SQLUtils.shapeOf(criteria.getCriteria(), key);
+            key.append('@');
+            for (Map.Entry<String, Integer> entry : criteria.getSort().entrySet()) {
+                key.append(entry.getKey()).append(entry.getValue() < 0 ? '-' : '+');
+            }
+            key.append(criteria.getAfter() != null ? 'a' : '_');
+            key.append(criteria.getLimit() > 0 ? 'l' : '_');
+            key.append(criteria.getSkip() > 0 ? 'o' : '_');
+            if (criteria.getProjection() != null) {
+                key.append('#');
+                for (String field : criteria.getProjection()) {
+                    key.append(field).append(',');
+                }
+            }
+        }
+        if (update != null) {
+            key.append('|');
+            SQLUtils.shapeOf(update.getUpdateOperations(), key);
+        }
+        return key.toString();
+    }
+
+    private void appendColumns(StringBuilder sql, Set<String> projection) {
+        if (projection == null || projection.isEmpty()) {
+            sql.append('*');
+            return;
+        }
+
+        boolean first = true;
+        for (String field : projection) {
+            if (!first) {
+                sql.append(", ");
+            }
+            sql.append(escaper.apply(field));
+            first = false;
+        }
+    }
+
+    private static void appendWhere(StringBuilder sql, CompiledClause where) {
+        if (!where.isEmpty()) {
+            sql.append(" WHERE ").append(where.getSql());
+        }
+    }
+
+    private static Map<String, Object> criteriaOf(Find criteria) {
+        return criteria != null ? criteria.getCriteria() : EMPTY;
+    }
+
+    /**
+     * A complete SQL statement compiled from the shape of its filters.
+     */
+    static class CompiledQuery {
+        private final String sql;
+        private final CompiledClause set;
+        private final CompiledClause where;
+        private final CompiledClause seek;
+        private final boolean limit;
+        private final boolean offset;
+
+        CompiledQuery(String sql, CompiledClause set, CompiledClause where, CompiledClause seek, boolean limit,
+                boolean offset) {
+            this.sql = sql;
+            this.set = set;
+            this.where = where;
+            this.seek = seek;
+            this.limit = limit;
+            this.offset = offset;
+        }
+
+        /**
+         * @return The SQL text of the statement
+         */
+        String getSql() {
+            return sql;
+        }
+
+        /**
+         * @return true if there is nothing to execute (an update without
+         *         operations)
+         */
+        boolean isNoop() {
+            return sql == null;
+        }
+
+        /**
+         * Binds the values of the given filters, which must have the shape this
+         * query was compiled from.
+         *
+         * @param stmt     The statement prepared from {@link #getSql()}
+         * @param criteria The filter, may be null
+         * @param update   The update operations, may be null
+         * @return The index of the next parameter
+         * @throws SQLException if a value cannot be bound
+         */
+        int bind(PreparedStatement stmt, Find criteria, Update update) throws SQLException {
+            int index = 1;
+            if (set != null) {
+                index = set.bind(stmt, index, update.getUpdateOperations());
+            }
+            if (where != null) {
+                index = where.bind(stmt, index, criteriaOf(criteria));
+            }
+            if (seek != null) {
+                Map<String, Object> key = new HashMap<>();
+                int i = 0;
+                for (String field : criteria.getSort().keySet()) {
+                    key.put(field, criteria.getAfter().get(i++));
+                }
+                index = seek.bind(stmt, index, key);
+            }
+            if (limit) {
+                stmt.setLong(index++, criteria.getLimit() > 0 ? criteria.getLimit() : Long.MAX_VALUE);
+            }
+            if (offset) {
+                stmt.setLong(index++, criteria.getSkip());
+            }
+            return index;
+        }
+    }
+}
@@ -3,7 +3,9 @@ package com.sammwy.milkshake.providers.sql;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.function.UnaryOperator;
 
+import com.sammwy.milkshake.providers.sql.CompiledClause.ValueSource;
 import com.sammwy.milkshake.query.Filter;
 
 /**
@@ -13,6 +15,12 @@ import com.sammwy.milkshake.query.Filter;
  * operations.
  */
 public final class SQLUtils {
+    /**
+     * Quotes identifiers with backticks, for the public builders that do not
+     * know their dialect.
+     */
+    private static final UnaryOperator<String> BACKTICKS = identifier -> "`" + identifier + "`";
+
     private SQLUtils() {
     }
 
@@ -28,11 +36,78 @@ public final class SQLUtils {
             return new SQLCriteriaResult("", new ArrayList<>());
         }
 
+        CompiledClause clause = compileWhere(filter.getCriteria(), BACKTICKS);
+        return new SQLCriteriaResult(clause.getSql(), clause.resolve(filter.getCriteria()));
+    }
+
+    /**
+     * Builds a SET clause from an Update filter, using the MySQL JSON functions
+     * for array operators.
+     * 
+     * @param update The Update filter to convert
+     * @return A SQLUpdateResult containing the SET clause string and parameters
+     */
+    public static SQLUpdateResult buildUpdateStatement(Filter.Update update) {
+        return buildUpdateStatement(update, false);
+    }
+
+    /**
+     * Builds a SET clause from an Update filter for the given dialect.
+     * 
+     * @param update The Update filter to convert
+     * @param sqlite Whether the statement runs on SQLite rather than MySQL
+     * @return A SQLUpdateResult containing the SET clause string and parameters
+     */
+    public static SQLUpdateResult buildUpdateStatement(Filter.Update update, boolean sqlite) {
+        if (update == null || update.getUpdateOperations().isEmpty()) {
+            return new SQLUpdateResult("", new ArrayList<>());
+        }
+
+        CompiledClause clause = compileSet(update.getUpdateOperations(), sqlite, BACKTICKS);
+        return new SQLUpdateResult(clause.getSql(), clause.resolve(update.getUpdateOperations()));
+    }
+
+    /**
+     * Compiles the structure of a Find criteria map (fields, operators, groups
+     * and the size of $in lists) into a WHERE clause template. The values are
+     * not part of the template: they are read back from any criteria map with
+     * the same shape when the template is bound.
+     *
+     * @param criteria The criteria map of a Find filter
+     * @param escaper  Quotes a column name for the dialect
+     * @return The compiled WHERE clause, empty if there are no criteria
+     * @see #shapeOf(Map, StringBuilder)
+     */
+    static CompiledClause compileWhere(Map<String, Object> criteria, UnaryOperator<String> escaper) {
         StringBuilder whereClause = new StringBuilder();
-        List<Object> parameters = new ArrayList<>();
-        boolean first = true;
+        List<ValueSource> sources = new ArrayList<>();
+        if (!criteria.isEmpty()) {
+            compileCriteria(criteria, root -> root, escaper, whereClause, sources);
+        }
+        return new CompiledClause(whereClause.toString(), sources);
+    }
 
-        for (Map.Entry<String, Object> entry : filter.getCriteria().entrySet()) {
+    /**
+     * Appends the conditions of a criteria map, or of a group nested in it,
+     * joined with AND.
+     *
+     * @param criteria    The criteria map to compile
+     * @param scope       Reads the same criteria map from the root map when
+     *                    the clause is bound
+     * @param escaper     Quotes a column name for the dialect
+     * @param whereClause The clause being built
+     * @param sources     The value sources of the clause
+     */
+    @SuppressWarnings("unchecked")
+    private static void compileCriteria(Map<String, Object> criteria, Scope scope, UnaryOperator<String> escaper,
+            StringBuilder whereClause, List<ValueSource> sources) {
+        if (criteria.isEmpty()) {
+            whereClause.append("1"); // An empty group matches everything
+            return;
+        }
+
+        boolean first = true;
+        for (Map.Entry<String, Object> entry : criteria.entrySet()) {
             String field = entry.getKey();
             Object value = entry.getValue();
 
@@ -40,130 +115,379 @@ public final class SQLUtils {
                 whereClause.append(" AND ");
             }
 
-            if (value instanceof Map) {
-                @SuppressWarnings("unchecked")
-                Map<String, Object> condition = (Map<String, Object>) value;
-
-                for (Map.Entry<String, Object> cond : condition.entrySet()) {
-                    String op = cond.getKey();
-                    Object val = cond.getValue();
-
-                    switch (op) {
-                        case "$ne":
-                            whereClause.append("`").append(field).append("` != ?");
-                            parameters.add(val);
-                            break;
-                        case "$gt":
-                            whereClause.append("`").append(field).append("` > ?");
-                            parameters.add(val);
-                            break;
-                        case "$lt":
-                            whereClause.append("`").append(field).append("` < ?");
-                            parameters.add(val);
-                            break;
-                        case "$in":
-                            List<?> inList = (List<?>) val;
-                            if (inList.isEmpty()) {
-                                whereClause.append("0"); // Always false
-                            } else {
-                                whereClause.append("`").append(field).append("` IN (");
-                                for (int i = 0; i < inList.size(); i++) {
-                                    if (i > 0) {
-                                        whereClause.append(", ");
-                                    }
-                                    whereClause.append("?");
-                                    parameters.add(inList.get(i));
-                                }
-                                whereClause.append(")");
-                            }
-                            break;
-                        default:
-                            throw new UnsupportedOperationException("Unknown operator: " + op);
+            switch (field) {
+                case "$or":
+                case "$and":
+                    compileGroup((List<Map<String, Object>>) value, field.equals("$or") ? " OR " : " AND ",
+                            root -> (List<Map<String, Object>>) scope.get(root).get(field), escaper, whereClause,
+                            sources);
+                    break;
+                case "$not":
+                    whereClause.append("NOT (");
+                    compileCriteria((Map<String, Object>) value,
+                            root -> (Map<String, Object>) scope.get(root).get(field), escaper, whereClause,
+                            sources);
+                    whereClause.append(")");
+                    break;
+                default:
+                    if (value instanceof Map) {
+                        compileCondition(escaper.apply(field), field, (Map<String, Object>) value, scope,
+                                whereClause, sources);
+                    } else {
+                        whereClause.append(escaper.apply(field)).append(" = ?");
+                        sources.add(root -> scope.get(root).get(field));
                     }
-                }
-            } else {
-                whereClause.append("`").append(field).append("` = ?");
-                parameters.add(value);
             }
 
             first = false;
         }
+    }
+
+    private static void compileGroup(List<Map<String, Object>> branches, String separator,
+            GroupScope scope, UnaryOperator<String> escaper, StringBuilder whereClause, List<ValueSource> sources) {
+        if (branches.isEmpty()) {
+            whereClause.append(separator.equals(" OR ") ? "0" : "1");
+            return;
+        }
+
+        whereClause.append("(");
+        for (int i = 0; i < branches.size(); i++) {
+            if (i > 0) {
+                whereClause.append(separator);
+            }
 
-        return new SQLCriteriaResult(whereClause.toString(), parameters);
+            int index = i;
+            whereClause.append("(");
+            compileCriteria(branches.get(i), root -> scope.get(root).get(index), escaper, whereClause, sources);
+            whereClause.append(")");
+        }
+        whereClause.append(")");
     }
 
-    /**
-     * Builds a SET clause from an Update filter.
-     * 
-     * @param update The Update filter to convert
-     * @return A SQLUpdateResult containing the SET clause string and parameters
-     */
-    public static SQLUpdateResult buildUpdateStatement(Filter.Update update) {
-        if (update == null || update.getUpdateOperations().isEmpty()) {
-            return new SQLUpdateResult("", new ArrayList<>());
+    private static void compileCondition(String column, String field, Map<String, Object> condition, Scope scope,
+            StringBuilder whereClause, List<ValueSource> sources) {
+        boolean firstOp = true;
+
+        for (Map.Entry<String, Object> cond : condition.entrySet()) {
+            String op = cond.getKey();
+            Object val = cond.getValue();
+
+            if (!firstOp) {
+                whereClause.append(" AND ");
+            }
+
+            switch (op) {
+                case "$eq":
+                    whereClause.append(column).append(" = ?");
+                    sources.add(operand(scope, field, op));
+                    break;
+                case "$ne":
+                    whereClause.append(column).append(" != ?");
+                    sources.add(operand(scope, field, op));
+                    break;
+                case "$gt":
+                    whereClause.append(column).append(" > ?");
+                    sources.add(operand(scope, field, op));
+                    break;
+                case "$gte":
+                    whereClause.append(column).append(" >= ?");
+                    sources.add(operand(scope, field, op));
+                    break;
+                case "$lt":
+                    whereClause.append(column).append(" < ?");
+                    sources.add(operand(scope, field, op));
+                    break;
+                case "$lte":
+                    whereClause.append(column).append(" <= ?");
+                    sources.add(operand(scope, field, op));
+                    break;
+                case "$in":
+                case "$nin":
+                    List<?> inList = (List<?>) val;
+                    if (inList.isEmpty()) {
+                        whereClause.append(op.equals("$in") ? "0" : "1"); // Always false or true
+                    } else {
+                        whereClause.append(column).append(op.equals("$in") ? " IN (" : " NOT IN (");
+                        for (int i = 0; i < inList.size(); i++) {
+                            if (i > 0) {
+                                whereClause.append(", ");
+                            }
+                            whereClause.append("?");
+                            sources.add(element(scope, field, op, i));
+                        }
+                        whereClause.append(")");
+                    }
+                    break;
+                case "$like":
+                    whereClause.append(column).append(" LIKE ? ESCAPE '!'");
+                    sources.add(operand(scope, field, op));
+                    break;
+                case "$regex":
+                    whereClause.append(column).append(" REGEXP ?");
+                    sources.add(operand(scope, field, op));
+                    break;
+                case "$exists":
+                    whereClause.append(column).append(" IS NOT NULL");
+                    break;
+                case "$isNull":
+                    whereClause.append(column).append(" IS NULL");
+                    break;
+                default:
+                    throw new UnsupportedOperationException("Unknown operator: " + op);
+            }
+
+            firstOp = false;
         }
+    }
 
+    /**
+     * Compiles the structure of the update operations of an Update filter into a
+     * SET clause template. Every operator is evaluated by the database from the
+     * current value of the column, so updates such as $inc, $max or $addToSet
+     * need no read beforehand. Array operators work on JSON array columns.
+     *
+     * @param updateOps The update operations of an Update filter
+     * @param sqlite    Whether to use the SQLite JSON1 functions instead of the
+     *                  MySQL JSON functions
+     * @param escaper   Quotes a column name for the dialect
+     * @return The compiled SET clause, empty if there are no operations
+     * @throws UnsupportedOperationException if an unknown operator is
+     *                                       encountered
+     */
+    static CompiledClause compileSet(Map<String, Object> updateOps, boolean sqlite, UnaryOperator<String> escaper) {
         StringBuilder setClause = new StringBuilder();
-        List<Object> parameters = new ArrayList<>();
+        List<ValueSource> sources = new ArrayList<>();
         boolean first = true;
 
-        Map<String, Object> updateOps = update.getUpdateOperations();
-
-        // Handle $set operations
-        if (updateOps.containsKey("$set")) {
+        for (Map.Entry<String, Object> operation : updateOps.entrySet()) {
+            String op = operation.getKey();
             @SuppressWarnings("unchecked")
-            Map<String, Object> setOps = (Map<String, Object>) updateOps.get("$set");
+            Map<String, Object> fields = (Map<String, Object>) operation.getValue();
 
-            for (Map.Entry<String, Object> entry : setOps.entrySet()) {
+            for (String field : fields.keySet()) {
                 if (!first) {
                     setClause.append(", ");
                 }
 
-                setClause.append("`").append(entry.getKey()).append("` = ?");
-                parameters.add(entry.getValue());
+                String column = escaper.apply(field);
+                ValueSource value = operand(op, field);
+                setClause.append(column).append(" = ");
+
+                switch (op) {
+                    case "$set":
+                        setClause.append("?");
+                        sources.add(value);
+                        break;
+                    case "$inc":
+                        setClause.append(column).append(" + ?");
+                        sources.add(value);
+                        break;
+                    case "$mul":
+                        setClause.append(column).append(" * ?");
+                        sources.add(value);
+                        break;
+                    case "$min":
+                    case "$max":
+                        // LEAST/GREATEST and the scalar MIN/MAX return NULL
+                        // when the column is NULL instead of the new value
+                        setClause.append("CASE WHEN ").append(column).append(" IS NULL OR ? ")
+                                .append(op.equals("$min") ? "<" : ">").append(" ").append(column)
+                                .append(" THEN ? ELSE ").append(column).append(" END");
+                        sources.add(value);
+                        sources.add(value);
+                        break;
+                    case "$unset":
+                        setClause.append("NULL");
+                        break;
+                    case "$currentDate":
+                        setClause.append(sqlite ? "strftime('%Y-%m-%d %H:%M:%f', 'now')" : "UTC_TIMESTAMP(3)");
+                        break;
+                    case "$push":
+                        appendArrayInsert(setClause, column, sqlite);
+                        sources.add(value);
+                        break;
+                    case "$addToSet":
+                        setClause.append("CASE WHEN ");
+                        if (sqlite) {
+                            setClause.append("EXISTS (SELECT 1 FROM json_each(COALESCE(").append(column)
+                                    .append(", '[]')) WHERE value = ?)");
+                        } else {
+                            setClause.append("JSON_CONTAINS(COALESCE(").append(column)
+                                    .append(", JSON_ARRAY()), JSON_ARRAY(?))");
+                        }
+                        setClause.append(" THEN ").append(column).append(" ELSE ");
+                        appendArrayInsert(setClause, column, sqlite);
+                        setClause.append(" END");
+                        sources.add(value);
+                        sources.add(value);
+                        break;
+                    case "$pull":
+                        setClause.append("CASE WHEN ").append(column).append(" IS NULL THEN NULL ELSE (");
+                        if (sqlite) {
+                            setClause.append("SELECT json_group_array(CASE WHEN type IN ('object', 'array')")
+                                    .append(" THEN json(value) ELSE value END) FROM json_each(").append(column)
+                                    .append(") WHERE value IS NOT ?");
+                        } else {
+                            setClause.append("SELECT COALESCE(JSON_ARRAYAGG(pulled.item), JSON_ARRAY())")
+                                    .append(" FROM JSON_TABLE(").append(column)
+                                    .append(", '$[*]' COLUMNS (item JSON PATH '$')) AS pulled")
+                                    .append(" WHERE NOT (pulled.item <=> JSON_EXTRACT(JSON_ARRAY(?), '$[0]'))");
+                        }
+                        setClause.append(") END");
+                        sources.add(value);
+                        break;
+                    default:
+                        throw new UnsupportedOperationException("Unknown update operator: " + op);
+                }
 
                 first = false;
             }
         }
 
-        // Handle $inc operations
-        if (updateOps.containsKey("$inc")) {
-            @SuppressWarnings("unchecked")
-            Map<String, Object> incOps = (Map<String, Object>) updateOps.get("$inc");
+        return new CompiledClause(setClause.toString(), sources);
+    }
 
-            for (Map.Entry<String, Object> entry : incOps.entrySet()) {
-                if (!first) {
-                    setClause.append(", ");
-                }
+    /**
+     * Appends an expression that adds a bound value at the end of a JSON array
+     * column, treating NULL as an empty array.
+     */
+    private static void appendArrayInsert(StringBuilder setClause, String column, boolean sqlite) {
+        if (sqlite) {
+            setClause.append("json_insert(COALESCE(").append(column).append(", '[]'), '$[#]', ?)");
+        } else {
+            setClause.append("JSON_ARRAY_APPEND(COALESCE(").append(column).append(", JSON_ARRAY()), '$', ?)");
+        }
+    }
 
-                setClause.append("`").append(entry.getKey()).append("` = `")
-                        .append(entry.getKey()).append("` + ?");
-                parameters.add(entry.getValue());
+    /**
+     * Compiles the keyset condition that only matches the rows sorted after a
+     * given sort key, expanded as
+     * {@code (a > ?) OR (a = ? AND b > ?) OR ...} so fields can be sorted in
+     * different directions. Values are resolved by field name.
+     *
+     * <p>
+     * Sort values may be NULL, which both dialects sort first in ascending
+     * order and last in descending order. Equality is null-safe, and every
+     * comparison has an {@code IS NULL} branch, so the statement has the same
+     * shape whether the sort key holds NULLs or not.
+     *
+     * @param sort    The sort fields, mapped to 1 for ascending or -1 for
+     *                descending
+     * @param sqlite  Whether to compile for SQLite rather than MySQL
+     * @param escaper Quotes a column name for the dialect
+     * @return The compiled condition
+     */
+    static CompiledClause compileSeek(Map<String, Integer> sort, boolean sqlite, UnaryOperator<String> escaper) {
+        StringBuilder seekClause = new StringBuilder("(");
+        List<ValueSource> sources = new ArrayList<>();
+        List<String> fields = new ArrayList<>(sort.keySet());
+
+        for (int i = 0; i < fields.size(); i++) {
+            if (i > 0) {
+                seekClause.append(" OR ");
+            }
 
-                first = false;
+            seekClause.append("(");
+            for (int j = 0; j < i; j++) {
+                String previous = fields.get(j);
+                seekClause.append(escaper.apply(previous)).append(sqlite ? " IS ? AND " : " <=> ? AND ");
+                sources.add(root -> root.get(previous));
             }
-        }
 
-        // Handle $push operations (for JSON arrays in SQL)
-        if (updateOps.containsKey("$push")) {
-            @SuppressWarnings("unchecked")
-            Map<String, Object> pushOps = (Map<String, Object>) updateOps.get("$push");
+            // After a NULL key when ascending, every non-NULL value; after a
+            // non-NULL key when descending, also every NULL
+            String field = fields.get(i);
+            String column = escaper.apply(field);
+            if (sort.get(field) < 0) {
+                seekClause.append("(").append(column).append(" < ? OR (? IS NOT NULL AND ").append(column)
+                        .append(" IS NULL)))");
+            } else {
+                seekClause.append("(").append(column).append(" > ? OR (? IS NULL AND ").append(column)
+                        .append(" IS NOT NULL)))");
+            }
+            sources.add(root -> root.get(field));
+            sources.add(root -> root.get(field));
+        }
 
-            for (Map.Entry<String, Object> entry : pushOps.entrySet()) {
-                if (!first) {
-                    setClause.append(", ");
-                }
+        seekClause.append(")");
+        return new CompiledClause(seekClause.toString(), sources);
+    }
 
-                // Using JSON_ARRAY_APPEND for array operations in SQL
-                setClause.append("`").append(entry.getKey()).append("` = JSON_ARRAY_APPEND(`")
-                        .append(entry.getKey()).append("`, '$', ?)");
-                parameters.add(entry.getValue());
+    /**
+     * Appends the shape of a criteria or update map to a key: every key and
+     * operator in iteration order, the size of lists and the shape of nested
+     * groups, but none of the values. Two maps with the same shape compile to
+     * the same SQL.
+     *
+     * @param map The criteria map of a Find filter or the update operations of
+     *            an Update filter
+     * @param key The key being built
+     */
+    static void shapeOf(Map<String, Object> map, StringBuilder key) {
+        for (Map.Entry<String, Object> entry : map.entrySet()) {
+            key.append(entry.getKey());
+            shapeOfValue(entry.getKey(), entry.getValue(), key);
+            key.append(';');
+        }
+    }
 
-                first = false;
+    @SuppressWarnings("unchecked")
+    private static void shapeOfValue(String key, Object value, StringBuilder shape) {
+        if (value instanceof Map) {
+            shape.append('{');
+            if (key.equals("$not")) {
+                shapeOf((Map<String, Object>) value, shape);
+            } else {
+                for (Map.Entry<String, Object> op : ((Map<String, Object>) value).entrySet()) {
+                    shape.append(op.getKey());
+                    if (op.getValue() instanceof List) {
+                        shape.append('#').append(((List<?>) op.getValue()).size());
+                    }
+                    shape.append(',');
+                }
+            }
+            shape.append('}');
+        } else if (key.equals("$or") || key.equals("$and")) {
+            shape.append('[');
+            for (Map<String, Object> branch : (List<Map<String, Object>>) value) {
+                shape.append('(');
+                shapeOf(branch, shape);
+                shape.append(')');
             }
+            shape.append(']');
         }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static ValueSource operand(String key, String op) {
+        return root -> ((Map<String, Object>) root.get(key)).get(op);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static ValueSource operand(Scope scope, String key, String op) {
+        return root -> ((Map<String, Object>) scope.get(root).get(key)).get(op);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static ValueSource element(Scope scope, String key, String op, int index) {
+        return root -> ((List<Object>) ((Map<String, Object>) scope.get(root).get(key)).get(op)).get(index);
+    }
 
-        return new SQLUpdateResult(setClause.toString(), parameters);
+    /**
+     * Reads a criteria map, either the root one or a group nested in it, from
+     * the root criteria map.
+     */
+    @FunctionalInterface
+    private interface Scope {
+        Map<String, Object> get(Map<String, Object> root);
+    }
+
+    /**
+     * Reads the branches of a group from the root criteria map.
+     */
+    @FunctionalInterface
+    private interface GroupScope {
+        List<Map<String, Object>> get(Map<String, Object> root);
     }
 
     /**
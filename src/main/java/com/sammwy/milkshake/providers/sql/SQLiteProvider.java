@@ -6,12 +6,27 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import org.sqlite.Function;
 
 import com.sammwy.milkshake.ProviderInfo;
-import com.sammwy.milkshake.query.Filter.Update;
 
 public class SQLiteProvider extends SQLProvider {
+    /**
+     * How long a connection waits for a lock held by another pooled connection
+     * before failing with SQLITE_BUSY.
+     */
+    private static final int BUSY_TIMEOUT_MILLIS = 5000;
+
+    /**
+     * SQLITE_MAX_VARIABLE_NUMBER of SQLite 3.32 and later.
+     */
+    private static final int MAX_BIND_PARAMETERS = 32766;
+
     public SQLiteProvider open(File file) {
         ProviderInfo info = new ProviderInfo(null, null, file.getAbsolutePath());
         connect(info);
@@ -28,11 +43,28 @@ public class SQLiteProvider extends SQLProvider {
         return "jdbc:sqlite:" + info.getDatabase();
     }
 
+    @Override
+    protected int getMaxPoolSize(ProviderInfo info) {
+        // Every connection to an in-memory database opens a different database
+        String database = info.getDatabase();
+        if (database == null || database.isEmpty() || database.contains(":memory:")) {
+            return 1;
+        }
+        return super.getMaxPoolSize(info);
+    }
+
     @Override
     protected void setupConnection(Connection connection) throws SQLException {
         try (Statement stmt = connection.createStatement()) {
             stmt.execute("PRAGMA foreign_keys = ON");
+            stmt.execute("PRAGMA busy_timeout = " + BUSY_TIMEOUT_MILLIS);
         }
+        Function.create(connection, "REGEXP", new RegexpFunction());
+    }
+
+    @Override
+    protected int getMaxBindParameters() {
+        return MAX_BIND_PARAMETERS;
     }
 
     @Override
@@ -41,38 +73,23 @@ public class SQLiteProvider extends SQLProvider {
     }
 
     @Override
-    public boolean upsert(String collection, Map<String, Object> data, String primaryKey) {
-        String id = (String) data.get(primaryKey);
-
-        try {
-            // Check if record exists
-            String checkSql = "SELECT 1 FROM " + collection + " WHERE " + primaryKey + " = ?";
-            boolean exists;
-
-            try (PreparedStatement checkStmt = connection.prepareStatement(checkSql)) {
-                checkStmt.setObject(1, id);
-                exists = checkStmt.executeQuery().next();
-            }
-
-            if (exists) {
-                // Update
-                // Find criteria = new Find().eq(idField, idValue);
-                Update update = new Update();
-
-                for (Map.Entry<String, Object> entry : data.entrySet()) {
-                    if (!entry.getKey().equals(primaryKey)) {
-                        update.set(entry.getKey(), entry.getValue());
-                    }
-                }
+    protected String buildUpsertClause(List<String> columns, String primaryKey) {
+        StringBuilder clause = new StringBuilder(" ON CONFLICT(").append(escapeIdentifier(primaryKey)).append(")");
+        boolean first = true;
+        for (String column : columns) {
+            if (column.equals(primaryKey))
+                continue; // Avoid updating the primary key
+
+            clause.append(first ? " DO UPDATE SET " : ", ");
+            String escaped = escapeIdentifier(column);
+            clause.append(escaped).append(" = excluded.").append(escaped);
+            first = false;
+        }
 
-                return updateByID(collection, primaryKey, id, update);
-            } else {
-                // Insert
-                return insert(collection, data);
-            }
-        } catch (SQLException e) {
-            throw new RuntimeException("Failed to upsert data", e);
+        if (first) {
+            clause.append(" DO NOTHING");
         }
+        return clause.toString();
     }
 
     /**
@@ -85,12 +102,26 @@ public class SQLiteProvider extends SQLProvider {
     @Override
     public boolean tableExists(String tableName) throws SQLException {
         String sql = "SELECT name FROM sqlite_master WHERE type='table' AND name=?";
-        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+        return withConnection(connection -> {
+            PreparedStatement stmt = connection.prepare(sql);
             stmt.setString(1, tableName);
             try (ResultSet rs = stmt.executeQuery()) {
                 return rs.next();
             }
+        });
+    }
+
+    @Override
+    protected List<String> fetchIndexNames(PooledConnection connection, String tableName) throws SQLException {
+        PreparedStatement stmt = connection.prepare("SELECT name FROM sqlite_master WHERE type='index' AND tbl_name=?");
+        stmt.setString(1, tableName);
+        List<String> names = new ArrayList<>();
+        try (ResultSet rs = stmt.executeQuery()) {
+            while (rs.next()) {
+                names.add(rs.getString(1));
+            }
         }
+        return names;
     }
 
     @Override
@@ -98,4 +129,39 @@ public class SQLiteProvider extends SQLProvider {
         return true;
     }
 
+    /**
+     * SQLite parses {@code x REGEXP y} but ships no implementation, so the
+     * regex operator of Find filters is backed by java.util.regex. Each
+     * connection has its own instance and is only used by one thread at a
+     * time, so the last compiled pattern is kept without locking.
+     */
+    private static final class RegexpFunction extends Function {
+        private String lastRegex;
+        private Pattern lastPattern;
+
+        @Override
+        protected void xFunc() throws SQLException {
+            if (args() != 2) {
+                throw new SQLException("REGEXP expects 2 arguments");
+            }
+
+            // REGEXP(pattern, value) is called for "value REGEXP pattern"
+            String regex = value_text(0);
+            String value = value_text(1);
+            if (regex == null || value == null) {
+                result();
+                return;
+            }
+
+            if (!regex.equals(lastRegex)) {
+                try {
+                    lastPattern = Pattern.compile(regex);
+                } catch (PatternSyntaxException e) {
+                    throw new SQLException("Invalid regular expression: " + regex, e);
+                }
+                lastRegex = regex;
+            }
+            result(lastPattern.matcher(value).find() ? 1 : 0);
+        }
+    }
 }
\ No newline at end of file
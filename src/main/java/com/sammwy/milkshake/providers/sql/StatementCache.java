@@ -0,0 +1,111 @@
+package com.sammwy.milkshake.providers.sql;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * LRU cache of prepared statements for a single pooled connection, keyed by
+ * the final SQL text.
+ *
+ * <p>
+ * Statements handed out by the cache stay owned by it and must not be closed
+ * by the caller. Statements evicted while the connection is borrowed (or
+ * created while the cache is disabled) are only closed once the connection
+ * goes back to the pool, so a statement is never closed under its user.
+ */
+class StatementCache {
+    private final Connection connection;
+    private final int maxSize;
+    private final Counters counters;
+    private final LinkedHashMap<String, PreparedStatement> statements;
+    private final List<PreparedStatement> pendingClose = new ArrayList<>();
+
+    StatementCache(Connection connection, int maxSize, Counters counters) {
+        this.connection = connection;
+        this.maxSize = maxSize;
+        this.counters = counters;
+        this.statements = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                if (size() > StatementCache.this.maxSize) {
+                    pendingClose.add(eldest.getValue());
+                    counters.evictions.increment();
+                    counters.cached.decrement();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    PreparedStatement prepare(String sql) throws SQLException {
+        if (maxSize <= 0) {
+            PreparedStatement statement = connection.prepareStatement(sql);
+            pendingClose.add(statement);
+            counters.misses.increment();
+            return statement;
+        }
+
+        PreparedStatement statement = statements.get(sql);
+        if (statement != null && !statement.isClosed()) {
+            counters.hits.increment();
+            return statement;
+        }
+
+        counters.misses.increment();
+        statement = connection.prepareStatement(sql);
+        if (statements.put(sql, statement) == null) {
+            counters.cached.increment();
+        }
+        return statement;
+    }
+
+    void invalidate(String sql) {
+        PreparedStatement statement = statements.remove(sql);
+        if (statement != null) {
+            pendingClose.add(statement);
+            counters.cached.decrement();
+        }
+    }
+
+    void closePending() {
+        for (PreparedStatement statement : pendingClose) {
+            closeQuietly(statement);
+        }
+        pendingClose.clear();
+    }
+
+    void closeAll() {
+        closePending();
+        for (PreparedStatement statement : statements.values()) {
+            closeQuietly(statement);
+        }
+        counters.cached.add(-statements.size());
+        statements.clear();
+    }
+
+    private static void closeQuietly(PreparedStatement statement) {
+        try {
+            statement.close();
+        } catch (SQLException e) {
+            // Ignore
+        }
+    }
+
+    /**
+     * Hit/miss counters shared by the caches of every connection of a pool,
+     * with the number of statements they currently hold.
+     */
+    static class Counters {
+        final LongAdder hits = new LongAdder();
+        final LongAdder misses = new LongAdder();
+        final LongAdder evictions = new LongAdder();
+        final LongAdder cached = new LongAdder();
+    }
+}
@@ -0,0 +1,61 @@
+package com.sammwy.milkshake.providers.sql;
+
+/**
+ * Immutable snapshot of the prepared statement caches of a
+ * {@link SQLProvider}.
+ */
+public class StatementCacheStats {
+    private final long hits;
+    private final long misses;
+    private final long evictions;
+    private final int cachedStatements;
+
+    public StatementCacheStats(long hits, long misses, long evictions, int cachedStatements) {
+        this.hits = hits;
+        this.misses = misses;
+        this.evictions = evictions;
+        this.cachedStatements = cachedStatements;
+    }
+
+    /**
+     * @return The number of statements served from the cache
+     */
+    public long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return The number of statements that had to be prepared
+     */
+    public long getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return The number of statements evicted to make room for new ones
+     */
+    public long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * @return The number of statements cached by the connections of the pool
+     */
+    public int getCachedStatements() {
+        return cachedStatements;
+    }
+
+    /**
+     * @return The fraction of lookups served from the cache, between 0 and 1
+     */
+    public double getHitRatio() {
+        long total = hits + misses;
+        return total == 0 ? 0 : hits / (double) total;
+    }
+
+    @Override
+    public String toString() {
+        return "StatementCacheStats{hits=" + hits + ", misses=" + misses + ", evictions=" + evictions
+                + ", cached=" + cachedStatements + ", hitRatio=" + String.format("%.2f", getHitRatio()) + "}";
+    }
+}
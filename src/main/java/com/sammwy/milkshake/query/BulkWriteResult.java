@@ -0,0 +1,204 @@
+package com.sammwy.milkshake.query;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The outcome of every operation of a bulk write, see
+ * {@link com.sammwy.milkshake.Provider#bulkWrite(List, boolean)}.
+ *
+ * <p>
+ * Every operation is either applied, failed, or skipped because an earlier
+ * operation of an ordered bulk write failed. Applied operations report the
+ * number of documents they wrote when the database tells it per operation, and
+ * {@link #UNKNOWN} otherwise (e.g. updates and deletes on MongoDB, which only
+ * reports totals). The totals per kind of write are always available.
+ */
+public class BulkWriteResult {
+    /**
+     * Count of an operation whose number of written documents was not
+     * reported.
+     */
+    public static final int UNKNOWN = -1;
+
+    /**
+     * What happened to an operation.
+     */
+    public enum Status {
+        APPLIED,
+        FAILED,
+        SKIPPED
+    }
+
+    private final List<WriteOperation> operations;
+    private final Status[] statuses;
+    private final int[] counts;
+    private final Throwable[] errors;
+    private final int[] totals = new int[WriteOperation.Type.values().length];
+
+    /**
+     * Creates a result where every operation is skipped until recorded
+     * otherwise.
+     *
+     * @param operations The operations of the bulk write
+     */
+    public BulkWriteResult(List<WriteOperation> operations) {
+        this.operations = operations;
+        this.statuses = new Status[operations.size()];
+        this.counts = new int[operations.size()];
+        this.errors = new Throwable[operations.size()];
+        Arrays.fill(statuses, Status.SKIPPED);
+        Arrays.fill(counts, UNKNOWN);
+    }
+
+    /**
+     * Records an applied operation, adding its count to the totals.
+     *
+     * @param index The index of the operation
+     * @param count The number of documents written, or {@link #UNKNOWN}
+     */
+    public void recordApplied(int index, int count) {
+        statuses[index] = Status.APPLIED;
+        counts[index] = count;
+        errors[index] = null;
+        if (count > 0) {
+            totals[operations.get(index).getType().ordinal()] += count;
+        }
+    }
+
+    /**
+     * Records a failed operation.
+     *
+     * @param index The index of the operation
+     * @param cause The error reported for it
+     */
+    public void recordFailure(int index, Throwable cause) {
+        statuses[index] = Status.FAILED;
+        counts[index] = UNKNOWN;
+        errors[index] = cause;
+    }
+
+    /**
+     * Adds documents to the totals, for providers that only report totals for
+     * some kinds of write.
+     *
+     * @param type  The kind of write
+     * @param count The number of documents written
+     */
+    public void addCount(WriteOperation.Type type, int count) {
+        totals[type.ordinal()] += count;
+    }
+
+    /**
+     * @return The number of operations
+     */
+    public int size() {
+        return operations.size();
+    }
+
+    /**
+     * @param index The index of the operation
+     * @return The operation
+     */
+    public WriteOperation getOperation(int index) {
+        return operations.get(index);
+    }
+
+    /**
+     * @param index The index of the operation
+     * @return What happened to the operation
+     */
+    public Status getStatus(int index) {
+        return statuses[index];
+    }
+
+    /**
+     * @param index The index of the operation
+     * @return The number of documents written by the operation, or
+     *         {@link #UNKNOWN} if it was not applied or not reported
+     */
+    public int getCount(int index) {
+        return counts[index];
+    }
+
+    /**
+     * @param index The index of the operation
+     * @return The error of a failed operation, null otherwise
+     */
+    public Throwable getError(int index) {
+        return errors[index];
+    }
+
+    /**
+     * @return The indexes of the failed operations, in order
+     */
+    public List<Integer> getFailedIndexes() {
+        List<Integer> failed = new ArrayList<>();
+        for (int i = 0; i < statuses.length; i++) {
+            if (statuses[i] == Status.FAILED) {
+                failed.add(i);
+            }
+        }
+        return Collections.unmodifiableList(failed);
+    }
+
+    /**
+     * @return true if every operation was applied
+     */
+    public boolean isSuccessful() {
+        for (Status status : statuses) {
+            if (status != Status.APPLIED) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return The number of documents inserted
+     */
+    public int getInsertedCount() {
+        return totals[WriteOperation.Type.INSERT.ordinal()];
+    }
+
+    /**
+     * @return The number of documents inserted or replaced by upserts
+     */
+    public int getUpsertedCount() {
+        return totals[WriteOperation.Type.UPSERT.ordinal()];
+    }
+
+    /**
+     * @return The number of documents matched by updates
+     */
+    public int getUpdatedCount() {
+        return totals[WriteOperation.Type.UPDATE.ordinal()] + totals[WriteOperation.Type.UPDATE_ONE.ordinal()];
+    }
+
+    /**
+     * @return The number of documents deleted
+     */
+    public int getDeletedCount() {
+        return totals[WriteOperation.Type.DELETE.ordinal()] + totals[WriteOperation.Type.DELETE_ONE.ordinal()];
+    }
+
+    /**
+     * @return The number of documents written by every kind of write
+     */
+    public int getWrittenCount() {
+        int count = 0;
+        for (int total : totals) {
+            count += total;
+        }
+        return count;
+    }
+
+    @Override
+    public String toString() {
+        return "BulkWriteResult{operations=" + operations.size() + ", inserted=" + getInsertedCount()
+                + ", upserted=" + getUpsertedCount() + ", updated=" + getUpdatedCount() + ", deleted="
+                + getDeletedCount() + ", failed=" + getFailedIndexes() + "}";
+    }
+}
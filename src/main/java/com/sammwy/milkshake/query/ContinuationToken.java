@@ -0,0 +1,107 @@
+package com.sammwy.milkshake.query;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * Encodes the sort key of the last result of a page into an opaque, URL safe
+ * token, keeping the type of every value so it binds the same way when the
+ * next page is requested.
+ */
+public final class ContinuationToken {
+    private ContinuationToken() {
+    }
+
+    /**
+     * Encodes a sort key into a token.
+     *
+     * @param values The sort field values
+     * @return The encoded token
+     */
+    public static String encode(List<Object> values) {
+        StringBuilder raw = new StringBuilder();
+        for (Object value : values) {
+            char type;
+            String text;
+            if (value == null) {
+                type = 'z';
+                text = "";
+            } else if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+                type = 'i';
+                text = value.toString();
+            } else if (value instanceof Long) {
+                type = 'l';
+                text = value.toString();
+            } else if (value instanceof Double || value instanceof Float) {
+                type = 'd';
+                text = value.toString();
+            } else if (value instanceof Boolean) {
+                type = 'b';
+                text = value.toString();
+            } else {
+                type = 's';
+                text = value.toString();
+            }
+            raw.append(type).append(text.length()).append(':').append(text);
+        }
+
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString(raw.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Decodes a token created by {@link #encode(List)}.
+     *
+     * @param token The token
+     * @return The sort field values
+     * @throws IllegalArgumentException if the token is malformed
+     */
+    public static List<Object> decode(String token) {
+        String raw;
+        try {
+            raw = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Malformed continuation token", e);
+        }
+
+        List<Object> values = new ArrayList<>();
+        int index = 0;
+        try {
+            while (index < raw.length()) {
+                char type = raw.charAt(index++);
+                int separator = raw.indexOf(':', index);
+                int length = Integer.parseInt(raw.substring(index, separator));
+                String text = raw.substring(separator + 1, separator + 1 + length);
+                index = separator + 1 + length;
+
+                switch (type) {
+                    case 'z':
+                        values.add(null);
+                        break;
+                    case 'i':
+                        values.add(Integer.parseInt(text));
+                        break;
+                    case 'l':
+                        values.add(Long.parseLong(text));
+                        break;
+                    case 'd':
+                        values.add(Double.parseDouble(text));
+                        break;
+                    case 'b':
+                        values.add(Boolean.parseBoolean(text));
+                        break;
+                    case 's':
+                        values.add(text);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Malformed continuation token");
+                }
+            }
+        } catch (IndexOutOfBoundsException | NumberFormatException e) {
+            throw new IllegalArgumentException("Malformed continuation token", e);
+        }
+        return values;
+    }
+}
@@ -1,8 +1,16 @@
 package com.sammwy.milkshake.query;
 
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * Base class for constructing query filters used in database operations.
@@ -16,15 +24,27 @@ public abstract class Filter {
      * Supports various comparison operators for building complex queries.
      */
     public static class Find extends Filter {
+        private Set<String> projection;
+        private Map<String, Integer> sort = new LinkedHashMap<>();
+        private int limit;
+        private int skip;
+        private List<Object> after;
 
         /**
-         * Adds an equality condition to the filter.
+         * Adds an equality condition to the filter. Matching a field against
+         * null is written as {@link #isNull(String)} instead.
          * 
          * @param field The field name to compare
          * @param value The value to match exactly
          * @return The current Find instance for method chaining
          */
         public Find eq(String field, Object value) {
+            if (value == null) {
+                return isNull(field);
+            }
+            if (isOperators(criteria.get(field))) {
+                return condition(field, "$eq", value);
+            }
             criteria.put(field, value);
             return this;
         }
@@ -37,10 +57,7 @@ public abstract class Filter {
          * @return The current Find instance for method chaining
          */
         public Find ne(String field, Object value) {
-            Map<String, Object> condition = new HashMap<>();
-            condition.put("$ne", value);
-            criteria.put(field, condition);
-            return this;
+            return condition(field, "$ne", value);
         }
 
         /**
@@ -51,10 +68,18 @@ public abstract class Filter {
          * @return The current Find instance for method chaining
          */
         public Find gt(String field, Object value) {
-            Map<String, Object> condition = new HashMap<>();
-            condition.put("$gt", value);
-            criteria.put(field, condition);
-            return this;
+            return condition(field, "$gt", value);
+        }
+
+        /**
+         * Adds a greater-than-or-equal condition to the filter.
+         * 
+         * @param field The field name to compare
+         * @param value The lowest value the field may have
+         * @return The current Find instance for method chaining
+         */
+        public Find gte(String field, Object value) {
+            return condition(field, "$gte", value);
         }
 
         /**
@@ -65,10 +90,31 @@ public abstract class Filter {
          * @return The current Find instance for method chaining
          */
         public Find lt(String field, Object value) {
-            Map<String, Object> condition = new HashMap<>();
-            condition.put("$lt", value);
-            criteria.put(field, condition);
-            return this;
+            return condition(field, "$lt", value);
+        }
+
+        /**
+         * Adds a less-than-or-equal condition to the filter.
+         * 
+         * @param field The field name to compare
+         * @param value The highest value the field may have
+         * @return The current Find instance for method chaining
+         */
+        public Find lte(String field, Object value) {
+            return condition(field, "$lte", value);
+        }
+
+        /**
+         * Adds an inclusive range condition to the filter, equivalent to
+         * {@code gte(field, low).lte(field, high)}.
+         * 
+         * @param field The field name to compare
+         * @param low   The lowest value the field may have
+         * @param high  The highest value the field may have
+         * @return The current Find instance for method chaining
+         */
+        public Find between(String field, Object low, Object high) {
+            return gte(field, low).lte(field, high);
         }
 
         /**
@@ -79,12 +125,232 @@ public abstract class Filter {
          * @return The current Find instance for method chaining
          */
         public Find in(String field, List<?> values) {
-            Map<String, Object> condition = new HashMap<>();
-            condition.put("$in", values);
-            criteria.put(field, condition);
+            return condition(field, "$in", values);
+        }
+
+        /**
+         * Adds a not-in-array condition to the filter.
+         * 
+         * @param field  The field name to compare
+         * @param values List of values that the field should not match
+         * @return The current Find instance for method chaining
+         */
+        public Find nin(String field, List<?> values) {
+            return condition(field, "$nin", values);
+        }
+
+        /**
+         * Adds a pattern condition to the filter, using the SQL LIKE syntax:
+         * {@code %} matches any sequence of characters, {@code _} matches a
+         * single character and {@code !} escapes the next character. Whether
+         * the match is case sensitive depends on the database.
+         * 
+         * @param field   The field name to compare
+         * @param pattern The pattern the field should match
+         * @return The current Find instance for method chaining
+         */
+        public Find like(String field, String pattern) {
+            return condition(field, "$like", pattern);
+        }
+
+        /**
+         * Adds a prefix condition to the filter. Unlike a regular expression,
+         * a prefix can be answered from an index on the field.
+         * 
+         * @param field  The field name to compare
+         * @param prefix The text the field should start with
+         * @return The current Find instance for method chaining
+         */
+        public Find startsWith(String field, String prefix) {
+            StringBuilder pattern = new StringBuilder(prefix.length() + 1);
+            for (int i = 0; i < prefix.length(); i++) {
+                char c = prefix.charAt(i);
+                if (c == '%' || c == '_' || c == '!') {
+                    pattern.append('!');
+                }
+                pattern.append(c);
+            }
+            return like(field, pattern.append('%').toString());
+        }
+
+        /**
+         * Adds a regular expression condition to the filter. The expression is
+         * not anchored, so it matches anywhere in the field unless it starts
+         * with {@code ^} or ends with {@code $}.
+         * 
+         * @param field   The field name to compare
+         * @param pattern The regular expression the field should match
+         * @return The current Find instance for method chaining
+         */
+        public Find regex(String field, String pattern) {
+            return condition(field, "$regex", pattern);
+        }
+
+        /**
+         * Only matches the documents where a field has a non-null value.
+         * 
+         * @param field The field name to check
+         * @return The current Find instance for method chaining
+         */
+        public Find exists(String field) {
+            return condition(field, "$exists", true);
+        }
+
+        /**
+         * Only matches the documents where a field is null or missing.
+         * 
+         * @param field The field name to check
+         * @return The current Find instance for method chaining
+         */
+        public Find isNull(String field) {
+            return condition(field, "$isNull", true);
+        }
+
+        /**
+         * Adds a group that matches if any of the given filters match. Only the
+         * conditions of the filters are used, not their sort, limit or
+         * projection.
+         * 
+         * @param filters The alternative conditions
+         * @return The current Find instance for method chaining
+         */
+        public Find or(Find... filters) {
+            return group("$or", criteriaOf(filters));
+        }
+
+        /**
+         * Adds a group that matches if all of the given filters match. The
+         * conditions of a filter are already combined with AND, so this is
+         * mostly useful inside {@link #or(Find...)} and {@link #not(Find)}.
+         * 
+         * @param filters The conditions
+         * @return The current Find instance for method chaining
+         */
+        @SuppressWarnings("unchecked")
+        public Find and(Find... filters) {
+            List<Map<String, Object>> groups = (List<Map<String, Object>>) criteria.computeIfAbsent("$and",
+                    key -> new ArrayList<>());
+            groups.addAll(criteriaOf(filters));
+            return this;
+        }
+
+        /**
+         * Adds a group that matches if the given filter does not match.
+         * 
+         * @param filter The conditions to negate
+         * @return The current Find instance for method chaining
+         */
+        public Find not(Find filter) {
+            return group("$not", copyCriteria(filter.criteria));
+        }
+
+        /**
+         * Restricts the fields returned by the query. Fields that are not
+         * selected are left at their default values when mapped back to a
+         * schema. Calling this method again adds to the selection.
+         * 
+         * @param fields The field names to return
+         * @return The current Find instance for method chaining
+         */
+        public Find select(String... fields) {
+            if (projection == null) {
+                projection = new LinkedHashSet<>();
+            }
+            projection.addAll(Arrays.asList(fields));
+            return this;
+        }
+
+        /**
+         * Sorts the results by a field in ascending order. Sort fields are
+         * applied in the order they are added.
+         * 
+         * @param field The field name to sort by
+         * @return The current Find instance for method chaining
+         */
+        public Find sortAsc(String field) {
+            sort.put(field, 1);
+            return this;
+        }
+
+        /**
+         * Sorts the results by a field in descending order. Sort fields are
+         * applied in the order they are added.
+         * 
+         * @param field The field name to sort by
+         * @return The current Find instance for method chaining
+         */
+        public Find sortDesc(String field) {
+            sort.put(field, -1);
+            return this;
+        }
+
+        /**
+         * Limits the number of returned results.
+         * 
+         * @param limit The maximum number of results, or 0 for no limit
+         * @return The current Find instance for method chaining
+         */
+        public Find limit(int limit) {
+            if (limit < 0) {
+                throw new IllegalArgumentException("Limit cannot be negative");
+            }
+            this.limit = limit;
             return this;
         }
 
+        /**
+         * Skips the first results. Prefer {@link #after(List)} to page through
+         * large result sets, as skipped rows still have to be scanned by the
+         * database.
+         * 
+         * @param skip The number of results to skip
+         * @return The current Find instance for method chaining
+         */
+        public Find skip(int skip) {
+            if (skip < 0) {
+                throw new IllegalArgumentException("Skip cannot be negative");
+            }
+            this.skip = skip;
+            return this;
+        }
+
+        /**
+         * Only returns the results that come after the given sort key, in the
+         * order defined by the sort fields (keyset pagination). The values must
+         * match the sort fields one to one and should not be null.
+         * 
+         * @param values The sort field values of the last seen result
+         * @return The current Find instance for method chaining
+         */
+        public Find after(List<Object> values) {
+            if (values != null && sort.isEmpty()) {
+                throw new IllegalStateException("Sort fields must be set before seeking after a sort key");
+            }
+            if (values != null && values.size() != sort.size()) {
+                throw new IllegalArgumentException(
+                        "Expected " + sort.size() + " sort key values but got " + values.size());
+            }
+            this.after = values != null ? new ArrayList<>(values) : null;
+            return this;
+        }
+
+        /**
+         * Creates a copy of this filter that can be modified without affecting
+         * the original one.
+         * 
+         * @return A new Find instance with the same conditions and options
+         */
+        public Find copy() {
+            Find copy = new Find();
+            copy.criteria.putAll(copyCriteria(criteria));
+            copy.projection = projection != null ? new LinkedHashSet<>(projection) : null;
+            copy.sort.putAll(sort);
+            copy.limit = limit;
+            copy.skip = skip;
+            copy.after = after != null ? new ArrayList<>(after) : null;
+            return copy;
+        }
+
         /**
          * Gets the built criteria map for the query.
          * 
@@ -93,6 +359,122 @@ public abstract class Filter {
         public Map<String, Object> getCriteria() {
             return criteria;
         }
+
+        /**
+         * Gets the sort fields of the query.
+         * 
+         * @return The sort fields in order, mapped to 1 for ascending or -1 for
+         *         descending
+         */
+        public Map<String, Integer> getSort() {
+            return Collections.unmodifiableMap(sort);
+        }
+
+        /**
+         * @return The maximum number of results, or 0 for no limit
+         */
+        public int getLimit() {
+            return limit;
+        }
+
+        /**
+         * @return The number of results to skip
+         */
+        public int getSkip() {
+            return skip;
+        }
+
+        /**
+         * Gets the sort key set with {@link #after(List)}.
+         * 
+         * @return The sort field values to seek after, or null
+         */
+        public List<Object> getAfter() {
+            return after != null ? Collections.unmodifiableList(after) : null;
+        }
+
+        /**
+         * Gets the fields selected with {@link #select(String...)}.
+         * 
+         * @return The selected field names in selection order, or null if every
+         *         field is returned
+         */
+        public Set<String> getProjection() {
+            return projection != null ? Collections.unmodifiableSet(projection) : null;
+        }
+
+        private Find condition(String field, String op, Object value) {
+            Object existing = criteria.get(field);
+            Map<String, Object> condition;
+            if (isOperators(existing)) {
+                @SuppressWarnings("unchecked")
+                Map<String, Object> operators = (Map<String, Object>) existing;
+                condition = operators;
+            } else {
+                condition = new LinkedHashMap<>();
+                if (criteria.containsKey(field)) {
+                    condition.put("$eq", existing); // Keep a previous eq()
+                }
+                criteria.put(field, condition);
+            }
+            condition.put(op, value);
+            return this;
+        }
+
+        private Find group(String op, Object value) {
+            if (criteria.containsKey(op)) {
+                // A second group of the same kind is nested in $and
+                return and(new Find().group(op, value));
+            }
+            criteria.put(op, value);
+            return this;
+        }
+
+        private static boolean isOperators(Object value) {
+            if (!(value instanceof Map) || ((Map<?, ?>) value).isEmpty()) {
+                return false;
+            }
+            for (Object key : ((Map<?, ?>) value).keySet()) {
+                if (!(key instanceof String) || !((String) key).startsWith("$")) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static List<Map<String, Object>> criteriaOf(Find[] filters) {
+            List<Map<String, Object>> list = new ArrayList<>(filters.length);
+            for (Find filter : filters) {
+                list.add(copyCriteria(filter.criteria));
+            }
+            return list;
+        }
+
+        /**
+         * Copies a criteria map along with its operator maps and groups, so the
+         * copy can be modified without affecting the original.
+         */
+        @SuppressWarnings("unchecked")
+        private static Map<String, Object> copyCriteria(Map<String, Object> criteria) {
+            Map<String, Object> copy = new LinkedHashMap<>(criteria.size() * 4 / 3 + 1);
+            for (Map.Entry<String, Object> entry : criteria.entrySet()) {
+                String key = entry.getKey();
+                Object value = entry.getValue();
+                if (key.equals("$or") || key.equals("$and")) {
+                    List<Map<String, Object>> groups = new ArrayList<>();
+                    for (Map<String, Object> group : (List<Map<String, Object>>) value) {
+                        groups.add(copyCriteria(group));
+                    }
+                    value = groups;
+                } else if (key.equals("$not")) {
+                    value = copyCriteria((Map<String, Object>) value);
+                } else if (isOperators(value)) {
+                    value = new LinkedHashMap<>((Map<String, Object>) value);
+                }
+                copy.put(key, value);
+            }
+            return copy;
+        }
     }
 
     /**
@@ -100,6 +482,12 @@ public abstract class Filter {
      * Supports various update operators for modifying documents.
      */
     public static class Update extends Filter {
+        /**
+         * Format of the UTC time written by {@link #currentDate(String)}.
+         */
+        public static final DateTimeFormatter CURRENT_DATE_FORMAT = DateTimeFormatter
+                .ofPattern("yyyy-MM-dd HH:mm:ss.SSS").withZone(ZoneOffset.UTC);
+
         private Map<String, Object> updateOperations = new HashMap<>();
 
         /**
@@ -147,6 +535,88 @@ public abstract class Filter {
             return this;
         }
 
+        /**
+         * Multiplies a numeric field's value by the specified factor.
+         * 
+         * @param field The numeric field to multiply
+         * @param value The factor
+         * @return The current Update instance for method chaining
+         */
+        public Update mul(String field, Number value) {
+            return operation("$mul", field, value);
+        }
+
+        /**
+         * Sets a field to the given value only if it is lower than the current
+         * value, or if the field has no value yet.
+         * 
+         * @param field The field to update
+         * @param value The candidate value
+         * @return The current Update instance for method chaining
+         */
+        public Update min(String field, Object value) {
+            return operation("$min", field, value);
+        }
+
+        /**
+         * Sets a field to the given value only if it is greater than the
+         * current value, or if the field has no value yet.
+         * 
+         * @param field The field to update
+         * @param value The candidate value
+         * @return The current Update instance for method chaining
+         */
+        public Update max(String field, Object value) {
+            return operation("$max", field, value);
+        }
+
+        /**
+         * Removes a field. SQL databases set the column to NULL.
+         * 
+         * @param field The field to remove
+         * @return The current Update instance for method chaining
+         */
+        public Update unset(String field) {
+            return operation("$unset", field, "");
+        }
+
+        /**
+         * Sets a field to the current UTC time, written on every provider as a
+         * {@code yyyy-MM-dd HH:mm:ss.SSS} text (see
+         * {@link #CURRENT_DATE_FORMAT}), so it maps to a String field. SQL
+         * databases and MongoDB take the time from the database server, the
+         * embedded providers from the application clock.
+         * 
+         * @param field The field to update
+         * @return The current Update instance for method chaining
+         */
+        public Update currentDate(String field) {
+            return operation("$currentDate", field, true);
+        }
+
+        /**
+         * Removes every occurrence of a value from an array field.
+         * 
+         * @param field The array field to modify
+         * @param value The value to remove
+         * @return The current Update instance for method chaining
+         */
+        public Update pull(String field, Object value) {
+            return operation("$pull", field, value);
+        }
+
+        /**
+         * Appends a value to an array field unless the array already contains
+         * it.
+         * 
+         * @param field The array field to modify
+         * @param value The value to add
+         * @return The current Update instance for method chaining
+         */
+        public Update addToSet(String field, Object value) {
+            return operation("$addToSet", field, value);
+        }
+
         /**
          * Gets the criteria map for selecting documents to update.
          * 
@@ -164,5 +634,13 @@ public abstract class Filter {
         public Map<String, Object> getUpdateOperations() {
             return updateOperations;
         }
+
+        @SuppressWarnings("unchecked")
+        private Update operation(String op, String field, Object value) {
+            Map<String, Object> fields = (Map<String, Object>) updateOperations.computeIfAbsent(op,
+                    key -> new HashMap<>());
+            fields.put(field, value);
+            return this;
+        }
     }
 }
\ No newline at end of file
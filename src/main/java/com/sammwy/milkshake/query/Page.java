@@ -0,0 +1,43 @@
+package com.sammwy.milkshake.query;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A page of results returned by keyset pagination, along with the token used
+ * to fetch the next page.
+ *
+ * @param <T> The type of the results
+ */
+public class Page<T> {
+    private final List<T> items;
+    private final String continuationToken;
+
+    public Page(List<T> items, String continuationToken) {
+        this.items = Collections.unmodifiableList(items);
+        this.continuationToken = continuationToken;
+    }
+
+    /**
+     * @return The results of this page
+     */
+    public List<T> getItems() {
+        return items;
+    }
+
+    /**
+     * Gets the token to pass to the next page request.
+     *
+     * @return The continuation token, or null if this is the last page
+     */
+    public String getContinuationToken() {
+        return continuationToken;
+    }
+
+    /**
+     * @return true if there may be more results after this page
+     */
+    public boolean hasNext() {
+        return continuationToken != null;
+    }
+}
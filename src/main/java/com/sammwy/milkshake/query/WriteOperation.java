@@ -0,0 +1,150 @@
+package com.sammwy.milkshake.query;
+
+import java.util.Map;
+
+/**
+ * A single write applied as part of a batch, see
+ * {@link com.sammwy.milkshake.Provider#bulkWrite(java.util.List)}.
+ */
+public class WriteOperation {
+    /**
+     * The kind of write.
+     */
+    public enum Type {
+        INSERT,
+        UPSERT,
+        UPDATE,
+        UPDATE_ONE,
+        DELETE,
+        DELETE_ONE
+    }
+
+    private final Type type;
+    private final String collection;
+    private final Map<String, Object> document;
+    private final String primaryKey;
+    private final Filter.Find criteria;
+    private final Filter.Update update;
+
+    private WriteOperation(Type type, String collection, Map<String, Object> document, String primaryKey,
+            Filter.Find criteria, Filter.Update update) {
+        this.type = type;
+        this.collection = collection;
+        this.document = document;
+        this.primaryKey = primaryKey;
+        this.criteria = criteria;
+        this.update = update;
+    }
+
+    /**
+     * Inserts a document.
+     *
+     * @param collection The collection name
+     * @param document   The document to insert
+     * @return The operation
+     */
+    public static WriteOperation insert(String collection, Map<String, Object> document) {
+        return new WriteOperation(Type.INSERT, collection, document, null, null, null);
+    }
+
+    /**
+     * Inserts a document, or replaces the fields of the one with the same
+     * primary key.
+     *
+     * @param collection The collection name
+     * @param document   The document to insert or update
+     * @param primaryKey The name of the primary key field
+     * @return The operation
+     */
+    public static WriteOperation upsert(String collection, Map<String, Object> document, String primaryKey) {
+        return new WriteOperation(Type.UPSERT, collection, document, primaryKey, null, null);
+    }
+
+    /**
+     * Updates every document matching a filter.
+     *
+     * @param collection The collection name
+     * @param criteria   The filter
+     * @param update     The update operations
+     * @return The operation
+     */
+    public static WriteOperation update(String collection, Filter.Find criteria, Filter.Update update) {
+        return new WriteOperation(Type.UPDATE, collection, null, null, criteria, update);
+    }
+
+    /**
+     * Updates the first document matching a filter.
+     *
+     * @param collection The collection name
+     * @param criteria   The filter
+     * @param update     The update operations
+     * @return The operation
+     */
+    public static WriteOperation updateOne(String collection, Filter.Find criteria, Filter.Update update) {
+        return new WriteOperation(Type.UPDATE_ONE, collection, null, null, criteria, update);
+    }
+
+    /**
+     * Deletes every document matching a filter.
+     *
+     * @param collection The collection name
+     * @param criteria   The filter
+     * @return The operation
+     */
+    public static WriteOperation delete(String collection, Filter.Find criteria) {
+        return new WriteOperation(Type.DELETE, collection, null, null, criteria, null);
+    }
+
+    /**
+     * Deletes the first document matching a filter.
+     *
+     * @param collection The collection name
+     * @param criteria   The filter
+     * @return The operation
+     */
+    public static WriteOperation deleteOne(String collection, Filter.Find criteria) {
+        return new WriteOperation(Type.DELETE_ONE, collection, null, null, criteria, null);
+    }
+
+    /**
+     * @return The kind of write
+     */
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * @return The collection name
+     */
+    public String getCollection() {
+        return collection;
+    }
+
+    /**
+     * @return The document of an insert or upsert, null otherwise
+     */
+    public Map<String, Object> getDocument() {
+        return document;
+    }
+
+    /**
+     * @return The primary key of an upsert, null otherwise
+     */
+    public String getPrimaryKey() {
+        return primaryKey;
+    }
+
+    /**
+     * @return The filter of an update or delete, null otherwise
+     */
+    public Filter.Find getCriteria() {
+        return criteria;
+    }
+
+    /**
+     * @return The update operations of an update, null otherwise
+     */
+    public Filter.Update getUpdate() {
+        return update;
+    }
+}
@@ -0,0 +1,22 @@
+package com.sammwy.milkshake.schema;
+
+import com.sammwy.milkshake.annotations.ID;
+
+/**
+ * Generates the identifiers of new documents. Implementations are selected
+ * with {@link ID#generator()}, must have a public no-args constructor and
+ * must be thread safe, as a single instance is shared by every schema using
+ * it.
+ *
+ * @see UUIDv7Generator
+ * @see RandomUUIDGenerator
+ */
+@FunctionalInterface
+public interface IdGenerator {
+    /**
+     * Generates a new unique identifier.
+     *
+     * @return The identifier
+     */
+    String generate();
+}
@@ -0,0 +1,104 @@
+package com.sammwy.milkshake.schema;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import com.sammwy.milkshake.annotations.ID;
+import com.sammwy.milkshake.annotations.Index;
+import com.sammwy.milkshake.annotations.Prop;
+
+/**
+ * An index declared on a schema with the {@link Index} annotation.
+ */
+public class IndexDefinition {
+    private final String name;
+    private final List<String> fields;
+    private final boolean unique;
+
+    public IndexDefinition(String name, List<String> fields, boolean unique) {
+        this.name = name;
+        this.fields = Collections.unmodifiableList(new ArrayList<>(fields));
+        this.unique = unique;
+    }
+
+    /**
+     * @return The index name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return The indexed field names, in order
+     */
+    public List<String> getFields() {
+        return fields;
+    }
+
+    /**
+     * @return true if the indexed values must be unique
+     */
+    public boolean isUnique() {
+        return unique;
+    }
+
+    /**
+     * Collects the indexes declared on a schema class and its fields.
+     * 
+     * @param schemaClass The schema class
+     * @param collection  The collection or table name, used to derive index
+     *                    names that are unique across the database
+     * @return The declared indexes
+     * @throws IllegalArgumentException if a class level index has no fields
+     */
+    public static List<IndexDefinition> of(Class<? extends Schema> schemaClass, String collection) {
+        List<IndexDefinition> indexes = new ArrayList<>();
+
+        for (Index index : schemaClass.getAnnotationsByType(Index.class)) {
+            if (index.fields().length == 0) {
+                throw new IllegalArgumentException(
+                        "@Index on " + schemaClass.getName() + " must declare its fields");
+            }
+            indexes.add(create(index, collection, Arrays.asList(index.fields())));
+        }
+
+        for (Field field : schemaClass.getDeclaredFields()) {
+            for (Index index : field.getAnnotationsByType(Index.class)) {
+                List<String> fields = new ArrayList<>();
+                fields.add(getKeyNameOf(field));
+                fields.addAll(Arrays.asList(index.fields()));
+                indexes.add(create(index, collection, fields));
+            }
+        }
+
+        return indexes;
+    }
+
+    private static IndexDefinition create(Index index, String collection, List<String> fields) {
+        String name = index.name();
+        if (name.isEmpty()) {
+            name = (index.unique() ? "uidx_" : "idx_") + collection + "_" + String.join("_", fields);
+        }
+        return new IndexDefinition(name, fields, index.unique());
+    }
+
+    private static String getKeyNameOf(Field field) {
+        Prop prop = field.getAnnotation(Prop.class);
+        if (prop != null && !prop.name().isEmpty()) {
+            return prop.name();
+        }
+
+        if (field.isAnnotationPresent(ID.class)) {
+            return Schema.getIdKeyNameOf(field);
+        }
+        return field.getName();
+    }
+
+    @Override
+    public String toString() {
+        return "IndexDefinition{name=" + name + ", fields=" + fields + ", unique=" + unique + "}";
+    }
+}
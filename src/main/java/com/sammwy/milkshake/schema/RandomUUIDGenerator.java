@@ -0,0 +1,14 @@
+package com.sammwy.milkshake.schema;
+
+import java.util.UUID;
+
+/**
+ * Generates random UUIDs (version 4), the identifiers used before time ordered
+ * identifiers became the default.
+ */
+public class RandomUUIDGenerator implements IdGenerator {
+    @Override
+    public String generate() {
+        return UUID.randomUUID().toString();
+    }
+}
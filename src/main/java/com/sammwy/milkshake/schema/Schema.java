@@ -1,13 +1,18 @@
 package com.sammwy.milkshake.schema;
 
 import java.lang.reflect.Field;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.UUID;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
 
 import com.sammwy.milkshake.Repository;
 import com.sammwy.milkshake.RepositoryCache;
 import com.sammwy.milkshake.annotations.ID;
+import com.sammwy.milkshake.codec.SchemaCodec;
+import com.sammwy.milkshake.codec.SchemaCodecs;
 
 /**
  * Abstract base class for all database schema definitions.
@@ -30,33 +35,39 @@ import com.sammwy.milkshake.annotations.ID;
  * @see ReflectionUtils
  */
 public abstract class Schema {
+    private static final Map<Class<? extends IdGenerator>, IdGenerator> GENERATORS = new ConcurrentHashMap<>();
+
     private Map<String, Object> cachedFields = new HashMap<>();
+    private volatile Map<String, Object> snapshot;
+    private volatile Object[] loadedValues;
     private Repository<? extends Schema> repository;
-    private Field idField;
+    private final SchemaMetadata metadata;
 
     /**
-     * Constructs a new Schema instance with a randomly generated UUID.
+     * Constructs a new Schema instance. The identifier is generated lazily by
+     * the generator of its {@link ID} annotation the first time it is read.
      */
     public Schema() {
-        Field idField = Schema.getIdFieldOf(this.getClass());
-        if (idField != null) {
-            this.idField = idField;
-            this.setId(UUID.randomUUID().toString());
-        }
+        this.metadata = SchemaMetadata.of(this.getClass());
     }
 
     /**
-     * Gets the unique identifier of this document.
+     * Gets the unique identifier of this document, generating it if it has not
+     * been assigned yet.
      * 
      * @return The document ID string
      */
     public String getId() {
-        try {
-            return this.idField != null ? (String) this.idField.get(this) : null;
-        } catch (IllegalArgumentException | IllegalAccessException e) {
-            e.printStackTrace();
+        if (!this.metadata.hasId()) {
             return null;
         }
+
+        String id = this.metadata.getId(this);
+        if (id == null) {
+            id = this.metadata.getIdGenerator().generate();
+            this.metadata.setId(this, id);
+        }
+        return id;
     }
 
     /**
@@ -65,11 +76,16 @@ public abstract class Schema {
      * @param id The new ID to assign to this document
      */
     public void setId(String id) {
-        try {
-            this.idField.set(this, id);
-        } catch (IllegalArgumentException | IllegalAccessException e) {
-            e.printStackTrace();
-        }
+        this.metadata.setId(this, id);
+    }
+
+    /**
+     * Gets the metadata of this document's Schema class.
+     * 
+     * @return The schema metadata
+     */
+    public SchemaMetadata getMetadata() {
+        return this.metadata;
     }
 
     /**
@@ -93,12 +109,105 @@ public abstract class Schema {
     }
 
     /**
-     * Saves this document to the database (inserts or updates if exists).
+     * Saves this document to the database. Documents loaded from the database
+     * only write the fields changed since they were loaded or last saved, and
+     * skip the write entirely if nothing changed; new documents are upserted
+     * whole.
      * 
      * @return true if the operation was successful, false otherwise
+     * @see #getChanges()
      */
     public boolean save() {
-        return this.getDefaultRepository().upsert(this);
+        return this.getDefaultRepository().save(this);
+    }
+
+    /**
+     * Records the persisted state of this document, against which later
+     * changes are detected. Called when the document is loaded or written.
+     */
+    public void markClean() {
+        markClean(this.toMap());
+    }
+
+    /**
+     * Records the persisted state of this document from its map
+     * representation.
+     * 
+     * @param document The result of {@link #toMap()} for the current state
+     */
+    public void markClean(Map<String, Object> document) {
+        this.snapshot = copyDocument(document);
+        this.loadedValues = null;
+    }
+
+    /**
+     * Records the persisted state of a document that was just loaded, or
+     * written without going through {@link #toMap()}. When its schema has a
+     * generated codec, only the loaded field values are kept and they are
+     * encoded the first time changes are looked up, so entities that are only
+     * read are never encoded. Other documents are snapshotted right away with
+     * {@link #markClean()}.
+     */
+    public void markLoaded() {
+        Object[] values = SchemaCodecs.get(this.getClass()) != null ? this.metadata.captureValues(this) : null;
+        if (values == null) {
+            markClean();
+            return;
+        }
+
+        this.snapshot = null;
+        this.loadedValues = values;
+    }
+
+    /**
+     * Gets the fields changed since this document was loaded or last saved.
+     * Removed fields are reported with a null value.
+     * 
+     * @return The changed fields and their new values, or null if the document
+     *         was never loaded nor saved and must be written whole
+     */
+    public Map<String, Object> getChanges() {
+        Map<String, Object> snapshot = this.snapshot;
+        if (snapshot == null) {
+            Object[] loadedValues = this.loadedValues;
+            if (loadedValues == null) {
+                return null;
+            }
+
+            // Encode the loaded state from a copy, the entity may have changed since
+            Schema loaded = this.metadata.newInstance();
+            this.metadata.restoreValues(loaded, loadedValues);
+            loaded.repository = this.repository;
+            snapshot = loaded.toMap();
+            this.snapshot = snapshot;
+            this.loadedValues = null;
+        }
+
+        Map<String, Object> current = this.toMap();
+        Map<String, Object> changes = new HashMap<>();
+        for (Map.Entry<String, Object> entry : current.entrySet()) {
+            Object previous = snapshot.get(entry.getKey());
+            if (!Objects.deepEquals(previous, entry.getValue())
+                    || (previous == null && !snapshot.containsKey(entry.getKey()))) {
+                changes.put(entry.getKey(), entry.getValue());
+            }
+        }
+        for (String key : snapshot.keySet()) {
+            if (!current.containsKey(key)) {
+                changes.put(key, null);
+            }
+        }
+        return changes;
+    }
+
+    /**
+     * Checks whether this document changed since it was loaded or last saved.
+     * 
+     * @return true if saving it would write something
+     */
+    public boolean isDirty() {
+        Map<String, Object> changes = this.getChanges();
+        return changes == null || !changes.isEmpty();
     }
 
     /**
@@ -116,7 +225,14 @@ public abstract class Schema {
      * 
      * @return A Map containing all persistent fields and their values
      */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
     public Map<String, Object> toMap() {
+        this.getId(); // Make sure the identifier is generated
+
+        SchemaCodec codec = SchemaCodecs.get(this.getClass());
+        if (codec != null) {
+            return codec.encode(this);
+        }
         return this.getRepository().getProvider().getSerializer().serialize(this);
     }
 
@@ -129,8 +245,55 @@ public abstract class Schema {
      * @return A new Schema instance populated with the provided data
      */
     public static <T extends Schema> T fromMap(Class<T> schemaClass, Map<String, Object> data) {
-        return (T) RepositoryCache.get(schemaClass).getProvider().getSerializer()
-                .deserialize(schemaClass, data);
+        SchemaCodec<T> codec = SchemaCodecs.get(schemaClass);
+        T entity;
+        if (codec != null) {
+            entity = codec.decode(data);
+        } else {
+            entity = (T) RepositoryCache.get(schemaClass).getProvider().getSerializer()
+                    .deserialize(schemaClass, data);
+        }
+        entity.markLoaded();
+        return entity;
+    }
+
+    /**
+     * Copies a document, including its nested lists, maps and byte arrays, so
+     * the copy shares no mutable state with the original.
+     * 
+     * @param document The document
+     * @return The copy
+     */
+    public static Map<String, Object> copyDocument(Map<String, Object> document) {
+        Map<String, Object> copy = new HashMap<>(document.size() * 4 / 3 + 1);
+        for (Map.Entry<String, Object> entry : document.entrySet()) {
+            copy.put(entry.getKey(), copyValue(entry.getValue()));
+        }
+        return copy;
+    }
+
+    /**
+     * Copies a document value, including nested lists, maps and byte arrays.
+     * Other values are returned as is.
+     * 
+     * @param value The value
+     * @return The copy
+     */
+    @SuppressWarnings("unchecked")
+    public static Object copyValue(Object value) {
+        if (value instanceof Map) {
+            return copyDocument((Map<String, Object>) value);
+        } else if (value instanceof List) {
+            List<Object> list = (List<Object>) value;
+            List<Object> copy = new ArrayList<>(list.size());
+            for (Object item : list) {
+                copy.add(copyValue(item));
+            }
+            return copy;
+        } else if (value instanceof byte[]) {
+            return ((byte[]) value).clone();
+        }
+        return value;
     }
 
     /**
@@ -171,6 +334,23 @@ public abstract class Schema {
         return null;
     }
 
+    /**
+     * Gets the shared generator instance declared by an ID field.
+     * 
+     * @param field The ID field
+     * @return The ID generator
+     */
+    public static IdGenerator getIdGeneratorOf(Field field) {
+        Class<? extends IdGenerator> type = field.getAnnotation(ID.class).generator();
+        return GENERATORS.computeIfAbsent(type, key -> {
+            try {
+                return key.getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException e) {
+                throw new RuntimeException("Failed to create ID generator " + key.getName(), e);
+            }
+        });
+    }
+
     /**
      * Gets the name of the ID field
      * 
@@ -0,0 +1,346 @@
+package com.sammwy.milkshake.schema;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.VarHandle;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.sammwy.milkshake.annotations.Embedded;
+import com.sammwy.milkshake.annotations.ID;
+import com.sammwy.milkshake.annotations.Prop;
+import com.sammwy.milkshake.annotations.SchemaType;
+
+/**
+ * Immutable description of a Schema class: its collection name, identifier,
+ * persistent properties and embedded fields, with method handle accessors so
+ * entities can be read and written without reflection.
+ *
+ * <p>
+ * Metadata is built once per class, the first time it is requested (usually
+ * when its repository is added to a provider), and shared afterwards.
+ *
+ * @see Schema
+ */
+public final class SchemaMetadata {
+    private static final ClassValue<SchemaMetadata> CACHE = new ClassValue<>() {
+        @Override
+        @SuppressWarnings("unchecked")
+        protected SchemaMetadata computeValue(Class<?> type) {
+            return new SchemaMetadata((Class<? extends Schema>) type);
+        }
+    };
+
+    private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+    private static final MethodType SETTER_TYPE = MethodType.methodType(void.class, Object.class, Object.class);
+    private static final MethodType CONSTRUCTOR_TYPE = MethodType.methodType(Object.class);
+
+    private final Class<? extends Schema> schemaClass;
+    private final String collectionName;
+    private final String primaryKey;
+    private final VarHandle idHandle;
+    private final IdGenerator idGenerator;
+    private final List<Property> properties;
+    private final List<Property> embedded;
+    private final List<IndexDefinition> indexes;
+    private final MethodHandle constructor;
+
+    private SchemaMetadata(Class<? extends Schema> schemaClass) {
+        this.schemaClass = schemaClass;
+        this.collectionName = resolveCollectionName(schemaClass);
+
+        MethodHandles.Lookup lookup;
+        try {
+            lookup = MethodHandles.privateLookupIn(schemaClass, MethodHandles.lookup());
+        } catch (IllegalAccessException e) {
+            throw new RuntimeException("Cannot access schema class " + schemaClass.getName(), e);
+        }
+
+        Field idField = Schema.getIdFieldOf(schemaClass);
+        List<Property> properties = new ArrayList<>();
+        List<Property> embedded = new ArrayList<>();
+
+        try {
+            for (Field field : schemaClass.getDeclaredFields()) {
+                if (Modifier.isStatic(field.getModifiers())) {
+                    continue;
+                }
+
+                Prop prop = field.getAnnotation(Prop.class);
+                Embedded embed = field.getAnnotation(Embedded.class);
+                if (prop != null) {
+                    String key = prop.name().isEmpty() ? field.getName() : prop.name();
+                    properties.add(new Property(key, field, lookup));
+                } else if (embed != null) {
+                    String key = embed.prefix().isEmpty() ? field.getName() : embed.prefix();
+                    embedded.add(new Property(key, field, lookup));
+                }
+            }
+
+            if (idField != null) {
+                this.primaryKey = Schema.getIdKeyNameOf(idField);
+                this.idHandle = lookup.unreflectVarHandle(idField);
+                this.idGenerator = Schema.getIdGeneratorOf(idField);
+            } else {
+                this.primaryKey = null;
+                this.idHandle = null;
+                this.idGenerator = null;
+            }
+
+            MethodHandle constructor;
+            try {
+                constructor = lookup.findConstructor(schemaClass, MethodType.methodType(void.class))
+                        .asType(CONSTRUCTOR_TYPE);
+            } catch (NoSuchMethodException e) {
+                constructor = null; // Only needed to create default instances
+            }
+            this.constructor = constructor;
+        } catch (IllegalAccessException e) {
+            throw new RuntimeException("Cannot access fields of schema " + schemaClass.getName(), e);
+        }
+
+        this.properties = Collections.unmodifiableList(properties);
+        this.embedded = Collections.unmodifiableList(embedded);
+        this.indexes = Collections.unmodifiableList(IndexDefinition.of(schemaClass, collectionName));
+    }
+
+    /**
+     * Gets the metadata of a Schema class, building it on first use.
+     *
+     * @param schemaClass The Schema class
+     * @return The shared metadata instance
+     */
+    public static SchemaMetadata of(Class<? extends Schema> schemaClass) {
+        return CACHE.get(schemaClass);
+    }
+
+    /**
+     * @return The Schema class described by this metadata
+     */
+    public Class<? extends Schema> getSchemaClass() {
+        return schemaClass;
+    }
+
+    /**
+     * @return The collection or table name
+     */
+    public String getCollectionName() {
+        return collectionName;
+    }
+
+    /**
+     * @return The name of the identifier field in the database, or null if the
+     *         schema has no {@link ID} field
+     */
+    public String getPrimaryKey() {
+        return primaryKey;
+    }
+
+    /**
+     * @return true if the schema has an {@link ID} field
+     */
+    public boolean hasId() {
+        return idHandle != null;
+    }
+
+    /**
+     * @return The generator of new identifiers, or null if the schema has no
+     *         {@link ID} field
+     */
+    public IdGenerator getIdGenerator() {
+        return idGenerator;
+    }
+
+    /**
+     * @return The persistent properties, in declaration order
+     */
+    public List<Property> getProperties() {
+        return properties;
+    }
+
+    /**
+     * @return The embedded fields, in declaration order
+     */
+    public List<Property> getEmbedded() {
+        return embedded;
+    }
+
+    /**
+     * @return The indexes declared on the schema
+     */
+    public List<IndexDefinition> getIndexes() {
+        return indexes;
+    }
+
+    /**
+     * Reads the raw identifier of an entity, without generating it.
+     *
+     * @param entity The entity
+     * @return The identifier, or null if not assigned
+     */
+    public String getId(Schema entity) {
+        return (String) idHandle.get(entity);
+    }
+
+    /**
+     * Writes the identifier of an entity.
+     *
+     * @param entity The entity
+     * @param id     The identifier
+     */
+    public void setId(Schema entity, String id) {
+        idHandle.set(entity, id);
+    }
+
+    /**
+     * Copies the identifier and property values of an entity, to be restored
+     * on a new instance with {@link #restoreValues(Schema, Object[])}. Byte
+     * arrays are cloned and other values kept as is, so the properties must
+     * hold immutable values.
+     *
+     * @param entity The entity
+     * @return The values, or null if the schema has embedded or final fields
+     *         or no no-args constructor
+     */
+    public Object[] captureValues(Schema entity) {
+        if (constructor == null || !embedded.isEmpty()) {
+            return null;
+        }
+
+        Object[] values = new Object[properties.size() + 1];
+        values[0] = idHandle != null ? idHandle.get(entity) : null;
+        for (int i = 0; i < properties.size(); i++) {
+            Property property = properties.get(i);
+            if (property.setter == null) {
+                return null;
+            }
+            Object value = property.get(entity);
+            values[i + 1] = value instanceof byte[] ? ((byte[]) value).clone() : value;
+        }
+        return values;
+    }
+
+    /**
+     * Writes values returned by {@link #captureValues(Schema)} to an entity.
+     *
+     * @param entity The entity
+     * @param values The captured values
+     */
+    public void restoreValues(Schema entity, Object[] values) {
+        if (idHandle != null) {
+            idHandle.set(entity, values[0]);
+        }
+        for (int i = 0; i < properties.size(); i++) {
+            properties.get(i).set(entity, values[i + 1]);
+        }
+    }
+
+    /**
+     * Creates a new instance of the schema with its default values.
+     *
+     * @return The new instance
+     * @throws RuntimeException if the schema has no accessible no-args
+     *                          constructor
+     */
+    public Schema newInstance() {
+        if (constructor == null) {
+            throw new RuntimeException("Schema " + schemaClass.getName() + " has no no-args constructor");
+        }
+
+        try {
+            return (Schema) (Object) constructor.invokeExact();
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new RuntimeException("Failed to create instance of " + schemaClass.getName(), e);
+        }
+    }
+
+    private static String resolveCollectionName(Class<? extends Schema> schemaClass) {
+        SchemaType schemaType = schemaClass.getAnnotation(SchemaType.class);
+        if (schemaType != null && schemaType.value() != null && !schemaType.value().isEmpty()) {
+            return schemaType.value();
+        }
+        return schemaClass.getSimpleName();
+    }
+
+    /**
+     * A persistent field of a schema with its database name and accessors.
+     */
+    public static final class Property {
+        private final String name;
+        private final Field field;
+        private final MethodHandle getter;
+        private final MethodHandle setter;
+
+        Property(String name, Field field, MethodHandles.Lookup lookup) throws IllegalAccessException {
+            this.name = name;
+            this.field = field;
+            this.getter = lookup.unreflectGetter(field).asType(GETTER_TYPE);
+            this.setter = Modifier.isFinal(field.getModifiers()) ? null
+                    : lookup.unreflectSetter(field).asType(SETTER_TYPE);
+        }
+
+        /**
+         * @return The name of the field in the database
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return The Java field
+         */
+        public Field getField() {
+            return field;
+        }
+
+        /**
+         * @return The declared type of the Java field
+         */
+        public Class<?> getType() {
+            return field.getType();
+        }
+
+        /**
+         * Reads the value of this property, boxing primitives.
+         *
+         * @param entity The entity to read from
+         * @return The value
+         */
+        public Object get(Object entity) {
+            try {
+                return (Object) getter.invokeExact(entity);
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new RuntimeException("Failed to read field " + field.getName(), e);
+            }
+        }
+
+        /**
+         * Writes the value of this property, unboxing primitives.
+         *
+         * @param entity The entity to write to
+         * @param value  The new value
+         * @throws UnsupportedOperationException if the field is final
+         */
+        public void set(Object entity, Object value) {
+            if (setter == null) {
+                throw new UnsupportedOperationException("Field " + field.getName() + " is final");
+            }
+
+            try {
+                setter.invokeExact(entity, value);
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new RuntimeException("Failed to write field " + field.getName(), e);
+            }
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package com.sammwy.milkshake.schema;
+
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Generates time ordered UUIDs (version 7): a 48-bit millisecond timestamp
+ * followed by a 12-bit sequence and 62 random bits.
+ *
+ * <p>
+ * Identifiers generated by the same process are strictly increasing, even
+ * within the same millisecond, so new rows are appended to the end of the
+ * primary key B-tree instead of being scattered across it. The random part
+ * uses {@link ThreadLocalRandom}, which does not contend like
+ * {@link UUID#randomUUID()}.
+ */
+public class UUIDv7Generator implements IdGenerator {
+    private static final int SEQUENCE_BITS = 12;
+    private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+
+    /**
+     * The timestamp of the last identifier shifted left by the sequence bits,
+     * plus its sequence.
+     */
+    private final AtomicLong state = new AtomicLong();
+
+    @Override
+    public String generate() {
+        long now = System.currentTimeMillis() << SEQUENCE_BITS;
+        long current;
+        long next;
+        do {
+            current = state.get();
+            // A sequence overflow borrows the next millisecond
+            next = Math.max(current + 1, now);
+        } while (!state.compareAndSet(current, next));
+
+        long timestamp = next >>> SEQUENCE_BITS;
+        long mostSigBits = (timestamp << 16) | 0x7000L | (next & SEQUENCE_MASK);
+        long leastSigBits = (ThreadLocalRandom.current().nextLong() & 0x3FFFFFFFFFFFFFFFL) | 0x8000000000000000L;
+        return new UUID(mostSigBits, leastSigBits).toString();
+    }
+}
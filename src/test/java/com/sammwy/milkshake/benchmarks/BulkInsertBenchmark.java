@@ -0,0 +1,105 @@
+package com.sammwy.milkshake.benchmarks;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import com.sammwy.milkshake.ProviderInfo;
+import com.sammwy.milkshake.ProviderInfo.Options;
+import com.sammwy.milkshake.providers.sql.MySQLProvider;
+import com.sammwy.milkshake.providers.sql.SQLProvider;
+import com.sammwy.milkshake.providers.sql.SQLiteProvider;
+import com.sammwy.milkshake.query.Filter;
+import com.sammwy.milkshake.schemas.UserSchema;
+
+/**
+ * Compares the JDBC batch insert path with the multi-row VALUES path.
+ *
+ * <p>
+ * Run with {@code ./gradlew benchmark}. MySQL is only benchmarked when the
+ * {@code milkshake.benchmark.mysql} system property holds a connection URI.
+ */
+@Tag("benchmark")
+public class BulkInsertBenchmark {
+    private static final int[] ROW_COUNTS = { 10_000, 1_000_000 };
+
+    @Test
+    public void benchmarkSQLite() {
+        for (int rows : ROW_COUNTS) {
+            long batch = run(sqlite(false), rows);
+            long multiRow = run(sqlite(true), rows);
+            report("SQLite", rows, batch, multiRow);
+        }
+    }
+
+    @Test
+    public void benchmarkMySQL() {
+        String uri = System.getProperty("milkshake.benchmark.mysql");
+        if (uri == null) {
+            System.out.println("Skipping MySQL benchmark, milkshake.benchmark.mysql is not set.");
+            return;
+        }
+
+        for (int rows : ROW_COUNTS) {
+            long batch = run(mysql(uri, false), rows);
+            long multiRow = run(mysql(uri, true), rows);
+            report("MySQL", rows, batch, multiRow);
+        }
+    }
+
+    private static SQLProvider sqlite(boolean multiRow) {
+        File file = new File("benchmark.db");
+        file.delete();
+
+        SQLiteProvider provider = new SQLiteProvider();
+        ProviderInfo info = new ProviderInfo(null, null, file.getAbsolutePath());
+        info.option(Options.MULTI_ROW_INSERT, multiRow);
+        provider.connect(info);
+        return provider;
+    }
+
+    private static SQLProvider mysql(String uri, boolean multiRow) {
+        MySQLProvider provider = new MySQLProvider();
+        ProviderInfo info = new ProviderInfo(uri);
+        info.option(Options.MULTI_ROW_INSERT, multiRow);
+        provider.connect(info);
+        return provider;
+    }
+
+    private static long run(SQLProvider provider, int rows) {
+        provider.initialize(UserSchema.class, "_id");
+        provider.delete("Users", new Filter.Find());
+
+        List<Map<String, Object>> data = new ArrayList<>(rows);
+        for (int i = 0; i < rows; i++) {
+            Map<String, Object> row = new HashMap<>();
+            row.put("_id", UUID.randomUUID().toString());
+            row.put("username", "user" + i);
+            row.put("age", i % 100);
+            data.add(row);
+        }
+
+        long start = System.nanoTime();
+        int inserted = provider.insertMany("Users", data);
+        long elapsed = System.nanoTime() - start;
+
+        assertEquals(rows, inserted, "Every row should be inserted");
+        provider.delete("Users", new Filter.Find());
+        provider.close();
+        return elapsed;
+    }
+
+    private static void report(String engine, int rows, long batchNanos, long multiRowNanos) {
+        System.out.printf("%s %,d rows: addBatch %,d ms, multi-row VALUES %,d ms (%.2fx)%n",
+                engine, rows, batchNanos / 1_000_000, multiRowNanos / 1_000_000,
+                batchNanos / (double) multiRowNanos);
+    }
+}
@@ -0,0 +1,40 @@
+package com.sammwy.milkshake.schemas;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sammwy.milkshake.annotations.ID;
+import com.sammwy.milkshake.annotations.Index;
+import com.sammwy.milkshake.annotations.Prop;
+import com.sammwy.milkshake.annotations.SchemaType;
+import com.sammwy.milkshake.schema.Schema;
+
+@SchemaType("Tracked")
+public class TrackedSchema extends Schema {
+    /**
+     * Number of times an instance was converted to its map form.
+     */
+    public static final AtomicInteger ENCODED = new AtomicInteger();
+
+    @ID
+    public String id;
+    @Prop
+    @Index(unique = true)
+    public String name = "";
+    @Prop
+    public int count;
+
+    public TrackedSchema() {
+    }
+
+    public TrackedSchema(String name, int count) {
+        this.name = name;
+        this.count = count;
+    }
+
+    @Override
+    public Map<String, Object> toMap() {
+        ENCODED.incrementAndGet();
+        return super.toMap();
+    }
+}
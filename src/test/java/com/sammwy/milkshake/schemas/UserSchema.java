@@ -1,6 +1,7 @@
 package com.sammwy.milkshake.schemas;
 
 import com.sammwy.milkshake.annotations.ID;
+import com.sammwy.milkshake.annotations.Index;
 import com.sammwy.milkshake.annotations.Prop;
 import com.sammwy.milkshake.annotations.SchemaType;
 import com.sammwy.milkshake.schema.Schema;
@@ -10,6 +11,7 @@ public class UserSchema extends Schema {
     @ID
     public String id;
     @Prop
+    @Index
     public String username = "";
     @Prop
     public int age;
@@ -0,0 +1,324 @@
+package com.sammwy.milkshake.tests;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.MethodOrderer;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestMethodOrder;
+
+import com.sammwy.milkshake.ProviderInfo;
+import com.sammwy.milkshake.ProviderInfo.Options;
+import com.sammwy.milkshake.Repository;
+import com.sammwy.milkshake.providers.log.LogProvider;
+import com.sammwy.milkshake.query.BulkWriteResult;
+import com.sammwy.milkshake.query.Filter;
+import com.sammwy.milkshake.schemas.EmbeddedObject;
+import com.sammwy.milkshake.schemas.EmbeddedSchema;
+import com.sammwy.milkshake.schemas.UserSchema;
+
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+public class LogTests {
+    private static Path directory;
+    private static LogProvider provider;
+    private static Repository<UserSchema> repository;
+    private static String id;
+
+    private static Repository<EmbeddedSchema> embeddedRepository;
+
+    @BeforeAll
+    public static void setup() throws IOException {
+        System.out.println("Setting up LogProvider...");
+        directory = Files.createTempDirectory("milkshake-log");
+        reopen();
+    }
+
+    @AfterAll
+    public static void clearDB() throws IOException {
+        provider.close();
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                Files.delete(file);
+            }
+        }
+        System.out.println("Cleared test collection.");
+    }
+
+    /**
+     * Closes the provider if open and opens the log again, replaying it.
+     */
+    private static void reopen() {
+        if (provider != null) {
+            provider.close();
+        }
+
+        ProviderInfo info = new ProviderInfo(null, null, directory.toString());
+        info.option(Options.LOG_SEGMENT_SIZE, 16 * 1024);
+        info.option(Options.LOG_COMPACTION_INTERVAL, 0);
+        provider = new LogProvider();
+        provider.connect(info);
+        repository = provider.addRepository(UserSchema.class);
+        embeddedRepository = provider.addRepository(EmbeddedSchema.class);
+    }
+
+    private static List<Path> segments() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(file -> file.toString().endsWith(".log")).sorted().collect(Collectors.toList());
+        }
+    }
+
+    @Test
+    @Order(1)
+    public void testCreate() {
+        UserSchema user = new UserSchema();
+        user.username = "sammwy";
+        user.age = 23;
+
+        boolean saved = user.save();
+        id = user.getId();
+
+        assertTrue(saved, "User should be saved");
+        assertNotNull(id, "Saved user should have an ID");
+    }
+
+    @Test
+    @Order(2)
+    public void testRead() {
+        UserSchema user = repository.findById(id);
+        assertNotNull(user, "User should be found by ID");
+        assertEquals("sammwy", user.username);
+        assertEquals(23, user.age);
+    }
+
+    @Test
+    @Order(3)
+    public void testUpdate() {
+        UserSchema user = repository.findById(id);
+        assertNotNull(user, "User must exist before update");
+
+        user.age = 30;
+        boolean updated = user.save();
+
+        assertTrue(updated, "User update should succeed");
+
+        UserSchema updatedUser = repository.findById(id);
+        assertNotNull(updatedUser);
+        assertEquals(30, updatedUser.age);
+    }
+
+    @Test
+    @Order(4)
+    public void testDelete() {
+        UserSchema user = repository.findById(id);
+        assertNotNull(user);
+
+        boolean deleted = user.delete();
+        assertTrue(deleted, "User should be deleted");
+
+        UserSchema deletedUser = repository.findById(id);
+        assertNull(deletedUser, "User should not be found after deletion");
+    }
+
+    @Test
+    @Order(5)
+    public void testFindByQuery() {
+        UserSchema user = new UserSchema();
+        user.username = "queryTest";
+        user.age = 25;
+        user.save();
+
+        List<UserSchema> results = repository.find(new Filter.Find().eq("username", "queryTest"));
+        assertFalse(results.isEmpty(), "Should find at least one user with username 'queryTest'");
+
+        for (UserSchema u : results) {
+            u.delete(); // Clean up
+        }
+    }
+
+    @Test
+    @Order(6)
+    public void testEmbedded() {
+        EmbeddedSchema entity = new EmbeddedSchema();
+        entity.single = "Hello World";
+        entity.embedded = new EmbeddedObject();
+        entity.embedded.child = "Child";
+        entity.embedded.foo = 12345;
+        entity.embedded.hello = true;
+
+        boolean saved = entity.save();
+        assertTrue(saved, "Entity should be saved");
+
+        EmbeddedSchema result = embeddedRepository.findById(entity.getId());
+        assertNotNull(result, "Entity should be found by ID");
+
+        assertEquals(entity.single, result.single, "Single field should match");
+        assertEquals(entity.embedded.child, result.embedded.child, "Child field should match");
+        assertEquals(entity.embedded.foo, result.embedded.foo, "Foo field  should match");
+        assertEquals(entity.embedded.hello, result.embedded.hello, "Hello field should match");
+    }
+
+    @Test
+    @Order(7)
+    public void testRecovery() {
+        List<UserSchema> users = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            users.add(new UserSchema("recovered", i));
+        }
+        repository.insertMany(users);
+        repository.updateByID(users.get(0).getId(), new Filter.Update().set("age", 100));
+        repository.deleteByID(users.get(1).getId());
+
+        reopen();
+        assertEquals(9, repository.count(new Filter.Find().eq("username", "recovered")),
+                "Replaying the log must restore every write");
+        assertEquals(100, repository.findById(users.get(0).getId()).age);
+        assertNull(repository.findById(users.get(1).getId()));
+        assertEquals(List.of(100, 9, 8), repository.find(new Filter.Find().eq("username", "recovered")
+                .sortDesc("age").limit(3)).stream().map(user -> user.age).collect(Collectors.toList()));
+
+        repository.delete(new Filter.Find().eq("username", "recovered"));
+    }
+
+    @Test
+    @Order(8)
+    public void testTornWrite() throws IOException {
+        UserSchema kept = new UserSchema("torn", 1);
+        UserSchema torn = new UserSchema("torn", 2);
+        repository.insert(kept);
+        repository.insert(torn);
+        provider.close();
+
+        // Corrupt the last frame, as a crash in the middle of the write would
+        List<Path> segments = segments();
+        try (RandomAccessFile file = new RandomAccessFile(segments.get(segments.size() - 1).toFile(), "rw")) {
+            long position = file.length() - 1;
+            file.seek(position);
+            while (position > 0 && file.read() == 0) {
+                file.seek(--position);
+            }
+            file.seek(position);
+            int value = file.read();
+            file.seek(position);
+            file.write(value ^ 0xFF);
+        }
+
+        provider = null;
+        reopen();
+        assertNotNull(repository.findById(kept.getId()));
+        assertNull(repository.findById(torn.getId()), "A torn frame must be dropped");
+
+        UserSchema after = new UserSchema("torn", 3);
+        repository.insert(after);
+        reopen();
+        assertNotNull(repository.findById(after.getId()), "Writes must go on after a torn frame");
+        assertEquals(2, repository.delete(new Filter.Find().eq("username", "torn")));
+    }
+
+    @Test
+    @Order(9)
+    public void testCompaction() throws IOException {
+        UserSchema user = new UserSchema("compacted", 0);
+        repository.insert(user);
+        UserSchema other = new UserSchema("compacted", -1);
+        repository.insert(other);
+        for (int i = 1; i <= 2000; i++) {
+            repository.updateByID(user.getId(), new Filter.Update().set("age", i));
+        }
+        repository.deleteByID(other.getId());
+
+        int before = segments().size();
+        assertTrue(before > 2, "Updates must fill several segments");
+        assertTrue(provider.compact() > 0);
+        assertTrue(segments().size() < before, "Compacted segments must be deleted");
+        assertEquals(2000, repository.findById(user.getId()).age);
+        assertNull(repository.findById(other.getId()));
+
+        reopen();
+        assertEquals(2000, repository.findById(user.getId()).age, "Compacted documents must be recovered");
+        assertNull(repository.findById(other.getId()), "Deleted documents must stay deleted");
+        assertEquals(1, repository.delete(new Filter.Find().eq("username", "compacted")));
+    }
+
+    @Test
+    @Order(10)
+    public void testOperators() {
+        List<UserSchema> users = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            users.add(new UserSchema("ops_" + i, i));
+        }
+        repository.insertMany(users);
+
+        String primaryKey = repository.getPrimaryKey();
+        Filter.Find ops = new Filter.Find().startsWith("username", "ops_");
+        assertEquals(4, repository.count(ops.copy().between("age", 2, 5)));
+        List<String> ids = List.of(users.get(3).getId(), users.get(7).getId());
+        assertEquals(2, repository.count(ops.copy().in(primaryKey, ids)));
+        assertEquals(1, repository.count(ops.copy().eq(primaryKey, users.get(3).getId()).gt("age", 2)));
+
+        repository.update(ops.copy().lt("age", 5), new Filter.Update().inc("age", 10));
+        assertEquals(List.of(14, 13), repository.find(ops.copy().sortDesc("age").limit(2)).stream()
+                .map(user -> user.age).collect(Collectors.toList()));
+
+        assertEquals(10, repository.delete(ops));
+    }
+
+    @Test
+    @Order(11)
+    public void testBulkWrite() {
+        UserSchema first = new UserSchema("bulk", 1);
+        UserSchema duplicate = new UserSchema("bulk", 2);
+        duplicate.id = first.getId();
+        UserSchema last = new UserSchema("bulk", 3);
+
+        BulkWriteResult ordered = repository.bulkWrite()
+                .insert(first)
+                .insert(duplicate)
+                .insert(last)
+                .execute();
+        assertFalse(ordered.isSuccessful());
+        assertEquals(BulkWriteResult.Status.APPLIED, ordered.getStatus(0));
+        assertEquals(BulkWriteResult.Status.FAILED, ordered.getStatus(1));
+        assertEquals(BulkWriteResult.Status.SKIPPED, ordered.getStatus(2), "Ordered writes stop at a failure");
+        assertEquals(1, repository.count(new Filter.Find().eq("username", "bulk")));
+
+        UserSchema other = new UserSchema("bulk", 4);
+        BulkWriteResult unordered = repository.bulkWrite()
+                .ordered(false)
+                .insert(duplicate)
+                .insert(last)
+                .updateByID(first.getId(), new Filter.Update().set("age", 10))
+                .insert(other)
+                .update(new Filter.Find().eq("username", "bulk").between("age", 3, 4),
+                        new Filter.Update().inc("age", 100))
+                .deleteByID("missing")
+                .execute();
+        assertEquals(List.of(0), unordered.getFailedIndexes(), "Unordered writes go on after a failure");
+        assertEquals(10, repository.findById(first.getId()).age);
+        assertEquals(103, repository.findById(last.getId()).age);
+        assertEquals(104, repository.findById(other.getId()).age);
+
+        List<UserSchema> atomic = List.of(new UserSchema("bulk", 5), duplicate);
+        assertThrows(RuntimeException.class, () -> repository.insertMany(atomic));
+        assertEquals(3, repository.count(new Filter.Find().eq("username", "bulk")),
+                "A failed write must not write anything");
+
+        assertEquals(3, repository.delete(new Filter.Find().eq("username", "bulk")));
+    }
+}
@@ -0,0 +1,318 @@
+package com.sammwy.milkshake.tests;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.MethodOrderer;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestMethodOrder;
+
+import com.sammwy.milkshake.Repository;
+import com.sammwy.milkshake.providers.memory.MemoryProvider;
+import com.sammwy.milkshake.query.BulkWriteResult;
+import com.sammwy.milkshake.query.Filter;
+import com.sammwy.milkshake.schemas.EmbeddedObject;
+import com.sammwy.milkshake.schemas.EmbeddedSchema;
+import com.sammwy.milkshake.schemas.UserSchema;
+
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+public class MemoryTests {
+    private static MemoryProvider provider;
+    private static Repository<UserSchema> repository;
+    private static String id;
+
+    private static Repository<EmbeddedSchema> embeddedRepository;
+
+    @BeforeAll
+    public static void setup() {
+        System.out.println("Setting up MemoryProvider...");
+        provider = new MemoryProvider();
+        repository = provider.addRepository(UserSchema.class);
+        embeddedRepository = provider.addRepository(EmbeddedSchema.class);
+    }
+
+    @AfterAll
+    public static void clearDB() {
+        provider.clear();
+        System.out.println("Cleared test collection.");
+    }
+
+    @Test
+    @Order(1)
+    public void testCreate() {
+        UserSchema user = new UserSchema();
+        user.username = "sammwy";
+        user.age = 23;
+
+        boolean saved = user.save();
+        id = user.getId();
+
+        assertTrue(saved, "User should be saved");
+        assertNotNull(id, "Saved user should have an ID");
+    }
+
+    @Test
+    @Order(2)
+    public void testRead() {
+        UserSchema user = repository.findById(id);
+        assertNotNull(user, "User should be found by ID");
+        assertEquals("sammwy", user.username);
+        assertEquals(23, user.age);
+    }
+
+    @Test
+    @Order(3)
+    public void testUpdate() {
+        UserSchema user = repository.findById(id);
+        assertNotNull(user, "User must exist before update");
+
+        user.age = 30;
+        boolean updated = user.save();
+
+        assertTrue(updated, "User update should succeed");
+
+        UserSchema updatedUser = repository.findById(id);
+        assertNotNull(updatedUser);
+        assertEquals(30, updatedUser.age);
+    }
+
+    @Test
+    @Order(4)
+    public void testDelete() {
+        UserSchema user = repository.findById(id);
+        assertNotNull(user);
+
+        boolean deleted = user.delete();
+        assertTrue(deleted, "User should be deleted");
+
+        UserSchema deletedUser = repository.findById(id);
+        assertNull(deletedUser, "User should not be found after deletion");
+    }
+
+    @Test
+    @Order(5)
+    public void testFindByQuery() {
+        UserSchema user = new UserSchema();
+        user.username = "queryTest";
+        user.age = 25;
+        user.save();
+
+        List<UserSchema> results = repository.find(new Filter.Find().eq("username", "queryTest"));
+        assertFalse(results.isEmpty(), "Should find at least one user with username 'queryTest'");
+
+        for (UserSchema u : results) {
+            u.delete(); // Clean up
+        }
+    }
+
+    @Test
+    @Order(6)
+    public void testEmbedded() {
+        EmbeddedSchema entity = new EmbeddedSchema();
+        entity.single = "Hello World";
+        entity.embedded = new EmbeddedObject();
+        entity.embedded.child = "Child";
+        entity.embedded.foo = 12345;
+        entity.embedded.hello = true;
+
+        boolean saved = entity.save();
+        assertTrue(saved, "Entity should be saved");
+
+        EmbeddedSchema result = embeddedRepository.findById(entity.getId());
+        assertNotNull(result, "Entity should be found by ID");
+
+        assertEquals(entity.single, result.single, "Single field should match");
+        assertEquals(entity.embedded.child, result.embedded.child, "Child field should match");
+        assertEquals(entity.embedded.foo, result.embedded.foo, "Foo field  should match");
+        assertEquals(entity.embedded.hello, result.embedded.hello, "Hello field should match");
+
+        assertEquals(1, embeddedRepository.count(new Filter.Find().eq("embedded.foo", 12345)),
+                "Dotted paths must match embedded fields");
+    }
+
+    @Test
+    @Order(7)
+    public void testRichOperators() {
+        List<UserSchema> users = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            users.add(new UserSchema("ops_" + (i % 2 == 0 ? "even" : "odd") + "_" + i, i));
+        }
+        users.add(new UserSchema("ops%literal", 100));
+        repository.insertMany(users);
+
+        Filter.Find ops = new Filter.Find().startsWith("username", "ops");
+        assertEquals(4, repository.count(ops.copy().between("age", 2, 5)));
+        assertEquals(5, repository.count(ops.copy().gt("age", 2).lt("age", 8)));
+        assertEquals(8, repository.count(ops.copy().nin("age", List.of(0, 1, 100))));
+        assertEquals(2, repository.count(ops.copy().in("age", List.of(3L, 4.0))),
+                "Numbers must be compared by value");
+        assertEquals(5, repository.count(new Filter.Find().like("username", "ops!_even!_%")));
+        assertEquals(1, repository.count(new Filter.Find().startsWith("username", "ops%")));
+        assertEquals(5, repository.count(ops.copy().regex("username", "_odd_[0-9]$")));
+        assertEquals(0, repository.count(ops.copy().isNull("username")));
+
+        Filter.Find either = ops.copy().or(
+                new Filter.Find().lt("age", 2),
+                new Filter.Find().gt("age", 8).lt("age", 100));
+        assertEquals(3, repository.count(either));
+        assertEquals(8, repository.count(ops.copy().not(either)));
+
+        List<UserSchema> page = repository.find(ops.copy().sortDesc("age").skip(1).limit(3));
+        assertEquals(List.of(9, 8, 7), page.stream().map(user -> user.age).collect(Collectors.toList()));
+
+        repository.delete(ops);
+        assertEquals(0, repository.count(new Filter.Find().startsWith("username", "ops")));
+    }
+
+    @Test
+    @Order(8)
+    public void testIndexedLookups() {
+        assertTrue(provider.listIndexes("Users").contains("idx_Users_username"));
+
+        List<UserSchema> users = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            users.add(new UserSchema("idx_" + i, i));
+        }
+        repository.insertMany(users);
+
+        assertEquals(1, repository.count(new Filter.Find().eq("username", "idx_4")));
+        assertEquals(2, repository.count(new Filter.Find().in("username", List.of("idx_1", "idx_8", "none"))));
+        assertEquals(3, repository.count(new Filter.Find().gte("username", "idx_3").lt("username", "idx_6")));
+        assertEquals(0, repository.count(new Filter.Find().gt("username", 5)),
+                "Ranges must not match values of another type");
+
+        // Moving a row in the index must find it by its new value only
+        repository.updateByID(users.get(0).getId(), new Filter.Update().set("username", "idx_99"));
+        assertEquals(0, repository.count(new Filter.Find().eq("username", "idx_0")));
+        assertEquals(1, repository.count(new Filter.Find().gt("username", "idx_9")));
+
+        repository.delete(new Filter.Find().startsWith("username", "idx_"));
+        assertEquals(0, repository.count(new Filter.Find().gte("username", "idx_")));
+    }
+
+    @Test
+    @Order(9)
+    public void testUpdateOperators() {
+        UserSchema user = new UserSchema("operators", 10);
+        repository.insert(user);
+        String id = user.getId();
+
+        repository.updateByID(id, new Filter.Update().mul("age", 3));
+        assertEquals(30, repository.findById(id).age);
+        repository.updateByID(id, new Filter.Update().inc("age", -5));
+        assertEquals(25, repository.findById(id).age);
+        repository.updateByID(id, new Filter.Update().min("age", 20));
+        assertEquals(20, repository.findById(id).age);
+        repository.updateByID(id, new Filter.Update().max("age", 40));
+        assertEquals(40, repository.findById(id).age);
+
+        repository.updateByID(id, new Filter.Update().currentDate("username"));
+        Instant written = Filter.Update.CURRENT_DATE_FORMAT.parse(repository.findById(id).username, Instant::from);
+        assertTrue(Math.abs(written.getEpochSecond() - Instant.now().getEpochSecond()) < 60,
+                "currentDate must write the UTC time");
+
+        repository.updateByID(id, new Filter.Update().unset("username"));
+        assertEquals(1, repository.count(new Filter.Find().eq("age", 40).isNull("username")));
+
+        repository.deleteByID(id);
+    }
+
+    @Test
+    @Order(10)
+    public void testBulkWrite() {
+        UserSchema first = new UserSchema("bulk", 1);
+        UserSchema duplicate = new UserSchema("bulk", 2);
+        duplicate.id = first.getId();
+        UserSchema last = new UserSchema("bulk", 3);
+
+        BulkWriteResult ordered = repository.bulkWrite()
+                .insert(first)
+                .insert(duplicate)
+                .insert(last)
+                .execute();
+        assertFalse(ordered.isSuccessful());
+        assertEquals(BulkWriteResult.Status.APPLIED, ordered.getStatus(0));
+        assertEquals(BulkWriteResult.Status.FAILED, ordered.getStatus(1));
+        assertEquals(BulkWriteResult.Status.SKIPPED, ordered.getStatus(2), "Ordered writes stop at a failure");
+        assertEquals(1, repository.count(new Filter.Find().eq("username", "bulk")));
+
+        UserSchema other = new UserSchema("bulk", 4);
+        BulkWriteResult unordered = repository.bulkWrite()
+                .ordered(false)
+                .insert(duplicate)
+                .insert(last)
+                .updateByID(first.getId(), new Filter.Update().set("age", 10))
+                .insert(other)
+                .update(new Filter.Find().eq("username", "bulk").between("age", 3, 4), new Filter.Update().inc("age", 100))
+                .deleteByID("missing")
+                .execute();
+        assertEquals(List.of(0), unordered.getFailedIndexes(), "Unordered writes go on after a failure");
+        assertEquals(2, unordered.getInsertedCount());
+        assertEquals(10, repository.findById(first.getId()).age);
+        assertEquals(103, repository.findById(last.getId()).age);
+        assertEquals(104, repository.findById(other.getId()).age);
+
+        List<UserSchema> atomic = List.of(new UserSchema("bulk", 5), duplicate);
+        assertThrows(RuntimeException.class, () -> repository.insertMany(atomic));
+        assertEquals(3, repository.count(new Filter.Find().eq("username", "bulk")),
+                "A failed write must be rolled back entirely");
+
+        repository.delete(new Filter.Find().eq("username", "bulk"));
+        assertEquals(0, repository.count(new Filter.Find().eq("username", "bulk")));
+    }
+
+    @Test
+    @Order(11)
+    public void testConcurrentReadersAndWriters() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int writer = 0; writer < 4; writer++) {
+                int offset = writer * 250;
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < 250; i++) {
+                        repository.insert(new UserSchema("concurrent", offset + i));
+                    }
+                }));
+            }
+            for (int reader = 0; reader < 4; reader++) {
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < 100; i++) {
+                        List<UserSchema> found = repository.find(new Filter.Find().eq("username", "concurrent")
+                                .gte("age", 0));
+                        for (UserSchema user : found) {
+                            assertEquals("concurrent", user.username, "Readers must not see partial writes");
+                        }
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        assertEquals(1000, repository.count(new Filter.Find().eq("username", "concurrent")));
+        assertEquals(1000, repository.update(new Filter.Find().eq("username", "concurrent"),
+                new Filter.Update().inc("age", 1)));
+        assertEquals(1, repository.count(new Filter.Find().eq("username", "concurrent").eq("age", 1000)));
+        assertEquals(1000, repository.delete(new Filter.Find().eq("username", "concurrent")));
+    }
+}
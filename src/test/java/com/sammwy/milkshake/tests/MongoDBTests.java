@@ -6,7 +6,21 @@ import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.time.Instant;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.bson.BsonDocument;
+import org.bson.BsonDocumentReader;
+import org.bson.BsonDocumentWriter;
+import org.bson.BsonInt32;
+import org.bson.BsonInt64;
+import org.bson.BsonString;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
 
 import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.BeforeAll;
@@ -19,9 +33,12 @@ import com.sammwy.milkshake.Provider;
 import com.sammwy.milkshake.ProviderInfo;
 import com.sammwy.milkshake.Repository;
 import com.sammwy.milkshake.providers.mongo.MongoProvider;
+import com.sammwy.milkshake.providers.mongo.SchemaBsonCodec;
+import com.sammwy.milkshake.providers.mongo.SchemaCodecProvider;
 import com.sammwy.milkshake.query.Filter;
 import com.sammwy.milkshake.schemas.EmbeddedObject;
 import com.sammwy.milkshake.schemas.EmbeddedSchema;
+import com.sammwy.milkshake.schemas.TrackedSchema;
 import com.sammwy.milkshake.schemas.UserSchema;
 
 @TestMethodOrder(MethodOrderer.OrderAnnotation.class)
@@ -135,4 +152,150 @@ public class MongoDBTests {
         assertEquals(entity.embedded.foo, result.embedded.foo, "Foo field should match");
         assertEquals(entity.embedded.hello, result.embedded.hello, "Hello field should match");
     }
+
+    @Test
+    @Order(7)
+    public void testUpdateOperators() {
+        UserSchema user = new UserSchema("operators", 10);
+        repository.insert(user);
+        String id = user.getId();
+
+        repository.updateByID(id, new Filter.Update().mul("age", 3));
+        assertEquals(30, repository.findById(id).age);
+        repository.updateByID(id, new Filter.Update().min("age", 20));
+        repository.updateByID(id, new Filter.Update().min("age", 25));
+        assertEquals(20, repository.findById(id).age);
+        repository.updateByID(id, new Filter.Update().max("age", 40));
+        assertEquals(40, repository.findById(id).age);
+
+        repository.updateByID(id, new Filter.Update().unset("username"));
+        assertNull(repository.findById(id).username);
+
+        // Written by the server as the same UTC text as on the other providers,
+        // not as a BSON date, along with the other operators of the update
+        repository.updateByID(id, new Filter.Update().currentDate("username").inc("age", 2));
+        UserSchema updated = repository.findById(id);
+        Instant written = Filter.Update.CURRENT_DATE_FORMAT.parse(updated.username, Instant::from);
+        assertTrue(Math.abs(written.getEpochSecond() - Instant.now().getEpochSecond()) < 60,
+                "currentDate must write the UTC time");
+        assertEquals(42, updated.age);
+
+        repository.deleteByID(id);
+    }
+
+    @Test
+    @Order(8)
+    public void testSchemaCodec() {
+        SchemaBsonCodec<TrackedSchema> codec = SchemaBsonCodec.of(TrackedSchema.class);
+        assertNotNull(codec, "Flat schemas must have a codec");
+
+        BsonDocument document = new BsonDocument("_id", new BsonString("codec-id"))
+                .append("name", new BsonString("decoded"))
+                .append("count", new BsonInt64(7))
+                .append("unknown", new BsonDocument("nested", new BsonString("skipped")));
+        TrackedSchema.ENCODED.set(0);
+        TrackedSchema decoded = codec.decode(new BsonDocumentReader(document), DecoderContext.builder().build());
+        assertEquals("codec-id", decoded.getId());
+        assertEquals("decoded", decoded.name);
+        assertEquals(7, decoded.count, "Numbers must be converted to the field type");
+        assertEquals(0, TrackedSchema.ENCODED.get(), "Decoding an entity must not encode it");
+        assertFalse(decoded.isDirty(), "Decoded entities must be clean");
+
+        decoded.count = 8;
+        assertEquals(Map.of("count", 8), decoded.getChanges());
+
+        BsonDocument encoded = new BsonDocument();
+        TrackedSchema.ENCODED.set(0);
+        codec.encode(new BsonDocumentWriter(encoded), decoded, EncoderContext.builder().build());
+        assertEquals(0, TrackedSchema.ENCODED.get(), "Encoding an entity must not go through its map");
+        assertEquals(new BsonString("codec-id"), encoded.get("_id"));
+        assertEquals(new BsonString("decoded"), encoded.get("name"));
+        assertEquals(new BsonInt32(8), encoded.get("count"));
+
+        TrackedSchema copy = codec.decode(new BsonDocumentReader(encoded), DecoderContext.builder().build());
+        assertEquals(decoded.getId(), copy.getId());
+        assertEquals(8, copy.count);
+    }
+
+    @Test
+    @Order(9)
+    public void testSchemaCodecRoundTrip() {
+        assertTrue(SchemaCodecProvider.supports(UserSchema.class));
+        List<UserSchema> users = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            users.add(new UserSchema("codec", i));
+        }
+        assertEquals(5, repository.insertMany(users));
+        assertFalse(users.get(0).isDirty(), "Written entities must be clean");
+
+        UserSchema upserted = users.get(4);
+        upserted.age = 4;
+        assertTrue(repository.upsert(upserted));
+        assertFalse(upserted.isDirty());
+
+        Filter.Find filter = new Filter.Find().eq("username", "codec").sortAsc("age");
+        List<UserSchema> found = repository.find(filter);
+        assertEquals(5, found.size());
+        for (int i = 0; i < found.size(); i++) {
+            assertEquals(users.get(i).getId(), found.get(i).getId());
+            assertEquals("codec", found.get(i).username);
+            assertEquals(i, found.get(i).age);
+            assertFalse(found.get(i).isDirty(), "Decoded entities must be clean");
+        }
+
+        found.get(0).age = 100;
+        assertTrue(found.get(0).save());
+        assertEquals(100, repository.findById(users.get(0).getId()).age);
+
+        // Fetched two at a time through the typed cursor
+        try (Stream<UserSchema> stream = repository.stream(filter, 2)) {
+            assertEquals(List.of(1, 2, 3, 4, 100), stream.map(user -> user.age).collect(Collectors.toList()));
+        }
+
+        assertEquals(5, repository.delete(new Filter.Find().eq("username", "codec")));
+    }
+
+    @Test
+    @Order(10)
+    public void testSchemaCodecFallback() {
+        assertFalse(SchemaCodecProvider.supports(EmbeddedSchema.class), "Embedded schemas have no codec");
+        assertNull(SchemaBsonCodec.of(EmbeddedSchema.class));
+
+        EmbeddedSchema entity = new EmbeddedSchema();
+        entity.single = "fallback";
+        entity.embedded = new EmbeddedObject();
+        entity.embedded.child = "Child";
+        entity.embedded.foo = 42;
+        embeddedRepository.insert(entity);
+
+        // Read through documents and Schema.fromMap instead
+        Filter.Find filter = new Filter.Find().eq("single", "fallback");
+        List<EmbeddedSchema> found = embeddedRepository.find(filter);
+        assertEquals(1, found.size());
+        assertEquals("Child", found.get(0).embedded.child);
+        assertEquals(42, found.get(0).embedded.foo);
+
+        try (Stream<EmbeddedSchema> stream = embeddedRepository.stream(filter)) {
+            assertEquals(List.of(entity.getId()), stream.map(EmbeddedSchema::getId).collect(Collectors.toList()));
+        }
+
+        embeddedRepository.delete(filter);
+    }
+
+    @Test
+    @Order(11)
+    public void testNullFilter() {
+        UserSchema user = new UserSchema("unfiltered", 1);
+        repository.insert(user);
+
+        // A null filter matches every document, as on the other providers
+        assertTrue(repository.find(null).stream().anyMatch(found -> found.getId().equals(user.getId())));
+        assertNotNull(repository.findOne(null));
+        try (Stream<UserSchema> stream = repository.stream(null)) {
+            assertTrue(stream.anyMatch(found -> found.getId().equals(user.getId())));
+        }
+        assertNotNull(embeddedRepository.find(null), "Schemas without a codec must accept it too");
+
+        repository.deleteByID(user.getId());
+    }
 }
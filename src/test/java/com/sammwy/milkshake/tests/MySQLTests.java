@@ -6,6 +6,7 @@ import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.time.Instant;
 import java.util.List;
 
 import org.junit.jupiter.api.AfterAll;
@@ -135,4 +136,45 @@ public class MySQLTests {
         assertEquals(entity.embedded.foo, result.embedded.foo, "Foo field  should match");
         assertEquals(entity.embedded.hello, result.embedded.hello, "Hello field should match");
     }
+
+    @Test
+    @Order(7)
+    public void testUpdateOperators() {
+        UserSchema user = new UserSchema("operators", 10);
+        repository.insert(user);
+        String id = user.getId();
+
+        repository.updateByID(id, new Filter.Update().inc("age", 5));
+        assertEquals(15, repository.findById(id).age);
+        repository.updateByID(id, new Filter.Update().mul("age", 2));
+        assertEquals(30, repository.findById(id).age);
+        repository.updateByID(id, new Filter.Update().min("age", 20));
+        repository.updateByID(id, new Filter.Update().min("age", 25));
+        assertEquals(20, repository.findById(id).age);
+        repository.updateByID(id, new Filter.Update().max("age", 40));
+        repository.updateByID(id, new Filter.Update().max("age", 35));
+        assertEquals(40, repository.findById(id).age);
+
+        // JSON array operators, on a text column holding a JSON array. MySQL
+        // writes JSON arrays with a space after every comma.
+        repository.updateByID(id, new Filter.Update().unset("username"));
+        assertNull(repository.findById(id).username);
+        repository.updateByID(id, new Filter.Update().push("username", "a"));
+        assertEquals("[\"a\"]", repository.findById(id).username, "Pushing to NULL must create the array");
+        repository.updateByID(id, new Filter.Update().addToSet("username", "a"));
+        repository.updateByID(id, new Filter.Update().addToSet("username", "b"));
+        assertEquals("[\"a\", \"b\"]", repository.findById(id).username);
+        repository.updateByID(id, new Filter.Update().push("username", "a"));
+        repository.updateByID(id, new Filter.Update().pull("username", "a"));
+        assertEquals("[\"b\"]", repository.findById(id).username, "Pulling must remove every occurrence");
+        repository.updateByID(id, new Filter.Update().pull("username", "b"));
+        assertEquals("[]", repository.findById(id).username, "Pulling the last item must leave an empty array");
+
+        repository.updateByID(id, new Filter.Update().currentDate("username"));
+        Instant written = Filter.Update.CURRENT_DATE_FORMAT.parse(repository.findById(id).username, Instant::from);
+        assertTrue(Math.abs(written.getEpochSecond() - Instant.now().getEpochSecond()) < 60,
+                "currentDate must write the UTC time");
+
+        repository.deleteByID(id);
+    }
 }
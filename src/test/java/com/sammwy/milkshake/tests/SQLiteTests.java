@@ -4,10 +4,20 @@ import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.io.File;
+import java.time.Instant;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.BeforeAll;
@@ -16,16 +26,30 @@ import org.junit.jupiter.api.Order;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.TestMethodOrder;
 
-import com.sammwy.milkshake.Provider;
+import com.sammwy.milkshake.ProviderInfo;
+import com.sammwy.milkshake.ProviderInfo.Options;
 import com.sammwy.milkshake.Repository;
+import com.sammwy.milkshake.Session;
+import com.sammwy.milkshake.WriteBehindConfig;
+import com.sammwy.milkshake.WriteBehindQueue;
+import com.sammwy.milkshake.cache.CacheConfig;
 import com.sammwy.milkshake.providers.sql.SQLiteProvider;
+import com.sammwy.milkshake.query.BulkWriteResult;
+import com.sammwy.milkshake.codec.SchemaCodec;
+import com.sammwy.milkshake.codec.SchemaCodecs;
 import com.sammwy.milkshake.query.Filter;
+import com.sammwy.milkshake.query.Page;
+import com.sammwy.milkshake.schema.Schema;
+import com.sammwy.milkshake.schema.SchemaMetadata;
+import com.sammwy.milkshake.schema.UUIDv7Generator;
 import com.sammwy.milkshake.schemas.EmbeddedObject;
 import com.sammwy.milkshake.schemas.EmbeddedSchema;
+import com.sammwy.milkshake.schemas.TrackedSchema;
 import com.sammwy.milkshake.schemas.UserSchema;
 
 @TestMethodOrder(MethodOrderer.OrderAnnotation.class)
 public class SQLiteTests {
+    private static SQLiteProvider provider;
     private static Repository<UserSchema> repository;
     private static String id;
 
@@ -34,7 +58,7 @@ public class SQLiteTests {
     @BeforeAll
     public static void setup() {
         System.out.println("Setting up SQLiteProvider...");
-        Provider provider = new SQLiteProvider().open(new File("test.db"));
+        provider = new SQLiteProvider().open(new File("test.db"));
         repository = provider.addRepository(UserSchema.class);
         embeddedRepository = provider.addRepository(EmbeddedSchema.class);
     }
@@ -134,4 +158,737 @@ public class SQLiteTests {
         assertEquals(entity.embedded.foo, result.embedded.foo, "Foo field should match");
         assertEquals(entity.embedded.hello, result.embedded.hello, "Hello field should match");
     }
+
+    @Test
+    @Order(7)
+    public void testConcurrentAccess() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<Boolean>> futures = new ArrayList<>();
+        for (int i = 0; i < 64; i++) {
+            int age = i;
+            futures.add(executor.submit(() -> new UserSchema("concurrent", age).save()));
+        }
+
+        for (Future<Boolean> future : futures) {
+            assertTrue(future.get(), "Concurrent save should succeed");
+        }
+        executor.shutdown();
+
+        List<UserSchema> results = repository.find(new Filter.Find().eq("username", "concurrent"));
+        assertEquals(64, results.size(), "All concurrent saves should be persisted");
+        assertEquals(0, provider.getPoolStats().getActive(), "All connections should be released");
+
+        repository.delete(new Filter.Find().eq("username", "concurrent"));
+    }
+
+    @Test
+    @Order(8)
+    public void testStatementCache() {
+        UserSchema user = new UserSchema("cached", 40);
+        user.save();
+
+        repository.findById(user.getId());
+        long hits = provider.getStatementCacheStats().getHits();
+        repository.findById(user.getId());
+
+        assertTrue(provider.getStatementCacheStats().getHits() > hits, "Repeated query should reuse its statement");
+
+        try (Stream<UserSchema> stream = repository.stream(new Filter.Find().eq("username", "cached"))) {
+            assertEquals(1, stream.count());
+            assertTrue(provider.getStatementCacheStats().getCachedStatements() > 0,
+                    "Statements of borrowed connections must be counted");
+        }
+        user.delete();
+    }
+
+    @Test
+    @Order(9)
+    public void testQueryShapeReuse() {
+        new UserSchema("shapeA", 10).save();
+        new UserSchema("shapeB", 20).save();
+
+        List<UserSchema> first = repository.find(new Filter.Find().eq("username", "shapeA"));
+        List<UserSchema> second = repository.find(new Filter.Find().eq("username", "shapeB"));
+
+        assertEquals(1, first.size());
+        assertEquals(10, first.get(0).age, "Values must be bound per call, not cached with the shape");
+        assertEquals(1, second.size());
+        assertEquals(20, second.get(0).age, "Values must be bound per call, not cached with the shape");
+
+        repository.delete(new Filter.Find().in("username", List.of("shapeA", "shapeB")));
+    }
+
+    @Test
+    @Order(10)
+    public void testUpsertMany() {
+        List<UserSchema> users = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            users.add(new UserSchema("bulk" + i, i));
+        }
+        assertEquals(50, repository.upsertMany(users));
+
+        // Second pass updates the existing rows instead of inserting new ones
+        for (UserSchema user : users) {
+            user.age += 100;
+        }
+        assertEquals(50, repository.upsertMany(users));
+
+        List<UserSchema> found = repository.find(new Filter.Find().gt("age", 99));
+        assertEquals(50, found.size());
+
+        UserSchema single = users.get(0);
+        single.age = 7;
+        assertTrue(single.save());
+        assertEquals(7, repository.findById(single.getId()).age);
+
+        repository.delete(new Filter.Find().gt("age", 99));
+        single.delete();
+    }
+
+    @Test
+    @Order(11)
+    public void testProjection() {
+        UserSchema user = new UserSchema("projected", 42);
+        user.save();
+
+        UserSchema found = repository.findOne(new Filter.Find().eq("username", "projected").select("username"));
+        assertNotNull(found);
+        assertEquals(user.getId(), found.getId(), "The primary key must always be selected");
+        assertEquals("projected", found.username);
+        assertEquals(0, found.age, "Unselected fields must keep their defaults");
+
+        Filter.Find ages = new Filter.Find().eq("username", "projected").select("age");
+        List<UserSchema> list = repository.find(ages);
+        assertEquals(1, list.size());
+        assertEquals(42, list.get(0).age);
+        assertEquals("", list.get(0).username);
+        assertEquals(List.of("age"), new ArrayList<>(ages.getProjection()), "The caller's filter must not change");
+
+        user.delete();
+    }
+
+    @Test
+    @Order(12)
+    public void testSortLimitSkip() {
+        List<UserSchema> users = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            users.add(new UserSchema("sorted" + i, 200 + i));
+        }
+        repository.insertMany(users);
+
+        List<UserSchema> top = repository.find(new Filter.Find().gt("age", 199).sortDesc("age").limit(2));
+        assertEquals(2, top.size());
+        assertEquals(204, top.get(0).age);
+        assertEquals(203, top.get(1).age);
+
+        List<UserSchema> skipped = repository.find(new Filter.Find().gt("age", 199).sortAsc("age").skip(3));
+        assertEquals(2, skipped.size());
+        assertEquals(203, skipped.get(0).age);
+
+        repository.delete(new Filter.Find().gt("age", 199));
+    }
+
+    @Test
+    @Order(13)
+    public void testKeysetPagination() {
+        List<UserSchema> users = new ArrayList<>();
+        for (int i = 0; i < 7; i++) {
+            // Duplicate ages so the primary key has to break the ties
+            users.add(new UserSchema("paged" + i, 300 + i / 2));
+        }
+        repository.insertMany(users);
+
+        Filter.Find filter = new Filter.Find().gt("age", 299).sortDesc("age");
+        List<String> seen = new ArrayList<>();
+        String token = null;
+        int pages = 0;
+        do {
+            Page<UserSchema> page = repository.findPage(filter, 3, token);
+            for (UserSchema user : page.getItems()) {
+                assertFalse(seen.contains(user.getId()), "Pages must not overlap");
+                seen.add(user.getId());
+            }
+            token = page.getContinuationToken();
+            pages++;
+        } while (token != null);
+
+        assertEquals(7, seen.size());
+        assertEquals(3, pages);
+        assertNull(filter.getAfter(), "The given filter must not be modified");
+
+        repository.delete(new Filter.Find().gt("age", 299));
+    }
+
+    @Test
+    @Order(14)
+    public void testCountAndExists() {
+        List<UserSchema> users = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            users.add(new UserSchema("counted", 400 + i));
+        }
+        repository.insertMany(users);
+
+        assertEquals(4, repository.count(new Filter.Find().eq("username", "counted")));
+        assertEquals(2, repository.count(new Filter.Find().eq("username", "counted").gt("age", 401)));
+        assertTrue(repository.count(null) >= 4);
+        assertTrue(repository.exists(new Filter.Find().eq("username", "counted")));
+        assertFalse(repository.exists(new Filter.Find().eq("username", "missing")));
+
+        repository.delete(new Filter.Find().eq("username", "counted"));
+        assertEquals(0, repository.count(new Filter.Find().eq("username", "counted")));
+    }
+
+    @Test
+    @Order(15)
+    public void testIndexes() {
+        assertEquals(1, repository.getDeclaredIndexes().size());
+        assertEquals("idx_Users_username", repository.getDeclaredIndexes().get(0).getName());
+        assertTrue(provider.listIndexes("Users").contains("idx_Users_username"));
+        assertTrue(repository.getMissingIndexes().isEmpty());
+
+        // Initializing again must not fail on the existing table and indexes
+        assertTrue(provider.initialize(UserSchema.class, repository.getPrimaryKey()));
+    }
+
+    @Test
+    @Order(16)
+    public void testTimeOrderedIds() {
+        UUIDv7Generator generator = new UUIDv7Generator();
+        String previous = generator.generate();
+        for (int i = 0; i < 10000; i++) {
+            String next = generator.generate();
+            assertTrue(next.compareTo(previous) > 0, "IDs must be strictly increasing");
+            assertEquals('7', next.charAt(14), "IDs must be version 7 UUIDs");
+            previous = next;
+        }
+
+        UserSchema user = new UserSchema("lazy", 1);
+        assertNull(user.id, "IDs must only be generated when first read");
+        String id = user.getId();
+        assertNotNull(id);
+        assertEquals(id, user.getId());
+
+        assertTrue(user.save());
+        assertEquals(id, repository.findOne(new Filter.Find().eq("username", "lazy")).getId());
+        user.delete();
+    }
+
+    @Test
+    @Order(17)
+    public void testSchemaMetadata() {
+        SchemaMetadata metadata = SchemaMetadata.of(UserSchema.class);
+        assertTrue(metadata == repository.getMetadata(), "Metadata must be built once per class");
+        assertEquals("Users", metadata.getCollectionName());
+        assertEquals(repository.getPrimaryKey(), metadata.getPrimaryKey());
+        assertEquals(2, metadata.getProperties().size());
+
+        UserSchema user = new UserSchema("meta", 5);
+        SchemaMetadata.Property age = metadata.getProperties().get(1);
+        assertEquals("age", age.getName());
+        assertEquals(5, age.get(user));
+        age.set(user, 6);
+        assertEquals(6, user.age);
+
+        user.setId("fixed");
+        assertEquals("fixed", metadata.getId(user));
+    }
+
+    @Test
+    @Order(18)
+    public void testGeneratedCodec() {
+        SchemaCodec<UserSchema> codec = SchemaCodecs.get(UserSchema.class);
+        assertNotNull(codec, "A codec must be generated for UserSchema");
+        assertNull(SchemaCodecs.get(EmbeddedSchema.class), "Embedded schemas must fall back to reflection");
+
+        UserSchema user = new UserSchema("codec", 12);
+        Map<String, Object> data = user.toMap();
+        assertEquals(user.getId(), data.get(repository.getPrimaryKey()));
+        assertEquals("codec", data.get("username"));
+        assertEquals(12, data.get("age"));
+
+        data.put("age", 13L); // Drivers may return wider numeric types
+        UserSchema decoded = Schema.fromMap(UserSchema.class, data);
+        assertEquals(user.getId(), decoded.getId());
+        assertEquals(13, decoded.age);
+
+        assertTrue(user.save());
+        assertEquals(12, repository.findById(user.getId()).age);
+        user.delete();
+    }
+
+    @Test
+    @Order(19)
+    public void testTypedRowMapping() {
+        UserSchema user = new UserSchema("mapped", 77);
+        user.save();
+
+        Filter.Find filter = new Filter.Find().eq("username", "mapped");
+        List<UserSchema> typed = provider.find("Users", filter, UserSchema.class);
+        List<Map<String, Object>> untyped = provider.find("Users", filter);
+        assertEquals(1, typed.size());
+        assertEquals(1, untyped.size());
+        assertEquals(user.getId(), typed.get(0).getId());
+        assertEquals("mapped", typed.get(0).username);
+        assertEquals(77, typed.get(0).age);
+        assertEquals(untyped.get(0).get("username"), typed.get(0).username);
+
+        assertNull(provider.findOne("Users", new Filter.Find().eq("username", "unmapped"), UserSchema.class));
+        user.delete();
+    }
+
+    @Test
+    @Order(20)
+    public void testStream() {
+        List<UserSchema> users = new ArrayList<>();
+        for (int i = 0; i < 25; i++) {
+            users.add(new UserSchema("streamed", i));
+        }
+        repository.insertMany(users);
+
+        Filter.Find filter = new Filter.Find().eq("username", "streamed").sortAsc("age");
+        try (Stream<UserSchema> stream = repository.stream(filter, 10)) {
+            List<Integer> ages = stream.map(user -> user.age).collect(Collectors.toList());
+            assertEquals(25, ages.size());
+            assertEquals(0, (int) ages.get(0));
+            assertEquals(24, (int) ages.get(24));
+        }
+        assertEquals(0, provider.getPoolStats().getActive(), "Consumed streams must release their connection");
+
+        try (Stream<UserSchema> stream = repository.stream(filter)) {
+            assertEquals(0, stream.findFirst().get().age);
+        }
+        assertEquals(0, provider.getPoolStats().getActive(), "Closed streams must release their connection");
+
+        repository.delete(new Filter.Find().eq("username", "streamed"));
+    }
+
+    @Test
+    @Order(21)
+    public void testEntityCache() {
+        repository.enableCache(new CacheConfig().maxEntries(2));
+        try {
+            UserSchema user = new UserSchema("cached", 1);
+            user.save();
+
+            assertEquals(1, repository.findById(user.getId()).age);
+            UserSchema first = repository.findById(user.getId());
+            UserSchema second = repository.findById(user.getId());
+            assertEquals(2, repository.getCacheStats().getHits());
+            assertTrue(first != second, "Cache hits must return distinct entities");
+
+            first.age = 50; // Unsaved changes must not leak into the cache
+            assertEquals(1, repository.findById(user.getId()).age);
+
+            repository.updateByID(user.getId(), new Filter.Update().set("age", 2));
+            assertEquals(2, repository.findById(user.getId()).age);
+
+            user.age = 3;
+            user.save();
+            assertEquals(3, repository.findById(user.getId()).age);
+
+            repository.update(new Filter.Find().eq("username", "cached"), new Filter.Update().set("age", 4));
+            assertEquals(4, repository.findById(user.getId()).age);
+
+            UserSchema other = new UserSchema("cached", 5);
+            UserSchema third = new UserSchema("cached", 6);
+            repository.insertMany(List.of(other, third));
+            repository.findById(other.getId());
+            repository.findById(third.getId());
+            assertEquals(2, repository.getCacheStats().getSize());
+            assertTrue(repository.getCacheStats().getEvictions() > 0);
+
+            user.delete();
+            assertNull(repository.findById(user.getId()));
+            repository.delete(new Filter.Find().eq("username", "cached"));
+            assertNull(repository.findById(other.getId()));
+        } finally {
+            repository.disableCache();
+        }
+        assertNull(repository.getCacheStats());
+    }
+
+    @Test
+    @Order(22)
+    public void testQueryCache() {
+        provider.enableQueryCache(new CacheConfig().maxEntries(16));
+        try {
+            repository.insertMany(List.of(new UserSchema("admin", 1), new UserSchema("admin", 2)));
+
+            assertEquals(2, repository.find(new Filter.Find().eq("username", "admin").gt("age", 0)).size());
+            // Same criteria in another order share the cached result
+            assertEquals(2, repository.find(new Filter.Find().gt("age", 0L).eq("username", "admin")).size());
+            assertEquals(1, provider.getQueryCache().getStats().getHits());
+
+            repository.insert(new UserSchema("admin", 3));
+            assertEquals(3, repository.find(new Filter.Find().eq("username", "admin").gt("age", 0)).size());
+
+            assertNotNull(repository.findOne(new Filter.Find().eq("username", "admin")));
+            repository.delete(new Filter.Find().eq("username", "admin"));
+            assertNull(repository.findOne(new Filter.Find().eq("username", "admin")));
+        } finally {
+            provider.disableQueryCache();
+        }
+        assertNull(provider.getQueryCache());
+    }
+
+    @Test
+    @Order(23)
+    public void testSession() {
+        UserSchema stored = new UserSchema("session", 1);
+        stored.save();
+
+        try (Session session = new Session(provider)) {
+            UserSchema first = session.findById(UserSchema.class, stored.getId());
+            UserSchema second = session.findById(UserSchema.class, stored.getId());
+            assertTrue(first == second, "A session must return the same instance for an ID");
+            assertTrue(first == session.find(UserSchema.class, new Filter.Find().eq("username", "session")).get(0));
+
+            first.age = 2;
+            session.save(first);
+            UserSchema created = new UserSchema("session", 3);
+            session.save(created);
+            assertEquals(1, repository.findById(stored.getId()).age, "Writes must wait for the commit");
+
+            session.commit();
+            assertFalse(session.hasPendingWrites());
+            assertEquals(2, repository.findById(stored.getId()).age);
+            assertNotNull(repository.findById(created.getId()));
+
+            session.delete(first);
+            session.delete(created);
+            session.commit();
+        }
+
+        assertEquals(0, repository.count(new Filter.Find().eq("username", "session")));
+    }
+
+    @Test
+    @Order(24)
+    public void testDirtyTracking() {
+        UserSchema created = new UserSchema("dirty", 1);
+        assertTrue(created.isDirty(), "New entities must be written whole");
+        created.save();
+        assertFalse(created.isDirty());
+
+        UserSchema loaded = repository.findById(created.getId());
+        assertFalse(loaded.isDirty());
+
+        // Written behind the back of the loaded entity
+        repository.updateByID(loaded.getId(), new Filter.Update().set("age", 9));
+
+        assertTrue(loaded.save(), "Saving an unchanged entity must succeed");
+        assertEquals(9, repository.findById(loaded.getId()).age, "Unchanged entities must not be written");
+
+        loaded.username = "dirtier";
+        assertEquals(Map.of("username", "dirtier"), loaded.getChanges());
+        assertTrue(loaded.save());
+        assertFalse(loaded.isDirty());
+
+        UserSchema reloaded = repository.findById(loaded.getId());
+        assertEquals("dirtier", reloaded.username);
+        assertEquals(9, reloaded.age, "Only the changed fields must be written");
+
+        repository.deleteByID(loaded.getId());
+        loaded.username = "recreated";
+        assertTrue(loaded.save(), "Entities whose row is gone must be upserted whole");
+        assertEquals("recreated", repository.findById(loaded.getId()).username);
+        loaded.delete();
+    }
+
+    @Test
+    @Order(25)
+    public void testWriteBehind() {
+        repository.enableWriteBehind(new WriteBehindConfig()
+                .batchSize(1000)
+                .flushInterval(1, TimeUnit.HOURS)
+                .flushOnShutdown(false));
+        try {
+            UserSchema user = new UserSchema("behind", 0);
+            for (int i = 1; i <= 10; i++) {
+                user.age = i;
+                assertTrue(user.save());
+            }
+
+            WriteBehindQueue<UserSchema> queue = repository.getWriteBehind();
+            assertEquals(1, queue.getPendingCount(), "Saves of the same entity must be coalesced");
+            assertEquals(9, queue.getCoalescedCount());
+            assertNull(repository.findById(user.getId()), "Saves must wait for the flush");
+
+            queue.flush();
+            assertEquals(0, queue.getPendingCount());
+            assertEquals(1, queue.getWrittenCount());
+            assertEquals(10, repository.findById(user.getId()).age);
+
+            user.age = 11;
+            user.save();
+            user.delete();
+            assertEquals(0, queue.getPendingCount(), "Deletes must drop the pending write");
+
+            UserSchema last = new UserSchema("behind", 12);
+            last.save();
+        } finally {
+            repository.disableWriteBehind();
+        }
+
+        assertNull(repository.getWriteBehind());
+        assertEquals(1, repository.count(new Filter.Find().eq("username", "behind")),
+                "Disabling write-behind must flush the pending writes");
+        repository.delete(new Filter.Find().eq("username", "behind"));
+    }
+
+    @Test
+    @Order(26)
+    public void testRichOperators() {
+        List<UserSchema> users = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            users.add(new UserSchema("ops_" + (i % 2 == 0 ? "even" : "odd") + "_" + i, i));
+        }
+        users.add(new UserSchema("ops%literal", 100));
+        repository.insertMany(users);
+
+        Filter.Find ops = new Filter.Find().startsWith("username", "ops");
+        assertEquals(4, repository.count(ops.copy().gte("age", 2).lte("age", 5)),
+                "Conditions on the same field must be combined");
+        assertEquals(4, repository.count(ops.copy().between("age", 2, 5)));
+        assertEquals(5, repository.count(ops.copy().gt("age", 2).lt("age", 8)));
+        assertEquals(8, repository.count(ops.copy().nin("age", List.of(0, 1, 100))));
+        assertEquals(5, repository.count(new Filter.Find().like("username", "ops!_even!_%")));
+        assertEquals(1, repository.count(new Filter.Find().startsWith("username", "ops%")),
+                "Wildcards in a prefix must be matched literally");
+        assertEquals(5, repository.count(ops.copy().regex("username", "_odd_[0-9]$")));
+        assertEquals(11, repository.count(ops.copy().exists("username")));
+        assertEquals(0, repository.count(ops.copy().isNull("username")));
+
+        Filter.Find either = ops.copy().or(
+                new Filter.Find().lt("age", 2),
+                new Filter.Find().gt("age", 8).lt("age", 100));
+        assertEquals(3, repository.count(either));
+        assertEquals(8, repository.count(ops.copy().not(either)));
+        assertEquals(1, repository.count(ops.copy()
+                .or(new Filter.Find().eq("age", 1), new Filter.Find().eq("age", 2))
+                .or(new Filter.Find().eq("age", 2), new Filter.Find().eq("age", 3))),
+                "Repeated groups must all apply");
+        assertEquals(2, repository.count(ops.copy().and(
+                new Filter.Find().gte("age", 4), new Filter.Find().lt("age", 6))));
+
+        repository.delete(ops);
+        assertEquals(0, repository.count(new Filter.Find().startsWith("username", "ops")));
+    }
+
+    @Test
+    @Order(27)
+    public void testUpdateOperators() {
+        UserSchema user = new UserSchema("operators", 10);
+        repository.insert(user);
+        String id = user.getId();
+
+        repository.updateByID(id, new Filter.Update().mul("age", 3));
+        assertEquals(30, repository.findById(id).age);
+        repository.updateByID(id, new Filter.Update().min("age", 20));
+        repository.updateByID(id, new Filter.Update().min("age", 25));
+        assertEquals(20, repository.findById(id).age);
+        repository.updateByID(id, new Filter.Update().max("age", 40));
+        assertEquals(40, repository.findById(id).age);
+
+        // JSON array operators, on a text column holding a JSON array
+        repository.updateByID(id, new Filter.Update().unset("username"));
+        assertNull(repository.findById(id).username);
+        repository.updateByID(id, new Filter.Update().push("username", "a"));
+        assertEquals("[\"a\"]", repository.findById(id).username, "Pushing to NULL must create the array");
+        repository.updateByID(id, new Filter.Update().addToSet("username", "a"));
+        repository.updateByID(id, new Filter.Update().addToSet("username", "b"));
+        assertEquals("[\"a\",\"b\"]", repository.findById(id).username);
+        repository.updateByID(id, new Filter.Update().push("username", "a"));
+        repository.updateByID(id, new Filter.Update().pull("username", "a"));
+        assertEquals("[\"b\"]", repository.findById(id).username);
+
+        repository.updateByID(id, new Filter.Update().currentDate("username"));
+        Instant written = Filter.Update.CURRENT_DATE_FORMAT.parse(repository.findById(id).username, Instant::from);
+        assertTrue(Math.abs(written.getEpochSecond() - Instant.now().getEpochSecond()) < 60,
+                "currentDate must write the UTC time");
+
+        repository.deleteByID(id);
+    }
+
+    @Test
+    @Order(28)
+    public void testBulkWrite() {
+        UserSchema first = new UserSchema("bulk", 1);
+        UserSchema duplicate = new UserSchema("bulk", 2);
+        duplicate.id = first.getId();
+        UserSchema last = new UserSchema("bulk", 3);
+
+        BulkWriteResult ordered = repository.bulkWrite()
+                .insert(first)
+                .insert(duplicate)
+                .insert(last)
+                .execute();
+        assertFalse(ordered.isSuccessful());
+        assertEquals(BulkWriteResult.Status.APPLIED, ordered.getStatus(0));
+        assertEquals(BulkWriteResult.Status.FAILED, ordered.getStatus(1));
+        assertNotNull(ordered.getError(1));
+        assertEquals(BulkWriteResult.Status.SKIPPED, ordered.getStatus(2), "Ordered writes stop at a failure");
+        assertEquals(1, repository.count(new Filter.Find().eq("username", "bulk")));
+        assertFalse(first.isDirty());
+
+        UserSchema other = new UserSchema("bulk", 4);
+        BulkWriteResult unordered = repository.bulkWrite()
+                .ordered(false)
+                .insert(duplicate)
+                .insert(last)
+                .updateByID(first.getId(), new Filter.Update().set("age", 10))
+                .insert(other)
+                .update(new Filter.Find().eq("username", "bulk").between("age", 3, 4), new Filter.Update().inc("age", 100))
+                .deleteByID("missing")
+                .execute();
+        assertEquals(List.of(0), unordered.getFailedIndexes(), "Unordered writes go on after a failure");
+        assertEquals(2, unordered.getInsertedCount());
+        assertEquals(1, unordered.getCount(2));
+        assertEquals(0, unordered.getCount(5));
+        assertEquals(10, repository.findById(first.getId()).age);
+        assertEquals(103, repository.findById(last.getId()).age);
+        assertEquals(104, repository.findById(other.getId()).age);
+
+        BulkWriteResult deletes = repository.bulkWrite()
+                .deleteByID(first.getId())
+                .delete(new Filter.Find().eq("username", "bulk"))
+                .execute();
+        assertTrue(deletes.isSuccessful());
+        assertEquals(3, deletes.getDeletedCount());
+        assertEquals(0, repository.count(new Filter.Find().eq("username", "bulk")));
+    }
+
+    @Test
+    @Order(29)
+    public void testLoadedEntitiesAreNotEncoded() {
+        Repository<TrackedSchema> tracked = provider.addRepository(TrackedSchema.class);
+        TrackedSchema created = new TrackedSchema("loaded", 1);
+        tracked.insert(created);
+
+        TrackedSchema.ENCODED.set(0);
+        TrackedSchema loaded = tracked.findById(created.getId());
+        TrackedSchema streamed = tracked.find(new Filter.Find().eq("name", "loaded")).get(0);
+        assertEquals(0, TrackedSchema.ENCODED.get(), "Loading an entity must not encode it again");
+
+        assertFalse(loaded.isDirty(), "Loaded entities must be clean");
+
+        // Changed before the snapshot is first encoded
+        streamed.count = 2;
+        assertEquals(Map.of("count", 2), streamed.getChanges());
+        assertTrue(streamed.save());
+        assertFalse(streamed.isDirty());
+        assertEquals(2, tracked.findById(created.getId()).count);
+
+        tracked.deleteByID(created.getId());
+    }
+
+    @Test
+    @Order(30)
+    public void testWriteBehindDeletes() {
+        repository.enableWriteBehind(new WriteBehindConfig()
+                .batchSize(1000)
+                .flushInterval(1, TimeUnit.HOURS)
+                .flushOnShutdown(false));
+        try {
+            WriteBehindQueue<UserSchema> queue = repository.getWriteBehind();
+            UserSchema filtered = new UserSchema("behind_delete", 1);
+            filtered.save();
+            assertEquals(1, repository.delete(new Filter.Find().eq("username", "behind_delete")),
+                    "Deletes by filter must write the pending entities first");
+            assertEquals(0, queue.getPendingCount());
+
+            UserSchema sessionDeleted = new UserSchema("behind_session", 2);
+            sessionDeleted.save();
+            try (Session session = new Session(provider)) {
+                session.delete(sessionDeleted);
+                session.commit();
+            }
+            assertEquals(0, queue.getPendingCount(), "Session deletes must drop the pending write");
+
+            UserSchema bulkDeleted = new UserSchema("behind_bulk", 3);
+            bulkDeleted.save();
+            repository.bulkWrite().deleteByID(bulkDeleted.getId()).execute();
+            assertEquals(0, queue.getPendingCount(), "Bulk deletes must drop the pending write");
+
+            queue.flush();
+            assertNull(repository.findById(filtered.getId()), "A flush must not restore a deleted entity");
+            assertNull(repository.findById(sessionDeleted.getId()));
+            assertNull(repository.findById(bulkDeleted.getId()));
+        } finally {
+            repository.disableWriteBehind();
+        }
+    }
+
+    @Test
+    @Order(31)
+    public void testOptionRange() {
+        ProviderInfo info = new ProviderInfo(null, null, "test.db");
+        info.option(Options.FETCH_SIZE, Integer.MAX_VALUE + 1L);
+        assertThrows(IllegalArgumentException.class, () -> info.getOptionInt(Options.FETCH_SIZE, 0),
+                "Values out of the int range must not wrap around");
+        assertEquals(Integer.MAX_VALUE + 1L, info.getOptionLong(Options.FETCH_SIZE, 0));
+    }
+
+    @Test
+    @Order(32)
+    public void testSessionCommitIsAtomic() {
+        Repository<TrackedSchema> tracked = provider.addRepository(TrackedSchema.class);
+        TrackedSchema taken = new TrackedSchema("taken", 1);
+        tracked.insert(taken);
+
+        try (Session session = new Session(provider)) {
+            UserSchema user = new UserSchema("atomic", 1);
+            session.save(user);
+            TrackedSchema duplicate = new TrackedSchema("taken", 2);
+            session.save(duplicate);
+
+            assertThrows(RuntimeException.class, session::commit);
+            assertEquals(0, repository.count(new Filter.Find().eq("username", "atomic")),
+                    "A failed commit must not write anything");
+            assertEquals(1, tracked.count(new Filter.Find().eq("name", "taken")));
+            assertTrue(session.hasPendingWrites(), "A failed commit must keep the recorded writes");
+
+            duplicate.name = "free";
+            assertEquals(2, session.commit());
+            assertFalse(session.hasPendingWrites());
+            assertNotNull(repository.findById(user.getId()));
+
+            session.delete(user);
+            session.delete(duplicate);
+            session.commit();
+        }
+        tracked.deleteByID(taken.getId());
+    }
+
+    @Test
+    @Order(33)
+    public void testKeysetPaginationOverNulls() {
+        List<UserSchema> users = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            UserSchema user = new UserSchema("nullable" + i, 900 + i);
+            if (i % 2 == 0) {
+                user.username = null;
+            }
+            users.add(user);
+        }
+        repository.insertMany(users);
+
+        for (Filter.Find filter : List.of(new Filter.Find().gt("age", 899).sortAsc("username"),
+                new Filter.Find().gt("age", 899).sortDesc("username"))) {
+            List<String> seen = new ArrayList<>();
+            String token = null;
+            do {
+                // Pages of two end on a NULL sort value
+                Page<UserSchema> page = repository.findPage(filter, 2, token);
+                for (UserSchema user : page.getItems()) {
+                    assertFalse(seen.contains(user.getId()), "Pages must not overlap");
+                    seen.add(user.getId());
+                }
+                token = page.getContinuationToken();
+            } while (token != null);
+            assertEquals(6, seen.size(), "NULL sort values must not end the pagination");
+        }
+
+        repository.delete(new Filter.Find().gt("age", 899));
+    }
 }